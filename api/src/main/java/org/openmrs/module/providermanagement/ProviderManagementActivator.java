@@ -16,7 +16,14 @@ package org.openmrs.module.providermanagement;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
 import org.openmrs.module.ModuleActivator;
+import org.openmrs.module.providermanagement.api.ProviderManagementService;
+import org.openmrs.module.providermanagement.cache.PersonProviderCache;
+import org.openmrs.module.providermanagement.cache.ProviderNameIndex;
+import org.openmrs.module.providermanagement.cache.ProviderSearchCache;
+import org.openmrs.module.providermanagement.task.BuildProviderManagementTablesTask;
+import org.openmrs.module.providermanagement.task.BuildTablesGlobalPropertyListener;
 
 /**
  * This class contains the logic that is run every time this module is either started or stopped.
@@ -24,6 +31,8 @@ import org.openmrs.module.ModuleActivator;
 public class ProviderManagementActivator implements ModuleActivator {
 	
 	protected Log log = LogFactory.getLog(getClass());
+
+	private final BuildTablesGlobalPropertyListener buildTablesListener = new BuildTablesGlobalPropertyListener();
 		
 	/**
 	 * @see ModuleActivator#willRefreshContext()
@@ -50,14 +59,107 @@ public class ProviderManagementActivator implements ModuleActivator {
 	 * @see ModuleActivator#started()
 	 */
 	public void started() {
+
+		// warm up the provider role catalog; if this fails, the catalog will simply be built on first use
+		runWithApiPrivilege("Unable to build provider role catalog at startup", new Runnable() {
+			public void run() {
+				Context.getService(ProviderManagementService.class).refreshProviderRoleCatalog();
+			}
+		});
+
+		// size the person provider cache
+		try {
+			Integer cacheSize = ProviderManagementGlobalProperties.GLOBAL_PROPERTY_PERSON_PROVIDER_CACHE_SIZE();
+			if (cacheSize != null && cacheSize > 0) {
+				for (PersonProviderCache cache : Context.getRegisteredComponents(PersonProviderCache.class)) {
+					cache.setMaxSize(cacheSize);
+				}
+			}
+		}
+		catch (Exception e) {
+			log.warn("Unable to size person provider cache", e);
+		}
+
+		// set how long provider search results are cached for
+		try {
+			Integer timeToLive = ProviderManagementGlobalProperties.GLOBAL_PROPERTY_PROVIDER_SEARCH_CACHE_TIME_TO_LIVE();
+			if (timeToLive != null && timeToLive >= 0) {
+				for (ProviderSearchCache cache : Context.getRegisteredComponents(ProviderSearchCache.class)) {
+					cache.setTimeToLive(timeToLive * 1000L);
+				}
+			}
+		}
+		catch (Exception e) {
+			log.warn("Unable to configure provider search cache", e);
+		}
+
+		// build the person name keys used to find similar people, the person address tokens used to match addresses in
+		// the provider search, and the module's other tables, in the background rather than holding up the start of the module;
+		// and build the optional tables again whenever they are turned on
+		Context.getAdministrationService().addGlobalPropertyListener(buildTablesListener);
+		try {
+			BuildProviderManagementTablesTask.scheduleNow();
+		}
+		catch (Exception e) {
+			log.warn("Unable to schedule building of provider management tables", e);
+		}
+
+		// enable (and build) the provider name index if configured to, and listen for the global property being toggled
+		for (final ProviderNameIndex index : Context.getRegisteredComponents(ProviderNameIndex.class)) {
+			Context.getAdministrationService().addGlobalPropertyListener(index);
+			// if this fails, the index will be built on first use instead
+			runWithApiPrivilege("Unable to build provider name index at startup", new Runnable() {
+				public void run() {
+					Boolean enabled = ProviderManagementGlobalProperties.GLOBAL_PROPERTY_PROVIDER_NAME_INDEX_ENABLED();
+					index.setEnabled(enabled != null && enabled);
+					if (index.isEnabled()) {
+						Context.getService(ProviderManagementService.class).rebuildProviderNameIndex();
+					}
+				}
+			});
+		}
+
 		log.info("Provider Management Module started");
 	}
 	
+	/**
+	 * Runs a step of starting the module with the module's API privilege, logging (rather than failing the start of the
+	 * module) if it fails
+	 */
+	private void runWithApiPrivilege(String failureMessage, Runnable step) {
+		try {
+			Context.addProxyPrivilege(ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE);
+			step.run();
+		}
+		catch (Exception e) {
+			log.warn(failureMessage, e);
+		}
+		finally {
+			Context.removeProxyPrivilege(ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE);
+		}
+	}
+
 	/**
 	 * @see ModuleActivator#willStop()
 	 */
 	public void willStop() {
 		log.info("Stopping Provider Management Module");
+
+		// report the cache statistics, to help with sizing the cache
+		for (PersonProviderCache cache : Context.getRegisteredComponents(PersonProviderCache.class)) {
+			log.info("Person provider cache statistics: " + cache);
+		}
+
+		for (ProviderSearchCache cache : Context.getRegisteredComponents(ProviderSearchCache.class)) {
+			log.info("Provider search cache statistics: " + cache);
+		}
+
+		Context.getAdministrationService().removeGlobalPropertyListener(buildTablesListener);
+
+		for (ProviderNameIndex index : Context.getRegisteredComponents(ProviderNameIndex.class)) {
+			Context.getAdministrationService().removeGlobalPropertyListener(index);
+			log.info("Provider name index: " + index);
+		}
 	}
 	
 	/**
@@ -34,6 +34,8 @@ public class ProviderManagementConstants {
 
     public static final String PROVIDER_MANAGEMENT_DASHBOARD_EDIT_PATIENTS_PRIVILEGE = "Provider Management Dashboard - Edit Patients";
 
+    public static final String PROVIDER_MANAGEMENT_DASHBOARD_VIEW_HISTORICAL_PRIVILEGE = "Provider Management Dashboard - View Historical";
+
     public static final String PROVIDER_MANAGEMENT_ADMIN_PRIVILEGE = "Provider Management - Admin";
 
 
@@ -25,6 +25,10 @@ import java.util.Map;
 
 public class ProviderManagementGlobalProperties {
 
+    private static final Integer DEFAULT_ANYWHERE_ADDRESS_SEARCH_TIMEOUT = 30;
+
+    private static final Integer DEFAULT_PATIENT_BATCH_SIZE = 500;
+
     /**
      * @return person attribute types to be displayed on the provider dashboard
      */
@@ -96,6 +100,92 @@ public class ProviderManagementGlobalProperties {
         return stringToBoolean(propertyValue);
     }
 
+    /**
+     * @return the maximum number of persons to hold in the person provider cache, or null to use the default
+     */
+    public static final Integer GLOBAL_PROPERTY_PERSON_PROVIDER_CACHE_SIZE() {
+        String propertyValue = Context.getAdministrationService().getGlobalProperty("providermanagement.personProviderCacheSize");
+        try {
+            return StringUtils.isNotBlank(propertyValue) ? Integer.valueOf(propertyValue.trim()) : null;
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return how long, in seconds, the results of a provider search are held in the provider search cache, or null to use the default
+     */
+    public static final Integer GLOBAL_PROPERTY_PROVIDER_SEARCH_CACHE_TIME_TO_LIVE() {
+        String propertyValue = Context.getAdministrationService().getGlobalProperty("providermanagement.providerSearchCacheTimeToLive");
+        try {
+            return StringUtils.isNotBlank(propertyValue) ? Integer.valueOf(propertyValue.trim()) : null;
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return whether provider name and identifier searches should be answered from the in-memory provider name index
+     */
+    public static final Boolean GLOBAL_PROPERTY_PROVIDER_NAME_INDEX_ENABLED() {
+        String propertyValue = Context.getAdministrationService().getGlobalProperty("providermanagement.providerNameIndexEnabled");
+        return stringToBoolean(propertyValue);
+    }
+
+    /**
+     * @return whether provider searches should be answered from the provider search table where possible
+     */
+    public static final Boolean GLOBAL_PROPERTY_PROVIDER_SEARCH_TABLE_ENABLED() {
+        String propertyValue = Context.getAdministrationService().getGlobalProperty("providermanagement.providerSearchTableEnabled");
+        return stringToBoolean(propertyValue);
+    }
+
+    /**
+     * @return whether current patient counts should be read from the caseload summary table
+     */
+    public static final Boolean GLOBAL_PROPERTY_CASELOAD_SUMMARY_ENABLED() {
+        String propertyValue = Context.getAdministrationService().getGlobalProperty("providermanagement.caseloadSummaryEnabled");
+        return stringToBoolean(propertyValue);
+    }
+
+    /**
+     * @return whether current patient relationships and counts should be found through the active assignment table
+     */
+    public static final Boolean GLOBAL_PROPERTY_ACTIVE_ASSIGNMENT_TABLE_ENABLED() {
+        String propertyValue = Context.getAdministrationService().getGlobalProperty("providermanagement.activeAssignmentTableEnabled");
+        return stringToBoolean(propertyValue);
+    }
+
+    /**
+     * @return the timeout, in seconds, for provider searches that match addresses anywhere in a field (defaults to 30)
+     */
+    public static final Integer GLOBAL_PROPERTY_ANYWHERE_ADDRESS_SEARCH_TIMEOUT() {
+        String propertyValue = Context.getAdministrationService().getGlobalProperty("providermanagement.anywhereAddressSearchTimeout");
+        try {
+            Integer timeout = StringUtils.isNotBlank(propertyValue) ? Integer.valueOf(propertyValue.trim()) : null;
+            return timeout != null && timeout > 0 ? timeout : DEFAULT_ANYWHERE_ADDRESS_SEARCH_TIMEOUT;
+        }
+        catch (NumberFormatException e) {
+            return DEFAULT_ANYWHERE_ADDRESS_SEARCH_TIMEOUT;
+        }
+    }
+
+    /**
+     * @return the number of patients to load with each query when loading many patients at once (defaults to 500)
+     */
+    public static final Integer GLOBAL_PROPERTY_PATIENT_BATCH_SIZE() {
+        String propertyValue = Context.getAdministrationService().getGlobalProperty("providermanagement.patientBatchSize");
+        try {
+            Integer batchSize = StringUtils.isNotBlank(propertyValue) ? Integer.valueOf(propertyValue.trim()) : null;
+            return batchSize != null && batchSize > 0 ? batchSize : DEFAULT_PATIENT_BATCH_SIZE;
+        }
+        catch (NumberFormatException e) {
+            return DEFAULT_PATIENT_BATCH_SIZE;
+        }
+    }
+
     public static final Map<String,String> globalPropertyToMap(String globalPropertyName) {
 
         // load the appropriate global property
@@ -17,15 +17,21 @@ package org.openmrs.module.providermanagement;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.Predicate;
 import org.openmrs.Relationship;
-import org.openmrs.RelationshipType;
 import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.providermanagement.api.ProviderManagementService;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
 
 public class ProviderManagementUtils {
 
@@ -73,16 +79,85 @@ public class ProviderManagementUtils {
      * @param relationships
      */
     public static void filterNonProviderRelationships(Collection<Relationship> relationships) {
-        final List<RelationshipType> providerRelationshipTypes = Context.getService(ProviderManagementService.class).getAllProviderRoleRelationshipTypes(true);
+        final ProviderManagementService providerManagementService = Context.getService(ProviderManagementService.class);
         CollectionUtils.filter(relationships, new Predicate() {
             @Override
             public boolean evaluate(Object o) {
-                return providerRelationshipTypes.contains(((Relationship) o).getRelationshipType());
+                return providerManagementService.isProviderRelationshipType(((Relationship) o).getRelationshipType(), true);
             }
         });
 
     }
     
+    /**
+     * Works out which of the specified relationships are active on each of the specified dates, in a single sweep
+     * through the dates in order: relationships join the active set as their start dates are passed, and leave it (in
+     * end date order) as their end dates are passed, so each relationship is added and removed at most once, however
+     * many dates there are
+     *
+     * As with PersonService.getRelationships, a relationship is active on both its start and end dates, and a
+     * relationship with no start (or end) date is treated as having started (or never ending)
+     *
+     * @param relationships
+     * @param dates
+     * @return the relationships active on each distinct date, keyed by date in ascending order
+     */
+    public static Map<Date, List<Relationship>> getRelationshipsActiveOnDates(Collection<Relationship> relationships, Collection<Date> dates) {
+
+        // (dates loaded from the database may be Timestamps, so they are always compared by their times)
+        List<Relationship> byStartDate = new ArrayList<Relationship>(relationships);
+        Collections.sort(byStartDate, new Comparator<Relationship>() {
+            @Override
+            public int compare(Relationship r1, Relationship r2) {
+                return compareTimes(r1.getStartDate(), r2.getStartDate(), true);
+            }
+        });
+
+        PriorityQueue<Relationship> active = new PriorityQueue<Relationship>(11, new Comparator<Relationship>() {
+            @Override
+            public int compare(Relationship r1, Relationship r2) {
+                return compareTimes(r1.getEndDate(), r2.getEndDate(), false);
+            }
+        });
+
+        TreeSet<Date> sortedDates = new TreeSet<Date>(new Comparator<Date>() {
+            @Override
+            public int compare(Date d1, Date d2) {
+                return compareTimes(d1, d2, true);
+            }
+        });
+        sortedDates.addAll(dates);
+
+        Map<Date, List<Relationship>> relationshipsByDate = new LinkedHashMap<Date, List<Relationship>>();
+        int next = 0;
+
+        for (Date date : sortedDates) {
+
+            while (next < byStartDate.size() && (byStartDate.get(next).getStartDate() == null
+                    || byStartDate.get(next).getStartDate().getTime() <= date.getTime())) {
+                active.add(byStartDate.get(next++));
+            }
+
+            while (!active.isEmpty() && active.peek().getEndDate() != null && active.peek().getEndDate().getTime() < date.getTime()) {
+                active.poll();
+            }
+
+            relationshipsByDate.put(date, new ArrayList<Relationship>(active));
+        }
+
+        return relationshipsByDate;
+    }
+
+    /**
+     * Compares two dates by their times, sorting nulls first or last
+     */
+    private static int compareTimes(Date d1, Date d2, boolean nullsFirst) {
+        if (d1 == null || d2 == null) {
+            return d1 == d2 ? 0 : (d1 == null) == nullsFirst ? -1 : 1;
+        }
+        return d1.getTime() < d2.getTime() ? -1 : (d1.getTime() == d2.getTime() ? 0 : 1);
+    }
+
     /**
      * Given a Date object, returns a Date object for the same date but with the time component (hours, minutes, seconds & milliseconds) removed
      */
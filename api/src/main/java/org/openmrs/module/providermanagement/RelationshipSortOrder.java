@@ -0,0 +1,32 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.providermanagement;
+
+/**
+ * The orders that pages of provider relationships (patients, supervisors and supervisees) can be sorted in; ties are
+ * broken by the name of the person at the other end of the relationship, and then by relationship id, so that paging
+ * is stable
+ */
+public enum RelationshipSortOrder {
+
+    /**
+     * By the name the person at the other end of the relationship is displayed by (given, middle, then family name)
+     */
+    NAME,
+
+    START_DATE,
+
+    END_DATE
+}
@@ -0,0 +1,94 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.providermanagement;
+
+import org.openmrs.Person;
+import org.openmrs.Relationship;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A node in a supervision hierarchy: a provider, the supervisor relationship that links them to the node above
+ * (null for the root of the tree), and the nodes for the providers they supervise
+ */
+public class SupervisionTreeNode {
+
+    private Person provider;
+
+    private Relationship relationship;
+
+    private int depth;
+
+    private List<SupervisionTreeNode> supervisees = new ArrayList<SupervisionTreeNode>();
+
+    public SupervisionTreeNode(Person provider, Relationship relationship, int depth) {
+        this.provider = provider;
+        this.relationship = relationship;
+        this.depth = depth;
+    }
+
+    /**
+     * @return all the providers in the subtree below this node, in breadth-first order
+     */
+    public List<Person> getAllSupervisees() {
+
+        List<Person> persons = new ArrayList<Person>();
+        List<SupervisionTreeNode> level = supervisees;
+
+        while (!level.isEmpty()) {
+            List<SupervisionTreeNode> nextLevel = new ArrayList<SupervisionTreeNode>();
+            for (SupervisionTreeNode node : level) {
+                persons.add(node.getProvider());
+                nextLevel.addAll(node.getSupervisees());
+            }
+            level = nextLevel;
+        }
+
+        return persons;
+    }
+
+    public Person getProvider() {
+        return provider;
+    }
+
+    public void setProvider(Person provider) {
+        this.provider = provider;
+    }
+
+    public Relationship getRelationship() {
+        return relationship;
+    }
+
+    public void setRelationship(Relationship relationship) {
+        this.relationship = relationship;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    public List<SupervisionTreeNode> getSupervisees() {
+        return supervisees;
+    }
+
+    public void setSupervisees(List<SupervisionTreeNode> supervisees) {
+        this.supervisees = supervisees;
+    }
+}
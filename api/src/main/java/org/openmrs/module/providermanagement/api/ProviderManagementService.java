@@ -14,6 +14,7 @@
 package org.openmrs.module.providermanagement.api;
 
 import org.openmrs.Patient;
+import org.openmrs.PatientProgram;
 import org.openmrs.Person;
 import org.openmrs.PersonAddress;
 import org.openmrs.PersonAttribute;
@@ -24,6 +25,10 @@ import org.openmrs.api.OpenmrsService;
 import org.openmrs.module.providermanagement.Provider;
 import org.openmrs.module.providermanagement.ProviderManagementConstants;
 import org.openmrs.module.providermanagement.ProviderRole;
+import org.openmrs.module.providermanagement.RelationshipSortOrder;
+import org.openmrs.module.providermanagement.SupervisionTreeNode;
+import org.openmrs.module.providermanagement.caseload.CaseloadGranularity;
+import org.openmrs.module.providermanagement.caseload.CaseloadTimeSeries;
 import org.openmrs.module.providermanagement.exception.DateCannotBeInFutureException;
 import org.openmrs.module.providermanagement.exception.InvalidRelationshipTypeException;
 import org.openmrs.module.providermanagement.exception.InvalidSupervisorException;
@@ -35,9 +40,17 @@ import org.openmrs.module.providermanagement.exception.ProviderDoesNotSupportRel
 import org.openmrs.module.providermanagement.exception.ProviderNotAssignedToSupervisorException;
 import org.openmrs.module.providermanagement.exception.ProviderRoleInUseException;
 import org.openmrs.module.providermanagement.exception.SourceProviderSameAsDestinationProviderException;
+import org.openmrs.module.providermanagement.search.AddressMatchMode;
+import org.openmrs.module.providermanagement.search.ProviderSearchCriteria;
+import org.openmrs.module.providermanagement.search.ProviderSearchCursor;
+import org.openmrs.module.providermanagement.search.ProviderSearchResult;
+import org.openmrs.module.providermanagement.search.SimilarPeople;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Provider Management Service
@@ -142,6 +155,127 @@ public interface ProviderManagementService extends OpenmrsService {
     @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
     public List<RelationshipType> getAllProviderRoleRelationshipTypes(boolean includeRetired);
 
+    /**
+     * Returns true if the specified relationship type is associated with a provider role; equivalent to,
+     * but much cheaper than, getAllProviderRoleRelationshipTypes(includeRetired).contains(relationshipType)
+     *
+     * @param relationshipType
+     * @param includeRetired whether or not to consider retired relationship types and retired provider roles
+     * @return true if the relationship type is a provider/patient relationship type
+     * @should return true if relationship type is associated with a provider role
+     * @should return false if relationship type is not associated with a provider role
+     * @should return false for retired relationship type if include retired is false
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public boolean isProviderRelationshipType(RelationshipType relationshipType, boolean includeRetired);
+
+    /**
+     * Discards and rebuilds the in-memory catalog of provider roles, their supported relationship types, and the
+     * roles they can supervise (the catalog is rebuilt automatically whenever a provider role is saved, retired or purged,
+     * so this should only be needed at startup or if the underlying tables have been changed directly)
+     */
+    @Authorized(ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE)
+    public void refreshProviderRoleCatalog();
+
+    /**
+     * Discards and rebuilds the in-memory provider name index used to answer name-or-identifier searches when the
+     * providermanagement.providerNameIndexEnabled global property is set (the index is otherwise kept up to date
+     * as providers and names change, so this should only be needed at startup or if the underlying tables have
+     * been changed directly)
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public void rebuildProviderNameIndex();
+
+    /**
+     * Discards and rebuilds the person name keys used by getSimilarPeople from the names of all persons (the keys are
+     * otherwise kept up to date as names change, so this should only be needed when the module is first installed
+     * or if the person name table has been changed directly)
+     */
+    @Authorized(ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE)
+    public void rebuildPersonNameKeys();
+
+    /**
+     * Recreates the person name keys of the specified persons from their current names; called automatically
+     * before any transaction that changes person names commits
+     * (a failure does not mark the surrounding transaction rollback-only, so that it cannot fail that commit)
+     *
+     * @param personIds
+     */
+    @Authorized(ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE)
+    public void updatePersonNameKeys(Collection<Integer> personIds);
+
+    /**
+     * @return true if the person name keys used by getSimilarPeople have been built
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public boolean hasPersonNameKeys();
+
+    /**
+     * Discards and rebuilds the person address tokens used to match address restrictions in the provider search from
+     * the addresses of all persons (the tokens are otherwise kept up to date as addresses change, so this should
+     * only be needed when the module is first installed or if the person address table has been changed directly)
+     */
+    @Authorized(ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE)
+    public void rebuildPersonAddressTokens();
+
+    /**
+     * Recreates the person address tokens of the specified persons from their current addresses; called automatically
+     * before any transaction that changes person addresses commits
+     * (a failure does not mark the surrounding transaction rollback-only, so that it cannot fail that commit)
+     *
+     * @param personIds
+     */
+    @Authorized(ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE)
+    public void updatePersonAddressTokens(Collection<Integer> personIds);
+
+    /**
+     * @return true if the person address tokens used by the provider search have been built
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public boolean hasPersonAddressTokens();
+
+    /**
+     * Discards and rebuilds the provider search table from all providers, and their names and advanced search attribute
+     * (the table is otherwise kept up to date as these change, so this should only be needed when the module is first
+     * installed, when the providermanagement.advancedSearchPersonAttributeType global property is changed, or if the
+     * underlying tables have been changed directly)
+     */
+    @Authorized(ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE)
+    public void rebuildProviderSearchEntries();
+
+    /**
+     * Recreates the provider search table rows of the providers of the specified persons; called automatically before
+     * any transaction that changes providers, person names or person attributes commits (does nothing unless the
+     * providermanagement.providerSearchTableEnabled global property is set, as the table is rebuilt when it is set)
+     * (a failure does not mark the surrounding transaction rollback-only, so that it cannot fail that commit)
+     *
+     * @param personIds
+     */
+    @Authorized(ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE)
+    public void updateProviderSearchEntries(Collection<Integer> personIds);
+
+    /**
+     * @return true if the provider search table has been built
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public boolean hasProviderSearchEntries();
+
+    /**
+     * Finds the people with a name similar to the specified name, for duplicate checking before creating a provider
+     *
+     * A person matches if every word of the specified name either starts a word of one of their names, or sounds like
+     * one (as determined by its phonetic key); the lookup uses the person name key table rather than the person table
+     *
+     * @param name
+     * @return the matching people, split into providers and non-providers, each sorted by name
+     * @should return providers and non-providers with similar names separately
+     * @should match names that sound alike
+     * @should require every word to match the same person
+     * @should return empty result if name blank
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public SimilarPeople getSimilarPeople(String name);
+
     /**
      * Basic methods for operating on providers using the new provider roles
      */
@@ -150,15 +284,53 @@ public interface ProviderManagementService extends OpenmrsService {
      * Gets the list of providers that match a specified name OR identifier, restricting based on specified provider roles
      * (If query is null, empty list is returned)
      *
+     * Repeated searches are answered from a short-lived cache (see providermanagement.providerSearchCacheTimeToLive),
+     * which is flushed whenever a provider, person name or provider role changes
+     *
      * @param query name or identifier to search on (does a like 'query%' search)
      * @param providerRoles restrict results to providers with at least one of these roles
      * @param includeRetired whether or not to include retired providers
      * @should return empty list if query null
+     * @should serve repeated searches from cache until provider changes
      * @return result list of providers
      */
     @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
     public List<Person> getProvidersAsPersons(String query, List<ProviderRole> providerRoles, Boolean includeRetired);
 
+    /**
+     * Fetches one page of the providers that match the specified criteria, ordered by name (given, middle, then family)
+     *
+     * Pages are requested by cursor rather than by offset: pass null to get the first page, and then the
+     * next cursor of each page to get the page after it
+     *
+     * @param criteria the search criteria
+     * @param pageSize the maximum number of providers to return
+     * @param cursor the next cursor of the previous page, or null for the first page
+     * @return the page of providers, plus the total number of matches if the criteria requested it
+     * @should return first page and cursor for next page
+     * @should return next page starting after cursor
+     * @should return total count if requested
+     * @should exclude specified persons
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public ProviderSearchResult search(ProviderSearchCriteria criteria, int pageSize, ProviderSearchCursor cursor);
+
+    /**
+     * Same as {@link #search(ProviderSearchCriteria, int, ProviderSearchCursor)}, but returns the results as
+     * lightweight display rows (see {@link ProviderSearchResult#getRows()}) fetched by a single projection query,
+     * instead of as persons
+     *
+     * @param criteria the search criteria
+     * @param pageSize the maximum number of rows to return, or null to return all matches in one page
+     * @param cursor the next cursor of the previous page, or null for the first page
+     * @return the page of rows, plus the total number of matches if the criteria requested it
+     * @should return rows in same order as search
+     * @should return identifier and role of provider
+     * @should return all matches if page size null
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public ProviderSearchResult searchRows(ProviderSearchCriteria criteria, Integer pageSize, ProviderSearchCursor cursor);
+
     /**
      * Gets the list of providers that match the specified name, identifier, and provider roles
      * (If any field is null it is ignored)
@@ -178,7 +350,8 @@ public interface ProviderManagementService extends OpenmrsService {
      *
      * @param name name to search on (does an ilike 'name%' search against name fields)
      * @param identifier provider identifier (does an ilike 'identifier%' search)
-     * @param personAddress address to match on (does an ilike 'addressField%' search against each field that is not null)
+     * @param personAddress address to match on (each word of each field that is not null must match the start of a word
+     *                      of the same field)
      * @param personAttribute person attribute to match on
      * @param providerRoles restrict results to providers with at least one of these roles
      * @param includeRetired whether or not to include retired providers
@@ -187,6 +360,30 @@ public interface ProviderManagementService extends OpenmrsService {
     @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
      public List<Person> getProvidersAsPersons(String name, String identifier, PersonAddress personAddress, PersonAttribute personAttribute, List<ProviderRole> providerRoles, Boolean includeRetired);
 
+    /**
+     * Gets all the providers that match the specified criteria, which, unlike the method above, can include any
+     * number of address and attribute restrictions (a provider must match all of them)
+     *
+     * Addresses are matched by word prefix by default; if the criteria asks for {@link AddressMatchMode#ANYWHERE}
+     * matching, and doesn't set a query timeout, the timeout in the providermanagement.anywhereAddressSearchTimeout
+     * global property is applied (this also holds for search and searchRows)
+     *
+     * If the providermanagement.providerSearchTableEnabled global property is set, and the criteria has no address
+     * restrictions, and only restricts by the advanced search attribute type, the search is run against the provider
+     * search table (again, this also holds for search and searchRows)
+     *
+     * @param criteria
+     * @return result list of providers, sorted by name
+     * @should match all address and attribute restrictions
+     * @should return each matching person once
+     * @should match address words by prefix
+     * @should match address words exactly
+     * @should match address anywhere if requested
+     * @should return same providers from provider search table
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public List<Person> getProvidersAsPersons(ProviderSearchCriteria criteria);
+
     /**
      * Returns the provider roles associated with the specified provider
      *
@@ -305,6 +502,29 @@ public interface ProviderManagementService extends OpenmrsService {
     @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
     public boolean hasRole(Person provider, ProviderRole role);
 
+    /**
+     * Bulk version of getProviderRoles: returns the provider roles associated with each of the specified persons,
+     * keyed on person id (persons that aren't providers map to an empty set)
+     *
+     * @param personIds
+     * @return the provider roles associated with each person
+     * @should get provider roles for all persons
+     * @should return empty set for person that is not a provider
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public Map<Integer, Set<ProviderRole>> getProviderRolesByPersonIds(Collection<Integer> personIds);
+
+    /**
+     * Bulk version of isProvider: returns the ids of those persons in the specified collection that have one or
+     * more associated providers (unretired or retired)
+     *
+     * @param persons
+     * @return the ids of the persons that are providers
+     * @should return ids of persons that are providers
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public Set<Integer> filterProviders(Collection<Person> persons);
+
     /**
      * Returns true if the specified provider can support the specified relationship type, false otherwise
      *
@@ -437,6 +657,9 @@ public interface ProviderManagementService extends OpenmrsService {
     /**
      * Returns the (non-voided) patient relationships for a specified provider on the specified date
      *
+     * If the providermanagement.activeAssignmentTableEnabled global property is true, relationships on or after the
+     * current date are found through the active assignment table
+     *
      * @param provider the provider
      * @param relationshipType the relationshipType (if null, tests against all provider/patient relationship types--ie, relationship types associated wtih at least one provider role)
      * @param date the date the relationship (if null, return all relationships of the given type regardless of date)
@@ -446,6 +669,7 @@ public interface ProviderManagementService extends OpenmrsService {
      * @should fail if provider null
      * @should fail if relationshipType is not a valid provider/patient relationship type
      * @should return all patient relationships of the specified relationshipType if date is null
+     * @should read relationships from active assignment table if enabled
      */
     @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
     public List<Relationship> getPatientRelationshipsForProvider(Person provider, RelationshipType relationshipType, Date date)
@@ -466,8 +690,51 @@ public interface ProviderManagementService extends OpenmrsService {
     public List<Relationship> getPatientRelationshipsForProvider(Person provider, RelationshipType relationshipType)
             throws PersonIsNotProviderException, InvalidRelationshipTypeException;
 
+    /**
+     * Returns one page of the current (ie, active on the current date) or historical patient relationships for a
+     * specified provider, sorted in the specified order; only relationships with non-voided patients are included
+     *
+     * @param provider the provider
+     * @param relationshipType the relationshipType (if null, tests against all provider/patient relationship types--ie, relationship types associated wtih at least one provider role)
+     * @param current true for the current relationships, false for the historical ones
+     * @param sortOrder
+     * @param ascending
+     * @param firstResult the index of the first relationship to return
+     * @param maxResults the maximum number of relationships to return
+     * @return the page of relationships
+     * @throws PersonIsNotProviderException
+     * @throws InvalidRelationshipTypeException
+     * @should fail if provider null
+     * @should fail if relationshipType is not a valid provider/patient relationship type
+     * @should return a page of current or historical patient relationships in the specified order
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public List<Relationship> getPatientRelationshipsForProvider(Person provider, RelationshipType relationshipType, boolean current,
+                                                                 RelationshipSortOrder sortOrder, boolean ascending, int firstResult, int maxResults)
+            throws PersonIsNotProviderException, InvalidRelationshipTypeException;
+
+    /**
+     * Returns the number of current (ie, active on the current date) or historical patient relationships for a
+     * specified provider, ie, the number of relationships the corresponding paged method pages through
+     *
+     * @param provider the provider
+     * @param relationshipType the relationshipType (if null, tests against all provider/patient relationship types)
+     * @param current true to count the current relationships, false for the historical ones
+     * @return the number of relationships
+     * @throws PersonIsNotProviderException
+     * @throws InvalidRelationshipTypeException
+     * @should count current or historical patient relationships
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public int getPatientRelationshipsForProviderCount(Person provider, RelationshipType relationshipType, boolean current)
+            throws PersonIsNotProviderException, InvalidRelationshipTypeException;
+
     /**
      * Gets all patients that are patients of the specified provider with the specified relationship type on the specified date
+     * (a relationship is still active on the date it ends, as with PersonService.getRelationships)
+     *
+     * As the patients are loaded by the module rather than through the PatientService, the user must also have the
+     * View Patients privilege
      *
      * @param provider
      * @param relationshipType limits returned patients to those related to the provider by a specific relationship type (if null, returns all patients linked by any provider relationships)
@@ -485,6 +752,7 @@ public interface ProviderManagementService extends OpenmrsService {
 
     /**
      * Gets all patients that are patients (current and historical) of the specified provider with the specified relationship type
+     * (the user must also have the View Patients privilege)
      *
      * @param provider
      * @param relationshipType limits returned patients to those related to the provider by a specific relationship type (if null, returns all patients linked by any provider relationships)
@@ -500,6 +768,50 @@ public interface ProviderManagementService extends OpenmrsService {
     public List<Patient> getPatientsOfProvider(Person provider, RelationshipType relationshipType)
             throws PersonIsNotProviderException, InvalidRelationshipTypeException;
 
+
+    /**
+     * Gets the patients of the specified provider with the specified relationship type on each of the specified dates,
+     * loading the relationships active at any point between the first and last dates with a single query, and then
+     * working out which were active on each date in a single pass (rather than querying once per date); the user must
+     * also have the View Patients privilege
+     *
+     * @param provider
+     * @param relationshipType limits returned patients to those related to the provider by a specific relationship type (if null, returns all patients linked by any provider relationships)
+     * @param dates
+     * @return the patients on each distinct date, keyed by date in ascending order
+     * @throws PersonIsNotProviderException
+     * @throws InvalidRelationshipTypeException
+     * @should get patients of provider on each date
+     * @should fail if dates null
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public Map<Date, List<Patient>> getPatientsOfProviderOnDates(Person provider, RelationshipType relationshipType, Collection<Date> dates)
+            throws PersonIsNotProviderException, InvalidRelationshipTypeException;
+
+    /**
+     * Loads the specified patients (voided or not) in batches, with one query per batch rather than one per patient;
+     * the size of the batches is set by the providermanagement.patientBatchSize global property; the user must also
+     * have the View Patients privilege
+     *
+     * @param patientIds
+     * @return the patients, keyed by patient id; any ids that aren't patients are left out
+     * @should get patients by ids
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public Map<Integer, Patient> getPatientsByIds(Collection<Integer> patientIds);
+
+    /**
+     * Gets the (non-voided) patient programs of the specified patients in batches, with one query per batch rather
+     * than one per patient; the size of the batches is set by the providermanagement.patientBatchSize global property;
+     * the user must also have the View Patient Programs privilege
+     *
+     * @param patientIds
+     * @return the programs of each patient, in order of enrollment, keyed by patient id; every specified patient has an
+     *         entry, empty if they have no programs
+     * @should get patient programs by patient ids
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public Map<Integer, List<PatientProgram>> getPatientProgramsByPatientIds(Collection<Integer> patientIds);
     /**
      * Gets a count of all the patients that are patients of the specified provider with the specified relationship type on the specified date
      *
@@ -509,11 +821,139 @@ public interface ProviderManagementService extends OpenmrsService {
      * @return count of patients associated with the specified provider via the specified relationship type, on the specified date
      * @throws PersonIsNotProviderException
      * @throws InvalidRelationshipTypeException
+     * @should ignore voided patients
+     * @should count patients of all provider relationship types if type null
+     * @should read count from caseload summary if enabled
      */
     @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
     public int getPatientsOfProviderCount(Person provider, RelationshipType relationshipType, Date date)
             throws PersonIsNotProviderException, InvalidRelationshipTypeException;
 
+    /**
+     * Gets the caseload of each of the specified providers: a count of their patients for each provider relationship
+     * type, on the specified date, calculated with a single grouped query (rather than one getPatientsOfProviderCount
+     * call per provider per relationship type)
+     *
+     * Unlike getPatientsOfProviderCount, the persons are not checked to be providers; any person who isn't simply
+     * has no patients
+     *
+     * If the providermanagement.caseloadSummaryEnabled global property is true, counts as of the start of the current
+     * date are read from the caseload summary table (once it has been rebuilt that day); otherwise, if the
+     * providermanagement.activeAssignmentTableEnabled global property is true, counts on or after the current date are
+     * calculated from the active assignment table
+     *
+     * @param providers
+     * @param date if null, counts patients linked by any (current or historical) relationship
+     * @return the counts, keyed by provider person id and then relationship type; every provider has an entry, but
+     *         relationship types with no patients are left out
+     * @should get caseload counts of all providers
+     * @should ignore voided patients
+     * @should return empty map if no providers
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public Map<Integer, Map<RelationshipType, Integer>> getCaseloadCounts(Collection<Person> providers, Date date);
+
+    /**
+     * Gets the total caseload of each of the specified providers: a count of the distinct patients linked to them by
+     * any provider relationship type on the specified date, so that a patient linked by more than one type is only
+     * counted once (which is why this can't simply be the sum of the getCaseloadCounts)
+     *
+     * As with getCaseloadCounts, the persons are not checked to be providers, and the counts are calculated with a
+     * single grouped query; if the providermanagement.activeAssignmentTableEnabled global property is true, counts on
+     * or after the current date are calculated from the active assignment table (the caseload summary table only
+     * holds counts per relationship type, so can't be used)
+     *
+     * @param providers
+     * @param date if null, counts patients linked by any (current or historical) relationship
+     * @return the counts, keyed by provider person id; every provider has an entry
+     * @should count each patient once however many relationship types link them to the provider
+     * @should return empty map if no providers
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public Map<Integer, Integer> getCaseloadSizes(Collection<Person> providers, Date date);
+
+    /**
+     * Gets the caseload size of each of the specified providers on a series of dates, from the specified from date to
+     * the specified to date (inclusive) at the specified granularity: for instance, daily counts for the last year
+     *
+     * The relevant relationships are streamed from the database once, and swept into the counts for all the dates at
+     * once, rather than counting the patients of each provider on each date separately
+     *
+     * @param providers
+     * @param relationshipType limits the counts to patients related to the providers by a specific relationship type (if null, counts patients linked by any provider relationships)
+     * @param fromDate the first date of the series
+     * @param toDate the last date of the series
+     * @param granularity
+     * @return the series, with counts for every provider
+     * @throws InvalidRelationshipTypeException
+     * @should get daily caseload counts of providers
+     * @should count patients linked by more than one relationship once
+     * @should fail if from date after to date
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public CaseloadTimeSeries getCaseloadTimeSeries(Collection<Person> providers, RelationshipType relationshipType, Date fromDate, Date toDate, CaseloadGranularity granularity)
+            throws InvalidRelationshipTypeException;
+
+    /**
+     * Recalculates the whole caseload summary table from the relationship table, correcting any rows that have drifted
+     * (the table is otherwise kept up to date as relationships change, but counts also change as relationships start
+     * and end with the passing of time, so this is scheduled to run daily, just after midnight); the summary is
+     * only used for counts as of the start of the day it was last rebuilt on
+     *
+     * @return the number of rows that had to be inserted, updated or deleted
+     * @should correct caseload summaries that do not match relationships
+     */
+    @Authorized(ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE)
+    public int rebuildCaseloadSummaries();
+
+    /**
+     * Recalculates the caseload summary rows of the specified persons, and of the providers of any of them that are
+     * patients; called automatically before any transaction that changes relationships or persons commits (does
+     * nothing unless the providermanagement.caseloadSummaryEnabled global property is set, as the table is rebuilt
+     * when it is set)
+     * (a failure does not mark the surrounding transaction rollback-only, so that it cannot fail that commit)
+     *
+     * @param personIds
+     * @should update caseload summaries of providers and of the providers of patients
+     */
+    @Authorized(ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE)
+    public void updateCaseloadSummaries(Collection<Integer> personIds);
+
+    /**
+     * @return true if the caseload summary table has been built
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public boolean hasCaseloadSummaries();
+
+    /**
+     * Recalculates the whole active assignment table from the relationship table, correcting any rows that have drifted
+     * (the table is otherwise kept up to date as relationships change; rows of relationships that have since ended are
+     * ignored by reads, but are only removed by this, so this should be scheduled to run nightly)
+     *
+     * @return the number of rows that had to be inserted, updated or deleted
+     * @should correct active assignments that do not match relationships
+     */
+    @Authorized(ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE)
+    public int rebuildActiveAssignments();
+
+    /**
+     * Recalculates the active assignment rows of the specified relationships; called automatically before any
+     * transaction that changes relationships commits (does nothing unless the
+     * providermanagement.activeAssignmentTableEnabled global property is set, as the table is rebuilt when it is set)
+     * (a failure does not mark the surrounding transaction rollback-only, so that it cannot fail that commit)
+     *
+     * @param relationshipIds
+     * @should add and remove active assignments as relationships are assigned and ended
+     */
+    @Authorized(ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE)
+    public void updateActiveAssignments(Collection<Integer> relationshipIds);
+
+    /**
+     * @return true if the active assignment table has been built
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public boolean hasActiveAssignments();
+
 
     /**
      * Returns all the provider relationships associated with the given patient
@@ -570,6 +1010,21 @@ public interface ProviderManagementService extends OpenmrsService {
             throws InvalidRelationshipTypeException;
 
 
+    /**
+     * Returns the providers associated with the given patient on each of the specified dates, answering all the dates
+     * from a single query (see getPatientsOfProviderOnDates)
+     *
+     * @param patient
+     * @param relationshipType limits returned providers to those linked by a specific type (if null, returns all providers)
+     * @param dates
+     * @return the providers on each distinct date, keyed by date in ascending order
+     * @throws InvalidRelationshipTypeException
+     * @should get providers for patient on each date
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public Map<Date, List<Person>> getProvidersAsPersonsForPatientOnDates(Patient patient, RelationshipType relationshipType, Collection<Date> dates)
+            throws InvalidRelationshipTypeException;
+
     /**
      * Transfers the selected patients from the source provider to the destination provider for the specified relationship type on the specified date)
      * (ie., unassigns patients with the specified relationship type from the source provider and assigns them to the destination provider)
@@ -814,6 +1269,40 @@ public interface ProviderManagementService extends OpenmrsService {
     @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
     public List<Relationship> getSupervisorRelationshipsForProvider(Person provider)
             throws PersonIsNotProviderException;
+
+    /**
+     * Returns one page of the current (ie, active on the current date) or historical relationships this provider has
+     * with supervisors, sorted in the specified order
+     *
+     * @param provider
+     * @param current true for the current relationships, false for the historical ones
+     * @param sortOrder
+     * @param ascending
+     * @param firstResult the index of the first relationship to return
+     * @param maxResults the maximum number of relationships to return
+     * @return the page of relationships
+     * @throws PersonIsNotProviderException
+     * @should fail if provider is null
+     * @should return a page of current or historical supervisor relationships in the specified order
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public List<Relationship> getSupervisorRelationshipsForProvider(Person provider, boolean current, RelationshipSortOrder sortOrder,
+                                                                    boolean ascending, int firstResult, int maxResults)
+            throws PersonIsNotProviderException;
+
+    /**
+     * Returns the number of current (ie, active on the current date) or historical relationships this provider has
+     * with supervisors
+     *
+     * @param provider
+     * @param current true to count the current relationships, false for the historical ones
+     * @return the number of relationships
+     * @throws PersonIsNotProviderException
+     * @should count current or historical supervisor relationships
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public int getSupervisorRelationshipsForProviderCount(Person provider, boolean current)
+            throws PersonIsNotProviderException;
     
     /**
      * Returns all the providers that that given provider supervises on the given date
@@ -840,6 +1329,20 @@ public interface ProviderManagementService extends OpenmrsService {
     public List<Person> getSupervisorsForProvider(Person provider)
             throws PersonIsNotProviderException;
 
+
+    /**
+     * Returns the providers that supervise the given provider on each of the specified dates, answering all the dates
+     * from a single query (see getPatientsOfProviderOnDates)
+     *
+     * @param provider
+     * @param dates
+     * @return the supervisors on each distinct date, keyed by date in ascending order
+     * @throws PersonIsNotProviderException
+     * @should get supervisors for provider on each date
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public Map<Date, List<Person>> getSupervisorsForProviderOnDates(Person provider, Collection<Date> dates)
+            throws PersonIsNotProviderException;
     /**
      * Returns all the relationships this supervisor has with supervisees on the specified date
      *
@@ -867,6 +1370,40 @@ public interface ProviderManagementService extends OpenmrsService {
     public List<Relationship> getSuperviseeRelationshipsForSupervisor(Person supervisor)
             throws PersonIsNotProviderException;
 
+    /**
+     * Returns one page of the current (ie, active on the current date) or historical relationships this supervisor
+     * has with supervisees, sorted in the specified order
+     *
+     * @param supervisor
+     * @param current true for the current relationships, false for the historical ones
+     * @param sortOrder
+     * @param ascending
+     * @param firstResult the index of the first relationship to return
+     * @param maxResults the maximum number of relationships to return
+     * @return the page of relationships
+     * @throws PersonIsNotProviderException
+     * @should fail if supervisor is null
+     * @should return a page of current or historical supervisee relationships in the specified order
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public List<Relationship> getSuperviseeRelationshipsForSupervisor(Person supervisor, boolean current, RelationshipSortOrder sortOrder,
+                                                                      boolean ascending, int firstResult, int maxResults)
+            throws PersonIsNotProviderException;
+
+    /**
+     * Returns the number of current (ie, active on the current date) or historical relationships this supervisor has
+     * with supervisees
+     *
+     * @param supervisor
+     * @param current true to count the current relationships, false for the historical ones
+     * @return the number of relationships
+     * @throws PersonIsNotProviderException
+     * @should count current or historical supervisee relationships
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public int getSuperviseeRelationshipsForSupervisorCount(Person supervisor, boolean current)
+            throws PersonIsNotProviderException;
+
     /**
      * Returns all the persons this supervisor supervises on the specified date
      *
@@ -895,6 +1432,56 @@ public interface ProviderManagementService extends OpenmrsService {
             throws PersonIsNotProviderException;
 
 
+    /**
+     * Returns the persons this supervisor supervises on each of the specified dates, answering all the dates from a
+     * single query (see getPatientsOfProviderOnDates)
+     *
+     * @param supervisor
+     * @param dates
+     * @return the supervisees on each distinct date, keyed by date in ascending order
+     * @throws PersonIsNotProviderException
+     * @should get supervisees for supervisor on each date
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public Map<Date, List<Person>> getSuperviseesForSupervisorOnDates(Person supervisor, Collection<Date> dates)
+            throws PersonIsNotProviderException;
+    /**
+     * Returns the supervision hierarchy below the specified supervisor on the specified date: the root node represents
+     * the supervisor, its children the providers they directly supervise, and so on, down to the specified depth.
+     * The tree is fetched one level at a time, so the number of queries is proportional to the depth, not the size, of the tree
+     * (A provider reachable by more than one path appears only once, at the shallowest depth it was found)
+     *
+     * @param supervisor
+     * @param date if null, considers all supervisor relationships (current and historical)
+     * @param maxDepth the maximum number of levels to fetch below the supervisor
+     * @return the root node of the supervision tree
+     * @throws PersonIsNotProviderException
+     * @should get all supervisees at any depth
+     * @should not descend below the maximum depth
+     * @should fail if supervisor is null
+     * @should fail if supervisor is not a provider
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public SupervisionTreeNode getSuperviseeTree(Person supervisor, Date date, int maxDepth)
+            throws PersonIsNotProviderException;
+
+    /**
+     * Returns the supervisors of the specified provider on the specified date, their supervisors, and so on up the hierarchy,
+     * nearest first; fetched one level at a time
+     *
+     * @param provider
+     * @param date if null, considers all supervisor relationships (current and historical)
+     * @return all the direct and indirect supervisors of the provider
+     * @throws PersonIsNotProviderException
+     * @should get all direct and indirect supervisors of provider
+     * @should fail if provider is null
+     * @should fail if provider is not a provider
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public List<Person> getSupervisionChain(Person provider, Date date)
+            throws PersonIsNotProviderException;
+
+
     /**
      * Transfers the specified supervises from the source supervisor to the destination supervisor on the specified date
      * (uses current date if date = null)
@@ -952,4 +1539,12 @@ public interface ProviderManagementService extends OpenmrsService {
      */
     @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
     public List<Provider> getProvidersByPerson(Person person, boolean includeRetired);
+
+    /**
+     * Bulk version of getProvidersByPerson: fetches the providers associated with each of the specified persons,
+     * keyed on person id (persons that aren't providers are not included in the map)
+     * Should generally only be used internally, since the idea is this API "hides" knowledge of the Provider object
+     */
+    @Authorized(value = { ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE, ProviderManagementConstants.PROVIDER_MANAGEMENT_API_READ_ONLY_PRIVILEGE }, requireAll = false)
+    public Map<Integer, List<Provider>> getProvidersByPersonIds(Collection<Integer> personIds, boolean includeRetired);
 }
\ No newline at end of file
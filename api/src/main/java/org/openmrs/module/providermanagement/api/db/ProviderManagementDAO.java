@@ -13,18 +13,33 @@
  */
 package org.openmrs.module.providermanagement.api.db;
 
+import org.openmrs.Patient;
+import org.openmrs.PatientProgram;
 import org.openmrs.Person;
 import org.openmrs.PersonAddress;
 import org.openmrs.PersonAttribute;
+import org.openmrs.PersonAttributeType;
+import org.openmrs.Relationship;
 import org.openmrs.RelationshipType;
 import org.openmrs.module.providermanagement.Provider;
 import org.openmrs.module.providermanagement.ProviderRole;
+import org.openmrs.module.providermanagement.RelationshipSortOrder;
 import org.openmrs.module.providermanagement.api.ProviderManagementService;
+import org.openmrs.module.providermanagement.cache.ProviderNameIndexEntry;
+import org.openmrs.module.providermanagement.caseload.CaseloadSweep;
+import org.openmrs.module.providermanagement.search.ProviderSearchCriteria;
+import org.openmrs.module.providermanagement.search.ProviderSearchCursor;
+import org.openmrs.module.providermanagement.search.ProviderSearchResult;
+import org.openmrs.module.providermanagement.search.ProviderSearchRow;
 import org.openmrs.module.providermanagement.suggestion.ProviderSuggestion;
 import org.openmrs.module.providermanagement.suggestion.SupervisionSuggestion;
 import org.openmrs.module.providermanagement.suggestion.SupervisionSuggestionType;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  *  Database methods for {@link ProviderManagementService}.
@@ -51,6 +66,24 @@ public interface ProviderManagementDAO {
      */
     public ProviderRole getProviderRole(Integer id);
 
+    /**
+     * Gets the provider roles referenced by the specified ids, in a single query rather than one lookup per id
+     * (ids that don't reference a provider role are ignored)
+     *
+     * @param ids
+     * @return the provider roles, in the order of the specified ids
+     */
+    public List<ProviderRole> getProviderRoles(Collection<Integer> ids);
+
+    /**
+     * Gets the relationship types referenced by the specified ids, in a single query rather than one lookup per id
+     * (ids that don't reference a relationship type are ignored)
+     *
+     * @param ids
+     * @return the relationship types, in the order of the specified ids
+     */
+    public List<RelationshipType> getRelationshipTypes(Collection<Integer> ids);
+
     /**
      * Gets the provider role referenced by the specified uui
      *
@@ -106,6 +139,157 @@ public interface ProviderManagementDAO {
      */
     public List<Person> getProviders(String name, String identifier, PersonAddress personAddress, PersonAttribute personAttribute, List<ProviderRole> providerRoles, Boolean includeRetired);
 
+    /**
+     * Gets all the providers matching the specified criteria, sorted by name
+     *
+     * @param criteria
+     * @return result list of providers
+     */
+    public List<Person> getProviders(ProviderSearchCriteria criteria);
+
+    /**
+     * Gets the list of providers whose name OR identifier matches the specified query, restricting based on
+     * specified provider roles, as a single query; each person is returned once, ordered by name
+     *
+     * @param query name or identifier to search on (does a like 'query%' search)
+     * @param providerRoles restrict results to providers with at least one of these roles
+     * @param includeRetired whether or not to include retired providers
+     * @return result list of providers
+     */
+    public List<Person> getProvidersByNameOrIdentifier(String query, List<ProviderRole> providerRoles, boolean includeRetired);
+
+    /**
+     * Fetches one page of the providers that match the specified criteria, ordered by name
+     *
+     * @param criteria
+     * @param cursor the position to start after, or null to fetch the first page
+     * @param pageSize the maximum number of providers to return
+     * @return the page of providers (without a total count)
+     */
+    public ProviderSearchResult search(ProviderSearchCriteria criteria, ProviderSearchCursor cursor, int pageSize);
+
+    /**
+     * Fetches one page of the providers that match the specified criteria, ordered by name, as display rows
+     * (built by a projection query, rather than by loading the persons)
+     *
+     * @param criteria
+     * @param cursor the position to start after, or null to fetch the first page
+     * @param pageSize the maximum number of rows to return, or null to return all matches
+     * @return the page of rows (without a total count)
+     */
+    public ProviderSearchResult searchRows(ProviderSearchCriteria criteria, ProviderSearchCursor cursor, Integer pageSize);
+
+    /**
+     * Fetches the display rows for the specified persons, using the provider restrictions (role and retired) of the
+     * specified criteria to choose which of their providers to display
+     *
+     * @param personIds
+     * @param criteria
+     * @return the rows, in the same order as the person ids
+     */
+    public List<ProviderSearchRow> getProviderSearchRows(List<Integer> personIds, ProviderSearchCriteria criteria);
+
+    /**
+     * Loads the entries of the in-memory provider name index
+     *
+     * @param personIds the persons to load the entries of, or null to load the entries of all providers
+     * @return the entries of those persons that are non-voided providers
+     */
+    public List<ProviderNameIndexEntry> getProviderNameIndexEntries(Collection<Integer> personIds);
+
+    /**
+     * Finds which of the specified persons have a provider (retired or not, and whether or not the person is voided)
+     *
+     * @param personIds the persons to check, or null to find all persons with a provider
+     * @return the ids of those persons with a provider
+     */
+    public List<Integer> getProviderPersonIds(Collection<Integer> personIds);
+
+    /**
+     * Finds the persons with a name key matching any of the specified keys or key prefixes
+     *
+     * @param keys keys to match exactly
+     * @param keyPrefixes keys to match by prefix
+     * @return the matching keys of each matching person, by person id
+     */
+    public Map<Integer, Set<String>> getMatchingPersonNameKeys(Collection<String> keys, Collection<String> keyPrefixes);
+
+    /**
+     * Recreates the name keys of the specified persons from their current names (removing the keys of any
+     * that are voided, or no longer exist)
+     *
+     * @param personIds
+     */
+    public void updatePersonNameKeys(Collection<Integer> personIds);
+
+    /**
+     * Recreates the name keys of all persons
+     */
+    public void rebuildPersonNameKeys();
+
+    /**
+     * @return true if the name key table has any rows
+     */
+    public boolean hasPersonNameKeys();
+
+    /**
+     * Recreates the address tokens of the specified persons from their current addresses (removing the tokens of any
+     * that are voided, or no longer exist)
+     *
+     * @param personIds
+     */
+    public void updatePersonAddressTokens(Collection<Integer> personIds);
+
+    /**
+     * Recreates the address tokens of all persons
+     */
+    public void rebuildPersonAddressTokens();
+
+    /**
+     * @return true if the address token table has any rows
+     */
+    public boolean hasPersonAddressTokens();
+
+    /**
+     * Recreates the provider search table rows of the providers of the specified persons from their current providers,
+     * names and attributes (removing the rows of any that are voided, or no longer providers)
+     *
+     * @param personIds
+     * @param searchAttributeType the attribute type whose value is stored in the table, or null for none
+     */
+    public void updateProviderSearchEntries(Collection<Integer> personIds, PersonAttributeType searchAttributeType);
+
+    /**
+     * Recreates the provider search table rows of all providers
+     *
+     * @param searchAttributeType the attribute type whose value is stored in the table, or null for none
+     */
+    public void rebuildProviderSearchEntries(PersonAttributeType searchAttributeType);
+
+    /**
+     * @return true if the provider search table has any rows
+     */
+    public boolean hasProviderSearchEntries();
+
+    /**
+     * @return true if the current session holds changes that have not yet been flushed to the database
+     */
+    public boolean isSessionDirty();
+
+    /**
+     * Loads the persons with the specified ids
+     *
+     * @param personIds
+     * @return the persons, in the same order as the ids
+     */
+    public List<Person> getPersonsByIds(List<Integer> personIds);
+
+    /**
+     * @param criteria
+     * @return the total number of providers that match the specified criteria
+     */
+    public int getSearchCount(ProviderSearchCriteria criteria);
+
     /**
      * Gets all providers associated with the current person
      *
@@ -115,6 +299,24 @@ public interface ProviderManagementDAO {
      */
     public List<Provider> getProvidersByPerson(Person person, boolean includeRetired);
 
+    /**
+     * Gets all providers associated with any of the specified persons
+     *
+     * @param personIds
+     * @param includeRetired whether or not to include retired providers
+     * @return all providers associated with the specified persons
+     */
+    public List<Provider> getProvidersByPersonIds(Collection<Integer> personIds, boolean includeRetired);
+
+    /**
+     * Gets the provider with the specified id if, and only if, it has already been loaded into the current session;
+     * never queries the database
+     *
+     * @param providerId
+     * @return the provider from the current session, or null if it has not been loaded
+     */
+    public org.openmrs.Provider getProviderIfLoaded(Integer providerId);
+
     /**
      * Gets all providers with the selected provider roles
      *
@@ -124,6 +326,272 @@ public interface ProviderManagementDAO {
      */
     public List<Provider> getProvidersByProviderRoles(List<ProviderRole> roles, boolean includeRetired);
 
+    /**
+     * Gets all non-voided relationships of the specified type where person A is one of the specified persons
+     * (Used to walk down a relationship hierarchy one level at a time)
+     *
+     * @param personAIds
+     * @param relationshipType
+     * @param date if specified, only return relationships active on this date
+     * @return all matching relationships
+     */
+    public List<Relationship> getRelationshipsByPersonA(Collection<Integer> personAIds, RelationshipType relationshipType, Date date);
+
+    /**
+     * Gets all non-voided relationships of the specified type where person B is one of the specified persons
+     * (Used to walk up a relationship hierarchy one level at a time)
+     *
+     * @param personBIds
+     * @param relationshipType
+     * @param date if specified, only return relationships active on this date
+     * @return all matching relationships
+     */
+    public List<Relationship> getRelationshipsByPersonB(Collection<Integer> personBIds, RelationshipType relationshipType, Date date);
+
+    /**
+     * Gets the non-voided relationships of any of the specified types between the specified persons that are active
+     * at any point between the specified dates, with a single query, so that the relationships active on each of a
+     * number of dates can be worked out from the one result
+     *
+     * @param personAId if specified, only return relationships with this person as person A
+     * @param personBId if specified, only return relationships with this person as person B
+     * @param relationshipTypes
+     * @param fromDate
+     * @param toDate
+     * @return the relationships, with both persons fetched
+     */
+    public List<Relationship> getRelationshipsActiveBetween(Integer personAId, Integer personBId, Collection<RelationshipType> relationshipTypes, Date fromDate, Date toDate);
+
+    /**
+     * Counts the distinct non-voided patients linked to the specified provider (as person A) by a non-voided
+     * relationship of one of the specified types
+     *
+     * @param provider
+     * @param relationshipTypes
+     * @param date if specified, only count relationships active on this date
+     * @return the number of patients
+     */
+    public int getPatientCount(Person provider, Collection<RelationshipType> relationshipTypes, Date date);
+
+    /**
+     * Counts the distinct non-voided patients linked to each of the specified providers (as person A) by non-voided
+     * relationships of each of the specified types, using a single grouped query (per chunk of providers)
+     *
+     * @param providerIds the person ids of the providers
+     * @param relationshipTypes
+     * @param date if specified, only count relationships active on this date
+     * @return the counts, keyed by provider person id and then relationship type; every provider has an entry, but
+     *         relationship types with no patients are left out
+     */
+    public Map<Integer, Map<RelationshipType, Integer>> getPatientCounts(Collection<Integer> providerIds, Collection<RelationshipType> relationshipTypes, Date date);
+
+    /**
+     * Counts the distinct non-voided patients linked to each of the specified providers (as person A) by non-voided
+     * relationships of any of the specified types, so that a patient linked by more than one type is only counted once
+     *
+     * @param providerIds the person ids of the providers
+     * @param relationshipTypes
+     * @param date if specified, only count relationships active on this date
+     * @return the counts, keyed by provider person id; every provider has an entry
+     */
+    public Map<Integer, Integer> getTotalPatientCounts(Collection<Integer> providerIds, Collection<RelationshipType> relationshipTypes, Date date);
+
+    /**
+     * Gets the providers linked to any of the specified patients (as person B) by a relationship, voided or not, of
+     * one of the specified types
+     *
+     * @param patientIds
+     * @param relationshipTypes
+     * @return the person ids of the providers
+     */
+    public Set<Integer> getProviderIdsOfPatients(Collection<Integer> patientIds, Collection<RelationshipType> relationshipTypes);
+
+    /**
+     * Gets the persons linked to the specified provider (as person A) by a non-voided relationship of one of the
+     * specified types
+     *
+     * @param providerId the person id of the provider
+     * @param relationshipTypes
+     * @param date if specified, only include relationships active on this date
+     * @return the distinct person ids of the persons at the other end of the relationships
+     */
+    public List<Integer> getPatientIdsOfProvider(Integer providerId, Collection<RelationshipType> relationshipTypes, Date date);
+
+    /**
+     * Loads the specified patients, voided or not, with one query per batch of ids
+     *
+     * @param patientIds
+     * @param batchSize the maximum number of ids to query at once
+     * @return the patients, keyed by patient id; persons who aren't patients are left out
+     */
+    public Map<Integer, Patient> getPatientsByIds(Collection<Integer> patientIds, int batchSize);
+
+    /**
+     * Loads the non-voided patient programs of the specified patients, with one query per batch of ids
+     *
+     * @param patientIds
+     * @param batchSize the maximum number of ids to query at once
+     * @return the programs of each patient, in order of enrollment, keyed by patient id; every specified patient has an
+     *         entry, empty if they have no programs
+     */
+    public Map<Integer, List<PatientProgram>> getPatientProgramsByPatientIds(Collection<Integer> patientIds, int batchSize);
+
+    /**
+     * Streams the non-voided relationships of the specified types that link each of the specified providers (as
+     * person A) to a non-voided patient, and are active at any point between the specified dates, into the specified
+     * sweep, grouped by provider and patient; the relationships are read as scalars from a forward-only cursor, so
+     * they are never all held in memory
+     *
+     * @param providerIds the person ids of the providers
+     * @param relationshipTypes
+     * @param fromDate
+     * @param toDate
+     * @param sweep
+     */
+    public void addCaseloadRelationships(Collection<Integer> providerIds, Collection<RelationshipType> relationshipTypes, Date fromDate, Date toDate, CaseloadSweep sweep);
+
+    /**
+     * Gets one page of the non-voided relationships of the specified types that the specified person is part of, either
+     * those active on the specified date (current) or those that aren't (historical), sorted in the specified order
+     *
+     * @param personId
+     * @param personIsA true to get the relationships in which the person is person A, false for those in which they are person B
+     * @param relationshipTypes
+     * @param patientsOnly if true, only include relationships in which person B is a non-voided patient
+     * @param current true for the relationships active on the date, false for those that aren't
+     * @param date
+     * @param sortOrder
+     * @param ascending
+     * @param firstResult the index of the first relationship to return
+     * @param maxResults the maximum number of relationships to return
+     * @return the page of relationships
+     */
+    public List<Relationship> getRelationshipPage(Integer personId, boolean personIsA, Collection<RelationshipType> relationshipTypes, boolean patientsOnly,
+                                                  boolean current, Date date, RelationshipSortOrder sortOrder, boolean ascending, int firstResult, int maxResults);
+
+    /**
+     * @return the total number of relationships that {@link #getRelationshipPage} pages through for the same arguments
+     */
+    public int getRelationshipPageCount(Integer personId, boolean personIsA, Collection<RelationshipType> relationshipTypes, boolean patientsOnly,
+                                        boolean current, Date date);
+
+    /**
+     * Recalculates the caseload summary rows of the specified providers from the relationship table, counting the
+     * patients of each of the specified relationship types on the specified date
+     *
+     * @param providerIds the person ids of the providers
+     * @param relationshipTypes
+     * @param date
+     * @return the number of rows that were inserted, updated or deleted
+     */
+    public int updateCaseloadSummaries(Collection<Integer> providerIds, Collection<RelationshipType> relationshipTypes, Date date);
+
+    /**
+     * Recalculates the whole caseload summary table from the relationship table, working through the providers in
+     * batches, and deletes any rows for providers (or relationship types) that no longer have patients
+     *
+     * @param relationshipTypes
+     * @param date
+     * @return the number of rows that were inserted, updated or deleted
+     */
+    public int rebuildCaseloadSummaries(Collection<RelationshipType> relationshipTypes, Date date);
+
+    /**
+     * @param providerIds the person ids of the providers
+     * @param relationshipTypes
+     * @return the patient counts held in the caseload summary table, keyed by provider person id and then relationship
+     *         type; every provider has an entry, but relationship types with no patients are left out
+     */
+    public Map<Integer, Map<RelationshipType, Integer>> getCaseloadSummaryCounts(Collection<Integer> providerIds, Collection<RelationshipType> relationshipTypes);
+
+    /**
+     * @return true if the caseload summary table has any rows
+     */
+    public boolean hasCaseloadSummaries();
+
+    /**
+     * Recalculates the active assignment rows of the specified relationships from the relationship table: a row is
+     * held for each relationship that is of one of the specified types, is not voided, and had not ended before the
+     * specified date; any other rows are deleted
+     *
+     * @param relationshipIds
+     * @param relationshipTypes
+     * @param date
+     * @return the number of rows that were inserted, updated or deleted
+     */
+    public int updateActiveAssignments(Collection<Integer> relationshipIds, Collection<RelationshipType> relationshipTypes, Date date);
+
+    /**
+     * Recalculates the whole active assignment table from the relationship table, working through the relationships
+     * in batches, and deletes any rows for relationships that are no longer active (or no longer exist)
+     *
+     * @param relationshipTypes
+     * @param date
+     * @return the number of rows that were inserted, updated or deleted
+     */
+    public int rebuildActiveAssignments(Collection<RelationshipType> relationshipTypes, Date date);
+
+    /**
+     * Gets the non-voided relationships of the specified types, active on the specified date, that link the specified
+     * provider (as person A) to a patient, finding them through the active assignment table
+     *
+     * @param providerId the person id of the provider
+     * @param relationshipTypes
+     * @param date
+     * @return the relationships, with the persons at the other end fetched
+     */
+    public List<Relationship> getActiveAssignmentRelationships(Integer providerId, Collection<RelationshipType> relationshipTypes, Date date);
+
+    /**
+     * Gets, from the active assignment table, the persons linked to the specified provider by relationships of any of
+     * the specified types active on the specified date
+     *
+     * @param providerId the person id of the provider
+     * @param relationshipTypes
+     * @param date
+     * @return the distinct person ids of the persons at the other end of the relationships
+     */
+    public List<Integer> getActiveAssignmentPatientIds(Integer providerId, Collection<RelationshipType> relationshipTypes, Date date);
+
+    /**
+     * Counts, from the active assignment table, the distinct non-voided patients linked to the specified provider by
+     * relationships of any of the specified types active on the specified date
+     *
+     * @param providerId the person id of the provider
+     * @param relationshipTypes
+     * @param date
+     * @return the number of patients
+     */
+    public int getActiveAssignmentPatientCount(Integer providerId, Collection<RelationshipType> relationshipTypes, Date date);
+
+    /**
+     * Counts, from the active assignment table, the distinct non-voided patients linked to each of the specified
+     * providers by relationships of each of the specified types active on the specified date
+     *
+     * @param providerIds the person ids of the providers
+     * @param relationshipTypes
+     * @param date
+     * @return the counts, keyed by provider person id and then relationship type; every provider has an entry, but
+     *         relationship types with no patients are left out
+     */
+    public Map<Integer, Map<RelationshipType, Integer>> getActiveAssignmentPatientCounts(Collection<Integer> providerIds, Collection<RelationshipType> relationshipTypes, Date date);
+
+    /**
+     * Counts, from the active assignment table, the distinct non-voided patients linked to each of the specified
+     * providers by relationships of any of the specified types active on the specified date
+     *
+     * @param providerIds the person ids of the providers
+     * @param relationshipTypes
+     * @param date
+     * @return the counts, keyed by provider person id; every provider has an entry
+     */
+    public Map<Integer, Integer> getActiveAssignmentTotalPatientCounts(Collection<Integer> providerIds, Collection<RelationshipType> relationshipTypes, Date date);
+
+    /**
+     * @return true if the active assignment table has any rows
+     */
+    public boolean hasActiveAssignments();
+
     /**
      * Gets the provider suggestion referenced by the specified id
      *
@@ -17,29 +17,110 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.hibernate.Criteria;
+import org.hibernate.EntityMode;
+import org.hibernate.FetchMode;
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
 import org.hibernate.SessionFactory;
-import org.hibernate.criterion.MatchMode;
 import org.hibernate.criterion.Order;
-import org.hibernate.criterion.Property;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.engine.EntityKey;
+import org.hibernate.engine.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.openmrs.Patient;
+import org.openmrs.PatientProgram;
 import org.openmrs.Person;
 import org.openmrs.PersonAddress;
 import org.openmrs.PersonAttribute;
+import org.openmrs.PersonAttributeType;
+import org.openmrs.Relationship;
 import org.openmrs.RelationshipType;
 import org.openmrs.module.providermanagement.Provider;
 import org.openmrs.module.providermanagement.ProviderRole;
+import org.openmrs.module.providermanagement.RelationshipSortOrder;
 import org.openmrs.module.providermanagement.api.db.ProviderManagementDAO;
+import org.openmrs.module.providermanagement.cache.ProviderNameIndexEntry;
+import org.openmrs.module.providermanagement.caseload.ActiveAssignment;
+import org.openmrs.module.providermanagement.caseload.CaseloadSummary;
+import org.openmrs.module.providermanagement.caseload.CaseloadSweep;
+import org.openmrs.module.providermanagement.search.AddressMatchMode;
+import org.openmrs.module.providermanagement.search.PersonAddressToken;
+import org.openmrs.module.providermanagement.search.PersonAddressTokens;
+import org.openmrs.module.providermanagement.search.PersonNameKey;
+import org.openmrs.module.providermanagement.search.PersonNameKeys;
+import org.openmrs.module.providermanagement.search.ProviderSearchCriteria;
+import org.openmrs.module.providermanagement.search.ProviderSearchCursor;
+import org.openmrs.module.providermanagement.search.ProviderSearchEntry;
+import org.openmrs.module.providermanagement.search.ProviderSearchTerm;
+import org.openmrs.module.providermanagement.search.ProviderSearchResult;
+import org.openmrs.module.providermanagement.search.ProviderSearchRow;
 import org.openmrs.module.providermanagement.suggestion.ProviderSuggestion;
 import org.openmrs.module.providermanagement.suggestion.SupervisionSuggestion;
 import org.openmrs.module.providermanagement.suggestion.SupervisionSuggestionType;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * It is a default implementation of  {@link ProviderManagementDAO}.
  */
 public class HibernateProviderManagementDAO implements ProviderManagementDAO {
+
 	protected final Log log = LogFactory.getLog(this.getClass());
+
+    // the maximum number of ids to put in a single "in" clause; larger collections are queried in chunks
+    private static final int MAX_IN_CLAUSE_SIZE = 1000;
+
+    // the non-voided relationships of the types in :relationshipTypes that link a provider (person A) to a non-voided patient
+    private static final String PATIENT_RELATIONSHIPS = "from Relationship r where r.relationshipType in (:relationshipTypes) and r.voided = false " +
+            "and r.personB.personId in (select p.personId from Patient p where p.voided = false)";
+
+    // note that, as with PersonService.getRelationships, a relationship is still considered active on the date it ends
+    private static final String ACTIVE_ON_DATE = " and (r.startDate <= :date or r.startDate is null) and (r.endDate >= :date or r.endDate is null)";
+
+    private static final String NOT_ACTIVE_ON_DATE = " and (r.startDate > :date or r.endDate < :date)";
+
+    // the columns of the active assignment rows of the non-voided relationships of the types in :relationshipTypes
+    // that had not ended before :date
+    private static final String ACTIVE_ASSIGNMENT_COLUMNS = "select r.relationshipId, r.personA.personId, r.personB.personId, " +
+            "r.relationshipType.relationshipTypeId, r.startDate, r.endDate from Relationship r where r.relationshipType in (:relationshipTypes) " +
+            "and r.voided = false and (r.endDate >= :date or r.endDate is null)";
+
+    // as with PersonService.getRelationships (which answers the dates the table can't), an assignment is still active
+    // on the date it ends
+    private static final String ASSIGNMENT_ACTIVE_ON_DATE = " and (a.startDate <= :date or a.startDate is null) and (a.endDate >= :date or a.endDate is null)";
+
+    // the active assignment rows, joined to their relationships so that, as in getActiveAssignmentRelationships, rows of
+    // relationships that have since been voided are ignored (the row of a voided relationship is only removed when the
+    // transaction that voids it commits, or by the next rebuild)
+    private static final String ACTIVE_ASSIGNMENTS = ActiveAssignment.class.getName() + " a, Relationship r" +
+            " where r.relationshipId = a.relationshipId and r.voided = false";
+
+    // the sort key of the provider searches: the parts of the name each person is displayed by, then the person id
+    // (null name parts are treated as empty strings, so that they can be compared against a paging cursor)
+    private static final String GIVEN_NAME = "coalesce(name.givenName, '')";
+
+    private static final String MIDDLE_NAME = "coalesce(name.middleName, '')";
+
+    private static final String FAMILY_NAME = "coalesce(name.familyName, '')";
+
+    private static final String PROVIDER_SEARCH_SORT_KEY = GIVEN_NAME + ", " + MIDDLE_NAME + ", " + FAMILY_NAME;
+
+    // restricts "name" to the name that "person" is displayed by: their preferred name, or, failing that, their
+    // first non-voided name
+    private static final String DISPLAY_NAME_RESTRICTION = "name.person = person and name.voided = false"
+            + " and not exists (from PersonName betterName where betterName.person = person and betterName.voided = false"
+            + " and ((betterName.preferred = true and name.preferred = false)"
+            + " or (betterName.preferred = name.preferred and betterName.personNameId < name.personNameId)))";
 	
 	private SessionFactory sessionFactory;
 
@@ -71,6 +152,38 @@ public class HibernateProviderManagementDAO implements ProviderManagementDAO {
         return (ProviderRole) sessionFactory.getCurrentSession().get(ProviderRole.class, id);
     }
 
+    @Override
+    public List<ProviderRole> getProviderRoles(Collection<Integer> ids) {
+        return getByIds(ProviderRole.class, "providerRoleId", ids);
+    }
+
+    @Override
+    public List<RelationshipType> getRelationshipTypes(Collection<Integer> ids) {
+        return getByIds(RelationshipType.class, "relationshipTypeId", ids);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> List<T> getByIds(Class<T> type, String idProperty, Collection<Integer> ids) {
+
+        Map<Integer, T> byId = new HashMap<Integer, T>();
+        for (List<Integer> chunk : partition(ids)) {
+            Query q = sessionFactory.getCurrentSession().createQuery("select e." + idProperty + ", e from " + type.getName() + " e where e." + idProperty + " in (:ids)");
+            q.setParameterList("ids", chunk);
+            for (Object[] row : (List<Object[]>) q.list()) {
+                byId.put((Integer) row[0], (T) row[1]);
+            }
+        }
+
+        List<T> results = new ArrayList<T>();
+        for (Integer id : ids) {
+            T result = byId.get(id);
+            if (result != null) {
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
     @Override
     public ProviderRole getProviderRoleByUuid(String uuid) {
         Criteria criteria = sessionFactory.getCurrentSession().createCriteria(ProviderRole.class);
@@ -108,64 +221,327 @@ public class HibernateProviderManagementDAO implements ProviderManagementDAO {
     @Override
     public List<Person> getProviders(String name, String identifier, PersonAddress personAddress, PersonAttribute personAttribute, List<ProviderRole> providerRoles, Boolean includeRetired) {
 
-        // first, create the provider criteria
-         Criteria criteria = sessionFactory.getCurrentSession().createCriteria(Provider.class);
+        ProviderSearchCriteria criteria = new ProviderSearchCriteria(null, providerRoles, includeRetired != null && includeRetired);
+        criteria.setName(name);
+        criteria.setIdentifier(identifier);
+        criteria.setPersonAddress(personAddress);
+        criteria.setPersonAttribute(personAttribute);
 
-        // we want the result to be a list of person
-        criteria.setProjection(Property.forName("person"));
+        return getProviders(criteria);
+    }
 
-        // restrict to ignore retired if flag is set
-        if (!includeRetired) {
-            criteria.add(Restrictions.eq("retired", false));
+    @Override
+    public List<Person> getProviders(ProviderSearchCriteria criteria) {
+        return getPersonsByIds(getPersonIds(findProviderSortKeys(criteria, null, null)));
+    }
+
+    @Override
+    public List<Person> getProvidersByNameOrIdentifier(String query, List<ProviderRole> providerRoles, boolean includeRetired) {
+        ProviderSearchCriteria criteria = new ProviderSearchCriteria(query, providerRoles, includeRetired);
+        return getPersonsByIds(getPersonIds(findProviderSortKeys(criteria, null, null)));
+    }
+
+    @Override
+    public ProviderSearchResult search(ProviderSearchCriteria criteria, ProviderSearchCursor cursor, int pageSize) {
+
+        // fetch one extra row, to find out if there is another page
+        List<Object[]> sortKeys = findProviderSortKeys(criteria, cursor, pageSize + 1);
+
+        ProviderSearchCursor nextCursor = null;
+
+        if (sortKeys.size() > pageSize) {
+            sortKeys = sortKeys.subList(0, pageSize);
+            Object[] last = sortKeys.get(pageSize - 1);
+            nextCursor = new ProviderSearchCursor((String) last[1], (String) last[2], (String) last[3], (Integer) last[0]);
+        }
+
+        return new ProviderSearchResult(getPersonsByIds(getPersonIds(sortKeys)), nextCursor, null);
+    }
+
+    @Override
+    public ProviderSearchResult searchRows(ProviderSearchCriteria criteria, ProviderSearchCursor cursor, Integer pageSize) {
+
+        List<Object[]> sortKeys = findProviderSortKeys(criteria, cursor, pageSize != null ? pageSize + 1 : null);
+
+        ProviderSearchCursor nextCursor = null;
+
+        if (pageSize != null && sortKeys.size() > pageSize) {
+            sortKeys = sortKeys.subList(0, pageSize);
+            Object[] last = sortKeys.get(pageSize - 1);
+            nextCursor = new ProviderSearchCursor((String) last[1], (String) last[2], (String) last[3], (Integer) last[0]);
+        }
+
+        return new ProviderSearchResult(null, getProviderSearchRows(getPersonIds(sortKeys), criteria), nextCursor, null);
+    }
+
+    @Override
+    public List<ProviderNameIndexEntry> getProviderNameIndexEntries(Collection<Integer> personIds) {
+
+        if (personIds == null) {
+            return buildProviderNameIndexEntries(null);
+        }
+
+        List<ProviderNameIndexEntry> entries = new ArrayList<ProviderNameIndexEntry>();
+        for (List<Integer> chunk : partition(personIds)) {
+            entries.addAll(buildProviderNameIndexEntries(chunk));
+        }
+        return entries;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<Integer> getProviderPersonIds(Collection<Integer> personIds) {
+
+        String hql = "select distinct provider.person.personId from " + Provider.class.getName() + " provider";
+
+        if (personIds == null) {
+            return sessionFactory.getCurrentSession().createQuery(hql).list();
+        }
+
+        List<Integer> providerPersonIds = new ArrayList<Integer>();
+        for (List<Integer> chunk : partition(personIds)) {
+            providerPersonIds.addAll(sessionFactory.getCurrentSession().createQuery(hql + " where provider.person.personId in (:personIds)")
+                    .setParameterList("personIds", chunk).list());
         }
+        return providerPersonIds;
+    }
+
+    @Override
+    public Map<Integer, Set<String>> getMatchingPersonNameKeys(Collection<String> keys, Collection<String> keyPrefixes) {
+
+        Map<Integer, Set<String>> matches = new HashMap<Integer, Set<String>>();
+
+        if (keys.isEmpty() && keyPrefixes.isEmpty()) {
+            return matches;
+        }
+
+        // both conditions can be answered from the index on name_key (the prefixes never contain wildcards)
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        List<String> conditions = new ArrayList<String>();
+
+        if (!keys.isEmpty()) {
+            conditions.add("k.nameKey in (:keys)");
+            parameters.put("keys", keys);
+        }
+
+        for (String keyPrefix : keyPrefixes) {
+            String parameterName = "keyPrefix" + conditions.size();
+            conditions.add("k.nameKey like :" + parameterName);
+            parameters.put(parameterName, keyPrefix + "%");
+        }
+
+        String hql = "select k.personId, k.nameKey from " + PersonNameKey.class.getName() + " k where "
+                + StringUtils.join(conditions, " or ");
+
+        for (Object row : createQuery(hql, parameters).list()) {
+            Integer personId = (Integer) ((Object[]) row)[0];
+            Set<String> personKeys = matches.get(personId);
+            if (personKeys == null) {
+                personKeys = new HashSet<String>();
+                matches.put(personId, personKeys);
+            }
+            personKeys.add((String) ((Object[]) row)[1]);
+        }
+
+        return matches;
+    }
+
+    @Override
+    public void updatePersonNameKeys(Collection<Integer> personIds) {
+
+        Session session = sessionFactory.getCurrentSession();
+
+        // write out any pending name changes, so that the keys are built from the names as they will be committed
+        session.flush();
+
+        for (List<Integer> chunk : partition(personIds)) {
+            Query q = session.createQuery("delete from " + PersonNameKey.class.getName() + " k where k.personId in (:personIds)");
+            q.setParameterList("personIds", chunk);
+            q.executeUpdate();
+            savePersonNameKeys(chunk);
+        }
+
+        session.flush();
+    }
+
+    @Override
+    public void rebuildPersonNameKeys() {
+
+        Session session = sessionFactory.getCurrentSession();
+        session.flush();
+
+        session.createQuery("delete from " + PersonNameKey.class.getName()).executeUpdate();
+
+        // work through the persons in batches, clearing the session after each so that memory use stays flat
+        Integer lastPersonId = 0;
+
+        while (true) {
+            Query q = session.createQuery("select person.personId from Person person where person.personVoided = false"
+                    + " and person.personId > :lastPersonId order by person.personId");
+            q.setParameter("lastPersonId", lastPersonId);
+            q.setMaxResults(MAX_IN_CLAUSE_SIZE);
+
+            @SuppressWarnings("unchecked")
+            List<Integer> personIds = q.list();
 
-        // restrict to providers with a specific identifier, if specified
-        if (identifier != null && identifier.length() > 0) {
-            criteria.add(Restrictions.ilike("identifier", identifier, MatchMode.START));
+            if (personIds.isEmpty()) {
+                break;
+            }
+
+            savePersonNameKeys(personIds);
+            session.flush();
+            session.clear();
+
+            lastPersonId = personIds.get(personIds.size() - 1);
         }
+    }
+
+    @Override
+    public boolean hasPersonNameKeys() {
+        Query q = sessionFactory.getCurrentSession().createQuery("select k.personNameKeyId from " + PersonNameKey.class.getName() + " k");
+        q.setMaxResults(1);
+        return !q.list().isEmpty();
+    }
+
+    @Override
+    public void updatePersonAddressTokens(Collection<Integer> personIds) {
+
+        Session session = sessionFactory.getCurrentSession();
 
-        // restrict to provider with one of set of provider roles, if specified
-        if (providerRoles != null && providerRoles.size() > 0) {
-            criteria.add(Restrictions.in("providerRole", providerRoles));
+        // write out any pending address changes, so that the tokens are built from the addresses as they will be committed
+        session.flush();
+
+        for (List<Integer> chunk : partition(personIds)) {
+            Query q = session.createQuery("delete from " + PersonAddressToken.class.getName() + " t where t.personId in (:personIds)");
+            q.setParameterList("personIds", chunk);
+            q.executeUpdate();
+            savePersonAddressTokens(chunk);
         }
 
-        // create person criteria on top of the provider criteria
-        criteria = criteria.createCriteria("person");
+        session.flush();
+    }
+
+    @Override
+    public void rebuildPersonAddressTokens() {
+
+        Session session = sessionFactory.getCurrentSession();
+        session.flush();
+
+        session.createQuery("delete from " + PersonAddressToken.class.getName()).executeUpdate();
 
-        // we only want distinct people
-        criteria.setResultTransformer(Criteria.DISTINCT_ROOT_ENTITY);
+        // as with the name keys, work through the persons in batches, clearing the session after each
+        Integer lastPersonId = 0;
 
-        // ignore voided people
-        criteria.add(Restrictions.eq("personVoided", false));
+        while (true) {
+            Query q = session.createQuery("select person.personId from Person person where person.personVoided = false"
+                    + " and person.personId > :lastPersonId order by person.personId");
+            q.setParameter("lastPersonId", lastPersonId);
+            q.setMaxResults(MAX_IN_CLAUSE_SIZE);
 
-        // create the join to the person table
-        criteria.createAlias("names", "name");
+            @SuppressWarnings("unchecked")
+            List<Integer> personIds = q.list();
 
-        // order by name
-        criteria.addOrder(Order.asc("name.givenName"));
-        criteria.addOrder(Order.asc("name.middleName"));
-        criteria.addOrder(Order.asc("name.familyName"));
+            if (personIds.isEmpty()) {
+                break;
+            }
+
+            savePersonAddressTokens(personIds);
+            session.flush();
+            session.clear();
+
+            lastPersonId = personIds.get(personIds.size() - 1);
+        }
+    }
+
+    @Override
+    public boolean hasPersonAddressTokens() {
+        Query q = sessionFactory.getCurrentSession().createQuery("select t.personAddressTokenId from " + PersonAddressToken.class.getName() + " t");
+        q.setMaxResults(1);
+        return !q.list().isEmpty();
+    }
 
-        // handle restricting by name if any names have been specified
-        if (name != null && name.length() > 0) {
-            addNameCriteria(criteria, name);
+    @Override
+    public void updateProviderSearchEntries(Collection<Integer> personIds, PersonAttributeType searchAttributeType) {
+
+        Session session = sessionFactory.getCurrentSession();
+
+        // write out any pending changes, so that the rows are built from the data as it will be committed
+        session.flush();
+
+        for (List<Integer> chunk : partition(personIds)) {
+            Query q = session.createQuery("delete from " + ProviderSearchEntry.class.getName() + " e where e.personId in (:personIds)");
+            q.setParameterList("personIds", chunk);
+            q.executeUpdate();
+            q = session.createQuery("delete from " + ProviderSearchTerm.class.getName() + " t where t.personId in (:personIds)");
+            q.setParameterList("personIds", chunk);
+            q.executeUpdate();
+            saveProviderSearchEntries(chunk, searchAttributeType);
         }
 
-        // handle querying by address if an address has been specified
-        if (personAddress != null) {
-            addAddressCriteria(criteria, personAddress);
+        session.flush();
+    }
+
+    @Override
+    public void rebuildProviderSearchEntries(PersonAttributeType searchAttributeType) {
+
+        Session session = sessionFactory.getCurrentSession();
+        session.flush();
+
+        session.createQuery("delete from " + ProviderSearchEntry.class.getName()).executeUpdate();
+        session.createQuery("delete from " + ProviderSearchTerm.class.getName()).executeUpdate();
+
+        // as with the name keys, work through the persons in batches, clearing the session after each
+        Integer lastPersonId = 0;
+
+        while (true) {
+            Query q = session.createQuery("select distinct provider.person.personId from " + Provider.class.getName() + " provider"
+                    + " where provider.person.personId > :lastPersonId order by provider.person.personId");
+            q.setParameter("lastPersonId", lastPersonId);
+            q.setMaxResults(MAX_IN_CLAUSE_SIZE);
+
+            @SuppressWarnings("unchecked")
+            List<Integer> personIds = q.list();
+
+            if (personIds.isEmpty()) {
+                break;
+            }
+
+            saveProviderSearchEntries(personIds, searchAttributeType);
+            session.flush();
+            session.clear();
+
+            lastPersonId = personIds.get(personIds.size() - 1);
         }
+    }
+
+    @Override
+    public boolean hasProviderSearchEntries() {
+        Query q = sessionFactory.getCurrentSession().createQuery("select e.providerId from " + ProviderSearchEntry.class.getName() + " e");
+        q.setMaxResults(1);
+        return !q.list().isEmpty();
+    }
+
+    @Override
+    public boolean isSessionDirty() {
+        return sessionFactory.getCurrentSession().isDirty();
+    }
+
+    @Override
+    public int getSearchCount(ProviderSearchCriteria criteria) {
+
+        Map<String, Object> parameters = new HashMap<String, Object>();
 
-        // handle querying by person attribute if an attribute has been specified
-        // TODO: create functionality to allow searching against multiple attributes(see PROV-11) (see Hibernate ticket https://hibernate.onjira.com/browse/HHH-879 for why this will take a little work)
-        if (personAttribute != null && StringUtils.isNotBlank(personAttribute.getValue())) {
-            criteria.createAlias("attributes", "attribute");
-            criteria.add(Restrictions.and(Restrictions.eq("attribute.attributeType", personAttribute.getAttributeType()),
-                    Restrictions.ilike("attribute.value", personAttribute.getValue(), MatchMode.EXACT)));
+        if (criteria.isUseProviderSearchTable()) {
+            // the table has a row per provider, rather than per person
+            Query q = createQuery("select count(distinct entry.personId) " + buildProviderSearchTableClauses(criteria, parameters), parameters);
+            setTimeout(q, criteria);
+            return ((Number) q.uniqueResult()).intValue();
         }
 
-        return (List<Person>) criteria.list();
+        Query q = createQuery("select count(person) " + buildProviderSearchClauses(criteria, parameters), parameters);
+        setTimeout(q, criteria);
 
+        return ((Number) q.uniqueResult()).intValue();
     }
 
     @Override
@@ -183,6 +559,42 @@ public class HibernateProviderManagementDAO implements ProviderManagementDAO {
         return list;
     }
 
+    @Override
+    public List<Provider> getProvidersByPersonIds(Collection<Integer> personIds, boolean includeRetired) {
+
+        List<Provider> providers = new ArrayList<Provider>();
+
+        for (List<Integer> chunk : partition(personIds)) {
+            Criteria criteria = sessionFactory.getCurrentSession().createCriteria(Provider.class);
+
+            criteria.add(Restrictions.in("person.personId", chunk));
+            if (!includeRetired) {
+                criteria.add(Restrictions.eq("retired", false));
+            }
+            criteria.addOrder(Order.asc("providerId"));
+
+            @SuppressWarnings("unchecked")
+            List<Provider> list = criteria.list();
+            providers.addAll(list);
+        }
+
+        return providers;
+    }
+
+    @Override
+    public org.openmrs.Provider getProviderIfLoaded(Integer providerId) {
+
+        if (providerId == null) {
+            return null;
+        }
+
+        // look the provider up directly in the persistence context: unlike session.get() or session.load(), this
+        // never hits the database and never registers a proxy
+        SessionImplementor session = (SessionImplementor) sessionFactory.getCurrentSession();
+        EntityPersister persister = session.getFactory().getEntityPersister(org.openmrs.Provider.class.getName());
+        return (org.openmrs.Provider) session.getPersistenceContext().getEntity(new EntityKey(providerId, persister, EntityMode.POJO));
+    }
+
     @Override
     public List<Provider> getProvidersByProviderRoles(List<ProviderRole> roles, boolean includeRetired) {
         Criteria criteria = sessionFactory.getCurrentSession().createCriteria(Provider.class);
@@ -197,149 +609,1595 @@ public class HibernateProviderManagementDAO implements ProviderManagementDAO {
     }
 
     @Override
-    public ProviderSuggestion getProviderSuggestion(Integer id) {
-        return (ProviderSuggestion) sessionFactory.getCurrentSession().get(ProviderSuggestion.class, id);
+    public List<Relationship> getRelationshipsByPersonA(Collection<Integer> personAIds, RelationshipType relationshipType, Date date) {
+        return getRelationshipsByPerson("personA", "personB", personAIds, relationshipType, date);
     }
 
     @Override
-    public ProviderSuggestion getProviderSuggestionByUuid(String uuid) {
-        Criteria criteria = sessionFactory.getCurrentSession().createCriteria(ProviderSuggestion.class);
-        criteria.add(Restrictions.eq("uuid", uuid));
-        return (ProviderSuggestion) criteria.uniqueResult();
+    public List<Relationship> getRelationshipsByPersonB(Collection<Integer> personBIds, RelationshipType relationshipType, Date date) {
+        return getRelationshipsByPerson("personB", "personA", personBIds, relationshipType, date);
     }
 
     @Override
-    public List<ProviderSuggestion> getProviderSuggestionsByRelationshipType(RelationshipType relationshipType) {
-        Criteria criteria = sessionFactory.getCurrentSession().createCriteria(ProviderSuggestion.class);
-        criteria.add(Restrictions.eq("retired", false));
-        criteria.add(Restrictions.eq("relationshipType", relationshipType));
-        return (List<ProviderSuggestion>) criteria.list();
-    }
+    public List<Relationship> getRelationshipsActiveBetween(Integer personAId, Integer personBId, Collection<RelationshipType> relationshipTypes, Date fromDate, Date toDate) {
 
-    @Override
-    public List<ProviderSuggestion> getAllProviderSuggestions(Boolean includeRetired) {
-        Criteria criteria = sessionFactory.getCurrentSession().createCriteria(ProviderSuggestion.class);
+        if (relationshipTypes == null || relationshipTypes.isEmpty()) {
+            return new ArrayList<Relationship>();
+        }
 
-        if (!includeRetired) {
-            criteria.add(Restrictions.eq("retired", false));
+        Criteria criteria = sessionFactory.getCurrentSession().createCriteria(Relationship.class);
+        criteria.add(Restrictions.in("relationshipType", relationshipTypes));
+        criteria.add(Restrictions.eq("voided", false));
+
+        if (personAId != null) {
+            criteria.add(Restrictions.eq("personA.personId", personAId));
+        }
+        if (personBId != null) {
+            criteria.add(Restrictions.eq("personB.personId", personBId));
         }
 
-        return (List<ProviderSuggestion>) criteria.list();
-    }
+        // started by the end of the range, and not ended before the start of it
+        criteria.add(Restrictions.or(Restrictions.le("startDate", toDate), Restrictions.isNull("startDate")));
+        criteria.add(Restrictions.or(Restrictions.ge("endDate", fromDate), Restrictions.isNull("endDate")));
 
-    @Override
-    public ProviderSuggestion saveProviderSuggestion(ProviderSuggestion suggestion) {
-        sessionFactory.getCurrentSession().saveOrUpdate(suggestion);
-        return suggestion;
-    }
+        criteria.setFetchMode("personA", FetchMode.JOIN);
+        criteria.setFetchMode("personB", FetchMode.JOIN);
 
-    @Override
-    public void deleteProviderSuggestion(ProviderSuggestion suggestion) {
-        sessionFactory.getCurrentSession().delete(suggestion);
+        @SuppressWarnings("unchecked")
+        List<Relationship> relationships = criteria.list();
+        return relationships;
     }
 
     @Override
-    public SupervisionSuggestion getSupervisionSuggestion(Integer id) {
-        return (SupervisionSuggestion) sessionFactory.getCurrentSession().get(SupervisionSuggestion.class, id);
-    }
+    public int getPatientCount(Person provider, Collection<RelationshipType> relationshipTypes, Date date) {
 
-    @Override
-    public SupervisionSuggestion getSupervisionSuggestionByUuid(String uuid) {
-        Criteria criteria = sessionFactory.getCurrentSession().createCriteria(SupervisionSuggestion.class);
-        criteria.add(Restrictions.eq("uuid", uuid));
-        return (SupervisionSuggestion) criteria.uniqueResult();
+        if (relationshipTypes == null || relationshipTypes.isEmpty()) {
+            return 0;
+        }
+
+        Query q = sessionFactory.getCurrentSession().createQuery("select count(distinct r.personB.personId) " +
+                PATIENT_RELATIONSHIPS + " and r.personA.personId = :providerId" + (date != null ? ACTIVE_ON_DATE : ""));
+        q.setInteger("providerId", provider.getPersonId());
+        q.setParameterList("relationshipTypes", relationshipTypes);
+        if (date != null) {
+            q.setTimestamp("date", date);
+        }
+
+        return ((Number) q.uniqueResult()).intValue();
     }
 
     @Override
-    public List<SupervisionSuggestion> getSupervisionSuggestionsByProviderRoleAndSuggestionType(ProviderRole providerRole, SupervisionSuggestionType suggestionType) {
-        Criteria criteria = sessionFactory.getCurrentSession().createCriteria(SupervisionSuggestion.class);
-        criteria.add(Restrictions.eq("retired", false));
-        criteria.add(Restrictions.eq("providerRole", providerRole));
+    public Map<Integer, Map<RelationshipType, Integer>> getPatientCounts(Collection<Integer> providerIds, Collection<RelationshipType> relationshipTypes, Date date) {
 
-        if (suggestionType != null) {
-            criteria.add(Restrictions.eq("suggestionType", suggestionType));
+        Map<Integer, Map<RelationshipType, Integer>> counts = new HashMap<Integer, Map<RelationshipType, Integer>>();
+        for (Integer providerId : providerIds) {
+            counts.put(providerId, new HashMap<RelationshipType, Integer>());
         }
 
-        return (List<SupervisionSuggestion>) criteria.list();
+        if (counts.isEmpty() || relationshipTypes == null || relationshipTypes.isEmpty()) {
+            return counts;
+        }
+
+        Map<Integer, RelationshipType> relationshipTypesById = new HashMap<Integer, RelationshipType>();
+        for (RelationshipType relationshipType : relationshipTypes) {
+            relationshipTypesById.put(relationshipType.getRelationshipTypeId(), relationshipType);
+        }
+
+        for (List<Integer> chunk : partition(counts.keySet())) {
+            Query q = sessionFactory.getCurrentSession().createQuery("select r.personA.personId, r.relationshipType.relationshipTypeId, count(distinct r.personB.personId) " +
+                    PATIENT_RELATIONSHIPS + " and r.personA.personId in (:providerIds)" + (date != null ? ACTIVE_ON_DATE : "") +
+                    " group by r.personA.personId, r.relationshipType.relationshipTypeId");
+            q.setParameterList("providerIds", chunk);
+            q.setParameterList("relationshipTypes", relationshipTypes);
+            if (date != null) {
+                q.setTimestamp("date", date);
+            }
+
+            @SuppressWarnings("unchecked")
+            List<Object[]> rows = q.list();
+
+            for (Object[] row : rows) {
+                counts.get(row[0]).put(relationshipTypesById.get(row[1]), ((Number) row[2]).intValue());
+            }
+        }
+
+        return counts;
     }
 
     @Override
-    public List<SupervisionSuggestion> getAllSupervisionSuggestions(Boolean includeRetired) {
-        Criteria criteria = sessionFactory.getCurrentSession().createCriteria(SupervisionSuggestion.class);
+    public Map<Integer, Integer> getTotalPatientCounts(Collection<Integer> providerIds, Collection<RelationshipType> relationshipTypes, Date date) {
 
-        if (!includeRetired) {
-            criteria.add(Restrictions.eq("retired", false));
+        Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        for (Integer providerId : providerIds) {
+            counts.put(providerId, 0);
         }
 
-        return (List<SupervisionSuggestion>) criteria.list();
+        if (counts.isEmpty() || relationshipTypes == null || relationshipTypes.isEmpty()) {
+            return counts;
+        }
+
+        for (List<Integer> chunk : partition(counts.keySet())) {
+            Query q = sessionFactory.getCurrentSession().createQuery("select r.personA.personId, count(distinct r.personB.personId) " +
+                    PATIENT_RELATIONSHIPS + " and r.personA.personId in (:providerIds)" + (date != null ? ACTIVE_ON_DATE : "") +
+                    " group by r.personA.personId");
+            q.setParameterList("providerIds", chunk);
+            q.setParameterList("relationshipTypes", relationshipTypes);
+            if (date != null) {
+                q.setTimestamp("date", date);
+            }
+
+            @SuppressWarnings("unchecked")
+            List<Object[]> rows = q.list();
+
+            for (Object[] row : rows) {
+                counts.put((Integer) row[0], ((Number) row[1]).intValue());
+            }
+        }
+
+        return counts;
     }
 
     @Override
-    public SupervisionSuggestion saveSupervisionSuggestion(SupervisionSuggestion suggestion) {
-        sessionFactory.getCurrentSession().saveOrUpdate(suggestion);
-        return suggestion;
+    public Set<Integer> getProviderIdsOfPatients(Collection<Integer> patientIds, Collection<RelationshipType> relationshipTypes) {
+
+        Set<Integer> providerIds = new HashSet<Integer>();
+
+        if (relationshipTypes == null || relationshipTypes.isEmpty()) {
+            return providerIds;
+        }
+
+        for (List<Integer> chunk : partition(patientIds)) {
+            Query q = sessionFactory.getCurrentSession().createQuery("select distinct r.personA.personId from Relationship r" +
+                    " where r.relationshipType in (:relationshipTypes) and r.personB.personId in (:patientIds)");
+            q.setParameterList("relationshipTypes", relationshipTypes);
+            q.setParameterList("patientIds", chunk);
+
+            @SuppressWarnings("unchecked")
+            List<Integer> ids = q.list();
+            providerIds.addAll(ids);
+        }
+
+        return providerIds;
     }
 
     @Override
-    public void deleteSupervisionSuggestion(SupervisionSuggestion suggestion) {
-        sessionFactory.getCurrentSession().delete(suggestion);
-    }
+    public List<Integer> getPatientIdsOfProvider(Integer providerId, Collection<RelationshipType> relationshipTypes, Date date) {
 
-    private void addNameCriteria(Criteria criteria, String name) {
-        name = name.replace(", ", " ");
-        String[] names = name.split("\\s+");
+        if (relationshipTypes == null || relationshipTypes.isEmpty()) {
+            return new ArrayList<Integer>();
+        }
 
-        for (String n : names) {
-            if (n != null && n.length() > 0) {
-                criteria.add(Restrictions.or(Restrictions.ilike("name.givenName", n, MatchMode.START), Restrictions.or(Restrictions
-                        .ilike("name.familyName", n, MatchMode.START), Restrictions.or(Restrictions.ilike("name.middleName", n,
-                        MatchMode.START), Restrictions.ilike("name.familyName2", n, MatchMode.START)))));
-            }
+        Query q = sessionFactory.getCurrentSession().createQuery("select distinct r.personB.personId from Relationship r" +
+                " where r.relationshipType in (:relationshipTypes) and r.voided = false and r.personA.personId = :providerId" +
+                (date != null ? ACTIVE_ON_DATE : ""));
+        q.setInteger("providerId", providerId);
+        q.setParameterList("relationshipTypes", relationshipTypes);
+        if (date != null) {
+            q.setTimestamp("date", date);
         }
+
+        @SuppressWarnings("unchecked")
+        List<Integer> patientIds = q.list();
+        return patientIds;
     }
 
-    private void addAddressCriteria(Criteria criteria, PersonAddress personAddress) {
+    @Override
+    public Map<Integer, Patient> getPatientsByIds(Collection<Integer> patientIds, int batchSize) {
 
-        // some persons may not have an associated address at all; therefore if the personAddress variable is empty
-        // we need to make sure we don't even create the join
-        if (!personAddress.isBlank()) {
+        Map<Integer, Patient> patients = new HashMap<Integer, Patient>();
 
-            criteria.createAlias("addresses", "address");
+        for (List<Integer> chunk : partition(patientIds, Math.min(batchSize, MAX_IN_CLAUSE_SIZE))) {
+            Criteria criteria = sessionFactory.getCurrentSession().createCriteria(Patient.class);
+            criteria.add(Restrictions.in("personId", chunk));
 
-            // check all the address fields, and add restrictions if necessary
-            if (StringUtils.isNotBlank(personAddress.getAddress1())) {
-                criteria.add(Restrictions.ilike("address.address1", personAddress.getAddress1(), MatchMode.ANYWHERE));
-            }
-            if (StringUtils.isNotBlank(personAddress.getAddress2())) {
-                criteria.add(Restrictions.ilike("address.address2", personAddress.getAddress2(), MatchMode.ANYWHERE));
-            }
-            if (StringUtils.isNotBlank(personAddress.getAddress3())) {
-                criteria.add(Restrictions.ilike("address.address3", personAddress.getAddress3(), MatchMode.ANYWHERE));
+            @SuppressWarnings("unchecked")
+            List<Patient> list = criteria.list();
+            for (Patient patient : list) {
+                patients.put(patient.getPersonId(), patient);
             }
-            if (StringUtils.isNotBlank(personAddress.getAddress4())) {
-                criteria.add(Restrictions.ilike("address.address4", personAddress.getAddress4(), MatchMode.ANYWHERE));
+        }
+
+        return patients;
+    }
+
+    @Override
+    public Map<Integer, List<PatientProgram>> getPatientProgramsByPatientIds(Collection<Integer> patientIds, int batchSize) {
+
+        Map<Integer, List<PatientProgram>> patientPrograms = new HashMap<Integer, List<PatientProgram>>();
+        for (Integer patientId : patientIds) {
+            patientPrograms.put(patientId, new ArrayList<PatientProgram>());
+        }
+
+        for (List<Integer> chunk : partition(patientPrograms.keySet(), Math.min(batchSize, MAX_IN_CLAUSE_SIZE))) {
+            Query q = sessionFactory.getCurrentSession().createQuery("select pp from PatientProgram pp join fetch pp.program" +
+                    " where pp.patient.personId in (:patientIds) and pp.voided = false" +
+                    " order by pp.dateEnrolled, pp.patientProgramId");
+            q.setParameterList("patientIds", chunk);
+
+            @SuppressWarnings("unchecked")
+            List<PatientProgram> list = q.list();
+            for (PatientProgram patientProgram : list) {
+                patientPrograms.get(patientProgram.getPatient().getPersonId()).add(patientProgram);
+            }
+        }
+
+        return patientPrograms;
+    }
+
+    @Override
+    public void addCaseloadRelationships(Collection<Integer> providerIds, Collection<RelationshipType> relationshipTypes, Date fromDate, Date toDate, CaseloadSweep sweep) {
+
+        if (relationshipTypes == null || relationshipTypes.isEmpty()) {
+            return;
+        }
+
+        for (List<Integer> chunk : partition(providerIds)) {
+            Query q = sessionFactory.getCurrentSession().createQuery("select r.personA.personId, r.personB.personId, r.startDate, r.endDate " +
+                    PATIENT_RELATIONSHIPS + " and r.personA.personId in (:providerIds)" +
+                    " and (r.startDate <= :toDate or r.startDate is null) and (r.endDate >= :fromDate or r.endDate is null)" +
+                    " order by r.personA.personId, r.personB.personId");
+            q.setParameterList("providerIds", chunk);
+            q.setParameterList("relationshipTypes", relationshipTypes);
+            q.setTimestamp("fromDate", fromDate);
+            q.setTimestamp("toDate", toDate);
+            q.setReadOnly(true);
+
+            ScrollableResults results = q.scroll(ScrollMode.FORWARD_ONLY);
+            try {
+                while (results.next()) {
+                    sweep.addRelationship((Integer) results.get(0), (Integer) results.get(1), (Date) results.get(2), (Date) results.get(3));
+                }
+            }
+            finally {
+                results.close();
+            }
+        }
+    }
+
+    @Override
+    public List<Relationship> getRelationshipPage(Integer personId, boolean personIsA, Collection<RelationshipType> relationshipTypes, boolean patientsOnly,
+                                                  boolean current, Date date, RelationshipSortOrder sortOrder, boolean ascending, int firstResult, int maxResults) {
+
+        if (relationshipTypes == null || relationshipTypes.isEmpty()) {
+            return new ArrayList<Relationship>();
+        }
+
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        StringBuilder hql = new StringBuilder("select r ");
+        hql.append(buildRelationshipPageClauses(personId, personIsA, relationshipTypes, patientsOnly, current, date, parameters));
+
+        // the sort order only applies to the first sort key; ties are always broken by name, and then relationship id
+        String direction = ascending ? " asc" : " desc";
+        hql.append(" order by ");
+        if (sortOrder == RelationshipSortOrder.START_DATE) {
+            hql.append("r.startDate").append(direction).append(", ").append(PROVIDER_SEARCH_SORT_KEY);
+        }
+        else if (sortOrder == RelationshipSortOrder.END_DATE) {
+            hql.append("r.endDate").append(direction).append(", ").append(PROVIDER_SEARCH_SORT_KEY);
+        }
+        else {
+            hql.append(GIVEN_NAME).append(direction).append(", ").append(MIDDLE_NAME).append(direction).append(", ")
+                    .append(FAMILY_NAME).append(direction);
+        }
+        hql.append(", r.relationshipId");
+
+        Query q = createQuery(hql.toString(), parameters);
+        q.setFirstResult(firstResult);
+        q.setMaxResults(maxResults);
+
+        @SuppressWarnings("unchecked")
+        List<Relationship> relationships = q.list();
+        return relationships;
+    }
+
+    @Override
+    public int getRelationshipPageCount(Integer personId, boolean personIsA, Collection<RelationshipType> relationshipTypes, boolean patientsOnly,
+                                        boolean current, Date date) {
+
+        if (relationshipTypes == null || relationshipTypes.isEmpty()) {
+            return 0;
+        }
+
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        Query q = createQuery("select count(r) " + buildRelationshipPageClauses(personId, personIsA, relationshipTypes, patientsOnly,
+                current, date, parameters), parameters);
+        return ((Number) q.uniqueResult()).intValue();
+    }
+
+    @Override
+    public int updateCaseloadSummaries(Collection<Integer> providerIds, Collection<RelationshipType> relationshipTypes, Date date) {
+
+        Session session = sessionFactory.getCurrentSession();
+
+        // write out any pending changes, so that the counts are calculated from the data as it will be committed
+        session.flush();
+
+        int changes = 0;
+
+        for (List<Integer> chunk : partition(providerIds)) {
+            changes += saveCaseloadSummaries(chunk, relationshipTypes, date);
+        }
+
+        session.flush();
+        return changes;
+    }
+
+    @Override
+    public int rebuildCaseloadSummaries(Collection<RelationshipType> relationshipTypes, Date date) {
+
+        Session session = sessionFactory.getCurrentSession();
+        session.flush();
+
+        if (relationshipTypes == null || relationshipTypes.isEmpty()) {
+            return session.createQuery("delete from " + CaseloadSummary.class.getName()).executeUpdate();
+        }
+
+        int changes = 0;
+
+        // as with the search tables, work through the providers in batches, clearing the session after each; every
+        // provider with a relationship (even a voided one) is visited, so that their rows are removed if need be
+        Integer lastPersonId = 0;
+
+        while (true) {
+            Query q = session.createQuery("select distinct r.personA.personId from Relationship r where r.relationshipType in (:relationshipTypes)"
+                    + " and r.personA.personId > :lastPersonId order by r.personA.personId");
+            q.setParameterList("relationshipTypes", relationshipTypes);
+            q.setParameter("lastPersonId", lastPersonId);
+            q.setMaxResults(MAX_IN_CLAUSE_SIZE);
+
+            @SuppressWarnings("unchecked")
+            List<Integer> personIds = q.list();
+
+            if (personIds.isEmpty()) {
+                break;
+            }
+
+            changes += saveCaseloadSummaries(personIds, relationshipTypes, date);
+            session.flush();
+            session.clear();
+
+            lastPersonId = personIds.get(personIds.size() - 1);
+        }
+
+        // finally, remove the rows of providers with no relationships at all, and of relationship types that are no
+        // longer provider relationship types
+        Set<Integer> relationshipTypeIds = new HashSet<Integer>();
+        for (RelationshipType relationshipType : relationshipTypes) {
+            relationshipTypeIds.add(relationshipType.getRelationshipTypeId());
+        }
+
+        Query q = session.createQuery("delete from " + CaseloadSummary.class.getName() + " s where s.relationshipTypeId not in (:relationshipTypeIds)"
+                + " or s.personId not in (select r.personA.personId from Relationship r where r.relationshipType in (:relationshipTypes))");
+        q.setParameterList("relationshipTypeIds", relationshipTypeIds);
+        q.setParameterList("relationshipTypes", relationshipTypes);
+        changes += q.executeUpdate();
+
+        return changes;
+    }
+
+    @Override
+    public Map<Integer, Map<RelationshipType, Integer>> getCaseloadSummaryCounts(Collection<Integer> providerIds, Collection<RelationshipType> relationshipTypes) {
+
+        Map<Integer, Map<RelationshipType, Integer>> counts = new HashMap<Integer, Map<RelationshipType, Integer>>();
+        for (Integer providerId : providerIds) {
+            counts.put(providerId, new HashMap<RelationshipType, Integer>());
+        }
+
+        if (counts.isEmpty() || relationshipTypes == null || relationshipTypes.isEmpty()) {
+            return counts;
+        }
+
+        Map<Integer, RelationshipType> relationshipTypesById = new HashMap<Integer, RelationshipType>();
+        for (RelationshipType relationshipType : relationshipTypes) {
+            relationshipTypesById.put(relationshipType.getRelationshipTypeId(), relationshipType);
+        }
+
+        for (List<Integer> chunk : partition(counts.keySet())) {
+            Query q = sessionFactory.getCurrentSession().createQuery("select s.personId, s.relationshipTypeId, s.patientCount from "
+                    + CaseloadSummary.class.getName() + " s where s.personId in (:providerIds) and s.relationshipTypeId in (:relationshipTypeIds)");
+            q.setParameterList("providerIds", chunk);
+            q.setParameterList("relationshipTypeIds", relationshipTypesById.keySet());
+
+            @SuppressWarnings("unchecked")
+            List<Object[]> rows = q.list();
+
+            for (Object[] row : rows) {
+                counts.get(row[0]).put(relationshipTypesById.get(row[1]), (Integer) row[2]);
+            }
+        }
+
+        return counts;
+    }
+
+    @Override
+    public boolean hasCaseloadSummaries() {
+        Query q = sessionFactory.getCurrentSession().createQuery("select s.caseloadSummaryId from " + CaseloadSummary.class.getName() + " s");
+        q.setMaxResults(1);
+        return !q.list().isEmpty();
+    }
+
+    @Override
+    public int updateActiveAssignments(Collection<Integer> relationshipIds, Collection<RelationshipType> relationshipTypes, Date date) {
+
+        Session session = sessionFactory.getCurrentSession();
+
+        // write out any pending changes, so that the rows are calculated from the data as it will be committed
+        session.flush();
+
+        int changes = 0;
+
+        for (List<Integer> chunk : partition(relationshipIds)) {
+
+            List<Object[]> rows = new ArrayList<Object[]>();
+            if (relationshipTypes != null && !relationshipTypes.isEmpty()) {
+                Query q = session.createQuery(ACTIVE_ASSIGNMENT_COLUMNS + " and r.relationshipId in (:relationshipIds)");
+                q.setParameterList("relationshipTypes", relationshipTypes);
+                q.setTimestamp("date", date);
+                q.setParameterList("relationshipIds", chunk);
+                @SuppressWarnings("unchecked")
+                List<Object[]> list = q.list();
+                rows = list;
+            }
+
+            Query q = session.createQuery("from " + ActiveAssignment.class.getName() + " a where a.relationshipId in (:relationshipIds)");
+            q.setParameterList("relationshipIds", chunk);
+            @SuppressWarnings("unchecked")
+            List<ActiveAssignment> existing = q.list();
+
+            changes += saveActiveAssignments(rows, existing);
+        }
+
+        session.flush();
+        return changes;
+    }
+
+    @Override
+    public int rebuildActiveAssignments(Collection<RelationshipType> relationshipTypes, Date date) {
+
+        Session session = sessionFactory.getCurrentSession();
+        session.flush();
+
+        if (relationshipTypes == null || relationshipTypes.isEmpty()) {
+            return session.createQuery("delete from " + ActiveAssignment.class.getName()).executeUpdate();
+        }
+
+        int changes = 0;
+
+        // work through the active relationships in batches, in relationship id order, comparing each batch with the
+        // rows in the same range of ids (which also picks up the rows of relationships that are no longer active)
+        Integer lastRelationshipId = 0;
+
+        while (true) {
+            Query q = session.createQuery(ACTIVE_ASSIGNMENT_COLUMNS + " and r.relationshipId > :lastRelationshipId order by r.relationshipId");
+            q.setParameterList("relationshipTypes", relationshipTypes);
+            q.setTimestamp("date", date);
+            q.setParameter("lastRelationshipId", lastRelationshipId);
+            q.setMaxResults(MAX_IN_CLAUSE_SIZE);
+
+            @SuppressWarnings("unchecked")
+            List<Object[]> rows = q.list();
+
+            if (rows.isEmpty()) {
+                break;
+            }
+
+            Integer maxRelationshipId = (Integer) rows.get(rows.size() - 1)[0];
+
+            q = session.createQuery("from " + ActiveAssignment.class.getName() + " a where a.relationshipId > :lastRelationshipId"
+                    + " and a.relationshipId <= :maxRelationshipId");
+            q.setParameter("lastRelationshipId", lastRelationshipId);
+            q.setParameter("maxRelationshipId", maxRelationshipId);
+            @SuppressWarnings("unchecked")
+            List<ActiveAssignment> existing = q.list();
+
+            changes += saveActiveAssignments(rows, existing);
+            session.flush();
+            session.clear();
+
+            lastRelationshipId = maxRelationshipId;
+        }
+
+        // finally, remove the rows beyond the last active relationship
+        Query q = session.createQuery("delete from " + ActiveAssignment.class.getName() + " a where a.relationshipId > :lastRelationshipId");
+        q.setParameter("lastRelationshipId", lastRelationshipId);
+        changes += q.executeUpdate();
+
+        return changes;
+    }
+
+    @Override
+    public List<Relationship> getActiveAssignmentRelationships(Integer providerId, Collection<RelationshipType> relationshipTypes, Date date) {
+
+        if (relationshipTypes == null || relationshipTypes.isEmpty()) {
+            return new ArrayList<Relationship>();
+        }
+
+        // the relationships are found through the provider index of the active assignment table, then loaded by id
+        Query q = sessionFactory.getCurrentSession().createQuery("select r from Relationship r join fetch r.personB where r.voided = false" +
+                " and r.relationshipId in (select a.relationshipId from " + ActiveAssignment.class.getName() + " a" +
+                " where a.providerPersonId = :providerId and a.relationshipTypeId in (:relationshipTypeIds)" + ASSIGNMENT_ACTIVE_ON_DATE + ")");
+        q.setInteger("providerId", providerId);
+        q.setParameterList("relationshipTypeIds", getRelationshipTypeIds(relationshipTypes));
+        q.setTimestamp("date", date);
+
+        @SuppressWarnings("unchecked")
+        List<Relationship> relationships = q.list();
+        return relationships;
+    }
+
+    @Override
+    public List<Integer> getActiveAssignmentPatientIds(Integer providerId, Collection<RelationshipType> relationshipTypes, Date date) {
+
+        if (relationshipTypes == null || relationshipTypes.isEmpty()) {
+            return new ArrayList<Integer>();
+        }
+
+        Query q = sessionFactory.getCurrentSession().createQuery("select distinct a.patientId from " + ACTIVE_ASSIGNMENTS +
+                " and a.providerPersonId = :providerId and a.relationshipTypeId in (:relationshipTypeIds)" + ASSIGNMENT_ACTIVE_ON_DATE);
+        q.setInteger("providerId", providerId);
+        q.setParameterList("relationshipTypeIds", getRelationshipTypeIds(relationshipTypes));
+        q.setTimestamp("date", date);
+
+        @SuppressWarnings("unchecked")
+        List<Integer> patientIds = q.list();
+        return patientIds;
+    }
+
+    @Override
+    public int getActiveAssignmentPatientCount(Integer providerId, Collection<RelationshipType> relationshipTypes, Date date) {
+
+        if (relationshipTypes == null || relationshipTypes.isEmpty()) {
+            return 0;
+        }
+
+        Query q = sessionFactory.getCurrentSession().createQuery("select count(distinct a.patientId) from " + ACTIVE_ASSIGNMENTS +
+                " and a.providerPersonId = :providerId and a.relationshipTypeId in (:relationshipTypeIds)" + ASSIGNMENT_ACTIVE_ON_DATE +
+                " and a.patientId in (select p.personId from Patient p where p.voided = false)");
+        q.setInteger("providerId", providerId);
+        q.setParameterList("relationshipTypeIds", getRelationshipTypeIds(relationshipTypes));
+        q.setTimestamp("date", date);
+
+        return ((Number) q.uniqueResult()).intValue();
+    }
+
+    @Override
+    public Map<Integer, Map<RelationshipType, Integer>> getActiveAssignmentPatientCounts(Collection<Integer> providerIds, Collection<RelationshipType> relationshipTypes, Date date) {
+
+        Map<Integer, Map<RelationshipType, Integer>> counts = new HashMap<Integer, Map<RelationshipType, Integer>>();
+        for (Integer providerId : providerIds) {
+            counts.put(providerId, new HashMap<RelationshipType, Integer>());
+        }
+
+        if (counts.isEmpty() || relationshipTypes == null || relationshipTypes.isEmpty()) {
+            return counts;
+        }
+
+        Map<Integer, RelationshipType> relationshipTypesById = new HashMap<Integer, RelationshipType>();
+        for (RelationshipType relationshipType : relationshipTypes) {
+            relationshipTypesById.put(relationshipType.getRelationshipTypeId(), relationshipType);
+        }
+
+        for (List<Integer> chunk : partition(counts.keySet())) {
+            Query q = sessionFactory.getCurrentSession().createQuery("select a.providerPersonId, a.relationshipTypeId, count(distinct a.patientId) from "
+                    + ACTIVE_ASSIGNMENTS + " and a.providerPersonId in (:providerIds) and a.relationshipTypeId in (:relationshipTypeIds)"
+                    + ASSIGNMENT_ACTIVE_ON_DATE + " and a.patientId in (select p.personId from Patient p where p.voided = false)"
+                    + " group by a.providerPersonId, a.relationshipTypeId");
+            q.setParameterList("providerIds", chunk);
+            q.setParameterList("relationshipTypeIds", relationshipTypesById.keySet());
+            q.setTimestamp("date", date);
+
+            @SuppressWarnings("unchecked")
+            List<Object[]> rows = q.list();
+
+            for (Object[] row : rows) {
+                counts.get(row[0]).put(relationshipTypesById.get(row[1]), ((Number) row[2]).intValue());
+            }
+        }
+
+        return counts;
+    }
+
+    @Override
+    public Map<Integer, Integer> getActiveAssignmentTotalPatientCounts(Collection<Integer> providerIds, Collection<RelationshipType> relationshipTypes, Date date) {
+
+        Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+        for (Integer providerId : providerIds) {
+            counts.put(providerId, 0);
+        }
+
+        if (counts.isEmpty() || relationshipTypes == null || relationshipTypes.isEmpty()) {
+            return counts;
+        }
+
+        for (List<Integer> chunk : partition(counts.keySet())) {
+            Query q = sessionFactory.getCurrentSession().createQuery("select a.providerPersonId, count(distinct a.patientId) from "
+                    + ACTIVE_ASSIGNMENTS + " and a.providerPersonId in (:providerIds) and a.relationshipTypeId in (:relationshipTypeIds)"
+                    + ASSIGNMENT_ACTIVE_ON_DATE + " and a.patientId in (select p.personId from Patient p where p.voided = false)"
+                    + " group by a.providerPersonId");
+            q.setParameterList("providerIds", chunk);
+            q.setParameterList("relationshipTypeIds", getRelationshipTypeIds(relationshipTypes));
+            q.setTimestamp("date", date);
+
+            @SuppressWarnings("unchecked")
+            List<Object[]> rows = q.list();
+
+            for (Object[] row : rows) {
+                counts.put((Integer) row[0], ((Number) row[1]).intValue());
+            }
+        }
+
+        return counts;
+    }
+
+    @Override
+    public boolean hasActiveAssignments() {
+        Query q = sessionFactory.getCurrentSession().createQuery("select a.relationshipId from " + ActiveAssignment.class.getName() + " a");
+        q.setMaxResults(1);
+        return !q.list().isEmpty();
+    }
+
+    @Override
+    public ProviderSuggestion getProviderSuggestion(Integer id) {
+        return (ProviderSuggestion) sessionFactory.getCurrentSession().get(ProviderSuggestion.class, id);
+    }
+
+    @Override
+    public ProviderSuggestion getProviderSuggestionByUuid(String uuid) {
+        Criteria criteria = sessionFactory.getCurrentSession().createCriteria(ProviderSuggestion.class);
+        criteria.add(Restrictions.eq("uuid", uuid));
+        return (ProviderSuggestion) criteria.uniqueResult();
+    }
+
+    @Override
+    public List<ProviderSuggestion> getProviderSuggestionsByRelationshipType(RelationshipType relationshipType) {
+        Criteria criteria = sessionFactory.getCurrentSession().createCriteria(ProviderSuggestion.class);
+        criteria.add(Restrictions.eq("retired", false));
+        criteria.add(Restrictions.eq("relationshipType", relationshipType));
+        return (List<ProviderSuggestion>) criteria.list();
+    }
+
+    @Override
+    public List<ProviderSuggestion> getAllProviderSuggestions(Boolean includeRetired) {
+        Criteria criteria = sessionFactory.getCurrentSession().createCriteria(ProviderSuggestion.class);
+
+        if (!includeRetired) {
+            criteria.add(Restrictions.eq("retired", false));
+        }
+
+        return (List<ProviderSuggestion>) criteria.list();
+    }
+
+    @Override
+    public ProviderSuggestion saveProviderSuggestion(ProviderSuggestion suggestion) {
+        sessionFactory.getCurrentSession().saveOrUpdate(suggestion);
+        return suggestion;
+    }
+
+    @Override
+    public void deleteProviderSuggestion(ProviderSuggestion suggestion) {
+        sessionFactory.getCurrentSession().delete(suggestion);
+    }
+
+    @Override
+    public SupervisionSuggestion getSupervisionSuggestion(Integer id) {
+        return (SupervisionSuggestion) sessionFactory.getCurrentSession().get(SupervisionSuggestion.class, id);
+    }
+
+    @Override
+    public SupervisionSuggestion getSupervisionSuggestionByUuid(String uuid) {
+        Criteria criteria = sessionFactory.getCurrentSession().createCriteria(SupervisionSuggestion.class);
+        criteria.add(Restrictions.eq("uuid", uuid));
+        return (SupervisionSuggestion) criteria.uniqueResult();
+    }
+
+    @Override
+    public List<SupervisionSuggestion> getSupervisionSuggestionsByProviderRoleAndSuggestionType(ProviderRole providerRole, SupervisionSuggestionType suggestionType) {
+        Criteria criteria = sessionFactory.getCurrentSession().createCriteria(SupervisionSuggestion.class);
+        criteria.add(Restrictions.eq("retired", false));
+        criteria.add(Restrictions.eq("providerRole", providerRole));
+
+        if (suggestionType != null) {
+            criteria.add(Restrictions.eq("suggestionType", suggestionType));
+        }
+
+        return (List<SupervisionSuggestion>) criteria.list();
+    }
+
+    @Override
+    public List<SupervisionSuggestion> getAllSupervisionSuggestions(Boolean includeRetired) {
+        Criteria criteria = sessionFactory.getCurrentSession().createCriteria(SupervisionSuggestion.class);
+
+        if (!includeRetired) {
+            criteria.add(Restrictions.eq("retired", false));
+        }
+
+        return (List<SupervisionSuggestion>) criteria.list();
+    }
+
+    @Override
+    public SupervisionSuggestion saveSupervisionSuggestion(SupervisionSuggestion suggestion) {
+        sessionFactory.getCurrentSession().saveOrUpdate(suggestion);
+        return suggestion;
+    }
+
+    @Override
+    public void deleteSupervisionSuggestion(SupervisionSuggestion suggestion) {
+        sessionFactory.getCurrentSession().delete(suggestion);
+    }
+
+    private List<Relationship> getRelationshipsByPerson(String personProperty, String otherPersonProperty, Collection<Integer> personIds, RelationshipType relationshipType, Date date) {
+
+        List<Relationship> relationships = new ArrayList<Relationship>();
+
+        for (List<Integer> chunk : partition(personIds)) {
+            Criteria criteria = sessionFactory.getCurrentSession().createCriteria(Relationship.class);
+            criteria.add(Restrictions.eq("relationshipType", relationshipType));
+            criteria.add(Restrictions.in(personProperty + ".personId", chunk));
+            criteria.add(Restrictions.eq("voided", false));
+
+            // note that, as with PersonService.getRelationships, a relationship is still considered active on the date it ends
+            if (date != null) {
+                criteria.add(Restrictions.or(Restrictions.le("startDate", date), Restrictions.isNull("startDate")));
+                criteria.add(Restrictions.or(Restrictions.ge("endDate", date), Restrictions.isNull("endDate")));
+            }
+
+            // fetch the persons at the other end of the relationship in the same query
+            criteria.setFetchMode(otherPersonProperty, FetchMode.JOIN);
+
+            relationships.addAll((List<Relationship>) criteria.list());
+        }
+
+        return relationships;
+    }
+
+    private static <T> List<List<T>> partition(Collection<T> items) {
+        return partition(items, MAX_IN_CLAUSE_SIZE);
+    }
+
+    private static <T> List<List<T>> partition(Collection<T> items, int size) {
+
+        List<List<T>> chunks = new ArrayList<List<T>>();
+        List<T> chunk = new ArrayList<T>();
+
+        for (T item : items) {
+            chunk.add(item);
+            if (chunk.size() == size) {
+                chunks.add(chunk);
+                chunk = new ArrayList<T>();
+            }
+        }
+
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+
+        return chunks;
+    }
+
+    /**
+     * The first phase of a provider search: finds the ids of the matching persons, along with the name parts they
+     * are sorted by, in sort order
+     *
+     * Only scalar columns are selected, and, because each person is joined to just the one name they are displayed by,
+     * there is exactly one row per person; it is left to the second phase, {@link #getPersonsByIds(List)}, to load
+     * the Person entities, and only those for the rows actually used
+     *
+     * @param criteria the search criteria
+     * @param cursor if specified, only return persons that sort after this cursor
+     * @param maxResults if specified, the maximum number of rows to return
+     * @return a list of rows of person id, given name, middle name and family name (nulls returned as empty strings)
+     */
+    private List<Object[]> findProviderSortKeys(ProviderSearchCriteria criteria, ProviderSearchCursor cursor, Integer maxResults) {
+
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        StringBuilder hql = new StringBuilder();
+
+        // the provider search table holds the display name (with nulls already replaced by empty strings) on every
+        // row, and has a row per provider, so the persons are made distinct
+        boolean useTable = criteria.isUseProviderSearchTable();
+        String personId = useTable ? "entry.personId" : "person.personId";
+        String givenName = useTable ? "entry.givenName" : GIVEN_NAME;
+        String middleName = useTable ? "entry.middleName" : MIDDLE_NAME;
+        String familyName = useTable ? "entry.familyName" : FAMILY_NAME;
+
+        hql.append(useTable ? "select distinct " : "select ").append(personId).append(", ");
+        hql.append(givenName).append(", ").append(middleName).append(", ").append(familyName).append(" ");
+        hql.append(useTable ? buildProviderSearchTableClauses(criteria, parameters) : buildProviderSearchClauses(criteria, parameters));
+
+        // keyset paging: start after the sort key of the last result of the previous page
+        if (cursor != null) {
+            hql.append(" and (" + givenName + " > :cursorGivenName");
+            hql.append(" or (" + givenName + " = :cursorGivenName and (" + middleName + " > :cursorMiddleName");
+            hql.append(" or (" + middleName + " = :cursorMiddleName and (" + familyName + " > :cursorFamilyName");
+            hql.append(" or (" + familyName + " = :cursorFamilyName and " + personId + " > :cursorPersonId))))))");
+            parameters.put("cursorGivenName", cursor.getGivenName());
+            parameters.put("cursorMiddleName", cursor.getMiddleName());
+            parameters.put("cursorFamilyName", cursor.getFamilyName());
+            parameters.put("cursorPersonId", cursor.getPersonId());
+        }
+
+        hql.append(" order by ").append(givenName).append(", ").append(middleName).append(", ").append(familyName);
+        hql.append(", ").append(personId);
+
+        Query q = createQuery(hql.toString(), parameters);
+        setTimeout(q, criteria);
+        if (maxResults != null) {
+            q.setMaxResults(maxResults);
+        }
+
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = q.list();
+        return rows;
+    }
+
+    /**
+     * The second phase of a provider search: loads the persons with the specified ids (in chunks, to keep the
+     * "in" clauses to a reasonable size), returned in the same order as the ids
+     */
+    @Override
+    public List<Person> getPersonsByIds(List<Integer> personIds) {
+
+        Map<Integer, Person> personsById = new HashMap<Integer, Person>();
+
+        for (List<Integer> chunk : partition(personIds)) {
+            Query q = sessionFactory.getCurrentSession().createQuery("from Person person where person.personId in (:personIds)");
+            q.setParameterList("personIds", chunk);
+            for (Object person : q.list()) {
+                personsById.put(((Person) person).getPersonId(), (Person) person);
+            }
+        }
+
+        List<Person> persons = new ArrayList<Person>();
+        for (Integer personId : personIds) {
+            Person person = personsById.get(personId);
+            if (person != null) {
+                persons.add(person);
+            }
+        }
+
+        return persons;
+    }
+
+    /**
+     * An alternative second phase of a provider search: fetches the display rows for the persons with the specified ids,
+     * using a single projection query (in chunks, as above), returned in the same order as the ids
+     */
+    @Override
+    public List<ProviderSearchRow> getProviderSearchRows(List<Integer> personIds, ProviderSearchCriteria criteria) {
+
+        Map<Integer, ProviderSearchRow> rowsByPersonId = new HashMap<Integer, ProviderSearchRow>();
+        Map<Integer, Integer> ranksByPersonId = new HashMap<Integer, Integer>();
+
+        for (List<Integer> chunk : partition(personIds)) {
+
+            Map<String, Object> parameters = new HashMap<String, Object>();
+            StringBuilder hql = new StringBuilder();
+
+            hql.append("select person.personId, ").append(PROVIDER_SEARCH_SORT_KEY).append(", person.gender,");
+            hql.append(" provider.providerId, provider.identifier, role.name, role.uuid, provider.retired");
+            hql.append(" from Person person, PersonName name, ").append(Provider.class.getName()).append(" provider left join provider.providerRole role");
+            hql.append(" where ").append(DISPLAY_NAME_RESTRICTION);
+            hql.append(" and provider.person = person and person.personId in (:personIds)");
+            hql.append(buildProviderRestrictions(criteria, parameters));
+            hql.append(" order by provider.providerId");
+            parameters.put("personIds", chunk);
+
+            @SuppressWarnings("unchecked")
+            List<Object[]> rows = createQuery(hql.toString(), parameters).list();
+
+            // keep the provider of each person whose identifier matched the search, falling back to the first (ie,
+            // lowest id) provider if the person was matched by name
+            for (Object[] row : rows) {
+                int rank = rankIdentifierMatch((String) row[6], criteria);
+                Integer bestRank = ranksByPersonId.get(row[0]);
+                if (bestRank == null || rank > bestRank) {
+                    ranksByPersonId.put((Integer) row[0], rank);
+                    rowsByPersonId.put((Integer) row[0], new ProviderSearchRow((Integer) row[0], (String) row[1], (String) row[2],
+                            (String) row[3], (String) row[4], (Integer) row[5], (String) row[6], (String) row[7], (String) row[8],
+                            Boolean.TRUE.equals(row[9])));
+                }
+            }
+        }
+
+        List<ProviderSearchRow> rows = new ArrayList<ProviderSearchRow>();
+        for (Integer personId : personIds) {
+            ProviderSearchRow row = rowsByPersonId.get(personId);
+            if (row != null) {
+                rows.add(row);
+            }
+        }
+
+        return rows;
+    }
+
+    /**
+     * Ranks how well a provider's identifier matches the search, using the same prefix rules as the search itself: a
+     * provider that matches the identifier restriction outranks one that doesn't, and, after that, a provider whose
+     * identifier matches the query outranks one whose person only matched by name
+     */
+    private int rankIdentifierMatch(String identifier, ProviderSearchCriteria criteria) {
+
+        String lowerCaseIdentifier = identifier != null ? identifier.toLowerCase() : null;
+        int rank = 0;
+
+        if (StringUtils.isNotBlank(criteria.getIdentifier()) && lowerCaseIdentifier != null
+                && lowerCaseIdentifier.startsWith(criteria.getIdentifier().toLowerCase())) {
+            rank += 2;
+        }
+
+        if (StringUtils.isNotBlank(criteria.getQuery()) && lowerCaseIdentifier != null
+                && lowerCaseIdentifier.startsWith(criteria.getQuery().toLowerCase())) {
+            rank += 1;
+        }
+
+        return rank;
+    }
+
+    /**
+     * Loads the provider name index entries for the specified persons (or for all providers if null), using one query
+     * for the providers and one for the names
+     */
+    private List<ProviderNameIndexEntry> buildProviderNameIndexEntries(List<Integer> personIds) {
+
+        String personRestriction = personIds != null ? " and person.personId in (:personIds)" : "";
+
+        Query providerQuery = sessionFactory.getCurrentSession().createQuery("select person.personId, provider.providerId,"
+                + " role.providerRoleId, provider.retired, provider.identifier from " + Provider.class.getName() + " provider"
+                + " join provider.person person left join provider.providerRole role"
+                + " where person.personVoided = false" + personRestriction + " order by provider.providerId");
+
+        // the names are ordered so that the first name of each person is the one they are displayed by
+        Query nameQuery = sessionFactory.getCurrentSession().createQuery("select person.personId, name.givenName,"
+                + " name.middleName, name.familyName, name.familyName2 from PersonName name join name.person person"
+                + " where name.voided = false and person.personVoided = false" + personRestriction
+                + " and person.personId in (select provider.person.personId from " + Provider.class.getName() + " provider)"
+                + " order by person.personId, name.preferred desc, name.personNameId");
+
+        if (personIds != null) {
+            providerQuery.setParameterList("personIds", personIds);
+            nameQuery.setParameterList("personIds", personIds);
+        }
+
+        Map<Integer, ProviderNameIndexEntry> entries = new LinkedHashMap<Integer, ProviderNameIndexEntry>();
+
+        for (Object row : nameQuery.list()) {
+            Object[] name = (Object[]) row;
+            ProviderNameIndexEntry entry = entries.get(name[0]);
+            if (entry == null) {
+                entry = new ProviderNameIndexEntry((Integer) name[0], (String) name[1], (String) name[2], (String) name[3]);
+                entries.put(entry.getPersonId(), entry);
+            }
+            entry.addName((String) name[1], (String) name[2], (String) name[3], (String) name[4]);
+        }
+
+        // persons without any names can never be found by the search, so they are left out of the index
+        for (Object row : providerQuery.list()) {
+            Object[] provider = (Object[]) row;
+            ProviderNameIndexEntry entry = entries.get(provider[0]);
+            if (entry != null) {
+                entry.addProvider((Integer) provider[1], (Integer) provider[2], Boolean.TRUE.equals(provider[3]), (String) provider[4]);
+            }
+        }
+
+        return new ArrayList<ProviderNameIndexEntry>(entries.values());
+    }
+
+    /**
+     * Brings the caseload summary rows of the specified providers into line with the current patient counts
+     *
+     * @return the number of rows that were inserted, updated or deleted
+     */
+    private int saveCaseloadSummaries(List<Integer> providerIds, Collection<RelationshipType> relationshipTypes, Date date) {
+
+        Session session = sessionFactory.getCurrentSession();
+
+        Map<Integer, Map<RelationshipType, Integer>> counts = getPatientCounts(providerIds, relationshipTypes, date);
+
+        Map<String, CaseloadSummary> existing = new HashMap<String, CaseloadSummary>();
+        Query q = session.createQuery("from " + CaseloadSummary.class.getName() + " s where s.personId in (:providerIds)");
+        q.setParameterList("providerIds", providerIds);
+        for (Object summary : q.list()) {
+            CaseloadSummary caseloadSummary = (CaseloadSummary) summary;
+            existing.put(caseloadSummary.getPersonId() + ":" + caseloadSummary.getRelationshipTypeId(), caseloadSummary);
+        }
+
+        int changes = 0;
+
+        for (Map.Entry<Integer, Map<RelationshipType, Integer>> providerCounts : counts.entrySet()) {
+            for (Map.Entry<RelationshipType, Integer> count : providerCounts.getValue().entrySet()) {
+                Integer relationshipTypeId = count.getKey().getRelationshipTypeId();
+                CaseloadSummary caseloadSummary = existing.remove(providerCounts.getKey() + ":" + relationshipTypeId);
+                if (caseloadSummary == null) {
+                    session.save(new CaseloadSummary(providerCounts.getKey(), relationshipTypeId, count.getValue()));
+                    changes++;
+                }
+                else if (!caseloadSummary.getPatientCount().equals(count.getValue())) {
+                    caseloadSummary.setPatientCount(count.getValue());
+                    changes++;
+                }
+            }
+        }
+
+        // anything left over is a count that has dropped to zero
+        for (CaseloadSummary caseloadSummary : existing.values()) {
+            session.delete(caseloadSummary);
+            changes++;
+        }
+
+        return changes;
+    }
+
+    /**
+     * Brings the specified active assignment rows into line with the specified relationships
+     *
+     * @param rows the relationship id, provider person id, patient id, relationship type id, start date and end date of
+     *        each relationship that should have a row
+     * @param existing the rows currently held for (at least) those relationships
+     * @return the number of rows that were inserted, updated or deleted
+     */
+    private int saveActiveAssignments(List<Object[]> rows, List<ActiveAssignment> existing) {
+
+        Session session = sessionFactory.getCurrentSession();
+
+        Map<Integer, ActiveAssignment> existingById = new HashMap<Integer, ActiveAssignment>();
+        for (ActiveAssignment activeAssignment : existing) {
+            existingById.put(activeAssignment.getRelationshipId(), activeAssignment);
+        }
+
+        int changes = 0;
+
+        for (Object[] row : rows) {
+            ActiveAssignment activeAssignment = existingById.remove(row[0]);
+            if (activeAssignment == null) {
+                session.save(new ActiveAssignment((Integer) row[0], (Integer) row[1], (Integer) row[2], (Integer) row[3], (Date) row[4], (Date) row[5]));
+                changes++;
+            }
+            else if (!activeAssignment.getProviderPersonId().equals(row[1]) || !activeAssignment.getPatientId().equals(row[2])
+                    || !activeAssignment.getRelationshipTypeId().equals(row[3]) || !isSameTime(activeAssignment.getStartDate(), (Date) row[4])
+                    || !isSameTime(activeAssignment.getEndDate(), (Date) row[5])) {
+                activeAssignment.setProviderPersonId((Integer) row[1]);
+                activeAssignment.setPatientId((Integer) row[2]);
+                activeAssignment.setRelationshipTypeId((Integer) row[3]);
+                activeAssignment.setStartDate((Date) row[4]);
+                activeAssignment.setEndDate((Date) row[5]);
+                changes++;
+            }
+        }
+
+        // anything left over is a relationship that has been voided, ended, deleted or changed to another type
+        for (ActiveAssignment activeAssignment : existingById.values()) {
+            session.delete(activeAssignment);
+            changes++;
+        }
+
+        return changes;
+    }
+
+    // dates loaded from the database may be Timestamps, which don't compare equal to Dates
+    private static boolean isSameTime(Date date, Date otherDate) {
+        return date == null ? otherDate == null : otherDate != null && date.getTime() == otherDate.getTime();
+    }
+
+    private static Set<Integer> getRelationshipTypeIds(Collection<RelationshipType> relationshipTypes) {
+        Set<Integer> relationshipTypeIds = new HashSet<Integer>();
+        for (RelationshipType relationshipType : relationshipTypes) {
+            relationshipTypeIds.add(relationshipType.getRelationshipTypeId());
+        }
+        return relationshipTypeIds;
+    }
+
+    /**
+     * Saves the provider search table rows of the providers of the specified persons, built from the same data as
+     * the provider name index entries, along with the search terms of those persons: the distinct parts of all their
+     * names, and all their non-voided values of the search attribute type; assumes the persons currently have no rows
+     */
+    private void saveProviderSearchEntries(List<Integer> personIds, PersonAttributeType searchAttributeType) {
+
+        Session session = sessionFactory.getCurrentSession();
+        Map<Integer, Set<String>> attributeValues = new HashMap<Integer, Set<String>>();
+
+        if (searchAttributeType != null) {
+            Query q = session.createQuery("select person.personId, attribute.value"
+                    + " from PersonAttribute attribute join attribute.person person where attribute.voided = false"
+                    + " and attribute.attributeType.personAttributeTypeId = :typeId and person.personId in (:personIds)");
+            q.setParameter("typeId", searchAttributeType.getPersonAttributeTypeId());
+            q.setParameterList("personIds", personIds);
+            for (Object row : q.list()) {
+                Object[] attribute = (Object[]) row;
+                if (attribute[1] != null) {
+                    addTerm(attributeValues, (Integer) attribute[0], ((String) attribute[1]).toLowerCase());
+                }
+            }
+        }
+
+        for (ProviderNameIndexEntry entry : buildProviderNameIndexEntries(personIds)) {
+
+            for (ProviderNameIndexEntry.IndexedProvider provider : entry.getProviders()) {
+                ProviderSearchEntry searchEntry = new ProviderSearchEntry();
+                searchEntry.setProviderId(provider.getProviderId());
+                searchEntry.setPersonId(entry.getPersonId());
+                searchEntry.setIdentifier(provider.getIdentifier());
+                searchEntry.setProviderRoleId(provider.getProviderRoleId());
+                searchEntry.setRetired(provider.isRetired());
+                searchEntry.setGivenName(entry.getGivenName());
+                searchEntry.setMiddleName(entry.getMiddleName());
+                searchEntry.setFamilyName(entry.getFamilyName());
+                session.save(searchEntry);
+            }
+
+            // the name parts are already in lower case
+            Set<String> nameParts = new HashSet<String>();
+            for (String[] name : entry.getNames()) {
+                for (String part : name) {
+                    if (StringUtils.isNotBlank(part)) {
+                        nameParts.add(part);
+                    }
+                }
+            }
+
+            saveProviderSearchTerms(entry.getPersonId(), ProviderSearchTerm.NAME, nameParts);
+            saveProviderSearchTerms(entry.getPersonId(), ProviderSearchTerm.ATTRIBUTE, attributeValues.get(entry.getPersonId()));
+        }
+    }
+
+    private void saveProviderSearchTerms(Integer personId, String field, Collection<String> terms) {
+        if (terms != null) {
+            for (String term : terms) {
+                // (the core person name and attribute columns are all shorter than this, so nothing is actually left out)
+                if (term.length() <= ProviderSearchTerm.MAX_TERM_LENGTH) {
+                    sessionFactory.getCurrentSession().save(new ProviderSearchTerm(personId, field, term));
+                }
+            }
+        }
+    }
+
+    private static void addTerm(Map<Integer, Set<String>> terms, Integer personId, String term) {
+        Set<String> personTerms = terms.get(personId);
+        if (personTerms == null) {
+            personTerms = new HashSet<String>();
+            terms.put(personId, personTerms);
+        }
+        personTerms.add(term);
+    }
+
+    /**
+     * Saves the name keys of the non-voided names of the specified (non-voided) persons; assumes the persons
+     * currently have no keys
+     */
+    private void savePersonNameKeys(List<Integer> personIds) {
+
+        Query q = sessionFactory.getCurrentSession().createQuery("select person.personId, name.givenName, name.middleName,"
+                + " name.familyName, name.familyName2 from PersonName name join name.person person"
+                + " where name.voided = false and person.personVoided = false and person.personId in (:personIds)");
+        q.setParameterList("personIds", personIds);
+
+        // a person's names often share words, so the keys are collected per person to avoid duplicate rows
+        Map<Integer, Set<String>> keysByPersonId = new LinkedHashMap<Integer, Set<String>>();
+
+        for (Object row : q.list()) {
+            Object[] name = (Object[]) row;
+            Set<String> keys = keysByPersonId.get(name[0]);
+            if (keys == null) {
+                keys = new HashSet<String>();
+                keysByPersonId.put((Integer) name[0], keys);
+            }
+            keys.addAll(PersonNameKeys.getKeys((String) name[1], (String) name[2], (String) name[3], (String) name[4]));
+        }
+
+        for (Map.Entry<Integer, Set<String>> entry : keysByPersonId.entrySet()) {
+            for (String key : entry.getValue()) {
+                sessionFactory.getCurrentSession().save(new PersonNameKey(entry.getKey(), key));
+            }
+        }
+    }
+
+    /**
+     * Saves the address tokens of all the addresses of the specified (non-voided) persons; assumes the persons
+     * currently have no tokens
+     *
+     * (Voided addresses are included, as the provider search has always matched them)
+     */
+    private void savePersonAddressTokens(List<Integer> personIds) {
+
+        StringBuilder hql = new StringBuilder("select address.personAddressId, person.personId");
+        for (String field : PersonAddressTokens.FIELDS) {
+            hql.append(", address.").append(field);
+        }
+        hql.append(" from PersonAddress address join address.person person");
+        hql.append(" where person.personVoided = false and person.personId in (:personIds)");
+
+        Query q = sessionFactory.getCurrentSession().createQuery(hql.toString());
+        q.setParameterList("personIds", personIds);
+
+        for (Object row : q.list()) {
+            Object[] address = (Object[]) row;
+            for (int i = 0; i < PersonAddressTokens.FIELDS.size(); i++) {
+                for (String token : PersonAddressTokens.getTokens((String) address[i + 2])) {
+                    sessionFactory.getCurrentSession().save(new PersonAddressToken((Integer) address[0],
+                            (Integer) address[1], PersonAddressTokens.FIELDS.get(i), token));
+                }
+            }
+        }
+    }
+
+    private List<Integer> getPersonIds(List<Object[]> sortKeys) {
+        List<Integer> personIds = new ArrayList<Integer>();
+        for (Object[] row : sortKeys) {
+            personIds.add((Integer) row[0]);
+        }
+        return personIds;
+    }
+
+    /**
+     * Builds the "from" and "where" clauses of a page of relationships
+     *
+     * The person at the other end of each relationship is joined to the name they are displayed (and so sorted) by,
+     * so that the query returns exactly one row per relationship, and the count and the pages always agree
+     */
+    private String buildRelationshipPageClauses(Integer personId, boolean personIsA, Collection<RelationshipType> relationshipTypes,
+                                                boolean patientsOnly, boolean current, Date date, Map<String, Object> parameters) {
+
+        StringBuilder hql = new StringBuilder();
+
+        hql.append("from Relationship r, Person person, PersonName name");
+        hql.append(" where r.relationshipType in (:relationshipTypes) and r.voided = false");
+        hql.append(personIsA ? " and r.personA.personId = :personId and person = r.personB" : " and r.personB.personId = :personId and person = r.personA");
+        hql.append(" and ").append(DISPLAY_NAME_RESTRICTION);
+
+        if (patientsOnly) {
+            hql.append(" and r.personB.personId in (select p.personId from Patient p where p.voided = false)");
+        }
+
+        hql.append(current ? ACTIVE_ON_DATE : NOT_ACTIVE_ON_DATE);
+
+        parameters.put("relationshipTypes", relationshipTypes);
+        parameters.put("personId", personId);
+        parameters.put("date", date);
+
+        return hql.toString();
+    }
+
+    /**
+     * Builds the "from" and "where" clauses of a provider search
+     *
+     * Each person is joined to the name they are displayed (and so sorted) by, ie, their preferred name, or, failing
+     * that, their first non-voided name, so that the query returns exactly one row per person; name matching is done
+     * against any of the person's names, using a subquery
+     */
+    private String buildProviderSearchClauses(ProviderSearchCriteria criteria, Map<String, Object> parameters) {
+
+        StringBuilder hql = new StringBuilder();
+
+        hql.append("from Person person, PersonName name");
+        hql.append(" where ").append(DISPLAY_NAME_RESTRICTION).append(" and person.personVoided = false");
+
+        String providerRestrictions = buildProviderRestrictions(criteria, parameters);
+
+        // the person must be a provider (with the specified identifier, if any)
+        hql.append(" and person.personId in (select provider.person.personId from ").append(Provider.class.getName()).append(" provider where 1 = 1");
+        hql.append(providerRestrictions);
+        if (StringUtils.isNotBlank(criteria.getIdentifier())) {
+            hql.append(" and lower(provider.identifier) like :identifier");
+            parameters.put("identifier", criteria.getIdentifier().toLowerCase() + "%");
+        }
+        hql.append(")");
+
+        // a query matches either the identifier of a provider, or the person's name
+        if (StringUtils.isNotBlank(criteria.getQuery())) {
+            hql.append(" and (person.personId in (select provider.person.personId from ").append(Provider.class.getName()).append(" provider");
+            hql.append(" where lower(provider.identifier) like :query").append(providerRestrictions).append(")");
+            parameters.put("query", criteria.getQuery().toLowerCase() + "%");
+            String[] names = splitName(criteria.getQuery());
+            if (names.length > 0) {
+                hql.append(" or ");
+                appendNameMatch(hql, parameters, "queryName", names);
+            }
+            hql.append(")");
+        }
+
+        if (StringUtils.isNotBlank(criteria.getName())) {
+            String[] names = splitName(criteria.getName());
+            if (names.length > 0) {
+                hql.append(" and ");
+                appendNameMatch(hql, parameters, "name", names);
+            }
+        }
+
+        // each address and attribute restriction is a separate correlated subquery, rather than a join, so that
+        // however many there are (and however many addresses and attributes each person has) there is still
+        // just one row per person
+        int addressCount = 0;
+        for (PersonAddress personAddress : criteria.getPersonAddresses()) {
+            if (!personAddress.isBlank()) {
+                if (criteria.getAddressMatchMode() == AddressMatchMode.ANYWHERE) {
+                    appendAddressMatch(hql, parameters, "address" + addressCount + "_", personAddress);
+                }
+                else {
+                    appendAddressTokenMatch(hql, parameters, "address" + addressCount + "_", personAddress,
+                            criteria.getAddressMatchMode() == AddressMatchMode.EXACT);
+                }
+                addressCount++;
+            }
+        }
+
+        int attributeCount = 0;
+        for (PersonAttribute personAttribute : criteria.getPersonAttributes()) {
+            if (ProviderSearchCriteria.isRestriction(personAttribute)) {
+                appendAttributeMatch(hql, parameters, "attribute" + attributeCount + "_", personAttribute);
+                attributeCount++;
+            }
+        }
+
+        if (criteria.getExcludedPersonIds() != null && criteria.getExcludedPersonIds().size() > 0) {
+            hql.append(" and person.personId not in (:excludedPersonIds)");
+            parameters.put("excludedPersonIds", criteria.getExcludedPersonIds());
+        }
+
+        return hql.toString();
+    }
+
+    /**
+     * Builds the "from" and "where" clauses of a provider search against the provider search table (aliased as
+     * "entry"), which has a row per provider; the criteria must not have any address restrictions, and any attribute
+     * restrictions must be of the attribute type stored in the table
+     *
+     * Unlike the search against the person tables, the words of a name may match parts of different names of the
+     * same person
+     */
+    private String buildProviderSearchTableClauses(ProviderSearchCriteria criteria, Map<String, Object> parameters) {
+
+        StringBuilder hql = new StringBuilder();
+
+        hql.append("from ").append(ProviderSearchEntry.class.getName()).append(" entry where 1 = 1");
+
+        if (!criteria.isIncludeRetired()) {
+            hql.append(" and entry.retired = false");
+        }
+
+        if (criteria.getProviderRoles() != null && criteria.getProviderRoles().size() > 0) {
+            List<Integer> providerRoleIds = new ArrayList<Integer>();
+            for (ProviderRole providerRole : criteria.getProviderRoles()) {
+                providerRoleIds.add(providerRole.getId());
+            }
+            hql.append(" and entry.providerRoleId in (:providerRoleIds)");
+            parameters.put("providerRoleIds", providerRoleIds);
+        }
+
+        if (StringUtils.isNotBlank(criteria.getIdentifier())) {
+            hql.append(" and entry.identifier like :identifier");
+            parameters.put("identifier", criteria.getIdentifier().toLowerCase() + "%");
+        }
+
+        // a query matches either the identifier of this provider, or the person's name
+        if (StringUtils.isNotBlank(criteria.getQuery())) {
+            hql.append(" and (entry.identifier like :query");
+            parameters.put("query", criteria.getQuery().toLowerCase() + "%");
+            String[] names = splitName(criteria.getQuery());
+            if (names.length > 0) {
+                hql.append(" or (");
+                appendNamePartsMatch(hql, parameters, "queryName", names);
+                hql.append(")");
+            }
+            hql.append(")");
+        }
+
+        if (StringUtils.isNotBlank(criteria.getName())) {
+            String[] names = splitName(criteria.getName());
+            if (names.length > 0) {
+                hql.append(" and ");
+                appendNamePartsMatch(hql, parameters, "name", names);
+            }
+        }
+
+        int attributeCount = 0;
+        for (PersonAttribute personAttribute : criteria.getPersonAttributes()) {
+            if (ProviderSearchCriteria.isRestriction(personAttribute)) {
+                hql.append(" and ");
+                appendSearchTermMatch(hql, ProviderSearchTerm.ATTRIBUTE, "attribute" + attributeCount, false);
+                parameters.put("attribute" + attributeCount, personAttribute.getValue().toLowerCase());
+                attributeCount++;
+            }
+        }
+
+        if (criteria.getExcludedPersonIds() != null && criteria.getExcludedPersonIds().size() > 0) {
+            hql.append(" and entry.personId not in (:excludedPersonIds)");
+            parameters.put("excludedPersonIds", criteria.getExcludedPersonIds());
+        }
+
+        return hql.toString();
+    }
+
+    /**
+     * Appends a condition that each of the specified names matches the start of one of the name parts of the person
+     * of a provider search table row
+     */
+    private void appendNamePartsMatch(StringBuilder hql, Map<String, Object> parameters, String parameterPrefix, String[] names) {
+
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                hql.append(" and ");
+            }
+            appendSearchTermMatch(hql, ProviderSearchTerm.NAME, parameterPrefix + i, true);
+            parameters.put(parameterPrefix + i, names[i].toLowerCase() + "%");
+        }
+    }
+
+    /**
+     * Appends a subquery that matches a provider search table row if the person has a search term of the specified
+     * field equal to, or (if prefix is true) starting with, the named parameter; either way, the subquery is an index
+     * range scan on field and term
+     */
+    private void appendSearchTermMatch(StringBuilder hql, String field, String parameterName, boolean prefix) {
+        hql.append("entry.personId in (select searchTerm.personId from ").append(ProviderSearchTerm.class.getName()).append(" searchTerm");
+        hql.append(" where searchTerm.field = '").append(field).append("' and searchTerm.term ").append(prefix ? "like" : "=");
+        hql.append(" :").append(parameterName).append(")");
+    }
+
+    /**
+     * Builds the restrictions on a provider (aliased as "provider") by retired status and role
+     */
+    private String buildProviderRestrictions(ProviderSearchCriteria criteria, Map<String, Object> parameters) {
+
+        StringBuilder providerRestrictions = new StringBuilder();
+
+        if (!criteria.isIncludeRetired()) {
+            providerRestrictions.append(" and provider.retired = false");
+        }
+
+        if (criteria.getProviderRoles() != null && criteria.getProviderRoles().size() > 0) {
+            List<Integer> providerRoleIds = new ArrayList<Integer>();
+            for (ProviderRole providerRole : criteria.getProviderRoles()) {
+                providerRoleIds.add(providerRole.getId());
+            }
+            providerRestrictions.append(" and provider.providerRole.providerRoleId in (:providerRoleIds)");
+            parameters.put("providerRoleIds", providerRoleIds);
+        }
+
+        return providerRestrictions.toString();
+    }
+
+    /**
+     * Appends a subquery that matches persons with a name matching all of the specified names, each of which can
+     * match the start of the given, middle, family or second family name
+     */
+    private void appendNameMatch(StringBuilder hql, Map<String, Object> parameters, String parameterPrefix, String[] names) {
+
+        hql.append("exists (from PersonName matchingName where matchingName.person = person");
+
+        for (int i = 0; i < names.length; i++) {
+            String parameter = ":" + parameterPrefix + i;
+            hql.append(" and (lower(matchingName.givenName) like ").append(parameter);
+            hql.append(" or lower(matchingName.middleName) like ").append(parameter);
+            hql.append(" or lower(matchingName.familyName) like ").append(parameter);
+            hql.append(" or lower(matchingName.familyName2) like ").append(parameter).append(")");
+            parameters.put(parameterPrefix + i, names[i].toLowerCase() + "%");
+        }
+
+        hql.append(")");
+    }
+
+    /**
+     * Appends a subquery that matches persons with an address that contains all the non-blank fields of the
+     * specified address, anywhere in the field; this scans the person address table
+     */
+    private void appendAddressMatch(StringBuilder hql, Map<String, Object> parameters, String parameterPrefix, PersonAddress personAddress) {
+
+        Map<String, String> fields = PersonAddressTokens.getFieldValues(personAddress);
+
+        // the alias is unique to each subquery, as there can be several
+        String alias = parameterPrefix + "address";
+        hql.append(" and exists (from PersonAddress ").append(alias).append(" where ").append(alias).append(".person = person");
+
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            if (StringUtils.isNotBlank(field.getValue())) {
+                hql.append(" and lower(").append(alias).append(".").append(field.getKey()).append(") like :").append(parameterPrefix).append(field.getKey());
+                parameters.put(parameterPrefix + field.getKey(), "%" + field.getValue().toLowerCase() + "%");
             }
-            if (StringUtils.isNotBlank(personAddress.getAddress5())) {
-                criteria.add(Restrictions.ilike("address.address5", personAddress.getAddress5(), MatchMode.ANYWHERE));
+        }
+
+        hql.append(")");
+    }
+
+    /**
+     * Appends a subquery, against the person address token table, that matches persons with an address where every
+     * word of every non-blank field of the specified address matches a token of the same field, either exactly or
+     * as a prefix; each word is a lookup on the (field, token) index
+     *
+     * The first word is matched by the outer subquery, which fixes the address; the remaining words are matched
+     * by nested subqueries against the tokens of that same address
+     */
+    private void appendAddressTokenMatch(StringBuilder hql, Map<String, Object> parameters, String parameterPrefix,
+                                         PersonAddress personAddress, boolean exact) {
+
+        List<String[]> words = new ArrayList<String[]>();
+        for (Map.Entry<String, String> field : PersonAddressTokens.getFieldValues(personAddress).entrySet()) {
+            for (String token : PersonAddressTokens.getTokens(field.getValue())) {
+                words.add(new String[] { field.getKey(), token });
             }
-            if (StringUtils.isNotBlank(personAddress.getAddress6())) {
-                criteria.add(Restrictions.ilike("address.address6", personAddress.getAddress6(), MatchMode.ANYWHERE));
+        }
+
+        // nothing left once normalized (eg, only punctuation), so nothing to restrict by
+        if (words.isEmpty()) {
+            return;
+        }
+
+        String tokenClass = PersonAddressToken.class.getName();
+        String comparison = exact ? " = :" : " like :";
+        String firstAlias = parameterPrefix + "token0";
+
+        for (int i = 0; i < words.size(); i++) {
+
+            String alias = parameterPrefix + "token" + i;
+
+            if (i == 0) {
+                hql.append(" and exists (from ").append(tokenClass).append(" ").append(alias);
+                hql.append(" where ").append(alias).append(".personId = person.personId");
             }
-            if (StringUtils.isNotBlank(personAddress.getCityVillage())) {
-                criteria.add(Restrictions.ilike("address.cityVillage", personAddress.getCityVillage(), MatchMode.ANYWHERE));
+            else {
+                hql.append(" and exists (from ").append(tokenClass).append(" ").append(alias);
+                hql.append(" where ").append(alias).append(".personAddressId = ").append(firstAlias).append(".personAddressId");
             }
-            if (StringUtils.isNotBlank(personAddress.getCountry())) {
-                criteria.add(Restrictions.ilike("address.country", personAddress.getCountry(), MatchMode.ANYWHERE));
+
+            hql.append(" and ").append(alias).append(".field = :").append(alias).append("field");
+            hql.append(" and ").append(alias).append(".token").append(comparison).append(alias).append("value");
+            parameters.put(alias + "field", words.get(i)[0]);
+            parameters.put(alias + "value", exact ? words.get(i)[1] : words.get(i)[1] + "%");
+
+            if (i > 0) {
+                hql.append(")");
             }
-            if (StringUtils.isNotBlank(personAddress.getCountyDistrict())) {
-                criteria.add(Restrictions.ilike("address.countyDistrict", personAddress.getCountyDistrict(), MatchMode.ANYWHERE));
+        }
+
+        hql.append(")");
+    }
+
+    /**
+     * Appends a subquery that matches persons with a non-voided attribute of the same type as the specified attribute,
+     * and the same value (ignoring case)
+     */
+    private void appendAttributeMatch(StringBuilder hql, Map<String, Object> parameters, String parameterPrefix, PersonAttribute personAttribute) {
+
+        String alias = parameterPrefix + "attribute";
+        hql.append(" and exists (from PersonAttribute ").append(alias).append(" where ").append(alias).append(".person = person");
+        hql.append(" and ").append(alias).append(".voided = false");
+        hql.append(" and ").append(alias).append(".attributeType.personAttributeTypeId = :").append(parameterPrefix).append("typeId");
+        hql.append(" and lower(").append(alias).append(".value) = :").append(parameterPrefix).append("value)");
+        parameters.put(parameterPrefix + "typeId", personAttribute.getAttributeType().getId());
+        parameters.put(parameterPrefix + "value", personAttribute.getValue().toLowerCase());
+    }
+
+    private void setTimeout(Query query, ProviderSearchCriteria criteria) {
+        if (criteria.getQueryTimeout() != null) {
+            query.setTimeout(criteria.getQueryTimeout());
+        }
+    }
+
+    private Query createQuery(String hql, Map<String, Object> parameters) {
+
+        Query query = sessionFactory.getCurrentSession().createQuery(hql);
+
+        for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
+            if (parameter.getValue() instanceof Collection) {
+                query.setParameterList(parameter.getKey(), (Collection) parameter.getValue());
             }
-            if (StringUtils.isNotBlank(personAddress.getStateProvince())) {
-                criteria.add(Restrictions.ilike("address.stateProvince", personAddress.getStateProvince(), MatchMode.ANYWHERE));
+            else {
+                query.setParameter(parameter.getKey(), parameter.getValue());
             }
-            if (StringUtils.isNotBlank(personAddress.getPostalCode())) {
-                criteria.add(Restrictions.ilike("address.postalCode", personAddress.getPostalCode(), MatchMode.ANYWHERE));
+        }
+
+        return query;
+    }
+
+    private String[] splitName(String name) {
+
+        List<String> names = new ArrayList<String>();
+
+        for (String n : name.replace(", ", " ").split("\\s+")) {
+            if (n != null && n.length() > 0) {
+                names.add(n);
             }
         }
+
+        return names.toArray(new String[names.size()]);
     }
-}
\ No newline at end of file
+}
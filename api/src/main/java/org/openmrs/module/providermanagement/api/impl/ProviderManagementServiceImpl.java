@@ -13,16 +13,16 @@
  */
 package org.openmrs.module.providermanagement.api.impl;
 
-import org.apache.commons.collections.CollectionUtils;
-import org.apache.commons.collections.ListUtils;
-import org.apache.commons.collections.Predicate;
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.hibernate.exception.ConstraintViolationException;
 import org.openmrs.Patient;
+import org.openmrs.PatientProgram;
 import org.openmrs.Person;
 import org.openmrs.PersonAddress;
 import org.openmrs.PersonAttribute;
+import org.openmrs.PersonAttributeType;
 import org.openmrs.Relationship;
 import org.openmrs.RelationshipType;
 import org.openmrs.api.APIException;
@@ -30,10 +30,23 @@ import org.openmrs.api.context.Context;
 import org.openmrs.api.impl.BaseOpenmrsService;
 import org.openmrs.module.providermanagement.Provider;
 import org.openmrs.module.providermanagement.ProviderManagementConstants;
+import org.openmrs.module.providermanagement.ProviderManagementGlobalProperties;
 import org.openmrs.module.providermanagement.ProviderManagementUtils;
 import org.openmrs.module.providermanagement.ProviderRole;
+import org.openmrs.module.providermanagement.RelationshipSortOrder;
+import org.openmrs.module.providermanagement.SupervisionTreeNode;
 import org.openmrs.module.providermanagement.api.ProviderManagementService;
 import org.openmrs.module.providermanagement.api.db.ProviderManagementDAO;
+import org.openmrs.module.providermanagement.cache.CachedProvider;
+import org.openmrs.module.providermanagement.cache.PersonProviderCache;
+import org.openmrs.module.providermanagement.cache.ProviderNameIndex;
+import org.openmrs.module.providermanagement.cache.ProviderNameIndexEntry;
+import org.openmrs.module.providermanagement.cache.ProviderRoleCatalog;
+import org.openmrs.module.providermanagement.cache.ProviderRoleCatalogCache;
+import org.openmrs.module.providermanagement.cache.ProviderSearchCache;
+import org.openmrs.module.providermanagement.caseload.CaseloadGranularity;
+import org.openmrs.module.providermanagement.caseload.CaseloadSweep;
+import org.openmrs.module.providermanagement.caseload.CaseloadTimeSeries;
 import org.openmrs.module.providermanagement.comparator.PersonByFirstNameComparator;
 import org.openmrs.module.providermanagement.exception.DateCannotBeInFutureException;
 import org.openmrs.module.providermanagement.exception.InvalidRelationshipTypeException;
@@ -46,15 +59,28 @@ import org.openmrs.module.providermanagement.exception.ProviderDoesNotSupportRel
 import org.openmrs.module.providermanagement.exception.ProviderNotAssignedToSupervisorException;
 import org.openmrs.module.providermanagement.exception.ProviderRoleInUseException;
 import org.openmrs.module.providermanagement.exception.SourceProviderSameAsDestinationProviderException;
+import org.openmrs.module.providermanagement.search.AddressMatchMode;
+import org.openmrs.module.providermanagement.search.PersonNameKeys;
+import org.openmrs.module.providermanagement.search.ProviderSearchCriteria;
+import org.openmrs.module.providermanagement.search.ProviderSearchCursor;
+import org.openmrs.module.providermanagement.search.ProviderSearchResult;
+import org.openmrs.module.providermanagement.search.SimilarPeople;
+import org.openmrs.util.PrivilegeConstants;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 /**
  * It is a default implementation of {@link ProviderManagementService}.
@@ -67,6 +93,21 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
 	
 	private ProviderManagementDAO dao;
 
+    private ProviderRoleCatalogCache providerRoleCatalogCache;
+
+    private PersonProviderCache personProviderCache;
+
+    private ProviderSearchCache providerSearchCache;
+
+    private ProviderNameIndex providerNameIndex;
+
+    // held while building the provider name index, so that only one thread builds it
+    private final Object providerNameIndexBuildLock = new Object();
+
+    // the date the caseload summary table was last rebuilt for (the start of the day it was rebuilt), as the summary
+    // can only answer for that date
+    private volatile Date caseloadSummaryDate;
+
     private static RelationshipType supervisorRelationshipType = null;
 	
 	/**
@@ -83,6 +124,62 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
 	    return dao;
     }
 
+    /**
+     * @param providerRoleCatalogCache the provider role catalog cache to set
+     */
+    public void setProviderRoleCatalogCache(ProviderRoleCatalogCache providerRoleCatalogCache) {
+        this.providerRoleCatalogCache = providerRoleCatalogCache;
+    }
+
+    /**
+     * @return the provider role catalog cache
+     */
+    public ProviderRoleCatalogCache getProviderRoleCatalogCache() {
+        return providerRoleCatalogCache;
+    }
+
+    /**
+     * @param personProviderCache the person provider cache to set
+     */
+    public void setPersonProviderCache(PersonProviderCache personProviderCache) {
+        this.personProviderCache = personProviderCache;
+    }
+
+    /**
+     * @return the person provider cache
+     */
+    public PersonProviderCache getPersonProviderCache() {
+        return personProviderCache;
+    }
+
+    /**
+     * @param providerSearchCache the provider search cache to set
+     */
+    public void setProviderSearchCache(ProviderSearchCache providerSearchCache) {
+        this.providerSearchCache = providerSearchCache;
+    }
+
+    /**
+     * @return the provider search cache
+     */
+    public ProviderSearchCache getProviderSearchCache() {
+        return providerSearchCache;
+    }
+
+    /**
+     * @param providerNameIndex the provider name index to set
+     */
+    public void setProviderNameIndex(ProviderNameIndex providerNameIndex) {
+        this.providerNameIndex = providerNameIndex;
+    }
+
+    /**
+     * @return the provider name index
+     */
+    public ProviderNameIndex getProviderNameIndex() {
+        return providerNameIndex;
+    }
+
     @Override
     @Transactional(readOnly = true)
     public List<ProviderRole> getAllProviderRoles(boolean includeRetired) {
@@ -108,7 +205,7 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
             throw new APIException("relationshipType cannot be null");
         }
         else {
-            return dao.getProviderRolesByRelationshipType(relationshipType);
+            return getProviderRolesByIds(getProviderRoleCatalog().getProviderRoleIdsByRelationshipType(relationshipType.getId()));
         }
     }
 
@@ -119,13 +216,14 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
             throw new APIException("providerRole cannot be null");
         }
         else {
-            return dao.getProviderRolesBySuperviseeProviderRole(providerRole);
+            return getProviderRolesByIds(getProviderRoleCatalog().getSupervisorProviderRoleIds(providerRole.getId()));
         }
     }
 
     @Override
     @Transactional
     public ProviderRole saveProviderRole(ProviderRole role) {
+        providerRoleCatalogCache.invalidateOnTransactionCompletion();
         return dao.saveProviderRole(role);
     }
 
@@ -133,6 +231,7 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
     @Transactional
     public void retireProviderRole(ProviderRole role, String reason) {
         // BaseRetireHandler handles retiring the object
+        providerRoleCatalogCache.invalidateOnTransactionCompletion();
         dao.saveProviderRole(role);
     }
 
@@ -140,6 +239,7 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
     @Transactional
     public void unretireProviderRole(ProviderRole role) {
         // BaseUnretireHandler handles unretiring the object
+        providerRoleCatalogCache.invalidateOnTransactionCompletion();
         dao.saveProviderRole(role);
     }
 
@@ -154,6 +254,8 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
             Context.getService(ProviderManagementService.class).saveProviderRole(r);   // call through service so AOP save handler picks this up
         }
 
+        providerRoleCatalogCache.invalidateOnTransactionCompletion();
+
         try {
             dao.deleteProviderRole(role);
             Context.flushSession();  // shouldn't really have to do this, but we do to force a commit so that the exception will be thrown if necessary
@@ -168,25 +270,179 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
     @Transactional(readOnly = true)
     public List<RelationshipType> getAllProviderRoleRelationshipTypes(boolean includeRetired) {
 
-        Set<RelationshipType> relationshipTypes = new HashSet<RelationshipType>();
+        List<RelationshipType> relationshipTypes = new ArrayList<RelationshipType>();
 
-        for (ProviderRole providerRole : getAllProviderRoles(includeRetired)) {
-            
-            if (includeRetired) {
-                relationshipTypes.addAll(providerRole.getRelationshipTypes());
+        for (RelationshipType relationshipType : dao.getRelationshipTypes(getProviderRoleCatalog().getRelationshipTypeIds(includeRetired))) {
+            // filter out any retired relationships (we test the relationship type itself, since the catalog isn't rebuilt when a relationship type is retired)
+            if (includeRetired || !relationshipType.getRetired()) {
+                relationshipTypes.add(relationshipType);
+            }
+        }
+
+        return relationshipTypes;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public boolean isProviderRelationshipType(RelationshipType relationshipType, boolean includeRetired) {
+
+        if (relationshipType == null) {
+            throw new APIException("Relationship type cannot be null");
+        }
+
+        // as above, we test the relationship type itself to see if it is retired
+        if (!includeRetired && relationshipType.getRetired()) {
+            return false;
+        }
+
+        return getProviderRoleCatalog().isProviderRelationshipType(relationshipType.getId(), includeRetired);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void refreshProviderRoleCatalog() {
+        providerRoleCatalogCache.invalidate();
+        getProviderRoleCatalog();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void rebuildProviderNameIndex() {
+        providerNameIndex.startRebuild();
+        try {
+            providerNameIndex.install(dao.getProviderNameIndexEntries(null), dao.getProviderPersonIds(null));
+        }
+        catch (RuntimeException e) {
+            providerNameIndex.clear();
+            throw e;
+        }
+    }
+
+    @Override
+    @Transactional
+    public void rebuildPersonNameKeys() {
+        dao.rebuildPersonNameKeys();
+    }
+
+    @Override
+    @Transactional(noRollbackFor = RuntimeException.class)
+    public void updatePersonNameKeys(Collection<Integer> personIds) {
+
+        if (personIds == null) {
+            throw new APIException("Person ids cannot be null");
+        }
+
+        dao.updatePersonNameKeys(personIds);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public boolean hasPersonNameKeys() {
+        return dao.hasPersonNameKeys();
+    }
+
+    @Override
+    @Transactional
+    public void rebuildPersonAddressTokens() {
+        dao.rebuildPersonAddressTokens();
+    }
+
+    @Override
+    @Transactional(noRollbackFor = RuntimeException.class)
+    public void updatePersonAddressTokens(Collection<Integer> personIds) {
+
+        if (personIds == null) {
+            throw new APIException("Person ids cannot be null");
+        }
+
+        dao.updatePersonAddressTokens(personIds);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public boolean hasPersonAddressTokens() {
+        return dao.hasPersonAddressTokens();
+    }
+
+    @Override
+    @Transactional
+    public void rebuildProviderSearchEntries() {
+        dao.rebuildProviderSearchEntries(ProviderManagementGlobalProperties.GLOBAL_PROPERTY_ADVANCED_SEARCH_PERSON_ATTRIBUTE_TYPE());
+    }
+
+    @Override
+    @Transactional(noRollbackFor = RuntimeException.class)
+    public void updateProviderSearchEntries(Collection<Integer> personIds) {
+
+        if (personIds == null) {
+            throw new APIException("Person ids cannot be null");
+        }
+
+        // the table isn't maintained while it is disabled, as it is rebuilt when it is enabled
+        Boolean enabled = ProviderManagementGlobalProperties.GLOBAL_PROPERTY_PROVIDER_SEARCH_TABLE_ENABLED();
+        if (enabled == null || !enabled) {
+            return;
+        }
+
+        dao.updateProviderSearchEntries(personIds, ProviderManagementGlobalProperties.GLOBAL_PROPERTY_ADVANCED_SEARCH_PERSON_ATTRIBUTE_TYPE());
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public boolean hasProviderSearchEntries() {
+        return dao.hasProviderSearchEntries();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public SimilarPeople getSimilarPeople(String name) {
+
+        List<String> words = PersonNameKeys.getWords(name);
+
+        if (words.isEmpty()) {
+            return new SimilarPeople();
+        }
+
+        Set<String> phoneticKeys = new HashSet<String>();
+        Set<String> normalizedKeys = new HashSet<String>();
+        for (String word : words) {
+            normalizedKeys.add(PersonNameKeys.getNormalizedKey(word));
+            String phoneticKey = PersonNameKeys.getPhoneticKey(word);
+            if (phoneticKey != null) {
+                phoneticKeys.add(phoneticKey);
+            }
+        }
+
+        // the lookup returns persons matching any of the words, so keep only those matching all of them
+        List<Integer> personIds = new ArrayList<Integer>();
+        for (Map.Entry<Integer, Set<String>> match : dao.getMatchingPersonNameKeys(phoneticKeys, normalizedKeys).entrySet()) {
+            if (matchesAllWords(match.getValue(), words)) {
+                personIds.add(match.getKey());
+            }
+        }
+
+        if (personIds.isEmpty()) {
+            return new SimilarPeople();
+        }
+
+        // as in isProvider, retired providers count
+        Set<Integer> providerPersonIds = getProvidersByPersonIds(personIds, true).keySet();
+
+        List<Person> providers = new ArrayList<Person>();
+        List<Person> people = new ArrayList<Person>();
+        for (Person person : dao.getPersonsByIds(personIds)) {
+            if (providerPersonIds.contains(person.getPersonId())) {
+                providers.add(person);
             }
-            // filter out any retired relationships
             else {
-                relationshipTypes.addAll(CollectionUtils.select(providerRole.getRelationshipTypes(), new Predicate() {
-                    @Override
-                    public boolean evaluate(Object relationshipType) {
-                        return !((RelationshipType) relationshipType).getRetired();
-                    }
-                }));
+                people.add(person);
             }
         }
 
-        return new ArrayList<RelationshipType>(relationshipTypes);
+        Collections.sort(providers, new PersonByFirstNameComparator());
+        Collections.sort(people, new PersonByFirstNameComparator());
+
+        return new SimilarPeople(providers, people);
     }
 
     @Override
@@ -197,23 +453,158 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
             return new ArrayList<Person>();
         }
 
-        List<Person> nameMatches = getProvidersAsPersons(query, null, providerRoles, includeRetired);
-        List<Person> identifierMatches = getProvidersAsPersons(null, query, providerRoles, includeRetired);
+        if (includeRetired == null) {
+            throw new RuntimeException("include retired must be specified when searching for providers");
+        }
+
+        // changes that haven't been flushed yet haven't invalidated the cache, so bypass it until they have
+        if (providerSearchCache == null || !providerSearchCache.isEnabled() || dao.isSessionDirty()) {
+            // a single query that matches on name or identifier, and does the de-duplication and sorting in the database
+            return dao.getProvidersByNameOrIdentifier(query, providerRoles, includeRetired);
+        }
+
+        // repeated searches are answered from the cache, which holds only the person ids, so that the persons
+        // themselves always come from the current session
+        String key = ProviderSearchCache.createKey(query, providerRoles, includeRetired);
+        List<Integer> personIds = providerSearchCache.get(key);
 
-        if (identifierMatches == null || identifierMatches.size() == 0) {
-            return nameMatches;
+        if (personIds != null) {
+            return dao.getPersonsByIds(personIds);
         }
-        else if (nameMatches == null || nameMatches.size() == 0) {
-            return identifierMatches;
+
+        long version = providerSearchCache.getVersion();
+        List<Person> persons = dao.getProvidersByNameOrIdentifier(query, providerRoles, includeRetired);
+
+        personIds = new ArrayList<Integer>(persons.size());
+        for (Person person : persons) {
+            personIds.add(person.getPersonId());
         }
-        else {
-            // do a union
-            // TODO: how is the performance of this?
-            nameMatches.removeAll(identifierMatches);
-            identifierMatches.addAll(nameMatches);
-            Collections.sort(identifierMatches, new PersonByFirstNameComparator());
-            return identifierMatches;
+        providerSearchCache.put(key, personIds, version);
+
+        return persons;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public ProviderSearchResult search(ProviderSearchCriteria criteria, int pageSize, ProviderSearchCursor cursor) {
+
+        if (criteria == null) {
+            throw new APIException("Search criteria cannot be null");
+        }
+
+        if (pageSize < 1) {
+            throw new APIException("Page size must be at least 1");
+        }
+
+        applyAddressSearchTimeout(criteria);
+        applyProviderSearchTable(criteria);
+        return addTotalCount(dao.search(criteria, cursor, pageSize), criteria, cursor);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public ProviderSearchResult searchRows(ProviderSearchCriteria criteria, Integer pageSize, ProviderSearchCursor cursor) {
+
+        if (criteria == null) {
+            throw new APIException("Search criteria cannot be null");
+        }
+
+        if (pageSize != null && pageSize < 1) {
+            throw new APIException("Page size must be at least 1");
+        }
+
+        applyAddressSearchTimeout(criteria);
+        applyProviderSearchTable(criteria);
+
+        // name-or-identifier queries can be answered from the in-memory index, if it is enabled
+        List<ProviderNameIndexEntry> matches = searchProviderNameIndex(criteria);
+        if (matches != null) {
+            return getProviderSearchRowPage(matches, criteria, pageSize, cursor);
+        }
+
+        return addTotalCount(dao.searchRows(criteria, cursor, pageSize), criteria, cursor);
+    }
+
+    /**
+     * Searches the provider name index, building it or reloading any stale persons first, if needed
+     *
+     * @return the matching entries, or null if the search cannot be answered from the index: because the index is
+     *          disabled, because the criteria is not a plain name-or-identifier query, or because the current
+     *          transaction has changes that the index cannot see yet
+     */
+    private List<ProviderNameIndexEntry> searchProviderNameIndex(ProviderSearchCriteria criteria) {
+
+        if (providerNameIndex == null || !providerNameIndex.isEnabled() || providerNameIndex.isModifiedInCurrentTransaction()
+                || StringUtils.isBlank(criteria.getQuery()) || StringUtils.isNotBlank(criteria.getName())
+                || StringUtils.isNotBlank(criteria.getIdentifier()) || criteria.hasAddressOrAttributeRestrictions()) {
+            return null;
+        }
+
+        if (!providerNameIndex.isBuilt()) {
+            synchronized (providerNameIndexBuildLock) {
+                if (!providerNameIndex.isBuilt()) {
+                    rebuildProviderNameIndex();
+                }
+            }
+        }
+
+        Set<Integer> stalePersonIds = providerNameIndex.drainStalePersonIds();
+        if (!stalePersonIds.isEmpty()) {
+            try {
+                providerNameIndex.update(stalePersonIds, dao.getProviderNameIndexEntries(stalePersonIds), dao.getProviderPersonIds(stalePersonIds));
+            }
+            catch (RuntimeException e) {
+                // try again next time
+                providerNameIndex.markStale(stalePersonIds);
+                throw e;
+            }
+        }
+
+        Set<Integer> providerRoleIds = new HashSet<Integer>();
+        if (criteria.getProviderRoles() != null) {
+            for (ProviderRole providerRole : criteria.getProviderRoles()) {
+                providerRoleIds.add(providerRole.getId());
+            }
+        }
+
+        return providerNameIndex.search(criteria.getQuery(), providerRoleIds, criteria.isIncludeRetired(), criteria.getExcludedPersonIds());
+    }
+
+    private ProviderSearchResult getProviderSearchRowPage(List<ProviderNameIndexEntry> matches, ProviderSearchCriteria criteria,
+                                                          Integer pageSize, ProviderSearchCursor cursor) {
+
+        int start = 0;
+        if (cursor != null) {
+            while (start < matches.size() && ProviderNameIndex.compare(matches.get(start), cursor) <= 0) {
+                start++;
+            }
+        }
+
+        int end = pageSize != null ? Math.min(matches.size(), start + pageSize) : matches.size();
+        ProviderSearchCursor nextCursor = end < matches.size() ? ProviderNameIndex.toCursor(matches.get(end - 1)) : null;
+
+        List<Integer> personIds = new ArrayList<Integer>();
+        for (ProviderNameIndexEntry entry : matches.subList(start, end)) {
+            personIds.add(entry.getPersonId());
+        }
+
+        return new ProviderSearchResult(null, dao.getProviderSearchRows(personIds, criteria), nextCursor,
+                criteria.isIncludeTotalCount() ? matches.size() : null);
+    }
+
+    private ProviderSearchResult addTotalCount(ProviderSearchResult result, ProviderSearchCriteria criteria, ProviderSearchCursor cursor) {
+
+        if (criteria.isIncludeTotalCount()) {
+            // no need for a count query if everything fit on the first page
+            if (cursor == null && !result.hasMore()) {
+                result.setTotalCount(result.size());
+            }
+            else {
+                result.setTotalCount(dao.getSearchCount(criteria));
+            }
         }
+
+        return result;
     }
 
     @Override
@@ -232,34 +623,83 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
 
     @Override
     public List<Person> getProvidersAsPersons(String name, String identifier, PersonAddress personAddress, PersonAttribute personAttribute, List<ProviderRole> providerRoles, Boolean includeRetired) {
-        return dao.getProviders(name, identifier, personAddress, personAttribute, providerRoles, includeRetired);
+
+        ProviderSearchCriteria criteria = new ProviderSearchCriteria(null, providerRoles, includeRetired != null && includeRetired);
+        criteria.setName(name);
+        criteria.setIdentifier(identifier);
+        criteria.setPersonAddress(personAddress);
+        criteria.setPersonAttribute(personAttribute);
+
+        return getProvidersAsPersons(criteria);
     }
 
     @Override
     @Transactional(readOnly = true)
-    public List<ProviderRole> getProviderRoles(Person provider) {
-        if (provider == null) {
-            throw new APIException("Provider cannot be null");
-        }
+    public List<Person> getProvidersAsPersons(ProviderSearchCriteria criteria) {
 
-        if (!isProvider(provider)) {
-            // return empty list if this person is not a provider
-            return new ArrayList<ProviderRole>();
+        if (criteria == null) {
+            throw new APIException("Search criteria cannot be null");
         }
 
-        // otherwise, collect all the roles associated with this provider
-        // (we use a set to avoid duplicates at this point)
-        Set<ProviderRole> providerRoles = new HashSet<ProviderRole>();
+        applyAddressSearchTimeout(criteria);
+        applyProviderSearchTable(criteria);
+        return dao.getProviders(criteria);
+    }
 
-        Collection<Provider> providers = getProvidersByPerson(provider, false);
+    /**
+     * Switches the search to the provider search table, if it is enabled and has everything the criteria needs: that
+     * is, the criteria has no address restrictions, and only restricts by the attribute type stored in the table
+     *
+     * (Note that the table is only updated just before a transaction commits, so a search made in the same
+     * transaction as a change to a provider won't see that change)
+     */
+    private void applyProviderSearchTable(ProviderSearchCriteria criteria) {
+
+        Boolean enabled = ProviderManagementGlobalProperties.GLOBAL_PROPERTY_PROVIDER_SEARCH_TABLE_ENABLED();
+        if (enabled == null || !enabled || criteria.isUseProviderSearchTable()) {
+            return;
+        }
 
-        for (Provider p : providers) {
-            if (p.getProviderRole() != null) {
-                providerRoles.add(p.getProviderRole());
+        for (PersonAddress personAddress : criteria.getPersonAddresses()) {
+            if (!personAddress.isBlank()) {
+                return;
             }
         }
 
-        return new ArrayList<ProviderRole>(providerRoles);
+        PersonAttributeType searchAttributeType = null;
+        for (PersonAttribute personAttribute : criteria.getPersonAttributes()) {
+            if (ProviderSearchCriteria.isRestriction(personAttribute)) {
+                if (searchAttributeType == null) {
+                    searchAttributeType = ProviderManagementGlobalProperties.GLOBAL_PROPERTY_ADVANCED_SEARCH_PERSON_ATTRIBUTE_TYPE();
+                }
+                if (searchAttributeType == null || !searchAttributeType.getId().equals(personAttribute.getAttributeType().getId())) {
+                    return;
+                }
+            }
+        }
+
+        criteria.setUseProviderSearchTable(true);
+    }
+
+    /**
+     * Matching addresses anywhere in a field scans the person address table, so make sure such a search has a timeout
+     */
+    private void applyAddressSearchTimeout(ProviderSearchCriteria criteria) {
+        if (criteria.getAddressMatchMode() == AddressMatchMode.ANYWHERE && criteria.getQueryTimeout() == null
+                && criteria.hasAddressOrAttributeRestrictions()) {
+            criteria.setQueryTimeout(ProviderManagementGlobalProperties.GLOBAL_PROPERTY_ANYWHERE_ADDRESS_SEARCH_TIMEOUT());
+        }
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<ProviderRole> getProviderRoles(Person provider) {
+        if (provider == null) {
+            throw new APIException("Provider cannot be null");
+        }
+
+        // collect all the roles associated with this provider (empty if this person is not a provider)
+        return getProviderRolesByIds(getProviderRoleIds(provider));
     }
 
     @Override
@@ -289,6 +729,7 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
         p.setIdentifier(identifier);
         p.setProviderRole(role);
         Context.getProviderService().saveProvider(p);
+        personProviderCache.invalidateOnTransactionCompletion(provider.getId());
     }
 
     @Override
@@ -316,6 +757,7 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
                 Context.getProviderService().retireProvider(p, "removing provider role " + role + " from " + provider);
             }
         }
+        personProviderCache.invalidateOnTransactionCompletion(provider.getId());
     }
 
     @Override
@@ -342,6 +784,7 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
                 Context.getProviderService().purgeProvider(p);
             }
         }
+        personProviderCache.invalidateOnTransactionCompletion(provider.getId());
     }
 
     @Override
@@ -399,21 +842,8 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
             throw new APIException("Provider cannot be null");
         }
 
-        // first fetch all the roles for this provider
-        List<ProviderRole> providerRoles = getProviderRoles(provider);
-
-
-        // now fetch the roles that can supervise the roles this provider has
-        Set<ProviderRole> providerRolesThatCanSupervise = new HashSet<ProviderRole>();
-
-        for (ProviderRole providerRole : providerRoles) {
-            List<ProviderRole> roles = getProviderRolesBySuperviseeProviderRole(providerRole);
-            if (roles != null && roles.size() > 0) {
-                 providerRolesThatCanSupervise.addAll(roles);
-            }
-        }
-
-        return new ArrayList<ProviderRole>(providerRolesThatCanSupervise);
+        // fetch the roles that can supervise the roles this provider has
+        return getProviderRolesByIds(getProviderRoleCatalog().getSupervisorProviderRoleIds(getProviderRoleIds(provider)));
     }
 
     @Override
@@ -424,17 +854,7 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
             throw new APIException("Provider cannot be null");
         }
 
-        Set<ProviderRole> rolesThatProviderCanSupervise = new HashSet<ProviderRole>();
-
-        // iterate through all the provider roles this provider supports
-        for (ProviderRole role : getProviderRoles(provider)) {
-            // add all roles that this role can supervise
-            if (role.getSuperviseeProviderRoles() != null && role.getSuperviseeProviderRoles().size() > 0) {
-                rolesThatProviderCanSupervise.addAll(role.getSuperviseeProviderRoles());
-            }
-        }
-
-        return new ArrayList<ProviderRole> (rolesThatProviderCanSupervise);
+        return getProviderRolesByIds(getProviderRoleIdsThatProviderCanSupervise(provider));
     }
 
     @Override
@@ -445,8 +865,7 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
             throw new APIException("Person cannot be null");
         }
 
-        Collection<Provider> providers = getProvidersByPerson(person, true);
-        return providers == null || providers.size() == 0 ? false : true;
+        return !getCachedProviders(person).isEmpty();
     }
 
 
@@ -462,21 +881,75 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
             throw new APIException("Role cannot be null");
         }
 
-        return getProviderRoles(provider).contains(role);
+        return getProviderRoleIds(provider).contains(role.getId());
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Map<Integer, Set<ProviderRole>> getProviderRolesByPersonIds(Collection<Integer> personIds) {
+
+        if (personIds == null) {
+            throw new APIException("Person ids cannot be null");
+        }
+
+        Map<Integer, Set<ProviderRole>> providerRoles = new HashMap<Integer, Set<ProviderRole>>();
+
+        for (Integer personId : personIds) {
+            providerRoles.put(personId, new HashSet<ProviderRole>());
+        }
+
+        // as in getProviderRoles, only non-retired providers count
+        for (Map.Entry<Integer, List<Provider>> entry : getProvidersByPersonIds(personIds, false).entrySet()) {
+            for (Provider p : entry.getValue()) {
+                if (p.getProviderRole() != null) {
+                    providerRoles.get(entry.getKey()).add(p.getProviderRole());
+                }
+            }
+        }
+
+        return providerRoles;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Set<Integer> filterProviders(Collection<Person> persons) {
+
+        if (persons == null) {
+            throw new APIException("Persons cannot be null");
+        }
+
+        Set<Integer> personIds = new HashSet<Integer>();
+
+        for (Person person : persons) {
+            if (person.getId() != null) {
+                personIds.add(person.getId());
+            }
+        }
+
+        // as in isProvider, retired providers count
+        return new HashSet<Integer>(getProvidersByPersonIds(personIds, true).keySet());
     }
 
     @Override
     @Transactional(readOnly = true)
     public boolean supportsRelationshipType(Person provider, RelationshipType relationshipType) {
 
-        Collection<Provider> providers = getProvidersByPerson(provider, false);
+        if (provider == null) {
+            throw new APIException("Provider should not be null");
+        }
 
-        if (providers == null || providers.size() == 0) {
+        if (!hasProviders(getCachedProviders(provider), false)) {
             return false;
         }
 
-        for (Provider p : providers) {
-            if (supportsRelationshipType(p, relationshipType)) {
+        if (relationshipType == null) {
+            throw new APIException("Relationship type should not be null");
+        }
+
+        ProviderRoleCatalog catalog = getProviderRoleCatalog();
+
+        for (Integer providerRoleId : getProviderRoleIds(provider)) {
+            if (catalog.getRelationshipTypeIds(providerRoleId).contains(relationshipType.getId())) {
                 return true;
             }
         }
@@ -502,13 +975,27 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
             return false;
         }
 
-        // get all the provider roles the supervisor can supervise
-        List<ProviderRole> rolesThatProviderCanSupervisee = getProviderRolesThatProviderCanSupervise(supervisor);
+        // test if any of the supervisor's roles can supervise any of the supervisee's roles; the providers are
+        // walked directly (rather than collected into sets of role ids) since this is called once per candidate
+        ProviderRoleCatalog catalog = getProviderRoleCatalog();
+        List<CachedProvider> supervisorProviders = getCachedProviders(supervisor);
+        List<CachedProvider> superviseeProviders = getCachedProviders(supervisee);
 
-        // get all the roles associated with the supervisee
-        List<ProviderRole> superviseeProviderRoles = getProviderRoles(supervisee);
+        for (int i = 0; i < supervisorProviders.size(); i++) {
+            CachedProvider supervisorProvider = supervisorProviders.get(i);
+            if (supervisorProvider.isRetired() || supervisorProvider.getProviderRoleId() == null) {
+                continue;
+            }
+            for (int j = 0; j < superviseeProviders.size(); j++) {
+                CachedProvider superviseeProvider = superviseeProviders.get(j);
+                if (!superviseeProvider.isRetired()
+                        && catalog.canSupervise(supervisorProvider.getProviderRoleId(), superviseeProvider.getProviderRoleId())) {
+                    return true;
+                }
+            }
+        }
 
-        return ListUtils.intersection(rolesThatProviderCanSupervisee, superviseeProviderRoles).size() > 0 ? true : false;
+        return false;
     }
 
 
@@ -608,7 +1095,7 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
         }
 
         // we don't need to assure that the person supports the relationship type, but we need to make sure this a provider/patient relationship type
-        if (!getAllProviderRoleRelationshipTypes(false).contains(relationshipType)) {
+        if (!isProviderRelationshipType(relationshipType, false)) {
             throw new InvalidRelationshipTypeException("Invalid relationship type: " + relationshipType + " is not a provider/patient relationship type");
         }
 
@@ -668,7 +1155,7 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
         }
 
         // we don't need to assure that the person supports the relationship type, but we need to make sure this a provider/patient relationship type
-        if (!getAllProviderRoleRelationshipTypes(false).contains(relationshipType)) {
+        if (!isProviderRelationshipType(relationshipType, false)) {
             throw new InvalidRelationshipTypeException("Invalid relationship type: " + relationshipType + " is not a provider/patient relationship type");
         }
 
@@ -718,10 +1205,17 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
             throw new PersonIsNotProviderException(provider.getPersonName() + " is not a provider");
         }
 
-        if (relationshipType != null && !getAllProviderRoleRelationshipTypes(false).contains(relationshipType)) {
+        if (relationshipType != null && !isProviderRelationshipType(relationshipType, false)) {
             throw new InvalidRelationshipTypeException("Invalid relationship type: " + relationshipType + " is not a provider/patient relationship type");
         }
 
+        // if possible, find the relationships through the active assignment table, which only holds provider relationships
+        if (useActiveAssignments(date)) {
+            List<RelationshipType> relationshipTypes = relationshipType != null ? Collections.singletonList(relationshipType)
+                    : getAllProviderRoleRelationshipTypes(true);
+            return dao.getActiveAssignmentRelationships(provider.getPersonId(), relationshipTypes, date);
+        }
+
         // get the specified relationships for the provider
         List<Relationship> relationships =
                 Context.getPersonService().getRelationships(provider, null, relationshipType, date);
@@ -741,36 +1235,383 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
         return getPatientRelationshipsForProvider(provider, relationshipType, null);
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public List<Relationship> getPatientRelationshipsForProvider(Person provider, RelationshipType relationshipType, boolean current,
+                                                                 RelationshipSortOrder sortOrder, boolean ascending, int firstResult, int maxResults)
+            throws PersonIsNotProviderException, InvalidRelationshipTypeException {
+
+        validatePage(firstResult, maxResults);
+
+        return dao.getRelationshipPage(provider.getPersonId(), true, getPatientRelationshipTypes(provider, relationshipType), true,
+                current, new Date(), sortOrder, ascending, firstResult, maxResults);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public int getPatientRelationshipsForProviderCount(Person provider, RelationshipType relationshipType, boolean current)
+            throws PersonIsNotProviderException, InvalidRelationshipTypeException {
+        return dao.getRelationshipPageCount(provider.getPersonId(), true, getPatientRelationshipTypes(provider, relationshipType), true,
+                current, new Date());
+    }
+
     @Override
     @Transactional(readOnly = true)
     public List<Patient> getPatientsOfProvider(Person provider, RelationshipType relationshipType, Date date)
             throws PersonIsNotProviderException, InvalidRelationshipTypeException {
 
-        List<Relationship> relationships = Context.getService(ProviderManagementService.class).getPatientRelationshipsForProvider(provider, relationshipType, date);
+        // the patients are loaded by the module rather than through the PatientService, so check its privilege here
+        Context.requirePrivilege(PrivilegeConstants.VIEW_PATIENTS);
 
-        // iterate through the relationships and fetch the patients
-        Set<Patient> patients = new HashSet<Patient>();
-        for (Relationship relationship : relationships) {
+        if (provider == null) {
+            throw new APIException("Provider cannot be null");
+        }
+
+        if (!isProvider(provider)) {
+            throw new PersonIsNotProviderException(provider.getPersonName() + " is not a provider");
+        }
+
+        if (relationshipType != null && !isProviderRelationshipType(relationshipType, false)) {
+            throw new InvalidRelationshipTypeException("Invalid relationship type: " + relationshipType + " is not a provider/patient relationship type");
+        }
+
+        List<RelationshipType> relationshipTypes = relationshipType != null ? Collections.singletonList(relationshipType)
+                : getAllProviderRoleRelationshipTypes(true);
 
-            if (!relationship.getPersonB().isPatient()) {
-                throw new APIException("Invalid relationship " + relationship + ": person b must be a patient");
+        // find the ids of the patients with a single query, and then load the patients in batches
+        List<Integer> patientIds = useActiveAssignments(date) ? dao.getActiveAssignmentPatientIds(provider.getPersonId(), relationshipTypes, date)
+                : dao.getPatientIdsOfProvider(provider.getPersonId(), relationshipTypes, date);
+
+        return getNonVoidedPatients(patientIds, dao.getPatientsByIds(patientIds, ProviderManagementGlobalProperties.GLOBAL_PROPERTY_PATIENT_BATCH_SIZE()));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Map<Integer, Patient> getPatientsByIds(Collection<Integer> patientIds) {
+
+        Context.requirePrivilege(PrivilegeConstants.VIEW_PATIENTS);
+
+        if (patientIds == null) {
+            throw new APIException("Patient ids cannot be null");
+        }
+
+        return dao.getPatientsByIds(patientIds, ProviderManagementGlobalProperties.GLOBAL_PROPERTY_PATIENT_BATCH_SIZE());
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Map<Integer, List<PatientProgram>> getPatientProgramsByPatientIds(Collection<Integer> patientIds) {
+
+        // the programs are loaded by the module rather than through the ProgramWorkflowService, so check its privilege here
+        Context.requirePrivilege(PrivilegeConstants.VIEW_PATIENT_PROGRAMS);
+
+        if (patientIds == null) {
+            throw new APIException("Patient ids cannot be null");
+        }
+
+        return dao.getPatientProgramsByPatientIds(patientIds, ProviderManagementGlobalProperties.GLOBAL_PROPERTY_PATIENT_BATCH_SIZE());
+    }
+
+    /**
+     * Validates the arguments of the paged patient relationship methods
+     *
+     * @return the relationship types to page through: the specified type, or, if null, all provider/patient relationship types
+     */
+    private List<RelationshipType> getPatientRelationshipTypes(Person provider, RelationshipType relationshipType)
+            throws PersonIsNotProviderException, InvalidRelationshipTypeException {
+
+        validateProvider(provider, "Provider");
+
+        if (relationshipType != null && !isProviderRelationshipType(relationshipType, false)) {
+            throw new InvalidRelationshipTypeException("Invalid relationship type: " + relationshipType + " is not a provider/patient relationship type");
+        }
+
+        return relationshipType != null ? Collections.singletonList(relationshipType) : getAllProviderRoleRelationshipTypes(true);
+    }
+
+    private void validateProvider(Person provider, String description)
+            throws PersonIsNotProviderException {
+
+        if (provider == null) {
+            throw new APIException(description + " cannot be null");
+        }
+
+        if (!isProvider(provider)) {
+            throw new PersonIsNotProviderException(provider.getPersonName() + " is not a provider");
+        }
+    }
+
+    private void validatePage(int firstResult, int maxResults) {
+
+        if (firstResult < 0) {
+            throw new APIException("First result cannot be negative");
+        }
+
+        if (maxResults < 1) {
+            throw new APIException("Max results must be at least 1");
+        }
+    }
+
+    /**
+     * @param patientIds the ids of persons linked to a provider by provider relationships
+     * @param patientsById the patients loaded for those ids
+     * @return the non-voided patients, in the order of the ids
+     */
+    private List<Patient> getNonVoidedPatients(Collection<Integer> patientIds, Map<Integer, Patient> patientsById) {
+
+        List<Patient> patients = new ArrayList<Patient>();
+
+        for (Integer patientId : patientIds) {
+            Patient patient = patientsById.get(patientId);
+            if (patient == null) {
+                throw new APIException("Invalid relationship to person " + patientId + ": person b must be a patient");
             }
+            if (!patient.isVoided()) {
+                patients.add(patient);
+            }
+        }
+
+        return patients;
+    }
 
-            Patient p = Context.getPatientService().getPatient(relationship.getPersonB().getId());
-            if (!p.isVoided()) {
-                patients.add(p);
+    @Override
+    @Transactional(readOnly = true)
+    public int getPatientsOfProviderCount(Person provider, RelationshipType relationshipType, Date date)
+        throws PersonIsNotProviderException, InvalidRelationshipTypeException {
+
+       // note that we can't just call getPatientsOfProvider and then do a count of the returns results,
+       // because we want this method to be callable by users that don't have the right to view patients
+        if (provider == null) {
+            throw new APIException("Provider cannot be null");
+        }
+
+        if (!isProvider(provider)) {
+            throw new PersonIsNotProviderException(provider.getPersonName() + " is not a provider");
+        }
+
+        if (relationshipType != null && !isProviderRelationshipType(relationshipType, false)) {
+            throw new InvalidRelationshipTypeException("Invalid relationship type: " + relationshipType + " is not a provider/patient relationship type");
+        }
+
+        // if a relationship type was not specified, count patients linked by any provider relationship
+        List<RelationshipType> relationshipTypes = relationshipType != null ? Collections.singletonList(relationshipType)
+                : getAllProviderRoleRelationshipTypes(true);
+
+        // a patient may be linked by more than one relationship type, so the summary can only answer for a single type
+        if (relationshipType != null && useCaseloadSummary(date)) {
+            Integer count = dao.getCaseloadSummaryCounts(Collections.singleton(provider.getPersonId()), relationshipTypes).get(provider.getPersonId()).get(relationshipType);
+            return count != null ? count : 0;
+        }
+
+        if (useActiveAssignments(date)) {
+            return dao.getActiveAssignmentPatientCount(provider.getPersonId(), relationshipTypes, date);
+        }
+
+        // counted in the database, without loading the relationships (or the patients)
+        return dao.getPatientCount(provider, relationshipTypes, date);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Map<Integer, Map<RelationshipType, Integer>> getCaseloadCounts(Collection<Person> providers, Date date) {
+
+        if (providers == null) {
+            throw new APIException("Providers cannot be null");
+        }
+
+        Set<Integer> providerIds = new HashSet<Integer>();
+        for (Person provider : providers) {
+            providerIds.add(provider.getPersonId());
+        }
+
+        if (useCaseloadSummary(date)) {
+            return dao.getCaseloadSummaryCounts(providerIds, getAllProviderRoleRelationshipTypes(true));
+        }
+
+        if (useActiveAssignments(date)) {
+            return dao.getActiveAssignmentPatientCounts(providerIds, getAllProviderRoleRelationshipTypes(true), date);
+        }
+
+        return dao.getPatientCounts(providerIds, getAllProviderRoleRelationshipTypes(true), date);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Map<Integer, Integer> getCaseloadSizes(Collection<Person> providers, Date date) {
+
+        if (providers == null) {
+            throw new APIException("Providers cannot be null");
+        }
+
+        Set<Integer> providerIds = new HashSet<Integer>();
+        for (Person provider : providers) {
+            providerIds.add(provider.getPersonId());
+        }
+
+        if (useActiveAssignments(date)) {
+            return dao.getActiveAssignmentTotalPatientCounts(providerIds, getAllProviderRoleRelationshipTypes(true), date);
+        }
+
+        return dao.getTotalPatientCounts(providerIds, getAllProviderRoleRelationshipTypes(true), date);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public CaseloadTimeSeries getCaseloadTimeSeries(Collection<Person> providers, RelationshipType relationshipType, Date fromDate, Date toDate, CaseloadGranularity granularity)
+            throws InvalidRelationshipTypeException {
+
+        if (providers == null) {
+            throw new APIException("Providers cannot be null");
+        }
+
+        if (fromDate == null || toDate == null) {
+            throw new APIException("From and to dates cannot be null");
+        }
+
+        if (fromDate.after(toDate)) {
+            throw new APIException("From date cannot be after to date");
+        }
+
+        if (granularity == null) {
+            throw new APIException("Granularity cannot be null");
+        }
+
+        if (relationshipType != null && !isProviderRelationshipType(relationshipType, false)) {
+            throw new InvalidRelationshipTypeException("Invalid relationship type: " + relationshipType + " is not a provider/patient relationship type");
+        }
+
+        List<RelationshipType> relationshipTypes = relationshipType != null ? Collections.singletonList(relationshipType)
+                : getAllProviderRoleRelationshipTypes(true);
+
+        // each date is calculated from the first, rather than the previous, so that monthly series don't drift (eg, from
+        // the 31st to the 28th)
+        Date start = ProviderManagementUtils.clearTimeComponent(fromDate);
+        List<Date> dates = new ArrayList<Date>();
+        Calendar cal = Calendar.getInstance();
+        for (int i = 0; ; i++) {
+            cal.setTime(start);
+            cal.add(granularity.getCalendarField(), i);
+            if (cal.getTime().after(toDate)) {
+                break;
             }
+            dates.add(cal.getTime());
+        }
+
+        Set<Integer> providerIds = new LinkedHashSet<Integer>();
+        for (Person provider : providers) {
+            providerIds.add(provider.getPersonId());
+        }
+
+        CaseloadSweep sweep = new CaseloadSweep(dates, providerIds);
+        dao.addCaseloadRelationships(providerIds, relationshipTypes, dates.get(0), dates.get(dates.size() - 1), sweep);
+        return sweep.getTimeSeries();
+    }
+
+    @Override
+    @Transactional
+    public int rebuildCaseloadSummaries() {
+        Date date = ProviderManagementUtils.clearTimeComponent(new Date());
+        int changes = dao.rebuildCaseloadSummaries(getAllProviderRoleRelationshipTypes(true), date);
+        caseloadSummaryDate = date;
+        return changes;
+    }
+
+    @Override
+    @Transactional(noRollbackFor = RuntimeException.class)
+    public void updateCaseloadSummaries(Collection<Integer> personIds) {
+
+        if (personIds == null) {
+            throw new APIException("Person ids cannot be null");
         }
 
-        return new ArrayList<Patient>(patients);
+        // the table isn't maintained while it is disabled, as it is rebuilt when it is enabled
+        Boolean enabled = ProviderManagementGlobalProperties.GLOBAL_PROPERTY_CASELOAD_SUMMARY_ENABLED();
+        if (enabled == null || !enabled) {
+            return;
+        }
+
+        List<RelationshipType> relationshipTypes = getAllProviderRoleRelationshipTypes(true);
+
+        Set<Integer> providerIds = new HashSet<Integer>(personIds);
+        providerIds.addAll(dao.getProviderIdsOfPatients(personIds, relationshipTypes));
+
+        dao.updateCaseloadSummaries(providerIds, relationshipTypes, ProviderManagementUtils.clearTimeComponent(new Date()));
     }
 
-    @Override
-    public int getPatientsOfProviderCount(Person provider, RelationshipType relationshipType, Date date)
-        throws PersonIsNotProviderException, InvalidRelationshipTypeException {
+    @Override
+    @Transactional(readOnly = true)
+    public boolean hasCaseloadSummaries() {
+        return dao.hasCaseloadSummaries();
+    }
+
+    @Override
+    @Transactional
+    public int rebuildActiveAssignments() {
+        return dao.rebuildActiveAssignments(getAllProviderRoleRelationshipTypes(true), ProviderManagementUtils.clearTimeComponent(new Date()));
+    }
+
+    @Override
+    @Transactional(noRollbackFor = RuntimeException.class)
+    public void updateActiveAssignments(Collection<Integer> relationshipIds) {
+
+        if (relationshipIds == null) {
+            throw new APIException("Relationship ids cannot be null");
+        }
+
+        // the table isn't maintained while it is disabled, as it is rebuilt when it is enabled
+        Boolean enabled = ProviderManagementGlobalProperties.GLOBAL_PROPERTY_ACTIVE_ASSIGNMENT_TABLE_ENABLED();
+        if (enabled == null || !enabled) {
+            return;
+        }
+
+        dao.updateActiveAssignments(relationshipIds, getAllProviderRoleRelationshipTypes(true), ProviderManagementUtils.clearTimeComponent(new Date()));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public boolean hasActiveAssignments() {
+        return dao.hasActiveAssignments();
+    }
+
+    /**
+     * @return true if patient counts on the specified date should be read from the caseload summary table, which holds
+     *         the counts as of the start of the day it was last rebuilt on; so this is only the case when the date is
+     *         exactly the start of the current day, and the table has been rebuilt since then (counts at any later time
+     *         of the day can differ, as relationships end on, or start during, the day, so they are counted in the database)
+     */
+    private boolean useCaseloadSummary(Date date) {
+        Boolean enabled = ProviderManagementGlobalProperties.GLOBAL_PROPERTY_CASELOAD_SUMMARY_ENABLED();
+        Date summaryDate = caseloadSummaryDate;
+        return enabled != null && enabled && date != null && summaryDate != null && date.getTime() == summaryDate.getTime()
+                && summaryDate.equals(ProviderManagementUtils.clearTimeComponent(new Date()));
+    }
+
+    /**
+     * @return true if relationships active on the specified date can be found through the active assignment table,
+     *         which holds every relationship that had not ended before the day its row was last updated; rows of
+     *         relationships that have ended since are filtered out by their dates (and removed by the nightly
+     *         rebuild), so this covers any date from the start of the current day
+     */
+    private boolean useActiveAssignments(Date date) {
+        Boolean enabled = ProviderManagementGlobalProperties.GLOBAL_PROPERTY_ACTIVE_ASSIGNMENT_TABLE_ENABLED();
+        return enabled != null && enabled && date != null
+                && !date.before(ProviderManagementUtils.clearTimeComponent(new Date()));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<Patient> getPatientsOfProvider(Person provider, RelationshipType relationshipType)
+            throws PersonIsNotProviderException, InvalidRelationshipTypeException {
+        return getPatientsOfProvider(provider, relationshipType, null);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public Map<Date, List<Patient>> getPatientsOfProviderOnDates(Person provider, RelationshipType relationshipType, Collection<Date> dates)
+            throws PersonIsNotProviderException, InvalidRelationshipTypeException {
+
+        Context.requirePrivilege(PrivilegeConstants.VIEW_PATIENTS);
 
-       // note that we can't just call getPatientsOfProvider and then do a count of the returns results,
-       // because we want this method to be callable by users that don't have the right to view patients
         if (provider == null) {
             throw new APIException("Provider cannot be null");
         }
@@ -779,28 +1620,35 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
             throw new PersonIsNotProviderException(provider.getPersonName() + " is not a provider");
         }
 
-        if (relationshipType != null && !getAllProviderRoleRelationshipTypes(false).contains(relationshipType)) {
+        if (relationshipType != null && !isProviderRelationshipType(relationshipType, false)) {
             throw new InvalidRelationshipTypeException("Invalid relationship type: " + relationshipType + " is not a provider/patient relationship type");
         }
 
-        // get the specified relationships for the provider
-        List<Relationship> relationships =
-                Context.getPersonService().getRelationships(provider, null, relationshipType, date);
+        List<RelationshipType> relationshipTypes = relationshipType != null ? Collections.singletonList(relationshipType)
+                : getAllProviderRoleRelationshipTypes(true);
 
-        // if a relationship type was not specified, we need to filter this list to only contain provider relationships
-        if (relationshipType == null) {
-            ProviderManagementUtils.filterNonProviderRelationships(relationships);
+        Map<Date, List<Relationship>> relationshipsByDate = getRelationshipsOnDates(provider.getPersonId(), null, relationshipTypes, dates);
+
+        // each patient is only fetched once, however many dates they appear on, and in batches
+        Set<Integer> patientIds = new HashSet<Integer>();
+        for (List<Relationship> relationships : relationshipsByDate.values()) {
+            for (Relationship relationship : relationships) {
+                patientIds.add(relationship.getPersonB().getPersonId());
+            }
         }
 
-        // TODO: the one flaw here is that this counts relationships with voided patients (but hopefully any relationships for voided patients will also be voided)
-        return relationships != null ? relationships.size() : 0;
-    }
+        Map<Integer, Patient> patientsById = dao.getPatientsByIds(patientIds, ProviderManagementGlobalProperties.GLOBAL_PROPERTY_PATIENT_BATCH_SIZE());
+        Map<Date, List<Patient>> patientsByDate = new LinkedHashMap<Date, List<Patient>>();
 
-    @Override
-    @Transactional(readOnly = true)
-    public List<Patient> getPatientsOfProvider(Person provider, RelationshipType relationshipType)
-            throws PersonIsNotProviderException, InvalidRelationshipTypeException {
-        return getPatientsOfProvider(provider, relationshipType, null);
+        for (Map.Entry<Date, List<Relationship>> entry : relationshipsByDate.entrySet()) {
+            Set<Integer> patientIdsOnDate = new LinkedHashSet<Integer>();
+            for (Relationship relationship : entry.getValue()) {
+                patientIdsOnDate.add(relationship.getPersonB().getPersonId());
+            }
+            patientsByDate.put(entry.getKey(), getNonVoidedPatients(patientIdsOnDate, patientsById));
+        }
+
+        return patientsByDate;
     }
 
     @Override
@@ -816,7 +1664,7 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
             throw new PersonIsNotProviderException(provider.getPersonName() + " is not a provider");
         }
         
-        if (relationshipType != null && !getAllProviderRoleRelationshipTypes(false).contains(relationshipType)) {
+        if (relationshipType != null && !isProviderRelationshipType(relationshipType, false)) {
             throw new InvalidRelationshipTypeException(relationshipType + " is not a patient/provider relationship");
         }
 
@@ -876,6 +1724,25 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
         return getProvidersAsPersonsForPatient(patient, relationshipType, null);
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public Map<Date, List<Person>> getProvidersAsPersonsForPatientOnDates(Patient patient, RelationshipType relationshipType, Collection<Date> dates)
+            throws InvalidRelationshipTypeException {
+
+        if (patient == null) {
+            throw new APIException("Patient cannot be null");
+        }
+
+        if (relationshipType != null && !isProviderRelationshipType(relationshipType, false)) {
+            throw new InvalidRelationshipTypeException(relationshipType + " is not a patient/provider relationship");
+        }
+
+        List<RelationshipType> relationshipTypes = relationshipType != null ? Collections.singletonList(relationshipType)
+                : getAllProviderRoleRelationshipTypes(true);
+
+        return getOtherPersonsOnDates(getRelationshipsOnDates(null, patient.getPersonId(), relationshipTypes, dates), false);
+    }
+
     @Override
     @Transactional
     public void transferPatients(List<Patient> patients, Person sourceProvider, Person destinationProvider, RelationshipType relationshipType, Date date)
@@ -1191,6 +2058,30 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
         return getSupervisorRelationshipsForProvider(provider, null);
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public List<Relationship> getSupervisorRelationshipsForProvider(Person provider, boolean current, RelationshipSortOrder sortOrder,
+                                                                    boolean ascending, int firstResult, int maxResults)
+            throws PersonIsNotProviderException {
+
+        validateProvider(provider, "Provider");
+        validatePage(firstResult, maxResults);
+
+        return dao.getRelationshipPage(provider.getPersonId(), false, Collections.singletonList(getSupervisorRelationshipType()), false,
+                current, new Date(), sortOrder, ascending, firstResult, maxResults);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public int getSupervisorRelationshipsForProviderCount(Person provider, boolean current)
+            throws PersonIsNotProviderException {
+
+        validateProvider(provider, "Provider");
+
+        return dao.getRelationshipPageCount(provider.getPersonId(), false, Collections.singletonList(getSupervisorRelationshipType()), false,
+                current, new Date());
+    }
+
     @Override
     @Transactional(readOnly = true)
     public List<Person> getSupervisorsForProvider(Person provider, Date date)
@@ -1220,6 +2111,23 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
         return getSupervisorsForProvider(provider, null);
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public Map<Date, List<Person>> getSupervisorsForProviderOnDates(Person provider, Collection<Date> dates)
+            throws PersonIsNotProviderException {
+
+        if (provider == null) {
+            throw new APIException("Provider cannot be null");
+        }
+
+        if (!isProvider(provider)) {
+            throw new PersonIsNotProviderException(provider.getPersonName() + " is not a provider");
+        }
+
+        return getOtherPersonsOnDates(getRelationshipsOnDates(null, provider.getPersonId(),
+                Collections.singletonList(getSupervisorRelationshipType()), dates), false);
+    }
+
     @Override
     @Transactional(readOnly = true)
     public List<Relationship> getSuperviseeRelationshipsForSupervisor(Person supervisor, Date date)
@@ -1243,6 +2151,30 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
         return getSuperviseeRelationshipsForSupervisor(supervisor, null);
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public List<Relationship> getSuperviseeRelationshipsForSupervisor(Person supervisor, boolean current, RelationshipSortOrder sortOrder,
+                                                                      boolean ascending, int firstResult, int maxResults)
+            throws PersonIsNotProviderException {
+
+        validateProvider(supervisor, "Supervisor");
+        validatePage(firstResult, maxResults);
+
+        return dao.getRelationshipPage(supervisor.getPersonId(), true, Collections.singletonList(getSupervisorRelationshipType()), false,
+                current, new Date(), sortOrder, ascending, firstResult, maxResults);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public int getSuperviseeRelationshipsForSupervisorCount(Person supervisor, boolean current)
+            throws PersonIsNotProviderException {
+
+        validateProvider(supervisor, "Supervisor");
+
+        return dao.getRelationshipPageCount(supervisor.getPersonId(), true, Collections.singletonList(getSupervisorRelationshipType()), false,
+                current, new Date());
+    }
+
     @Override
     @Transactional(readOnly = true)
     public List<Person> getSuperviseesForSupervisor(Person supervisor, Date date)
@@ -1272,6 +2204,162 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
         return getSuperviseesForSupervisor(supervisor, null);
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public Map<Date, List<Person>> getSuperviseesForSupervisorOnDates(Person supervisor, Collection<Date> dates)
+            throws PersonIsNotProviderException {
+
+        if (supervisor == null) {
+            throw new APIException("Supervisor cannot be null");
+        }
+
+        if (!isProvider(supervisor)) {
+            throw new PersonIsNotProviderException(supervisor.getPersonName() + " is not a provider");
+        }
+
+        return getOtherPersonsOnDates(getRelationshipsOnDates(supervisor.getPersonId(), null,
+                Collections.singletonList(getSupervisorRelationshipType()), dates), true);
+    }
+
+    /**
+     * Loads the relationships of the specified types between the specified persons that are active at any point
+     * between the first and last of the specified dates with a single query, and then works out which were active on
+     * each date in a single pass
+     *
+     * @return the relationships active on each distinct date, keyed by date in ascending order
+     */
+    private Map<Date, List<Relationship>> getRelationshipsOnDates(Integer personAId, Integer personBId, List<RelationshipType> relationshipTypes, Collection<Date> dates) {
+
+        if (dates == null) {
+            throw new APIException("Dates cannot be null");
+        }
+
+        for (Date date : dates) {
+            if (date == null) {
+                throw new APIException("Dates cannot contain null");
+            }
+        }
+
+        if (dates.isEmpty()) {
+            return new LinkedHashMap<Date, List<Relationship>>();
+        }
+
+        List<Relationship> relationships = dao.getRelationshipsActiveBetween(personAId, personBId, relationshipTypes,
+                Collections.min(dates), Collections.max(dates));
+
+        return ProviderManagementUtils.getRelationshipsActiveOnDates(relationships, dates);
+    }
+
+    /**
+     * @param relationshipsByDate
+     * @param personB true to collect person B of each relationship, false to collect person A (who must be a provider)
+     * @return the distinct persons at one end of the relationships on each date
+     */
+    private Map<Date, List<Person>> getOtherPersonsOnDates(Map<Date, List<Relationship>> relationshipsByDate, boolean personB) {
+
+        Set<Person> checkedProviders = new HashSet<Person>();
+        Map<Date, List<Person>> personsByDate = new LinkedHashMap<Date, List<Person>>();
+
+        for (Map.Entry<Date, List<Relationship>> entry : relationshipsByDate.entrySet()) {
+            Set<Person> persons = new LinkedHashSet<Person>();
+            for (Relationship relationship : entry.getValue()) {
+                Person person = personB ? relationship.getPersonB() : relationship.getPersonA();
+                if (!personB && !checkedProviders.contains(person)) {
+                    if (!isProvider(person)) {
+                        // something has gone really wrong here
+                        throw new APIException(person.getPersonName() + " is not a provider");
+                    }
+                    checkedProviders.add(person);
+                }
+                persons.add(person);
+            }
+            personsByDate.put(entry.getKey(), new ArrayList<Person>(persons));
+        }
+
+        return personsByDate;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public SupervisionTreeNode getSuperviseeTree(Person supervisor, Date date, int maxDepth)
+            throws PersonIsNotProviderException {
+
+        if (supervisor == null) {
+            throw new APIException("Supervisor cannot be null");
+        }
+
+        if (!isProvider(supervisor)) {
+            throw new PersonIsNotProviderException(supervisor.getPersonName() + " is not a provider");
+        }
+
+        SupervisionTreeNode root = new SupervisionTreeNode(supervisor, null, 0);
+
+        // keep track of everyone already in the tree, so we don't loop forever if there is a cycle in the hierarchy
+        Set<Integer> visited = new HashSet<Integer>();
+        visited.add(supervisor.getId());
+
+        // walk down the tree one level at a time, fetching all the supervisees of the current level in a single query
+        Map<Integer, SupervisionTreeNode> level = new HashMap<Integer, SupervisionTreeNode>();
+        level.put(supervisor.getId(), root);
+
+        for (int depth = 1; depth <= maxDepth && !level.isEmpty(); depth++) {
+
+            Map<Integer, SupervisionTreeNode> nextLevel = new HashMap<Integer, SupervisionTreeNode>();
+
+            for (Relationship relationship : dao.getRelationshipsByPersonA(level.keySet(), getSupervisorRelationshipType(), date)) {
+                Person supervisee = relationship.getPersonB();
+                if (visited.add(supervisee.getId())) {
+                    SupervisionTreeNode node = new SupervisionTreeNode(supervisee, relationship, depth);
+                    level.get(relationship.getPersonA().getId()).getSupervisees().add(node);
+                    nextLevel.put(supervisee.getId(), node);
+                }
+            }
+
+            level = nextLevel;
+        }
+
+        return root;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<Person> getSupervisionChain(Person provider, Date date)
+            throws PersonIsNotProviderException {
+
+        if (provider == null) {
+            throw new APIException("Provider cannot be null");
+        }
+
+        if (!isProvider(provider)) {
+            throw new PersonIsNotProviderException(provider.getPersonName() + " is not a provider");
+        }
+
+        List<Person> supervisors = new ArrayList<Person>();
+
+        Set<Integer> visited = new HashSet<Integer>();
+        visited.add(provider.getId());
+
+        // walk up the hierarchy one level at a time
+        Set<Integer> level = Collections.singleton(provider.getId());
+
+        while (!level.isEmpty()) {
+
+            Set<Integer> nextLevel = new HashSet<Integer>();
+
+            for (Relationship relationship : dao.getRelationshipsByPersonB(level, getSupervisorRelationshipType(), date)) {
+                Person supervisor = relationship.getPersonA();
+                if (visited.add(supervisor.getId())) {
+                    supervisors.add(supervisor);
+                    nextLevel.add(supervisor.getId());
+                }
+            }
+
+            level = nextLevel;
+        }
+
+        return supervisors;
+    }
+
     @Override
     @Transactional
     public void transferSupervisees(List<Person> supervisees, Person sourceSupervisor, Person destinationSupervisor, Date date)
@@ -1350,12 +2438,168 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
     @Override
     @Transactional(readOnly = true)
     public List<Provider> getProvidersByPerson(Person person, boolean includeRetired) {
+
+        // use the cache to avoid querying for persons that we already know aren't providers
+        if (person != null && !hasProviders(getCachedProviders(person), includeRetired)) {
+            return new ArrayList<Provider>();
+        }
+
         return dao.getProvidersByPerson(person, includeRetired);
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public Map<Integer, List<Provider>> getProvidersByPersonIds(Collection<Integer> personIds, boolean includeRetired) {
+
+        if (personIds == null) {
+            throw new APIException("Person ids cannot be null");
+        }
+
+        Map<Integer, List<Provider>> providers = new HashMap<Integer, List<Provider>>();
+
+        if (personIds.isEmpty()) {
+            return providers;
+        }
+
+        for (Provider provider : dao.getProvidersByPersonIds(personIds, includeRetired)) {
+            Integer personId = provider.getPerson().getId();
+            if (!providers.containsKey(personId)) {
+                providers.put(personId, new ArrayList<Provider>());
+            }
+            providers.get(personId).add(provider);
+        }
+
+        return providers;
+    }
+
     /**
      * Utility methods
      */
+
+    // a word matches if it sounds like one of the person's words, or is a prefix of one of them
+    private boolean matchesAllWords(Set<String> personKeys, List<String> words) {
+
+        for (String word : words) {
+            if (!personKeys.contains(PersonNameKeys.getPhoneticKey(word)) && !startsAnyKey(personKeys, PersonNameKeys.getNormalizedKey(word))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean startsAnyKey(Set<String> keys, String prefix) {
+
+        for (String key : keys) {
+            if (key.startsWith(prefix)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the current provider role catalog, building (and installing) a new one if necessary
+     */
+    private ProviderRoleCatalog getProviderRoleCatalog() {
+
+        ProviderRoleCatalog catalog = providerRoleCatalogCache.getCatalog();
+
+        if (catalog == null) {
+            // note that we must fetch the version *before* loading the roles, so that we can't install a catalog that missed a change
+            long version = providerRoleCatalogCache.getVersion();
+            catalog = ProviderRoleCatalog.build(dao.getAllProviderRoles(true), version);
+            providerRoleCatalogCache.install(catalog);
+        }
+
+        return catalog;
+    }
+
+    private Set<Integer> getProviderRoleIdsThatProviderCanSupervise(Person provider) {
+        return getProviderRoleCatalog().getSuperviseeProviderRoleIds(getProviderRoleIds(provider));
+    }
+
+    /**
+     * Returns the ids of the roles of the (non-retired) providers associated with the specified person
+     */
+    private Set<Integer> getProviderRoleIds(Person provider) {
+
+        Set<Integer> providerRoleIds = new TreeSet<Integer>();
+
+        for (CachedProvider p : getCachedProviders(provider)) {
+            if (!p.isRetired() && p.getProviderRoleId() != null) {
+                providerRoleIds.add(p.getProviderRoleId());
+            }
+        }
+
+        return providerRoleIds;
+    }
+
+    /**
+     * Returns the providers associated with the specified person (including retired providers), served from the
+     * person provider cache where possible
+     *
+     * Any of those providers that have already been loaded into the current session are read from the session instead
+     * of the cache, so that changes that have not yet been flushed (and so have not yet reached the cache invalidation
+     * interceptor) are still honored
+     */
+    private List<CachedProvider> getCachedProviders(Person person) {
+
+        Integer personId = person.getId();
+        List<CachedProvider> cachedProviders = personId != null ? personProviderCache.get(personId) : null;
+
+        if (cachedProviders == null) {
+            // note that we must fetch the version *before* querying, so that we can't store an entry that missed a change
+            long version = personProviderCache.getVersion();
+            cachedProviders = toCachedProviders(dao.getProvidersByPerson(person, true));
+            personProviderCache.put(personId, cachedProviders, version);
+            return cachedProviders;
+        }
+
+        List<CachedProvider> providers = new ArrayList<CachedProvider>(cachedProviders.size());
+
+        for (CachedProvider cachedProvider : cachedProviders) {
+            org.openmrs.Provider loadedProvider = dao.getProviderIfLoaded(cachedProvider.getProviderId());
+            if (loadedProvider == null) {
+                providers.add(cachedProvider);
+            }
+            else if (loadedProvider.getPerson() != null && personId.equals(loadedProvider.getPerson().getPersonId())) {
+                providers.add(CachedProvider.fromProvider(loadedProvider));
+            }
+        }
+
+        return providers;
+    }
+
+    private List<CachedProvider> toCachedProviders(List<Provider> providers) {
+
+        List<CachedProvider> cachedProviders = new ArrayList<CachedProvider>();
+
+        if (providers != null) {
+            for (Provider provider : providers) {
+                cachedProviders.add(CachedProvider.fromProvider(provider));
+            }
+        }
+
+        return cachedProviders;
+    }
+
+    private boolean hasProviders(List<CachedProvider> providers, boolean includeRetired) {
+
+        for (CachedProvider provider : providers) {
+            if (includeRetired || !provider.isRetired()) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private List<ProviderRole> getProviderRolesByIds(Collection<Integer> providerRoleIds) {
+        return dao.getProviderRoles(providerRoleIds);
+    }
+
     private List<Person> providersToPersons(List<Provider> providers) {
         
         if (providers == null) {
@@ -1376,24 +2620,4 @@ public class ProviderManagementServiceImpl extends BaseOpenmrsService implements
 
         return new ArrayList<Person>(persons);
     }
-
-    private boolean supportsRelationshipType(Provider provider, RelationshipType relationshipType) {
-
-        if (provider == null) {
-            throw new APIException("Provider should not be null");
-        }
-
-        if (relationshipType == null) {
-            throw new APIException("Relationship type should not be null");
-        }
-
-        // if this provider has no role, return false
-        if (provider.getProviderRole() == null) {
-            return false;
-        }
-        // otherwise, test if the provider's role supports the specified relationship type
-        else {
-            return provider.getProviderRole().supportsRelationshipType(relationshipType);
-        }
-    }
 }
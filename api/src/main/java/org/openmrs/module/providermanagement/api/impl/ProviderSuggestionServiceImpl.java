@@ -124,7 +124,7 @@ public class ProviderSuggestionServiceImpl implements ProviderSuggestionService
             throw new APIException("Relationship type cannot be null");
         }
 
-        if (!Context.getService(ProviderManagementService.class).getAllProviderRoleRelationshipTypes(false).contains(relationshipType)) {
+        if (!Context.getService(ProviderManagementService.class).isProviderRelationshipType(relationshipType, false)) {
             throw new InvalidRelationshipTypeException("Invalid relationship type: " + relationshipType + " is not a valid provider relationship type");
         }
 
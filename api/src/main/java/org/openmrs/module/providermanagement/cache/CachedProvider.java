@@ -0,0 +1,60 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.providermanagement.cache;
+
+import org.openmrs.module.providermanagement.Provider;
+
+/**
+ * Immutable summary of a provider (its id, the id of its provider role, and whether it is retired) as held by the
+ * {@link PersonProviderCache}
+ */
+public class CachedProvider {
+
+    private final Integer providerId;
+
+    private final Integer providerRoleId;
+
+    private final boolean retired;
+
+    public CachedProvider(Integer providerId, Integer providerRoleId, boolean retired) {
+        this.providerId = providerId;
+        this.providerRoleId = providerRoleId;
+        this.retired = retired;
+    }
+
+    /**
+     * @return a summary of the specified provider (with a null provider role id if the provider has no role)
+     */
+    public static CachedProvider fromProvider(org.openmrs.Provider provider) {
+        Integer providerRoleId = null;
+        if (provider instanceof Provider && ((Provider) provider).getProviderRole() != null) {
+            providerRoleId = ((Provider) provider).getProviderRole().getId();
+        }
+        return new CachedProvider(provider.getId(), providerRoleId, provider.isRetired());
+    }
+
+    public Integer getProviderId() {
+        return providerId;
+    }
+
+    public Integer getProviderRoleId() {
+        return providerRoleId;
+    }
+
+    public boolean isRetired() {
+        return retired;
+    }
+}
@@ -0,0 +1,219 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.providermanagement.cache;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bounded, least-recently-used cache of the providers associated with each person, keyed by person id
+ *
+ * As with the {@link ProviderRoleCatalogCache}, every invalidation bumps a version number and an entry is only stored
+ * if it was loaded against the current version, so an entry that was being loaded while a provider changed is
+ * simply discarded. Persons whose providers are changed within a transaction are not served from (or stored in) the
+ * cache until that transaction completes, so that uncommitted changes never leak into the cache.
+ *
+ * Hit and miss counts are kept so that the cache can be sized appropriately.
+ */
+public class PersonProviderCache {
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    private int maxSize = DEFAULT_MAX_SIZE;
+
+    private long version = 0;
+
+    private long hits = 0;
+
+    private long misses = 0;
+
+    // access-ordered, so that iteration starts at the least-recently-used entry
+    private final LinkedHashMap<Integer, List<CachedProvider>> entries = new LinkedHashMap<Integer, List<CachedProvider>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<CachedProvider>> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    /**
+     * @param personId
+     * @return the providers associated with the specified person, or null if the person is not in the cache
+     */
+    public synchronized List<CachedProvider> get(Integer personId) {
+
+        List<CachedProvider> providers = isModifiedInCurrentTransaction(personId) ? null : entries.get(personId);
+
+        if (providers != null) {
+            hits++;
+        }
+        else {
+            misses++;
+        }
+
+        return providers;
+    }
+
+    /**
+     * @return the current version; entries should be loaded against the version read *before* querying for the providers
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Stores the providers associated with the specified person, provided that nothing has been invalidated since they
+     * were loaded, and that the person's providers have not been changed within the current (uncommitted) transaction
+     *
+     * @param personId
+     * @param providers
+     * @param version the version the providers were loaded against
+     * @return true if the entry was stored
+     */
+    public synchronized boolean put(Integer personId, Collection<CachedProvider> providers, long version) {
+        if (personId == null || version != this.version || isModifiedInCurrentTransaction(personId)) {
+            return false;
+        }
+        entries.put(personId, Collections.unmodifiableList(new ArrayList<CachedProvider>(providers)));
+        return true;
+    }
+
+    /**
+     * Discards the entry for the specified person
+     */
+    public synchronized void invalidate(Integer personId) {
+        version++;
+        entries.remove(personId);
+    }
+
+    /**
+     * Discards all entries
+     */
+    public synchronized void invalidateAll() {
+        version++;
+        entries.clear();
+    }
+
+    /**
+     * Discards the entry for the specified person immediately, and again once the current transaction completes, so
+     * that an entry loaded from uncommitted (or rolled back) changes never outlives the transaction
+     */
+    public void invalidateOnTransactionCompletion(Integer personId) {
+
+        if (personId == null) {
+            return;
+        }
+
+        invalidate(personId);
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            Set<Integer> modifiedPersonIds = getModifiedPersonIds();
+            if (modifiedPersonIds == null) {
+                final Set<Integer> personIds = new HashSet<Integer>();
+                TransactionSynchronizationManager.bindResource(this, personIds);
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                    @Override
+                    public void afterCompletion(int status) {
+                        TransactionSynchronizationManager.unbindResourceIfPossible(PersonProviderCache.this);
+                        for (Integer id : personIds) {
+                            invalidate(id);
+                        }
+                    }
+                });
+                modifiedPersonIds = personIds;
+            }
+            modifiedPersonIds.add(personId);
+        }
+    }
+
+    /**
+     * @return true if the providers of the specified person have been changed within the current (uncommitted) transaction
+     */
+    public boolean isModifiedInCurrentTransaction(Integer personId) {
+        Set<Integer> modifiedPersonIds = getModifiedPersonIds();
+        return modifiedPersonIds != null && modifiedPersonIds.contains(personId);
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of persons held in the cache, evicting the least-recently-used entries if necessary
+     */
+    public synchronized void setMaxSize(int maxSize) {
+
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Cache size must be at least 1");
+        }
+
+        this.maxSize = maxSize;
+
+        Iterator<Integer> i = entries.keySet().iterator();
+        while (entries.size() > maxSize && i.hasNext()) {
+            i.next();
+            i.remove();
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the proportion of lookups that were served from the cache
+     */
+    public synchronized double getHitRatio() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    public synchronized void resetStatistics() {
+        hits = 0;
+        misses = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PersonProviderCache{" +
+                "size=" + entries.size() +
+                ", maxSize=" + maxSize +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                '}';
+    }
+
+    @SuppressWarnings("unchecked")
+    private Set<Integer> getModifiedPersonIds() {
+        return (Set<Integer>) TransactionSynchronizationManager.getResource(this);
+    }
+}
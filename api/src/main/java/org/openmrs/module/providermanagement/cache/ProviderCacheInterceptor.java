@@ -0,0 +1,148 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.providermanagement.cache;
+
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.type.Type;
+import org.openmrs.Person;
+import org.openmrs.PersonName;
+import org.openmrs.Provider;
+import org.openmrs.module.providermanagement.ProviderRole;
+
+import java.io.Serializable;
+
+/**
+ * Hibernate interceptor that evicts persons from the {@link PersonProviderCache} whenever one of their providers
+ * (either a core provider or a provider management provider) is inserted, updated or deleted, no matter which
+ * service made the change
+ *
+ * If the person associated with a provider changes, both the old and the new person are evicted
+ *
+ * The same changes, plus changes to the persons (and person names) of the providers in the {@link ProviderNameIndex},
+ * mark the affected persons as stale in the index
+ *
+ * Any change to a provider, person name or provider role discards the results held in the {@link ProviderSearchCache}
+ */
+public class ProviderCacheInterceptor extends EmptyInterceptor {
+
+    private static final long serialVersionUID = 1L;
+
+    private PersonProviderCache personProviderCache;
+
+    private ProviderNameIndex providerNameIndex;
+
+    private ProviderSearchCache providerSearchCache;
+
+    @Override
+    public boolean onSave(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+        invalidateSearches(entity);
+        if (entity instanceof Provider) {
+            invalidate(getPersonId(state, propertyNames));
+        }
+        else if (entity instanceof PersonName) {
+            markStaleIfProvider(getPersonId(state, propertyNames));
+        }
+        return false;
+    }
+
+    @Override
+    public boolean onFlushDirty(Object entity, Serializable id, Object[] currentState, Object[] previousState, String[] propertyNames, Type[] types) {
+        invalidateSearches(entity);
+        if (entity instanceof Provider) {
+            invalidate(getPersonId(currentState, propertyNames));
+            invalidate(getPersonId(previousState, propertyNames));
+        }
+        else if (entity instanceof PersonName) {
+            markStaleIfProvider(getPersonId(currentState, propertyNames));
+        }
+        else if (entity instanceof Person && id instanceof Integer) {
+            markStaleIfProvider((Integer) id);
+        }
+        return false;
+    }
+
+    @Override
+    public void onDelete(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+        invalidateSearches(entity);
+        if (entity instanceof Provider) {
+            invalidate(getPersonId(state, propertyNames));
+        }
+        else if (entity instanceof PersonName) {
+            markStaleIfProvider(getPersonId(state, propertyNames));
+        }
+    }
+
+    public void setPersonProviderCache(PersonProviderCache personProviderCache) {
+        this.personProviderCache = personProviderCache;
+    }
+
+    public PersonProviderCache getPersonProviderCache() {
+        return personProviderCache;
+    }
+
+    public void setProviderNameIndex(ProviderNameIndex providerNameIndex) {
+        this.providerNameIndex = providerNameIndex;
+    }
+
+    public ProviderNameIndex getProviderNameIndex() {
+        return providerNameIndex;
+    }
+
+    public void setProviderSearchCache(ProviderSearchCache providerSearchCache) {
+        this.providerSearchCache = providerSearchCache;
+    }
+
+    public ProviderSearchCache getProviderSearchCache() {
+        return providerSearchCache;
+    }
+
+    private void invalidate(Integer personId) {
+        personProviderCache.invalidateOnTransactionCompletion(personId);
+        if (providerNameIndex != null) {
+            providerNameIndex.markStaleOnTransactionCompletion(personId);
+        }
+    }
+
+    private void invalidateSearches(Object entity) {
+        if (providerSearchCache != null && (entity instanceof Provider || entity instanceof PersonName || entity instanceof ProviderRole)) {
+            providerSearchCache.invalidateOnTransactionCompletion();
+        }
+    }
+
+    // changes to persons and names only matter to the index if the person is a provider; whether they are is decided
+    // by the index once the transaction completes, since a rebuild may be running in the meantime
+    private void markStaleIfProvider(Integer personId) {
+        if (providerNameIndex != null) {
+            providerNameIndex.markStaleIfProviderOnTransactionCompletion(personId);
+        }
+    }
+
+    private Integer getPersonId(Object[] state, String[] propertyNames) {
+
+        if (state == null || propertyNames == null) {
+            return null;
+        }
+
+        for (int i = 0; i < propertyNames.length; i++) {
+            // note that we use getPersonId (the identifier property) so that we never initialize a proxy mid-flush
+            if ("person".equals(propertyNames[i]) && state[i] instanceof Person) {
+                return ((Person) state[i]).getPersonId();
+            }
+        }
+
+        return null;
+    }
+}
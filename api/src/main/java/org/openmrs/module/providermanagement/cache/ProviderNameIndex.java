@@ -0,0 +1,543 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.providermanagement.cache;
+
+import org.apache.commons.lang.StringUtils;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.GlobalPropertyListener;
+import org.openmrs.module.providermanagement.search.ProviderSearchCursor;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory index of the names and identifiers of all providers, used to answer the name-or-identifier prefix
+ * searches behind the provider typeahead without going to the database
+ *
+ * Every name part (given, middle, family and second family name) and every provider identifier is held, in lower case,
+ * in a sorted map, so that all the entries starting with a prefix form a single range of the map; a query matches
+ * the same persons as the database search: those with an identifier starting with the query, or with a single name
+ * in which each word of the query starts one of the name parts
+ *
+ * The index is only used if enabled via the providermanagement.providerNameIndexEnabled global property; it is
+ * built in full when enabled (or at startup), and then kept up to date incrementally: whenever a provider, person or
+ * person name changes, the person is marked stale once the transaction completes, and is reloaded before the next search
+ *
+ * Changes to persons and person names only matter if the person is a provider, so the index also tracks the ids of
+ * all persons with a provider, including those that are left out of the index because they have no names or are voided
+ */
+public class ProviderNameIndex implements GlobalPropertyListener {
+
+    public static final String ENABLED_GLOBAL_PROPERTY = "providermanagement.providerNameIndexEnabled";
+
+    /**
+     * Orders entries the same way as the database search: by display name, ignoring case, and then by person id
+     */
+    public static final Comparator<ProviderNameIndexEntry> ENTRY_ORDER = new Comparator<ProviderNameIndexEntry>() {
+        public int compare(ProviderNameIndexEntry entry, ProviderNameIndexEntry other) {
+            return ProviderNameIndex.compare(entry, other.getGivenName(), other.getMiddleName(), other.getFamilyName(), other.getPersonId());
+        }
+    };
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private volatile boolean enabled = false;
+
+    private volatile boolean built = false;
+
+    private boolean rebuilding = false;
+
+    private final Map<Integer, ProviderNameIndexEntry> entries = new HashMap<Integer, ProviderNameIndexEntry>();
+
+    // lower case name part -> ids of the persons with a name with that part
+    private final NavigableMap<String, Set<Integer>> personIdsByNamePart = new TreeMap<String, Set<Integer>>();
+
+    // lower case identifier -> ids of the persons with a provider with that identifier
+    private final NavigableMap<String, Set<Integer>> personIdsByIdentifier = new TreeMap<String, Set<Integer>>();
+
+    // the ids of all persons with a provider, whether or not they are in the index
+    private final Set<Integer> providerPersonIds = new HashSet<Integer>();
+
+    private final Set<Integer> stalePersonIds = new HashSet<Integer>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables or disables the index; disabling it discards its contents, and enabling it means it will be built
+     * in full the next time it is used
+     */
+    public void setEnabled(boolean enabled) {
+        if (!enabled) {
+            clear();
+        }
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return true if the index has been built (and so can be searched)
+     */
+    public boolean isBuilt() {
+        return built;
+    }
+
+    /**
+     * Marks the start of a full rebuild: until {@link #install(Collection, Collection)} is called, stale persons are not
+     * handed out for reloading, and every changed person is treated as a possible provider, so that no change can be
+     * lost between loading the entries and installing them
+     */
+    public synchronized void startRebuild() {
+        rebuilding = true;
+    }
+
+    /**
+     * Replaces the contents of the index with the specified entries
+     *
+     * @param newEntries the entries of all non-voided providers with a name
+     * @param newProviderPersonIds the ids of all persons with a provider
+     */
+    public void install(Collection<ProviderNameIndexEntry> newEntries, Collection<Integer> newProviderPersonIds) {
+        lock.writeLock().lock();
+        try {
+            entries.clear();
+            personIdsByNamePart.clear();
+            personIdsByIdentifier.clear();
+            providerPersonIds.clear();
+            for (ProviderNameIndexEntry entry : newEntries) {
+                add(entry);
+            }
+            providerPersonIds.addAll(newProviderPersonIds);
+            built = true;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+        synchronized (this) {
+            rebuilding = false;
+        }
+    }
+
+    /**
+     * Replaces the entries for the specified persons; any of the persons without a new entry (ie, that are no longer
+     * non-voided providers) are removed from the index
+     *
+     * @param personIds the persons to update
+     * @param newEntries the entries of those persons that are non-voided providers with a name
+     * @param newProviderPersonIds the ids of those persons that have a provider
+     */
+    public void update(Collection<Integer> personIds, Collection<ProviderNameIndexEntry> newEntries, Collection<Integer> newProviderPersonIds) {
+        lock.writeLock().lock();
+        try {
+            for (Integer personId : personIds) {
+                remove(personId);
+                providerPersonIds.remove(personId);
+            }
+            for (ProviderNameIndexEntry entry : newEntries) {
+                remove(entry.getPersonId());
+                add(entry);
+            }
+            providerPersonIds.addAll(newProviderPersonIds);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Discards the contents of the index
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            built = false;
+            entries.clear();
+            personIdsByNamePart.clear();
+            personIdsByIdentifier.clear();
+            providerPersonIds.clear();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+        synchronized (this) {
+            stalePersonIds.clear();
+            rebuilding = false;
+        }
+    }
+
+    /**
+     * @return true if the specified person is in the index
+     */
+    public boolean contains(Integer personId) {
+        lock.readLock().lock();
+        try {
+            return entries.containsKey(personId);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if a change to the specified person may affect the index: if the person has a provider (whether or
+     *          not they are in the index), or if a rebuild is in progress, in which case the entries being loaded may
+     *          already be out of date
+     */
+    public boolean isProviderPerson(Integer personId) {
+        synchronized (this) {
+            if (rebuilding) {
+                return true;
+            }
+        }
+        lock.readLock().lock();
+        try {
+            return providerPersonIds.contains(personId);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of persons in the index
+     */
+    public int getSize() {
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Marks the specified person as needing to be reloaded once the current transaction completes (or immediately,
+     * if there is no transaction); until then, {@link #isModifiedInCurrentTransaction()} returns true, so that the
+     * current transaction can fall back to the database to see its own changes
+     */
+    public void markStaleOnTransactionCompletion(Integer personId) {
+        markStaleOnTransactionCompletion(personId, false);
+    }
+
+    /**
+     * As {@link #markStaleOnTransactionCompletion(Integer)}, but only if the person turns out to be a provider (see
+     * {@link #isProviderPerson(Integer)}); this is checked once the transaction completes rather than now, so that a
+     * rebuild that starts in the meantime can't miss the change
+     */
+    public void markStaleIfProviderOnTransactionCompletion(Integer personId) {
+        markStaleOnTransactionCompletion(personId, true);
+    }
+
+    private void markStaleOnTransactionCompletion(Integer personId, boolean onlyIfProvider) {
+
+        if (personId == null || !enabled) {
+            return;
+        }
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            if (!onlyIfProvider || isProviderPerson(personId)) {
+                markStale(Collections.singleton(personId));
+            }
+            return;
+        }
+
+        ModifiedPersons modifiedPersons = (ModifiedPersons) TransactionSynchronizationManager.getResource(this);
+
+        if (modifiedPersons == null) {
+            final ModifiedPersons persons = new ModifiedPersons();
+            TransactionSynchronizationManager.bindResource(this, persons);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(ProviderNameIndex.this);
+                    if (status != STATUS_ROLLED_BACK) {
+                        for (Integer personId : persons.possibleProviderPersonIds) {
+                            if (isProviderPerson(personId)) {
+                                persons.personIds.add(personId);
+                            }
+                        }
+                        markStale(persons.personIds);
+                    }
+                }
+            });
+            modifiedPersons = persons;
+        }
+
+        if (onlyIfProvider) {
+            modifiedPersons.possibleProviderPersonIds.add(personId);
+        }
+        else {
+            modifiedPersons.personIds.add(personId);
+        }
+    }
+
+    /**
+     * @return true if any indexed data has been changed within the current (uncommitted) transaction
+     */
+    public boolean isModifiedInCurrentTransaction() {
+        return TransactionSynchronizationManager.hasResource(this);
+    }
+
+    public synchronized void markStale(Collection<Integer> personIds) {
+        stalePersonIds.addAll(personIds);
+    }
+
+    /**
+     * @return the persons that need to be reloaded (which are then no longer considered stale), or an empty set
+     *          if a rebuild is in progress
+     */
+    public synchronized Set<Integer> drainStalePersonIds() {
+        if (rebuilding || stalePersonIds.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<Integer> personIds = new HashSet<Integer>(stalePersonIds);
+        stalePersonIds.clear();
+        return personIds;
+    }
+
+    /**
+     * Finds all the persons with a name or identifier matching the specified query
+     *
+     * @param query the name or identifier to search on
+     * @param providerRoleIds if not empty, only match providers with one of these roles
+     * @param includeRetired whether or not to match retired providers
+     * @param excludedPersonIds persons to leave out of the results
+     * @return the matching entries, in the same order as the database search
+     */
+    public List<ProviderNameIndexEntry> search(String query, Collection<Integer> providerRoleIds, boolean includeRetired, Collection<Integer> excludedPersonIds) {
+
+        List<ProviderNameIndexEntry> matches = new ArrayList<ProviderNameIndexEntry>();
+
+        if (StringUtils.isBlank(query)) {
+            return matches;
+        }
+
+        String identifier = query.toLowerCase();
+        String[] words = StringUtils.split(identifier.replace(", ", " "));
+
+        lock.readLock().lock();
+        try {
+            Set<Integer> candidates = new HashSet<Integer>();
+            addRange(candidates, personIdsByIdentifier, identifier);
+
+            // a matching name has a part starting with each of the words, so the candidates can be taken from the
+            // range of any one word; the longest word gives the fewest candidates
+            String longestWord = null;
+            for (String word : words) {
+                if (longestWord == null || word.length() > longestWord.length()) {
+                    longestWord = word;
+                }
+            }
+            if (longestWord != null) {
+                addRange(candidates, personIdsByNamePart, longestWord);
+            }
+
+            for (Integer personId : candidates) {
+                if (excludedPersonIds != null && excludedPersonIds.contains(personId)) {
+                    continue;
+                }
+                ProviderNameIndexEntry entry = entries.get(personId);
+                if (entry != null && hasProvider(entry, providerRoleIds, includeRetired, null)
+                        && (hasProvider(entry, providerRoleIds, includeRetired, identifier) || hasMatchingName(entry, words))) {
+                    matches.add(entry);
+                }
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+
+        Collections.sort(matches, ENTRY_ORDER);
+        return matches;
+    }
+
+    /**
+     * @return a negative number, zero, or a positive number if the entry sorts before, at, or after the cursor
+     */
+    public static int compare(ProviderNameIndexEntry entry, ProviderSearchCursor cursor) {
+        return compare(entry, cursor.getGivenName(), cursor.getMiddleName(), cursor.getFamilyName(), cursor.getPersonId());
+    }
+
+    /**
+     * @return a cursor pointing at the specified entry
+     */
+    public static ProviderSearchCursor toCursor(ProviderNameIndexEntry entry) {
+        return new ProviderSearchCursor(entry.getGivenName(), entry.getMiddleName(), entry.getFamilyName(), entry.getPersonId());
+    }
+
+    @Override
+    public String toString() {
+        return "ProviderNameIndex[enabled=" + enabled + ", built=" + built + ", size=" + getSize() + "]";
+    }
+
+    /**
+     * GlobalPropertyListener methods, so that the index can be switched on and off at runtime
+     */
+
+    public boolean supportsPropertyName(String propertyName) {
+        return ENABLED_GLOBAL_PROPERTY.equals(propertyName);
+    }
+
+    public void globalPropertyChanged(GlobalProperty newValue) {
+        setEnabled("true".equalsIgnoreCase(StringUtils.trim(newValue.getPropertyValue())));
+    }
+
+    public void globalPropertyDeleted(String propertyName) {
+        setEnabled(false);
+    }
+
+    /**
+     * Utility methods
+     */
+
+    private static int compare(ProviderNameIndexEntry entry, String givenName, String middleName, String familyName, Integer personId) {
+        int result = String.CASE_INSENSITIVE_ORDER.compare(entry.getGivenName(), givenName);
+        if (result == 0) {
+            result = String.CASE_INSENSITIVE_ORDER.compare(entry.getMiddleName(), middleName);
+        }
+        if (result == 0) {
+            result = String.CASE_INSENSITIVE_ORDER.compare(entry.getFamilyName(), familyName);
+        }
+        if (result == 0) {
+            result = entry.getPersonId().compareTo(personId);
+        }
+        return result;
+    }
+
+    private boolean hasProvider(ProviderNameIndexEntry entry, Collection<Integer> providerRoleIds, boolean includeRetired, String identifierPrefix) {
+        for (ProviderNameIndexEntry.IndexedProvider provider : entry.getProviders()) {
+            if ((includeRetired || !provider.isRetired())
+                    && (providerRoleIds == null || providerRoleIds.isEmpty() || providerRoleIds.contains(provider.getProviderRoleId()))
+                    && (identifierPrefix == null || (provider.getIdentifier() != null && provider.getIdentifier().startsWith(identifierPrefix)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasMatchingName(ProviderNameIndexEntry entry, String[] words) {
+
+        if (words.length == 0) {
+            return false;
+        }
+
+        for (String[] nameParts : entry.getNames()) {
+            boolean matches = true;
+            for (String word : words) {
+                if (!startsAnyPart(nameParts, word)) {
+                    matches = false;
+                    break;
+                }
+            }
+            if (matches) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean startsAnyPart(String[] nameParts, String prefix) {
+        for (String namePart : nameParts) {
+            if (namePart != null && namePart.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addRange(Set<Integer> personIds, NavigableMap<String, Set<Integer>> map, String prefix) {
+        for (Set<Integer> ids : map.subMap(prefix, true, prefix + Character.MAX_VALUE, true).values()) {
+            personIds.addAll(ids);
+        }
+    }
+
+    // must be called with the write lock held
+    private void add(ProviderNameIndexEntry entry) {
+        entries.put(entry.getPersonId(), entry);
+        for (String[] nameParts : entry.getNames()) {
+            for (String namePart : nameParts) {
+                put(personIdsByNamePart, namePart, entry.getPersonId());
+            }
+        }
+        for (ProviderNameIndexEntry.IndexedProvider provider : entry.getProviders()) {
+            put(personIdsByIdentifier, provider.getIdentifier(), entry.getPersonId());
+        }
+    }
+
+    // must be called with the write lock held
+    private void remove(Integer personId) {
+        ProviderNameIndexEntry entry = entries.remove(personId);
+        if (entry != null) {
+            for (String[] nameParts : entry.getNames()) {
+                for (String namePart : nameParts) {
+                    delete(personIdsByNamePart, namePart, personId);
+                }
+            }
+            for (ProviderNameIndexEntry.IndexedProvider provider : entry.getProviders()) {
+                delete(personIdsByIdentifier, provider.getIdentifier(), personId);
+            }
+        }
+    }
+
+    private static void put(Map<String, Set<Integer>> map, String key, Integer personId) {
+        if (StringUtils.isEmpty(key)) {
+            return;
+        }
+        Set<Integer> personIds = map.get(key);
+        if (personIds == null) {
+            personIds = new HashSet<Integer>();
+            map.put(key, personIds);
+        }
+        personIds.add(personId);
+    }
+
+    private static void delete(Map<String, Set<Integer>> map, String key, Integer personId) {
+        if (StringUtils.isEmpty(key)) {
+            return;
+        }
+        Set<Integer> personIds = map.get(key);
+        if (personIds != null) {
+            personIds.remove(personId);
+            if (personIds.isEmpty()) {
+                map.remove(key);
+            }
+        }
+    }
+
+    /**
+     * The persons changed within a transaction: those to reload regardless, and those to reload only if they have a provider
+     */
+    private static class ModifiedPersons {
+
+        private final Set<Integer> personIds = new HashSet<Integer>();
+
+        private final Set<Integer> possibleProviderPersonIds = new HashSet<Integer>();
+    }
+}
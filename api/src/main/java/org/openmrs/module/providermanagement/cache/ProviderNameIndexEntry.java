@@ -0,0 +1,122 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.providermanagement.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Everything the {@link ProviderNameIndex} holds about a single (non-voided) person who is a provider: the name
+ * they are displayed (and sorted) by, the parts of each of their non-voided names, and their providers
+ *
+ * Name parts and identifiers are stored in lower case, ready for prefix matching
+ */
+public class ProviderNameIndexEntry {
+
+    private final Integer personId;
+
+    // the display name; null parts are stored as empty strings, the same as in the database search sort key
+    private final String givenName;
+
+    private final String middleName;
+
+    private final String familyName;
+
+    // given, middle, family and second family name of each name, lower case (and possibly null)
+    private final List<String[]> names = new ArrayList<String[]>();
+
+    private final List<IndexedProvider> providers = new ArrayList<IndexedProvider>();
+
+    public ProviderNameIndexEntry(Integer personId, String givenName, String middleName, String familyName) {
+        this.personId = personId;
+        this.givenName = givenName != null ? givenName : "";
+        this.middleName = middleName != null ? middleName : "";
+        this.familyName = familyName != null ? familyName : "";
+    }
+
+    public void addName(String givenName, String middleName, String familyName, String familyName2) {
+        names.add(new String[] { toLowerCase(givenName), toLowerCase(middleName), toLowerCase(familyName), toLowerCase(familyName2) });
+    }
+
+    public void addProvider(Integer providerId, Integer providerRoleId, boolean retired, String identifier) {
+        providers.add(new IndexedProvider(providerId, providerRoleId, retired, toLowerCase(identifier)));
+    }
+
+    public Integer getPersonId() {
+        return personId;
+    }
+
+    public String getGivenName() {
+        return givenName;
+    }
+
+    public String getMiddleName() {
+        return middleName;
+    }
+
+    public String getFamilyName() {
+        return familyName;
+    }
+
+    public List<String[]> getNames() {
+        return Collections.unmodifiableList(names);
+    }
+
+    public List<IndexedProvider> getProviders() {
+        return Collections.unmodifiableList(providers);
+    }
+
+    private static String toLowerCase(String str) {
+        return str != null ? str.toLowerCase() : null;
+    }
+
+    /**
+     * A provider of the person
+     */
+    public static class IndexedProvider {
+
+        private final Integer providerId;
+
+        private final Integer providerRoleId;
+
+        private final boolean retired;
+
+        private final String identifier;
+
+        public IndexedProvider(Integer providerId, Integer providerRoleId, boolean retired, String identifier) {
+            this.providerId = providerId;
+            this.providerRoleId = providerRoleId;
+            this.retired = retired;
+            this.identifier = identifier;
+        }
+
+        public Integer getProviderId() {
+            return providerId;
+        }
+
+        public Integer getProviderRoleId() {
+            return providerRoleId;
+        }
+
+        public boolean isRetired() {
+            return retired;
+        }
+
+        public String getIdentifier() {
+            return identifier;
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.providermanagement.cache;
+
+import org.openmrs.RelationshipType;
+import org.openmrs.module.providermanagement.ProviderRole;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Immutable snapshot of the provider role metadata (the relationship types each role supports and the
+ * roles each role can supervise), indexed by id so that the common role lookups become map reads
+ * instead of database queries.
+ *
+ * Each provider role is given a dense ordinal (its position when the roles are sorted by id), and the supervision
+ * graph is stored as one BitSet per role over those ordinals, so that supervision checks are simple bit tests.
+ *
+ * Snapshots are stamped with the version of the {@link ProviderRoleCatalogCache} they were built against;
+ * a snapshot is never modified, it is simply replaced when provider roles change.
+ */
+public class ProviderRoleCatalog {
+
+    private final long version;
+
+    // provider role id -> ordinal, and the reverse
+    private final Map<Integer, Integer> ordinalsByProviderRoleId;
+
+    private final int[] providerRoleIdsByOrdinal;
+
+    private final BitSet retiredProviderRoles;
+
+    // the relationship types each role supports
+    private final Map<Integer, Set<Integer>> relationshipTypeIdsByProviderRole;
+
+    // the (non-retired) roles that support each relationship type
+    private final Map<Integer, Set<Integer>> providerRoleIdsByRelationshipType;
+
+    // the relationship types supported by any role, and by any non-retired role, indexed by relationship type id
+    private final BitSet relationshipTypeIds;
+
+    private final BitSet activeRelationshipTypeIds;
+
+    // indexed by ordinal: the roles each role can supervise
+    private final BitSet[] superviseeMasks;
+
+    // indexed by ordinal: the inverse of the above, the (non-retired) roles that can supervise each role
+    private final BitSet[] supervisorMasks;
+
+    private ProviderRoleCatalog(long version, Set<Integer> providerRoleIds) {
+        this.version = version;
+        this.ordinalsByProviderRoleId = new HashMap<Integer, Integer>();
+        this.providerRoleIdsByOrdinal = new int[providerRoleIds.size()];
+        this.retiredProviderRoles = new BitSet();
+        this.relationshipTypeIdsByProviderRole = new HashMap<Integer, Set<Integer>>();
+        this.providerRoleIdsByRelationshipType = new HashMap<Integer, Set<Integer>>();
+        this.relationshipTypeIds = new BitSet();
+        this.activeRelationshipTypeIds = new BitSet();
+        this.superviseeMasks = new BitSet[providerRoleIds.size()];
+        this.supervisorMasks = new BitSet[providerRoleIds.size()];
+
+        int ordinal = 0;
+        for (Integer providerRoleId : providerRoleIds) {
+            ordinalsByProviderRoleId.put(providerRoleId, ordinal);
+            providerRoleIdsByOrdinal[ordinal] = providerRoleId;
+            superviseeMasks[ordinal] = new BitSet();
+            supervisorMasks[ordinal] = new BitSet();
+            ordinal++;
+        }
+    }
+
+    /**
+     * Builds a new catalog from the specified provider roles
+     *
+     * @param providerRoles all provider roles in the system, including retired ones
+     * @param version the cache version this catalog is built against
+     * @return the new catalog
+     */
+    public static ProviderRoleCatalog build(Collection<ProviderRole> providerRoles, long version) {
+
+        if (providerRoles == null) {
+            providerRoles = Collections.emptyList();
+        }
+
+        // first pass: assign the ordinals (including any supervisee roles not in the list, just to be safe)
+        Set<Integer> providerRoleIds = new TreeSet<Integer>();
+        for (ProviderRole providerRole : providerRoles) {
+            providerRoleIds.add(providerRole.getId());
+            if (providerRole.getSuperviseeProviderRoles() != null) {
+                for (ProviderRole superviseeProviderRole : providerRole.getSuperviseeProviderRoles()) {
+                    providerRoleIds.add(superviseeProviderRole.getId());
+                }
+            }
+        }
+
+        ProviderRoleCatalog catalog = new ProviderRoleCatalog(version, providerRoleIds);
+
+        // second pass: build the indexes
+        for (ProviderRole providerRole : providerRoles) {
+
+            Integer providerRoleId = providerRole.getId();
+            int ordinal = catalog.ordinalsByProviderRoleId.get(providerRoleId);
+
+            if (providerRole.isRetired()) {
+                catalog.retiredProviderRoles.set(ordinal);
+            }
+
+            if (providerRole.getRelationshipTypes() != null) {
+                for (RelationshipType relationshipType : providerRole.getRelationshipTypes()) {
+                    put(catalog.relationshipTypeIdsByProviderRole, providerRoleId, relationshipType.getId());
+                    catalog.relationshipTypeIds.set(relationshipType.getId());
+                    if (!providerRole.isRetired()) {
+                        put(catalog.providerRoleIdsByRelationshipType, relationshipType.getId(), providerRoleId);
+                        catalog.activeRelationshipTypeIds.set(relationshipType.getId());
+                    }
+                }
+            }
+
+            if (providerRole.getSuperviseeProviderRoles() != null) {
+                for (ProviderRole superviseeProviderRole : providerRole.getSuperviseeProviderRoles()) {
+                    int superviseeOrdinal = catalog.ordinalsByProviderRoleId.get(superviseeProviderRole.getId());
+                    catalog.superviseeMasks[ordinal].set(superviseeOrdinal);
+                    if (!providerRole.isRetired()) {
+                        catalog.supervisorMasks[superviseeOrdinal].set(ordinal);
+                    }
+                }
+            }
+        }
+
+        return catalog;
+    }
+
+    /**
+     * @return the cache version this catalog was built against
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @param includeRetired whether or not to include retired provider roles
+     * @return the ids of all provider roles in the catalog
+     */
+    public Set<Integer> getProviderRoleIds(boolean includeRetired) {
+        BitSet mask = new BitSet(providerRoleIdsByOrdinal.length);
+        mask.set(0, providerRoleIdsByOrdinal.length);
+        if (!includeRetired) {
+            mask.andNot(retiredProviderRoles);
+        }
+        return toProviderRoleIds(mask);
+    }
+
+    /**
+     * @return true if the specified provider role is in the catalog and is retired
+     */
+    public boolean isRetired(Integer providerRoleId) {
+        Integer ordinal = ordinalsByProviderRoleId.get(providerRoleId);
+        return ordinal != null && retiredProviderRoles.get(ordinal);
+    }
+
+    /**
+     * @return the dense ordinal of the specified provider role, or -1 if the role is not in the catalog
+     */
+    public int getOrdinal(Integer providerRoleId) {
+        Integer ordinal = ordinalsByProviderRoleId.get(providerRoleId);
+        return ordinal != null ? ordinal : -1;
+    }
+
+    /**
+     * @return the ids of the relationship types supported by the specified provider role
+     */
+    public Set<Integer> getRelationshipTypeIds(Integer providerRoleId) {
+        return get(relationshipTypeIdsByProviderRole, providerRoleId);
+    }
+
+    /**
+     * @param includeRetiredProviderRoles whether or not to include relationship types only supported by retired roles
+     * @return the ids of all relationship types supported by at least one provider role
+     */
+    public Set<Integer> getRelationshipTypeIds(boolean includeRetiredProviderRoles) {
+        BitSet bits = includeRetiredProviderRoles ? relationshipTypeIds : activeRelationshipTypeIds;
+        Set<Integer> ids = new TreeSet<Integer>();
+        for (int id = bits.nextSetBit(0); id >= 0; id = bits.nextSetBit(id + 1)) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    /**
+     * @param relationshipTypeId
+     * @param includeRetiredProviderRoles whether or not to consider relationship types only supported by retired roles
+     * @return true if the relationship type is supported by at least one provider role
+     */
+    public boolean isProviderRelationshipType(Integer relationshipTypeId, boolean includeRetiredProviderRoles) {
+        if (relationshipTypeId == null || relationshipTypeId < 0) {
+            return false;
+        }
+        return includeRetiredProviderRoles ? relationshipTypeIds.get(relationshipTypeId) : activeRelationshipTypeIds.get(relationshipTypeId);
+    }
+
+    /**
+     * @return the ids of the provider roles that the specified provider role can supervise
+     */
+    public Set<Integer> getSuperviseeProviderRoleIds(Integer providerRoleId) {
+        return getSuperviseeProviderRoleIds(Collections.singleton(providerRoleId));
+    }
+
+    /**
+     * @return the ids of the provider roles that at least one of the specified provider roles can supervise
+     */
+    public Set<Integer> getSuperviseeProviderRoleIds(Collection<Integer> providerRoleIds) {
+        return toProviderRoleIds(union(superviseeMasks, providerRoleIds));
+    }
+
+    /**
+     * @return the ids of the non-retired provider roles that can supervise the specified provider role
+     */
+    public Set<Integer> getSupervisorProviderRoleIds(Integer superviseeProviderRoleId) {
+        return getSupervisorProviderRoleIds(Collections.singleton(superviseeProviderRoleId));
+    }
+
+    /**
+     * @return the ids of the non-retired provider roles that can supervise at least one of the specified provider roles
+     */
+    public Set<Integer> getSupervisorProviderRoleIds(Collection<Integer> superviseeProviderRoleIds) {
+        return toProviderRoleIds(union(supervisorMasks, superviseeProviderRoleIds));
+    }
+
+    /**
+     * Tests whether a provider with the first set of roles can supervise a provider with the second set of roles
+     * (ie, whether any of the supervisor roles can supervise any of the supervisee roles)
+     *
+     * @param supervisorProviderRoleIds
+     * @param superviseeProviderRoleIds
+     * @return true if supervision is possible
+     */
+    public boolean canSupervise(Collection<Integer> supervisorProviderRoleIds, Collection<Integer> superviseeProviderRoleIds) {
+        for (Integer supervisorProviderRoleId : supervisorProviderRoleIds) {
+            for (Integer superviseeProviderRoleId : superviseeProviderRoleIds) {
+                if (canSupervise(supervisorProviderRoleId, superviseeProviderRoleId)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tests whether the first provider role can supervise the second; this is a single bit test against the
+     * supervisor role's supervisee mask, and allocates nothing
+     *
+     * @param supervisorProviderRoleId
+     * @param superviseeProviderRoleId
+     * @return true if supervision is possible
+     */
+    public boolean canSupervise(Integer supervisorProviderRoleId, Integer superviseeProviderRoleId) {
+        Integer supervisorOrdinal = ordinalsByProviderRoleId.get(supervisorProviderRoleId);
+        Integer superviseeOrdinal = ordinalsByProviderRoleId.get(superviseeProviderRoleId);
+        return supervisorOrdinal != null && superviseeOrdinal != null && superviseeMasks[supervisorOrdinal].get(superviseeOrdinal);
+    }
+
+    /**
+     * @return the (non-retired) provider role ids that support the specified relationship type
+     */
+    public Set<Integer> getProviderRoleIdsByRelationshipType(Integer relationshipTypeId) {
+        return get(providerRoleIdsByRelationshipType, relationshipTypeId);
+    }
+
+    /**
+     * Utility methods
+     */
+
+    private BitSet union(BitSet[] masks, Collection<Integer> providerRoleIds) {
+        BitSet union = new BitSet(providerRoleIdsByOrdinal.length);
+        for (Integer providerRoleId : providerRoleIds) {
+            Integer ordinal = ordinalsByProviderRoleId.get(providerRoleId);
+            if (ordinal != null) {
+                union.or(masks[ordinal]);
+            }
+        }
+        return union;
+    }
+
+    private Set<Integer> toProviderRoleIds(BitSet mask) {
+        Set<Integer> ids = new TreeSet<Integer>();
+        for (int ordinal = mask.nextSetBit(0); ordinal >= 0; ordinal = mask.nextSetBit(ordinal + 1)) {
+            ids.add(providerRoleIdsByOrdinal[ordinal]);
+        }
+        return ids;
+    }
+
+    private static void put(Map<Integer, Set<Integer>> map, Integer key, Integer value) {
+        Set<Integer> values = map.get(key);
+        if (values == null) {
+            values = new TreeSet<Integer>();
+            map.put(key, values);
+        }
+        values.add(value);
+    }
+
+    private static Set<Integer> get(Map<Integer, Set<Integer>> map, Integer key) {
+        Set<Integer> values = map.get(key);
+        return values != null ? Collections.unmodifiableSet(values) : Collections.<Integer>emptySet();
+    }
+}
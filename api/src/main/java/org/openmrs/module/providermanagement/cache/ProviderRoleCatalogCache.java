@@ -0,0 +1,93 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.providermanagement.cache;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Holds the current {@link ProviderRoleCatalog}
+ *
+ * Every invalidation bumps the version number, and a catalog is only installed if it was built against the
+ * current version, so a catalog that was being built while provider roles changed is simply discarded
+ */
+public class ProviderRoleCatalogCache {
+
+    private long version = 0;
+
+    private volatile ProviderRoleCatalog catalog;
+
+    /**
+     * @return the current catalog, or null if the catalog needs to be (re)built
+     */
+    public ProviderRoleCatalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * @return the current version; catalogs should be built against the version read *before* loading the provider roles
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Installs the catalog, provided that nothing has been invalidated since it was built, and that it was not
+     * built from provider role changes that the current transaction has yet to commit
+     *
+     * @param catalog
+     * @return true if the catalog was installed
+     */
+    public synchronized boolean install(ProviderRoleCatalog catalog) {
+        if (catalog == null || catalog.getVersion() != version || isInvalidatedInCurrentTransaction()) {
+            return false;
+        }
+        this.catalog = catalog;
+        return true;
+    }
+
+    /**
+     * Discards the current catalog
+     */
+    public synchronized void invalidate() {
+        version++;
+        catalog = null;
+    }
+
+    /**
+     * Discards the current catalog immediately, and again once the current transaction completes, so that a catalog
+     * built from uncommitted (or rolled back) changes never outlives the transaction
+     */
+    public void invalidateOnTransactionCompletion() {
+        invalidate();
+        if (TransactionSynchronizationManager.isSynchronizationActive() && !isInvalidatedInCurrentTransaction()) {
+            TransactionSynchronizationManager.bindResource(this, Boolean.TRUE);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(ProviderRoleCatalogCache.this);
+                    invalidate();
+                }
+            });
+        }
+    }
+
+    /**
+     * @return true if provider roles have been changed within the current (uncommitted) transaction
+     */
+    public boolean isInvalidatedInCurrentTransaction() {
+        return TransactionSynchronizationManager.hasResource(this);
+    }
+}
@@ -0,0 +1,287 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.providermanagement.cache;
+
+import org.openmrs.module.providermanagement.ProviderRole;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Bounded, short-lived cache of the results of provider name and identifier searches, so that the same search
+ * repeated within a few seconds (as typeahead widgets and paged lists tend to do) doesn't go back to the database
+ *
+ * Entries are keyed by the search (see {@link #createKey(String, Collection, boolean)}) and hold the ids of the
+ * matching persons, in order; the persons themselves are always loaded fresh from the session. Entries expire after
+ * a fixed time to live, and the least-recently-used entries are evicted once the cache is full.
+ *
+ * Any change to a provider, person name or provider role discards all entries. As with the other caches, every
+ * invalidation bumps a version number and results are only stored if they were loaded against the current version,
+ * and nothing is served from (or stored in) the cache within a transaction that has made such a change.
+ *
+ * Hit, miss and expiration counts are kept so that the cache can be tuned.
+ */
+public class ProviderSearchCache {
+
+    public static final int DEFAULT_MAX_SIZE = 500;
+
+    private int maxSize = DEFAULT_MAX_SIZE;
+
+    // in milliseconds; the cache is disabled until the module sets this from a global property at startup
+    private long timeToLive = 0;
+
+    private long version = 0;
+
+    private long hits = 0;
+
+    private long misses = 0;
+
+    private long expirations = 0;
+
+    // access-ordered, so that iteration starts at the least-recently-used entry
+    private final LinkedHashMap<String, CachedResult> entries = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    /**
+     * Creates the key for a search; the query is matched case-insensitively, so it is lower-cased, and the roles are
+     * reduced to their sorted ids, so that the same search always gets the same key
+     *
+     * @param query
+     * @param providerRoles the roles the search is restricted to (null or empty for none)
+     * @param includeRetired
+     * @return the key
+     */
+    public static String createKey(String query, Collection<ProviderRole> providerRoles, boolean includeRetired) {
+
+        TreeSet<Integer> providerRoleIds = new TreeSet<Integer>();
+        if (providerRoles != null) {
+            for (ProviderRole providerRole : providerRoles) {
+                providerRoleIds.add(providerRole.getId());
+            }
+        }
+
+        return includeRetired + ":" + providerRoleIds + ":" + (query != null ? query.toLowerCase() : "");
+    }
+
+    /**
+     * @param key
+     * @return the ids of the persons matching the search, or null if the search is not in the cache (or has expired)
+     */
+    public synchronized List<Integer> get(String key) {
+
+        CachedResult result = isInvalidatedInCurrentTransaction() ? null : entries.get(key);
+
+        if (result != null && isExpired(result)) {
+            entries.remove(key);
+            expirations++;
+            result = null;
+        }
+
+        if (result != null) {
+            hits++;
+            return result.personIds;
+        }
+
+        misses++;
+        return null;
+    }
+
+    /**
+     * @return the current version; results should be loaded against the version read *before* running the search
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Stores the results of a search, provided that nothing has been invalidated since they were loaded, and that
+     * no provider, person name or provider role has been changed within the current (uncommitted) transaction
+     *
+     * @param key
+     * @param personIds the ids of the matching persons, in order
+     * @param version the version the results were loaded against
+     * @return true if the entry was stored
+     */
+    public synchronized boolean put(String key, Collection<Integer> personIds, long version) {
+        if (key == null || version != this.version || isInvalidatedInCurrentTransaction()) {
+            return false;
+        }
+        entries.put(key, new CachedResult(Collections.unmodifiableList(new ArrayList<Integer>(personIds)), now()));
+        return true;
+    }
+
+    /**
+     * Discards all entries
+     */
+    public synchronized void invalidateAll() {
+        version++;
+        entries.clear();
+    }
+
+    /**
+     * Discards all entries immediately, and again once the current transaction completes, so that results loaded
+     * from uncommitted (or rolled back) changes never outlive the transaction
+     */
+    public void invalidateOnTransactionCompletion() {
+        invalidateAll();
+        if (TransactionSynchronizationManager.isSynchronizationActive() && !isInvalidatedInCurrentTransaction()) {
+            TransactionSynchronizationManager.bindResource(this, Boolean.TRUE);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(ProviderSearchCache.this);
+                    invalidateAll();
+                }
+            });
+        }
+    }
+
+    /**
+     * @return true if providers, person names or provider roles have been changed within the current (uncommitted) transaction
+     */
+    public boolean isInvalidatedInCurrentTransaction() {
+        return TransactionSynchronizationManager.hasResource(this);
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of searches held in the cache, evicting the least-recently-used entries if necessary
+     */
+    public synchronized void setMaxSize(int maxSize) {
+
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Cache size must be at least 1");
+        }
+
+        this.maxSize = maxSize;
+
+        Iterator<String> i = entries.keySet().iterator();
+        while (entries.size() > maxSize && i.hasNext()) {
+            i.next();
+            i.remove();
+        }
+    }
+
+    /**
+     * @return true if searches should be looked up in (and stored in) the cache
+     */
+    public synchronized boolean isEnabled() {
+        return timeToLive > 0;
+    }
+
+    public synchronized long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Sets how long, in milliseconds, the results of a search are served from the cache; a time to live of 0 disables
+     * the cache (and discards all entries)
+     */
+    public synchronized void setTimeToLive(long timeToLive) {
+
+        if (timeToLive < 0) {
+            throw new IllegalArgumentException("Time to live cannot be negative");
+        }
+
+        this.timeToLive = timeToLive;
+
+        if (timeToLive == 0) {
+            entries.clear();
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of lookups that found an entry that had outlived its time to live (these also count as misses)
+     */
+    public synchronized long getExpirations() {
+        return expirations;
+    }
+
+    /**
+     * @return the proportion of lookups that were served from the cache
+     */
+    public synchronized double getHitRatio() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    public synchronized void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        expirations = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ProviderSearchCache{" +
+                "size=" + entries.size() +
+                ", maxSize=" + maxSize +
+                ", timeToLive=" + timeToLive +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", expirations=" + expirations +
+                '}';
+    }
+
+    /**
+     * @return the current time in milliseconds; overridden in tests
+     */
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    private boolean isExpired(CachedResult result) {
+        return now() - result.loadedTime >= timeToLive;
+    }
+
+    private static class CachedResult {
+
+        private final List<Integer> personIds;
+
+        private final long loadedTime;
+
+        private CachedResult(List<Integer> personIds, long loadedTime) {
+            this.personIds = personIds;
+            this.loadedTime = loadedTime;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.providermanagement.caseload;
+
+import java.util.Date;
+
+/**
+ * A row of the active assignment table: a non-voided relationship of a provider relationship type that had not
+ * ended as of the last time it changed, or the table was verified, projected down to the columns needed to find the
+ * current patients of a provider
+ *
+ * The row shares the id of its relationship, and is recalculated from the relationship table whenever the relationship
+ * changes; the start and end dates are kept so that a row can be checked against a date without loading the relationship
+ */
+public class ActiveAssignment {
+
+    private Integer relationshipId;
+
+    // the person id of the provider (person A)
+    private Integer providerPersonId;
+
+    // the person id of the patient (person B)
+    private Integer patientId;
+
+    private Integer relationshipTypeId;
+
+    private Date startDate;
+
+    private Date endDate;
+
+    public ActiveAssignment() {
+    }
+
+    public ActiveAssignment(Integer relationshipId, Integer providerPersonId, Integer patientId, Integer relationshipTypeId, Date startDate, Date endDate) {
+        this.relationshipId = relationshipId;
+        this.providerPersonId = providerPersonId;
+        this.patientId = patientId;
+        this.relationshipTypeId = relationshipTypeId;
+        this.startDate = startDate;
+        this.endDate = endDate;
+    }
+
+    public Integer getRelationshipId() {
+        return relationshipId;
+    }
+
+    public void setRelationshipId(Integer relationshipId) {
+        this.relationshipId = relationshipId;
+    }
+
+    public Integer getProviderPersonId() {
+        return providerPersonId;
+    }
+
+    public void setProviderPersonId(Integer providerPersonId) {
+        this.providerPersonId = providerPersonId;
+    }
+
+    public Integer getPatientId() {
+        return patientId;
+    }
+
+    public void setPatientId(Integer patientId) {
+        this.patientId = patientId;
+    }
+
+    public Integer getRelationshipTypeId() {
+        return relationshipTypeId;
+    }
+
+    public void setRelationshipTypeId(Integer relationshipTypeId) {
+        this.relationshipTypeId = relationshipTypeId;
+    }
+
+    public Date getStartDate() {
+        return startDate;
+    }
+
+    public void setStartDate(Date startDate) {
+        this.startDate = startDate;
+    }
+
+    public Date getEndDate() {
+        return endDate;
+    }
+
+    public void setEndDate(Date endDate) {
+        this.endDate = endDate;
+    }
+}
@@ -0,0 +1,40 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.providermanagement.caseload;
+
+import java.util.Calendar;
+
+/**
+ * How far apart the dates of a caseload time series are
+ */
+public enum CaseloadGranularity {
+
+    DAY(Calendar.DAY_OF_MONTH),
+
+    WEEK(Calendar.WEEK_OF_YEAR),
+
+    MONTH(Calendar.MONTH);
+
+    // the calendar field that is incremented from one date of the series to the next
+    private final int calendarField;
+
+    CaseloadGranularity(int calendarField) {
+        this.calendarField = calendarField;
+    }
+
+    public int getCalendarField() {
+        return calendarField;
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.providermanagement.caseload;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Transaction;
+import org.hibernate.type.Type;
+import org.openmrs.Person;
+import org.openmrs.Relationship;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.providermanagement.ProviderManagementConstants;
+import org.openmrs.module.providermanagement.api.ProviderManagementService;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Hibernate interceptor that keeps the caseload summary and active assignment tables up to date: whenever a
+ * relationship is inserted, updated (eg, ended or voided) or deleted, its active assignment row, and the caseload
+ * summary rows of the providers involved, are recalculated once the session has been flushed for the commit, so that
+ * they are committed (or rolled back) along with the change itself. Updating or deleting a person (eg, voiding a patient) also
+ * recalculates the caseload summary rows of that person and of their providers.
+ *
+ * This covers assigning, unassigning and transferring patients, whichever service makes the change. As with the
+ * {@link org.openmrs.module.providermanagement.search.PersonSearchKeyInterceptor}, the rows are written through the
+ * service, looked up when needed, as interceptors cannot depend on the session factory.
+ */
+public class CaseloadInterceptor extends EmptyInterceptor {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Log log = LogFactory.getLog(CaseloadInterceptor.class);
+
+    @Override
+    public boolean onSave(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+        if (entity instanceof Relationship) {
+            // the id of a new relationship may not have been generated yet, so hold on to the relationship itself
+            getPendingUpdates().addRelationship((Relationship) entity, getPersonAId(state, propertyNames), null);
+        }
+        return false;
+    }
+
+    @Override
+    public boolean onFlushDirty(Object entity, Serializable id, Object[] currentState, Object[] previousState, String[] propertyNames, Type[] types) {
+        if (entity instanceof Relationship) {
+            getPendingUpdates().addRelationship((Relationship) entity, getPersonAId(currentState, propertyNames), getPersonAId(previousState, propertyNames));
+        }
+        else if (entity instanceof Person && id instanceof Integer) {
+            getPendingUpdates().addPerson((Integer) id);
+        }
+        return false;
+    }
+
+    @Override
+    public void onDelete(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+        if (entity instanceof Relationship) {
+            getPendingUpdates().addRelationship((Relationship) entity, getPersonAId(state, propertyNames), null);
+        }
+        else if (entity instanceof Person && id instanceof Integer) {
+            getPendingUpdates().addPerson((Integer) id);
+        }
+    }
+
+    /**
+     * Recalculates the rows affected by the transaction that is about to commit; this is called after Hibernate has
+     * flushed the session for the commit (unlike a Spring beforeCommit synchronization, which runs before that flush,
+     * and so would miss changes, such as ending or voiding a relationship, that are only flushed by the commit itself)
+     */
+    @Override
+    public void beforeTransactionCompletion(Transaction tx) {
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+
+        PendingUpdates pendingUpdates = (PendingUpdates) TransactionSynchronizationManager.getResource(this);
+
+        if (pendingUpdates == null || pendingUpdates.isEmpty()) {
+            return;
+        }
+
+        if (!Context.isSessionOpen()) {
+            log.warn("No user context, unable to update caseloads: " + pendingUpdates);
+            return;
+        }
+
+        try {
+            Context.addProxyPrivilege(ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE);
+            ProviderManagementService service = Context.getService(ProviderManagementService.class);
+            // updating flushes the session, which may report further changes, so keep going until there are none
+            while (!pendingUpdates.isEmpty()) {
+                if (!pendingUpdates.relationships.isEmpty()) {
+                    Set<Integer> relationshipIds = new HashSet<Integer>();
+                    for (Relationship relationship : pendingUpdates.relationships) {
+                        if (relationship.getRelationshipId() != null) {
+                            relationshipIds.add(relationship.getRelationshipId());
+                        }
+                    }
+                    pendingUpdates.relationships.clear();
+                    service.updateActiveAssignments(relationshipIds);
+                }
+                if (!pendingUpdates.personIds.isEmpty()) {
+                    Set<Integer> personIds = new HashSet<Integer>(pendingUpdates.personIds);
+                    pendingUpdates.personIds.clear();
+                    service.updateCaseloadSummaries(personIds);
+                }
+            }
+        }
+        catch (RuntimeException e) {
+            // the tables can be rebuilt (and the rebuild tasks correct any drift), so the change being committed
+            // matters more; the update methods don't mark the transaction rollback-only when they fail, so
+            // catching the failure here really does let the commit go ahead (unless the database itself has
+            // aborted the transaction)
+            log.warn("Unable to update caseloads: " + pendingUpdates, e);
+        }
+        finally {
+            Context.removeProxyPrivilege(ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE);
+        }
+    }
+
+    /**
+     * @return the updates to make before the current transaction commits (which are simply discarded when there is
+     *         no transaction, as there is then nowhere safe to write the rows; they will be picked up by the next rebuild)
+     */
+    private PendingUpdates getPendingUpdates() {
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return new PendingUpdates();
+        }
+
+        PendingUpdates pending = (PendingUpdates) TransactionSynchronizationManager.getResource(this);
+
+        if (pending == null) {
+            pending = new PendingUpdates();
+            TransactionSynchronizationManager.bindResource(this, pending);
+            // the updates themselves are made by beforeTransactionCompletion; this just discards them once the transaction is over
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(CaseloadInterceptor.this);
+                }
+            });
+        }
+
+        return pending;
+    }
+
+    private static Integer getPersonAId(Object[] state, String[] propertyNames) {
+
+        if (state == null || propertyNames == null) {
+            return null;
+        }
+
+        for (int i = 0; i < propertyNames.length; i++) {
+            // as in ProviderCacheInterceptor, use the identifier property so that we never initialize a proxy mid-flush
+            if ("personA".equals(propertyNames[i]) && state[i] instanceof Person) {
+                return ((Person) state[i]).getPersonId();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * The relationships whose active assignment rows, and the persons whose caseload summary rows, need to be
+     * recalculated before the current transaction commits
+     */
+    private static class PendingUpdates {
+
+        private final Set<Relationship> relationships = new HashSet<Relationship>();
+
+        private final Set<Integer> personIds = new HashSet<Integer>();
+
+        public void addRelationship(Relationship relationship, Integer personAId, Integer previousPersonAId) {
+            relationships.add(relationship);
+            addPerson(personAId);
+            addPerson(previousPersonAId);
+        }
+
+        public void addPerson(Integer personId) {
+            if (personId != null) {
+                personIds.add(personId);
+            }
+        }
+
+        public boolean isEmpty() {
+            return relationships.isEmpty() && personIds.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "relationships: " + relationships.size() + ", persons: " + personIds;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.providermanagement.caseload;
+
+/**
+ * A row of the caseload summary table: the number of non-voided patients a provider has on a single provider
+ * relationship type, as of the last time the provider's relationships (or patients) changed, or the table was verified
+ *
+ * There are only rows for non-zero counts; the rows for a provider are recalculated from the relationship table
+ * whenever their relationships change, so that the counts can be read without touching the relationship table
+ */
+public class CaseloadSummary {
+
+    private Integer caseloadSummaryId;
+
+    // the person id of the provider
+    private Integer personId;
+
+    private Integer relationshipTypeId;
+
+    private Integer patientCount;
+
+    public CaseloadSummary() {
+    }
+
+    public CaseloadSummary(Integer personId, Integer relationshipTypeId, Integer patientCount) {
+        this.personId = personId;
+        this.relationshipTypeId = relationshipTypeId;
+        this.patientCount = patientCount;
+    }
+
+    public Integer getCaseloadSummaryId() {
+        return caseloadSummaryId;
+    }
+
+    public void setCaseloadSummaryId(Integer caseloadSummaryId) {
+        this.caseloadSummaryId = caseloadSummaryId;
+    }
+
+    public Integer getPersonId() {
+        return personId;
+    }
+
+    public void setPersonId(Integer personId) {
+        this.personId = personId;
+    }
+
+    public Integer getRelationshipTypeId() {
+        return relationshipTypeId;
+    }
+
+    public void setRelationshipTypeId(Integer relationshipTypeId) {
+        this.relationshipTypeId = relationshipTypeId;
+    }
+
+    public Integer getPatientCount() {
+        return patientCount;
+    }
+
+    public void setPatientCount(Integer patientCount) {
+        this.patientCount = patientCount;
+    }
+}
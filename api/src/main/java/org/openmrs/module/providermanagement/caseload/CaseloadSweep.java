@@ -0,0 +1,171 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.providermanagement.caseload;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds a {@link CaseloadTimeSeries} from a stream of provider/patient relationships, without holding on to them
+ *
+ * Each relationship is converted to the range of dates of the series it is active on, and the relationships of a
+ * provider and patient are merged, so that a patient is only counted once on each date however many relationships
+ * link them to the provider; each merged range then adds one to the provider's difference array at its first date,
+ * and subtracts one just after its last, and a single running sum over each array gives the counts. So the work is
+ * proportional to the number of relationships plus the number of dates, rather than their product.
+ *
+ * The relationships must be added grouped by provider and patient (in any order within each group). As with
+ * PersonService.getRelationships, a relationship is active on both its start and end dates.
+ */
+public class CaseloadSweep {
+
+    private final List<Date> dates;
+
+    private final long[] times;
+
+    // one more element than there are dates, so that ranges running to the end of the series have somewhere to end
+    private final Map<Integer, int[]> differences = new LinkedHashMap<Integer, int[]>();
+
+    private Integer providerId;
+
+    private Integer patientId;
+
+    // the ranges of date indexes, [first, end), of the relationships of the current provider and patient
+    private final List<int[]> ranges = new ArrayList<int[]>();
+
+    /**
+     * @param dates the dates of the series, in ascending order
+     * @param providerIds the person ids of the providers to build counts for
+     */
+    public CaseloadSweep(List<Date> dates, Collection<Integer> providerIds) {
+
+        this.dates = new ArrayList<Date>(dates);
+
+        times = new long[dates.size()];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = dates.get(i).getTime();
+        }
+
+        for (Integer id : providerIds) {
+            differences.put(id, new int[times.length + 1]);
+        }
+    }
+
+    /**
+     * Adds a relationship linking a provider to a patient
+     *
+     * @param providerId the person id of the provider
+     * @param patientId the person id of the patient
+     * @param startDate null if the relationship has no start date
+     * @param endDate null if the relationship has not ended
+     */
+    public void addRelationship(Integer providerId, Integer patientId, Date startDate, Date endDate) {
+
+        if (!providerId.equals(this.providerId) || !patientId.equals(this.patientId)) {
+            addRanges();
+            this.providerId = providerId;
+            this.patientId = patientId;
+        }
+
+        int first = startDate != null ? indexOf(startDate) : 0;
+        int end = endDate != null ? indexAfter(endDate) : times.length;
+
+        if (first < end) {
+            ranges.add(new int[] { first, end });
+        }
+    }
+
+    /**
+     * @return the counts of each provider, one per date
+     */
+    public CaseloadTimeSeries getTimeSeries() {
+
+        addRanges();
+
+        Map<Integer, int[]> counts = new LinkedHashMap<Integer, int[]>();
+
+        for (Map.Entry<Integer, int[]> entry : differences.entrySet()) {
+            int[] difference = entry.getValue();
+            int[] count = new int[times.length];
+            int running = 0;
+            for (int i = 0; i < count.length; i++) {
+                running += difference[i];
+                count[i] = running;
+            }
+            counts.put(entry.getKey(), count);
+        }
+
+        return new CaseloadTimeSeries(dates, counts);
+    }
+
+    /**
+     * Merges the ranges of the current provider and patient, and adds them to the provider's difference array
+     */
+    private void addRanges() {
+
+        int[] difference = providerId != null ? differences.get(providerId) : null;
+
+        if (difference != null && !ranges.isEmpty()) {
+
+            // there are rarely more than one or two relationships per provider and patient, so this sort is cheap
+            Collections.sort(ranges, new Comparator<int[]>() {
+                @Override
+                public int compare(int[] r1, int[] r2) {
+                    return r1[0] - r2[0];
+                }
+            });
+
+            int first = ranges.get(0)[0];
+            int end = ranges.get(0)[1];
+
+            for (int[] range : ranges) {
+                if (range[0] > end) {
+                    difference[first]++;
+                    difference[end]--;
+                    first = range[0];
+                }
+                end = Math.max(end, range[1]);
+            }
+
+            difference[first]++;
+            difference[end]--;
+        }
+
+        ranges.clear();
+    }
+
+    /**
+     * @return the index of the first date of the series on or after the specified date
+     */
+    private int indexOf(Date date) {
+        int index = Arrays.binarySearch(times, date.getTime());
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * @return the index of the first date of the series after the specified date
+     */
+    private int indexAfter(Date date) {
+        int index = Arrays.binarySearch(times, date.getTime());
+        return index >= 0 ? index + 1 : -index - 1;
+    }
+}
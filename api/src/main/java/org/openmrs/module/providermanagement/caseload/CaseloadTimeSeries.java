@@ -0,0 +1,58 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.providermanagement.caseload;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The caseload size of a number of providers on each of a series of dates: element i of the counts of a provider is
+ * the number of distinct patients they had on date i
+ */
+public class CaseloadTimeSeries {
+
+    private final List<Date> dates;
+
+    private final Map<Integer, int[]> counts;
+
+    public CaseloadTimeSeries(List<Date> dates, Map<Integer, int[]> counts) {
+        this.dates = Collections.unmodifiableList(dates);
+        this.counts = Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * @return the dates of the series, in ascending order
+     */
+    public List<Date> getDates() {
+        return dates;
+    }
+
+    /**
+     * @return the counts of each provider, keyed by provider person id; every provider has an entry
+     */
+    public Map<Integer, int[]> getCounts() {
+        return counts;
+    }
+
+    /**
+     * @param providerId the person id of the provider
+     * @return the counts of the specified provider, one per date, or null if the provider is not in the series
+     */
+    public int[] getCounts(Integer providerId) {
+        return counts.get(providerId);
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.providermanagement.search;
+
+/**
+ * How the fields of an address restriction in a provider search are matched against the addresses of a person
+ */
+public enum AddressMatchMode {
+
+    /**
+     * Every word of the field must be a whole word of the same field of the address; answered from the person
+     * address token table
+     */
+    EXACT,
+
+    /**
+     * Every word of the field must be the start of a word of the same field of the address (so "kap" matches
+     * "Kapina"); answered from the person address token table
+     */
+    PREFIX,
+
+    /**
+     * The field must appear anywhere in the same field of the address (so "pina" matches "Kapina"); this cannot use
+     * an index, so scans the person address table, and is only done under a query timeout
+     */
+    ANYWHERE
+}
@@ -0,0 +1,85 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.providermanagement.search;
+
+/**
+ * A row of the person address token table: one of the {@link PersonAddressTokens} of one field of one of the
+ * addresses of a non-voided person
+ *
+ * The table is derived entirely from the person address table, so the rows for a person are simply deleted and
+ * recreated whenever their addresses change
+ */
+public class PersonAddressToken {
+
+    private Integer personAddressTokenId;
+
+    private Integer personAddressId;
+
+    private Integer personId;
+
+    // the name of the PersonAddress property the token comes from, eg "cityVillage"
+    private String field;
+
+    private String token;
+
+    public PersonAddressToken() {
+    }
+
+    public PersonAddressToken(Integer personAddressId, Integer personId, String field, String token) {
+        this.personAddressId = personAddressId;
+        this.personId = personId;
+        this.field = field;
+        this.token = token;
+    }
+
+    public Integer getPersonAddressTokenId() {
+        return personAddressTokenId;
+    }
+
+    public void setPersonAddressTokenId(Integer personAddressTokenId) {
+        this.personAddressTokenId = personAddressTokenId;
+    }
+
+    public Integer getPersonAddressId() {
+        return personAddressId;
+    }
+
+    public void setPersonAddressId(Integer personAddressId) {
+        this.personAddressId = personAddressId;
+    }
+
+    public Integer getPersonId() {
+        return personId;
+    }
+
+    public void setPersonId(Integer personId) {
+        this.personId = personId;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public void setField(String field) {
+        this.field = field;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public void setToken(String token) {
+        this.token = token;
+    }
+}
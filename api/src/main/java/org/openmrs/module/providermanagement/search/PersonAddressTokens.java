@@ -0,0 +1,79 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.providermanagement.search;
+
+import org.openmrs.PersonAddress;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates the tokens stored in the person address token table, used to match address restrictions in the provider
+ * search without scanning the person address table
+ *
+ * Each word of each address field is a token, normalized the same way as the words of a name (see
+ * {@link PersonNameKeys#normalize(String)}), so that "1050 Wishard Blvd." becomes "1050", "wishard" and "blvd"
+ */
+public class PersonAddressTokens {
+
+    // the length of the token column
+    public static final int MAX_TOKEN_LENGTH = 100;
+
+    /**
+     * The PersonAddress properties that are tokenized (and that can be used as address restrictions), in the order
+     * they are selected from the database
+     */
+    public static final List<String> FIELDS = Collections.unmodifiableList(Arrays.asList("address1", "address2",
+            "address3", "address4", "address5", "address6", "cityVillage", "country", "countyDistrict", "stateProvince",
+            "postalCode"));
+
+    /**
+     * @return the values of the tokenized fields of the specified address, keyed by property name, in the order of {@link #FIELDS}
+     */
+    public static Map<String, String> getFieldValues(PersonAddress personAddress) {
+
+        Map<String, String> values = new LinkedHashMap<String, String>();
+        values.put("address1", personAddress.getAddress1());
+        values.put("address2", personAddress.getAddress2());
+        values.put("address3", personAddress.getAddress3());
+        values.put("address4", personAddress.getAddress4());
+        values.put("address5", personAddress.getAddress5());
+        values.put("address6", personAddress.getAddress6());
+        values.put("cityVillage", personAddress.getCityVillage());
+        values.put("country", personAddress.getCountry());
+        values.put("countyDistrict", personAddress.getCountyDistrict());
+        values.put("stateProvince", personAddress.getStateProvince());
+        values.put("postalCode", personAddress.getPostalCode());
+        return values;
+    }
+
+    /**
+     * @return the distinct tokens of the specified field value (which may be null), truncated to fit the token column
+     */
+    public static Set<String> getTokens(String value) {
+
+        Set<String> tokens = new LinkedHashSet<String>();
+
+        for (String word : PersonNameKeys.getWords(value)) {
+            tokens.add(word.length() > MAX_TOKEN_LENGTH ? word.substring(0, MAX_TOKEN_LENGTH) : word);
+        }
+
+        return tokens;
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.providermanagement.search;
+
+/**
+ * A row of the person name key table: one of the {@link PersonNameKeys} of one of the non-voided names of a
+ * non-voided person
+ *
+ * The table is derived entirely from the person name table, so the rows for a person are simply deleted and
+ * recreated whenever their names change
+ */
+public class PersonNameKey {
+
+    private Integer personNameKeyId;
+
+    private Integer personId;
+
+    private String nameKey;
+
+    public PersonNameKey() {
+    }
+
+    public PersonNameKey(Integer personId, String nameKey) {
+        this.personId = personId;
+        this.nameKey = nameKey;
+    }
+
+    public Integer getPersonNameKeyId() {
+        return personNameKeyId;
+    }
+
+    public void setPersonNameKeyId(Integer personNameKeyId) {
+        this.personNameKeyId = personNameKeyId;
+    }
+
+    public Integer getPersonId() {
+        return personId;
+    }
+
+    public void setPersonId(Integer personId) {
+        this.personId = personId;
+    }
+
+    public String getNameKey() {
+        return nameKey;
+    }
+
+    public void setNameKey(String nameKey) {
+        this.nameKey = nameKey;
+    }
+}
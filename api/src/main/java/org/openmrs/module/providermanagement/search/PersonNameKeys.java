@@ -0,0 +1,146 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.providermanagement.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Generates the keys stored in the person name key table, used to find people with names similar to a given name
+ *
+ * Each word of a name gets two keys: a normalized key (the word in lower case, with accents and punctuation removed),
+ * which is matched by prefix, and a phonetic (Soundex) key, which is matched exactly and picks up spelling variants
+ */
+public class PersonNameKeys {
+
+    public static final String NORMALIZED_PREFIX = "n:";
+
+    public static final String PHONETIC_PREFIX = "s:";
+
+    // the length of the name_key column
+    public static final int MAX_KEY_LENGTH = 100;
+
+    // the soundex codes of the letters a-z; 0 means the letter is not coded
+    private static final String SOUNDEX_CODES = "01230120022455012623010202";
+
+    /**
+     * @return the keys for all the words in the specified name parts (any of which may be null)
+     */
+    public static Set<String> getKeys(String... nameParts) {
+
+        Set<String> keys = new LinkedHashSet<String>();
+
+        for (String namePart : nameParts) {
+            for (String word : getWords(namePart)) {
+                keys.add(getNormalizedKey(word));
+                String phoneticKey = getPhoneticKey(word);
+                if (phoneticKey != null) {
+                    keys.add(phoneticKey);
+                }
+            }
+        }
+
+        return keys;
+    }
+
+    /**
+     * @return the normalized words of the specified name, skipping any that are empty once normalized
+     */
+    public static List<String> getWords(String name) {
+
+        List<String> words = new ArrayList<String>();
+
+        if (name == null) {
+            return words;
+        }
+
+        for (String word : name.split("[\\s,]+")) {
+            String normalized = normalize(word);
+            if (normalized.length() > 0) {
+                words.add(normalized);
+            }
+        }
+
+        return words;
+    }
+
+    /**
+     * @return the normalized key for the specified (already normalized) word
+     */
+    public static String getNormalizedKey(String word) {
+        String key = NORMALIZED_PREFIX + word;
+        return key.length() > MAX_KEY_LENGTH ? key.substring(0, MAX_KEY_LENGTH) : key;
+    }
+
+    /**
+     * @return the phonetic key for the specified (already normalized) word, or null if the word has no letters to code
+     */
+    public static String getPhoneticKey(String word) {
+        String soundex = soundex(word);
+        return soundex != null ? PHONETIC_PREFIX + soundex : null;
+    }
+
+    /**
+     * @return the word in lower case, with accents removed and anything other than the letters a-z and digits stripped
+     */
+    public static String normalize(String word) {
+        String decomposed = Normalizer.normalize(word, Normalizer.Form.NFD);
+        return decomposed.toLowerCase().replaceAll("[^a-z0-9]", "");
+    }
+
+    /**
+     * American Soundex: the first letter, followed by the codes of the remaining consonants (ignoring repeats,
+     * including repeats separated by h or w), padded or truncated to three digits
+     */
+    static String soundex(String word) {
+
+        StringBuilder letters = new StringBuilder();
+        for (char c : word.toCharArray()) {
+            if (c >= 'a' && c <= 'z') {
+                letters.append(c);
+            }
+        }
+
+        if (letters.length() == 0) {
+            return null;
+        }
+
+        StringBuilder soundex = new StringBuilder();
+        soundex.append(Character.toUpperCase(letters.charAt(0)));
+
+        char lastCode = SOUNDEX_CODES.charAt(letters.charAt(0) - 'a');
+
+        for (int i = 1; i < letters.length() && soundex.length() < 4; i++) {
+            char letter = letters.charAt(i);
+            char code = SOUNDEX_CODES.charAt(letter - 'a');
+            if (code != '0' && code != lastCode) {
+                soundex.append(code);
+            }
+            // h and w don't separate letters with the same code, but vowels do
+            if (letter != 'h' && letter != 'w') {
+                lastCode = code;
+            }
+        }
+
+        while (soundex.length() < 4) {
+            soundex.append('0');
+        }
+
+        return soundex.toString();
+    }
+}
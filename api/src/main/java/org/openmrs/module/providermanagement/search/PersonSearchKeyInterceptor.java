@@ -0,0 +1,237 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.providermanagement.search;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Transaction;
+import org.hibernate.type.Type;
+import org.openmrs.Person;
+import org.openmrs.PersonAddress;
+import org.openmrs.PersonAttribute;
+import org.openmrs.PersonName;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.providermanagement.Provider;
+import org.openmrs.module.providermanagement.ProviderManagementConstants;
+import org.openmrs.module.providermanagement.api.ProviderManagementService;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.Serializable;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Hibernate interceptor that keeps the person name key, person address token and provider search tables up to date:
+ * whenever a person name, address or attribute, or a provider, is inserted, updated or deleted, or a person is
+ * updated (eg, voided) or deleted, the affected rows for that person are recreated just before the transaction
+ * commits, so that they are committed (or rolled back) along with the change itself
+ *
+ * (The rows are written through the service, looked up when needed, as the session factory depends on all the
+ * interceptors and so they cannot depend on it in turn)
+ */
+public class PersonSearchKeyInterceptor extends EmptyInterceptor {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Log log = LogFactory.getLog(PersonSearchKeyInterceptor.class);
+
+    // the tables to update for a person
+    private static final int NAME_KEYS = 1;
+
+    private static final int ADDRESS_TOKENS = 2;
+
+    private static final int PROVIDER_SEARCH = 4;
+
+    @Override
+    public boolean onSave(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+        int tables = getTables(entity);
+        if (tables != 0) {
+            updateBeforeCommit(getPersonId(state, propertyNames), tables);
+        }
+        return false;
+    }
+
+    @Override
+    public boolean onFlushDirty(Object entity, Serializable id, Object[] currentState, Object[] previousState, String[] propertyNames, Type[] types) {
+        if (entity instanceof Person && id instanceof Integer) {
+            updateBeforeCommit((Integer) id, NAME_KEYS | ADDRESS_TOKENS | PROVIDER_SEARCH);
+        }
+        else {
+            int tables = getTables(entity);
+            if (tables != 0) {
+                updateBeforeCommit(getPersonId(currentState, propertyNames), tables);
+                updateBeforeCommit(getPersonId(previousState, propertyNames), tables);
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void onDelete(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+        if (entity instanceof Person && id instanceof Integer) {
+            updateBeforeCommit((Integer) id, NAME_KEYS | ADDRESS_TOKENS | PROVIDER_SEARCH);
+        }
+        else {
+            int tables = getTables(entity);
+            if (tables != 0) {
+                updateBeforeCommit(getPersonId(state, propertyNames), tables);
+            }
+        }
+    }
+
+    /**
+     * @return the tables affected by a change to the specified entity (other than a person), as a combination of the flags above
+     */
+    private static int getTables(Object entity) {
+        if (entity instanceof PersonName) {
+            return NAME_KEYS | PROVIDER_SEARCH;
+        }
+        else if (entity instanceof PersonAddress) {
+            return ADDRESS_TOKENS;
+        }
+        else if (entity instanceof PersonAttribute || entity instanceof Provider) {
+            return PROVIDER_SEARCH;
+        }
+        return 0;
+    }
+
+    /**
+     * Recreates the rows of the persons changed in the transaction that is about to commit; this is called after
+     * Hibernate has flushed the session for the commit (unlike a Spring beforeCommit synchronization, which runs before
+     * that flush, and so would miss changes that are only flushed by the commit itself)
+     */
+    @Override
+    public void beforeTransactionCompletion(Transaction tx) {
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+
+        PendingUpdates pendingUpdates = (PendingUpdates) TransactionSynchronizationManager.getResource(this);
+
+        if (pendingUpdates == null || pendingUpdates.isEmpty()) {
+            return;
+        }
+
+        if (!Context.isSessionOpen()) {
+            log.warn("No user context, unable to update search keys of persons " + pendingUpdates);
+            return;
+        }
+
+        try {
+            Context.addProxyPrivilege(ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE);
+            ProviderManagementService service = Context.getService(ProviderManagementService.class);
+            // updating flushes the session, which may report further changes, so keep going until there are none
+            while (!pendingUpdates.isEmpty()) {
+                if (!pendingUpdates.namePersonIds.isEmpty()) {
+                    service.updatePersonNameKeys(drain(pendingUpdates.namePersonIds));
+                }
+                if (!pendingUpdates.addressPersonIds.isEmpty()) {
+                    service.updatePersonAddressTokens(drain(pendingUpdates.addressPersonIds));
+                }
+                if (!pendingUpdates.providerPersonIds.isEmpty()) {
+                    service.updateProviderSearchEntries(drain(pendingUpdates.providerPersonIds));
+                }
+            }
+        }
+        catch (RuntimeException e) {
+            // a name key or address token that is missing only means the person may not be found by a
+            // search until the next rebuild, so the change being committed matters more; the update methods
+            // don't mark the transaction rollback-only when they fail, so catching the failure here really
+            // does let the commit go ahead (unless the database itself has aborted the transaction)
+            log.warn("Unable to update search keys of persons " + pendingUpdates, e);
+        }
+        finally {
+            Context.removeProxyPrivilege(ProviderManagementConstants.PROVIDER_MANAGEMENT_API_PRIVILEGE);
+        }
+    }
+
+    private void updateBeforeCommit(Integer personId, int tables) {
+
+        // outside of a transaction there is nowhere safe to write the rows; they will be picked up by the next rebuild
+        if (personId == null || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+
+        PendingUpdates pending = (PendingUpdates) TransactionSynchronizationManager.getResource(this);
+
+        if (pending == null) {
+            pending = new PendingUpdates();
+            TransactionSynchronizationManager.bindResource(this, pending);
+            // the updates themselves are made by beforeTransactionCompletion; this just discards them once the transaction is over
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(PersonSearchKeyInterceptor.this);
+                }
+            });
+        }
+
+        if ((tables & NAME_KEYS) != 0) {
+            pending.namePersonIds.add(personId);
+        }
+        if ((tables & ADDRESS_TOKENS) != 0) {
+            pending.addressPersonIds.add(personId);
+        }
+        if ((tables & PROVIDER_SEARCH) != 0) {
+            pending.providerPersonIds.add(personId);
+        }
+    }
+
+    private static Set<Integer> drain(Set<Integer> personIds) {
+        Set<Integer> batch = new HashSet<Integer>(personIds);
+        personIds.clear();
+        return batch;
+    }
+
+    private static Integer getPersonId(Object[] state, String[] propertyNames) {
+
+        if (state == null || propertyNames == null) {
+            return null;
+        }
+
+        for (int i = 0; i < propertyNames.length; i++) {
+            // as in ProviderCacheInterceptor, use the identifier property so that we never initialize a proxy mid-flush
+            if ("person".equals(propertyNames[i]) && state[i] instanceof Person) {
+                return ((Person) state[i]).getPersonId();
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * The persons whose name keys, address tokens and provider search rows need to be recreated before the current
+     * transaction commits
+     */
+    private static class PendingUpdates {
+
+        private final Set<Integer> namePersonIds = new HashSet<Integer>();
+
+        private final Set<Integer> addressPersonIds = new HashSet<Integer>();
+
+        private final Set<Integer> providerPersonIds = new HashSet<Integer>();
+
+        public boolean isEmpty() {
+            return namePersonIds.isEmpty() && addressPersonIds.isEmpty() && providerPersonIds.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "names: " + namePersonIds + ", addresses: " + addressPersonIds + ", providers: " + providerPersonIds;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.providermanagement.search;
+
+import org.openmrs.PersonAddress;
+import org.openmrs.PersonAttribute;
+import org.openmrs.module.providermanagement.ProviderRole;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * The criteria for a (paged) provider search; any criteria left null are ignored
+ */
+public class ProviderSearchCriteria {
+
+    // matched against either the name or the identifier
+    private String query;
+
+    private String name;
+
+    private String identifier;
+
+    // each address and attribute is a separate restriction: a person must have an address matching every one of the
+    // addresses, and an attribute matching every one of the attributes (blank ones are ignored)
+    private List<PersonAddress> personAddresses = new ArrayList<PersonAddress>();
+
+    private List<PersonAttribute> personAttributes = new ArrayList<PersonAttribute>();
+
+    private AddressMatchMode addressMatchMode = AddressMatchMode.PREFIX;
+
+    // restrict to providers with at least one of these roles
+    private List<ProviderRole> providerRoles = new ArrayList<ProviderRole>();
+
+    private boolean includeRetired = false;
+
+    // persons to leave out of the results (for instance, the existing supervisees of a supervisor)
+    private Collection<Integer> excludedPersonIds = new HashSet<Integer>();
+
+    // whether or not the search should also count the total number of matches (which costs an extra query)
+    private boolean includeTotalCount = false;
+
+    // the maximum time, in seconds, the search queries may run for (null for no limit)
+    private Integer queryTimeout;
+
+    // whether to search the provider search table rather than the provider and person tables; set by the service
+    // when the table is enabled and can answer the criteria
+    private boolean useProviderSearchTable = false;
+
+    public ProviderSearchCriteria() {
+    }
+
+    public ProviderSearchCriteria(String query, List<ProviderRole> providerRoles, boolean includeRetired) {
+        this.query = query;
+        setProviderRoles(providerRoles);
+        this.includeRetired = includeRetired;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public void setQuery(String query) {
+        this.query = query;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    public void setIdentifier(String identifier) {
+        this.identifier = identifier;
+    }
+
+    /**
+     * Restricts the search to persons with an address matching the specified one, replacing any other address restrictions
+     */
+    public void setPersonAddress(PersonAddress personAddress) {
+        personAddresses.clear();
+        addPersonAddress(personAddress);
+    }
+
+    public void addPersonAddress(PersonAddress personAddress) {
+        if (personAddress != null) {
+            personAddresses.add(personAddress);
+        }
+    }
+
+    public List<PersonAddress> getPersonAddresses() {
+        return personAddresses;
+    }
+
+    public void setPersonAddresses(List<PersonAddress> personAddresses) {
+        this.personAddresses = personAddresses != null ? personAddresses : new ArrayList<PersonAddress>();
+    }
+
+    /**
+     * Restricts the search to persons with an attribute matching the specified one, replacing any other attribute restrictions
+     */
+    public void setPersonAttribute(PersonAttribute personAttribute) {
+        personAttributes.clear();
+        addPersonAttribute(personAttribute);
+    }
+
+    public void addPersonAttribute(PersonAttribute personAttribute) {
+        if (personAttribute != null) {
+            personAttributes.add(personAttribute);
+        }
+    }
+
+    public List<PersonAttribute> getPersonAttributes() {
+        return personAttributes;
+    }
+
+    public void setPersonAttributes(List<PersonAttribute> personAttributes) {
+        this.personAttributes = personAttributes != null ? personAttributes : new ArrayList<PersonAttribute>();
+    }
+
+    public AddressMatchMode getAddressMatchMode() {
+        return addressMatchMode;
+    }
+
+    public void setAddressMatchMode(AddressMatchMode addressMatchMode) {
+        this.addressMatchMode = addressMatchMode != null ? addressMatchMode : AddressMatchMode.PREFIX;
+    }
+
+    /**
+     * @return true if any of the address or attribute restrictions are non-blank
+     */
+    public boolean hasAddressOrAttributeRestrictions() {
+        for (PersonAddress personAddress : personAddresses) {
+            if (!personAddress.isBlank()) {
+                return true;
+            }
+        }
+        for (PersonAttribute personAttribute : personAttributes) {
+            if (isRestriction(personAttribute)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the specified attribute should restrict the search, ie, it has both a type and a value
+     */
+    public static boolean isRestriction(PersonAttribute personAttribute) {
+        return personAttribute.getAttributeType() != null && personAttribute.getValue() != null
+                && personAttribute.getValue().trim().length() > 0;
+    }
+
+    public List<ProviderRole> getProviderRoles() {
+        return providerRoles;
+    }
+
+    public void setProviderRoles(List<ProviderRole> providerRoles) {
+        this.providerRoles = providerRoles != null ? providerRoles : new ArrayList<ProviderRole>();
+    }
+
+    public boolean isIncludeRetired() {
+        return includeRetired;
+    }
+
+    public void setIncludeRetired(boolean includeRetired) {
+        this.includeRetired = includeRetired;
+    }
+
+    public Collection<Integer> getExcludedPersonIds() {
+        return excludedPersonIds;
+    }
+
+    public void setExcludedPersonIds(Collection<Integer> excludedPersonIds) {
+        this.excludedPersonIds = excludedPersonIds != null ? excludedPersonIds : new HashSet<Integer>();
+    }
+
+    public boolean isIncludeTotalCount() {
+        return includeTotalCount;
+    }
+
+    public void setIncludeTotalCount(boolean includeTotalCount) {
+        this.includeTotalCount = includeTotalCount;
+    }
+
+    public Integer getQueryTimeout() {
+        return queryTimeout;
+    }
+
+    public void setQueryTimeout(Integer queryTimeout) {
+        this.queryTimeout = queryTimeout;
+    }
+
+    public boolean isUseProviderSearchTable() {
+        return useProviderSearchTable;
+    }
+
+    public void setUseProviderSearchTable(boolean useProviderSearchTable) {
+        this.useProviderSearchTable = useProviderSearchTable;
+    }
+}
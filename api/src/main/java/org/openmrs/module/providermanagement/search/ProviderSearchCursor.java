@@ -0,0 +1,132 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.providermanagement.search;
+
+import org.apache.commons.lang.StringUtils;
+import org.openmrs.api.APIException;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+
+/**
+ * The position of a page in a provider search: the sort key, ie, the (given name, middle name, family name, person id)
+ * of the last result on the previous page; the next page starts with the first result that sorts after it
+ *
+ * Null name parts are normalized to the empty string, matching the way the search sorts them
+ *
+ * A cursor can be serialized to an opaque string, so that it can be handed to (and back from) the browser
+ */
+public class ProviderSearchCursor {
+
+    private static final String SEPARATOR = ":";
+
+    private static final String ENCODING = "UTF-8";
+
+    private final String givenName;
+
+    private final String middleName;
+
+    private final String familyName;
+
+    private final Integer personId;
+
+    public ProviderSearchCursor(String givenName, String middleName, String familyName, Integer personId) {
+
+        if (personId == null) {
+            throw new APIException("Person id cannot be null");
+        }
+
+        this.givenName = givenName != null ? givenName : "";
+        this.middleName = middleName != null ? middleName : "";
+        this.familyName = familyName != null ? familyName : "";
+        this.personId = personId;
+    }
+
+    /**
+     * @return this cursor as an opaque string
+     */
+    public String serialize() {
+        return encode(givenName) + SEPARATOR + encode(middleName) + SEPARATOR + encode(familyName) + SEPARATOR + personId;
+    }
+
+    /**
+     * @param cursor a string created by {@link #serialize()}
+     * @return the cursor, or null if the string is blank
+     * @throws APIException if the string is not a valid cursor
+     */
+    public static ProviderSearchCursor deserialize(String cursor) {
+
+        if (StringUtils.isBlank(cursor)) {
+            return null;
+        }
+
+        String[] parts = cursor.split(SEPARATOR, -1);
+
+        if (parts.length != 4) {
+            throw new APIException("Invalid provider search cursor: " + cursor);
+        }
+
+        try {
+            return new ProviderSearchCursor(decode(parts[0]), decode(parts[1]), decode(parts[2]), Integer.valueOf(parts[3]));
+        }
+        catch (NumberFormatException e) {
+            throw new APIException("Invalid provider search cursor: " + cursor, e);
+        }
+    }
+
+    public String getGivenName() {
+        return givenName;
+    }
+
+    public String getMiddleName() {
+        return middleName;
+    }
+
+    public String getFamilyName() {
+        return familyName;
+    }
+
+    public Integer getPersonId() {
+        return personId;
+    }
+
+    @Override
+    public String toString() {
+        return serialize();
+    }
+
+    private static String encode(String str) {
+        try {
+            return URLEncoder.encode(str, ENCODING);
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new APIException("Unable to encode provider search cursor", e);
+        }
+    }
+
+    private static String decode(String str) {
+        try {
+            return URLDecoder.decode(str, ENCODING);
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new APIException("Unable to decode provider search cursor", e);
+        }
+        catch (IllegalArgumentException e) {
+            throw new APIException("Invalid provider search cursor", e);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.providermanagement.search;
+
+/**
+ * A row of the provider search table: everything the provider search needs to know about a single provider of a
+ * non-voided person with at least one non-voided name, so that a search can be answered from this one table rather
+ * than by joining provider, person, person name and person attribute
+ *
+ * The parts of the person's names, and their values of the advanced search attribute type, are held as separate
+ * {@link ProviderSearchTerm}s, so that they can be matched by prefix using an index
+ *
+ * As with the person name keys, the rows for a person are simply deleted and recreated whenever their providers,
+ * names or attributes change
+ */
+public class ProviderSearchEntry {
+
+    private Integer providerId;
+
+    private Integer personId;
+
+    // lower case
+    private String identifier;
+
+    private Integer providerRoleId;
+
+    private Boolean retired = false;
+
+    // the name the person is displayed (and sorted) by, with null parts stored as empty strings
+    private String givenName;
+
+    private String middleName;
+
+    private String familyName;
+
+    public ProviderSearchEntry() {
+    }
+
+    public Integer getProviderId() {
+        return providerId;
+    }
+
+    public void setProviderId(Integer providerId) {
+        this.providerId = providerId;
+    }
+
+    public Integer getPersonId() {
+        return personId;
+    }
+
+    public void setPersonId(Integer personId) {
+        this.personId = personId;
+    }
+
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    public void setIdentifier(String identifier) {
+        this.identifier = identifier;
+    }
+
+    public Integer getProviderRoleId() {
+        return providerRoleId;
+    }
+
+    public void setProviderRoleId(Integer providerRoleId) {
+        this.providerRoleId = providerRoleId;
+    }
+
+    public Boolean getRetired() {
+        return retired;
+    }
+
+    public void setRetired(Boolean retired) {
+        this.retired = retired;
+    }
+
+    public String getGivenName() {
+        return givenName;
+    }
+
+    public void setGivenName(String givenName) {
+        this.givenName = givenName;
+    }
+
+    public String getMiddleName() {
+        return middleName;
+    }
+
+    public void setMiddleName(String middleName) {
+        this.middleName = middleName;
+    }
+
+    public String getFamilyName() {
+        return familyName;
+    }
+
+    public void setFamilyName(String familyName) {
+        this.familyName = familyName;
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.providermanagement.search;
+
+import org.openmrs.Person;
+
+import java.util.List;
+
+/**
+ * One page of the results of a provider search
+ */
+public class ProviderSearchResult {
+
+    private List<Person> providers;
+
+    // the results as display rows, for searches that fetch rows instead of persons
+    private List<ProviderSearchRow> rows;
+
+    // the cursor to request the next page with, or null if this is the last page
+    private ProviderSearchCursor nextCursor;
+
+    // the total number of matches (across all pages), or null if it was not requested
+    private Integer totalCount;
+
+    public ProviderSearchResult(List<Person> providers, ProviderSearchCursor nextCursor, Integer totalCount) {
+        this(providers, null, nextCursor, totalCount);
+    }
+
+    public ProviderSearchResult(List<Person> providers, List<ProviderSearchRow> rows, ProviderSearchCursor nextCursor, Integer totalCount) {
+        this.providers = providers;
+        this.rows = rows;
+        this.nextCursor = nextCursor;
+        this.totalCount = totalCount;
+    }
+
+    public List<Person> getProviders() {
+        return providers;
+    }
+
+    public List<ProviderSearchRow> getRows() {
+        return rows;
+    }
+
+    /**
+     * @return the number of results on this page
+     */
+    public int size() {
+        return rows != null ? rows.size() : providers.size();
+    }
+
+    public ProviderSearchCursor getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * @return true if there are more results after this page
+     */
+    public boolean hasMore() {
+        return nextCursor != null;
+    }
+
+    public Integer getTotalCount() {
+        return totalCount;
+    }
+
+    public void setTotalCount(Integer totalCount) {
+        this.totalCount = totalCount;
+    }
+}
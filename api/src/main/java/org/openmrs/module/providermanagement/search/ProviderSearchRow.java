@@ -0,0 +1,101 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.providermanagement.search;
+
+/**
+ * A single provider search result, as a flat projection of the person and provider columns needed to display
+ * it, so that search results can be displayed without loading (and lazily initializing) the Person entities
+ *
+ * If the person is associated with more than one matching provider, the row holds the one with the lowest id
+ */
+public class ProviderSearchRow {
+
+    private Integer personId;
+
+    private String givenName;
+
+    private String middleName;
+
+    private String familyName;
+
+    private String gender;
+
+    private Integer providerId;
+
+    private String identifier;
+
+    private String providerRoleName;
+
+    private String providerRoleUuid;
+
+    private boolean retired;
+
+    public ProviderSearchRow(Integer personId, String givenName, String middleName, String familyName, String gender,
+                             Integer providerId, String identifier, String providerRoleName, String providerRoleUuid, boolean retired) {
+        this.personId = personId;
+        this.givenName = givenName;
+        this.middleName = middleName;
+        this.familyName = familyName;
+        this.gender = gender;
+        this.providerId = providerId;
+        this.identifier = identifier;
+        this.providerRoleName = providerRoleName;
+        this.providerRoleUuid = providerRoleUuid;
+        this.retired = retired;
+    }
+
+    public Integer getPersonId() {
+        return personId;
+    }
+
+    public String getGivenName() {
+        return givenName;
+    }
+
+    public String getMiddleName() {
+        return middleName;
+    }
+
+    public String getFamilyName() {
+        return familyName;
+    }
+
+    public String getGender() {
+        return gender;
+    }
+
+    public Integer getProviderId() {
+        return providerId;
+    }
+
+    public String getIdentifier() {
+        return identifier;
+    }
+
+    public String getProviderRoleName() {
+        return providerRoleName;
+    }
+
+    public String getProviderRoleUuid() {
+        return providerRoleUuid;
+    }
+
+    /**
+     * @return whether the provider is retired
+     */
+    public boolean isRetired() {
+        return retired;
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.providermanagement.search;
+
+/**
+ * A row of the provider search term table, which goes alongside the provider search table: one of the (lower case)
+ * name parts, or values of the advanced search attribute type, of a person with a row in the provider search table
+ *
+ * Each term is a separate row, so that a name or attribute can be matched with an index range scan on the term
+ * ("term like 'jo%'") rather than by scanning every row of the provider search table; as with the provider search
+ * table, the terms of a person are simply deleted and recreated whenever their providers, names or attributes change
+ */
+public class ProviderSearchTerm {
+
+    public static final String NAME = "name";
+
+    public static final String ATTRIBUTE = "attribute";
+
+    // the length of the term column
+    public static final int MAX_TERM_LENGTH = 255;
+
+    private Integer providerSearchTermId;
+
+    private Integer personId;
+
+    // either NAME or ATTRIBUTE
+    private String field;
+
+    // lower case
+    private String term;
+
+    public ProviderSearchTerm() {
+    }
+
+    public ProviderSearchTerm(Integer personId, String field, String term) {
+        this.personId = personId;
+        this.field = field;
+        this.term = term;
+    }
+
+    public Integer getProviderSearchTermId() {
+        return providerSearchTermId;
+    }
+
+    public void setProviderSearchTermId(Integer providerSearchTermId) {
+        this.providerSearchTermId = providerSearchTermId;
+    }
+
+    public Integer getPersonId() {
+        return personId;
+    }
+
+    public void setPersonId(Integer personId) {
+        this.personId = personId;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public void setField(String field) {
+        this.field = field;
+    }
+
+    public String getTerm() {
+        return term;
+    }
+
+    public void setTerm(String term) {
+        this.term = term;
+    }
+}
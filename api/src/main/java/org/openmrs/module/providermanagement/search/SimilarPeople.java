@@ -0,0 +1,57 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.providermanagement.search;
+
+import org.openmrs.Person;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The people found to have names similar to a given name, split into those that are providers and those
+ * that are not, each sorted by name
+ */
+public class SimilarPeople {
+
+    private List<Person> providers = new ArrayList<Person>();
+
+    private List<Person> people = new ArrayList<Person>();
+
+    public SimilarPeople() {
+    }
+
+    public SimilarPeople(List<Person> providers, List<Person> people) {
+        this.providers = providers;
+        this.people = people;
+    }
+
+    /**
+     * @return the similar people that are providers
+     */
+    public List<Person> getProviders() {
+        return providers;
+    }
+
+    /**
+     * @return the similar people that are not providers
+     */
+    public List<Person> getPeople() {
+        return people;
+    }
+
+    public boolean isEmpty() {
+        return providers.isEmpty() && people.isEmpty();
+    }
+}
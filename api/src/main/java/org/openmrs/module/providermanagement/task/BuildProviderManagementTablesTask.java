@@ -0,0 +1,135 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.providermanagement.task;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.APIException;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.providermanagement.ProviderManagementGlobalProperties;
+import org.openmrs.module.providermanagement.api.ProviderManagementService;
+import org.openmrs.scheduler.SchedulerException;
+import org.openmrs.scheduler.SchedulerService;
+import org.openmrs.scheduler.TaskDefinition;
+import org.openmrs.scheduler.tasks.AbstractTask;
+import org.openmrs.util.PrivilegeConstants;
+
+/**
+ * Task that builds the tables the module derives from the person and relationship tables, in the background rather
+ * than while the module is being started: the person name keys and person address tokens are each built if there are
+ * none yet (ie, the first time the module is started), and the tables enabled by global properties are rebuilt
+ *
+ * The task is registered, without a schedule, by the module's sqldiff, and is run once each time the module is started,
+ * and whenever one of those global properties is turned on (see BuildTablesGlobalPropertyListener)
+ */
+public class BuildProviderManagementTablesTask extends AbstractTask {
+
+    public static final String TASK_NAME = "Provider Management - Build Tables";
+
+    private static final Log log = LogFactory.getLog(BuildProviderManagementTablesTask.class);
+
+    @Override
+    public void execute() {
+
+        if (isExecuting()) {
+            return;
+        }
+
+        startExecuting();
+        try {
+            ProviderManagementService service = Context.getService(ProviderManagementService.class);
+
+            // each table is built independently, so that one failing doesn't stop the others from being built
+            try {
+                if (!service.hasPersonNameKeys()) {
+                    log.info("Building person name keys");
+                    service.rebuildPersonNameKeys();
+                }
+            }
+            catch (Exception e) {
+                log.error("Unable to build person name keys", e);
+            }
+
+            try {
+                if (!service.hasPersonAddressTokens()) {
+                    log.info("Building person address tokens");
+                    service.rebuildPersonAddressTokens();
+                }
+            }
+            catch (Exception e) {
+                log.error("Unable to build person address tokens", e);
+            }
+
+            // the optional tables are only kept up to date while they are enabled, so they are rebuilt from scratch
+            try {
+                if (isEnabled(ProviderManagementGlobalProperties.GLOBAL_PROPERTY_PROVIDER_SEARCH_TABLE_ENABLED())) {
+                    log.info("Building provider search table");
+                    service.rebuildProviderSearchEntries();
+                }
+            }
+            catch (Exception e) {
+                log.error("Unable to build provider search table", e);
+            }
+
+            try {
+                if (isEnabled(ProviderManagementGlobalProperties.GLOBAL_PROPERTY_CASELOAD_SUMMARY_ENABLED())) {
+                    log.info("Building caseload summary table");
+                    service.rebuildCaseloadSummaries();
+                }
+            }
+            catch (Exception e) {
+                log.error("Unable to build caseload summary table", e);
+            }
+
+            try {
+                if (isEnabled(ProviderManagementGlobalProperties.GLOBAL_PROPERTY_ACTIVE_ASSIGNMENT_TABLE_ENABLED())) {
+                    log.info("Building active assignment table");
+                    service.rebuildActiveAssignments();
+                }
+            }
+            catch (Exception e) {
+                log.error("Unable to build active assignment table", e);
+            }
+        }
+        finally {
+            stopExecuting();
+        }
+    }
+
+    static boolean isEnabled(Boolean enabled) {
+        return enabled != null && enabled;
+    }
+
+    /**
+     * Schedules the task to run once, straight away
+     */
+    public static void scheduleNow() throws SchedulerException {
+        try {
+            Context.addProxyPrivilege(PrivilegeConstants.MANAGE_SCHEDULER);
+            SchedulerService schedulerService = Context.getSchedulerService();
+
+            TaskDefinition taskDefinition = schedulerService.getTaskByName(TASK_NAME);
+            if (taskDefinition == null) {
+                throw new APIException("Task " + TASK_NAME + " has not been registered");
+            }
+
+            schedulerService.scheduleTask(taskDefinition);
+        }
+        finally {
+            Context.removeProxyPrivilege(PrivilegeConstants.MANAGE_SCHEDULER);
+        }
+    }
+}
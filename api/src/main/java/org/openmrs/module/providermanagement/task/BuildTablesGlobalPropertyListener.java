@@ -0,0 +1,58 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.providermanagement.task;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.GlobalProperty;
+import org.openmrs.api.GlobalPropertyListener;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Listens for the global properties that enable the module's optional tables, and builds the tables in the background
+ * when one of them is turned on (while a table is turned off it isn't kept up to date, so it is rebuilt from scratch)
+ */
+public class BuildTablesGlobalPropertyListener implements GlobalPropertyListener {
+
+    private static final Log log = LogFactory.getLog(BuildTablesGlobalPropertyListener.class);
+
+    private static final Set<String> ENABLED_GLOBAL_PROPERTIES = new HashSet<String>(Arrays.asList(
+            "providermanagement.providerSearchTableEnabled", "providermanagement.caseloadSummaryEnabled",
+            "providermanagement.activeAssignmentTableEnabled"));
+
+    public boolean supportsPropertyName(String propertyName) {
+        return ENABLED_GLOBAL_PROPERTIES.contains(propertyName);
+    }
+
+    public void globalPropertyChanged(GlobalProperty newValue) {
+        if ("true".equalsIgnoreCase(StringUtils.trim(newValue.getPropertyValue()))) {
+            try {
+                BuildProviderManagementTablesTask.scheduleNow();
+            }
+            catch (Exception e) {
+                log.warn("Unable to schedule building of provider management tables after " + newValue.getProperty() + " was turned on", e);
+            }
+        }
+    }
+
+    public void globalPropertyDeleted(String propertyName) {
+        // nothing to build; the table simply stops being used and maintained
+    }
+}
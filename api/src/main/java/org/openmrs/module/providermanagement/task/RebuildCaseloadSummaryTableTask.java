@@ -0,0 +1,61 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.providermanagement.task;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.providermanagement.ProviderManagementGlobalProperties;
+import org.openmrs.module.providermanagement.api.ProviderManagementService;
+import org.openmrs.scheduler.tasks.AbstractTask;
+
+/**
+ * Scheduled task that verifies the caseload summary table against the relationship table, correcting any rows
+ * that don't match
+ *
+ * The table is kept up to date as relationships change, but patients also join and leave caseloads as relationship
+ * start and end dates pass, so this is scheduled (by the module's sqldiff) to run daily, shortly after midnight; the
+ * summary is only used once it has been rebuilt on the current day
+ */
+public class RebuildCaseloadSummaryTableTask extends AbstractTask {
+
+    private static final Log log = LogFactory.getLog(RebuildCaseloadSummaryTableTask.class);
+
+    @Override
+    public void execute() {
+
+        if (isExecuting()) {
+            return;
+        }
+
+        startExecuting();
+        try {
+            // the table isn't used while it is disabled, and is rebuilt when it is enabled
+            if (!BuildProviderManagementTablesTask.isEnabled(ProviderManagementGlobalProperties.GLOBAL_PROPERTY_CASELOAD_SUMMARY_ENABLED())) {
+                return;
+            }
+
+            log.info("Verifying caseload summary table");
+            int changes = Context.getService(ProviderManagementService.class).rebuildCaseloadSummaries();
+            log.info("Verified caseload summary table: " + changes + " rows corrected");
+        }
+        catch (Exception e) {
+            log.error("Unable to verify caseload summary table", e);
+        }
+        finally {
+            stopExecuting();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.providermanagement.task;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.providermanagement.ProviderManagementGlobalProperties;
+import org.openmrs.module.providermanagement.api.ProviderManagementService;
+import org.openmrs.scheduler.tasks.AbstractTask;
+
+/**
+ * Scheduled task that rebuilds the provider search table from scratch
+ *
+ * The table is kept up to date as providers, names and attributes change, so this only needs to be scheduled to
+ * pick up changes made directly in the database, or a change to the advanced search attribute type
+ */
+public class RebuildProviderSearchTableTask extends AbstractTask {
+
+    private static final Log log = LogFactory.getLog(RebuildProviderSearchTableTask.class);
+
+    @Override
+    public void execute() {
+
+        if (isExecuting()) {
+            return;
+        }
+
+        startExecuting();
+        try {
+            // the table isn't used while it is disabled, and is rebuilt when it is enabled
+            if (!BuildProviderManagementTablesTask.isEnabled(ProviderManagementGlobalProperties.GLOBAL_PROPERTY_PROVIDER_SEARCH_TABLE_ENABLED())) {
+                return;
+            }
+
+            log.info("Rebuilding provider search table");
+            Context.getService(ProviderManagementService.class).rebuildProviderSearchEntries();
+        }
+        catch (Exception e) {
+            log.error("Unable to rebuild provider search table", e);
+        }
+        finally {
+            stopExecuting();
+        }
+    }
+}
@@ -19,7 +19,11 @@ import org.junit.Test;
 import org.openmrs.Relationship;
 import org.openmrs.api.APIException;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
 
 public class ProviderManagementUtilsTest {
 
@@ -101,4 +105,35 @@ public class ProviderManagementUtilsTest {
         ProviderManagementUtils.isRelationshipActive(rel);
     }
 
+    @Test
+    public void shouldGetRelationshipsActiveOnEachDate() {
+
+        Relationship ongoing = new Relationship();
+        ongoing.setStartDate(FURTHER_PAST_DATE);
+
+        Relationship ended = new Relationship();
+        ended.setStartDate(PAST_DATE);
+        ended.setEndDate(DATE);
+
+        Relationship started = new Relationship();
+        started.setStartDate(DATE);
+
+        Map<Date, List<Relationship>> relationshipsByDate = ProviderManagementUtils.getRelationshipsActiveOnDates(
+                Arrays.asList(started, ended, ongoing), Arrays.asList(FUTURE_DATE, DATE, PAST_DATE, FURTHER_PAST_DATE, DATE));
+
+        // the dates are sorted, and duplicates removed
+        Assert.assertEquals(Arrays.asList(FURTHER_PAST_DATE, PAST_DATE, DATE, FUTURE_DATE), new ArrayList<Date>(relationshipsByDate.keySet()));
+
+        Assert.assertEquals(1, relationshipsByDate.get(FURTHER_PAST_DATE).size());
+        Assert.assertEquals(2, relationshipsByDate.get(PAST_DATE).size());
+        Assert.assertTrue(relationshipsByDate.get(PAST_DATE).contains(ended));
+
+        // as with PersonService.getRelationships, a relationship is still active on the date it ends
+        Assert.assertEquals(3, relationshipsByDate.get(DATE).size());
+        Assert.assertTrue(relationshipsByDate.get(DATE).contains(ended));
+        Assert.assertEquals(2, relationshipsByDate.get(FUTURE_DATE).size());
+        Assert.assertFalse(relationshipsByDate.get(FUTURE_DATE).contains(ended));
+        Assert.assertTrue(relationshipsByDate.get(FUTURE_DATE).contains(started));
+    }
+
 }
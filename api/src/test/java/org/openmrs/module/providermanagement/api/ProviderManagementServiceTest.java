@@ -14,14 +14,18 @@
 package org.openmrs.module.providermanagement.api;
 
 import org.hibernate.ObjectNotFoundException;
+import org.hibernate.SessionFactory;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.openmrs.GlobalProperty;
 import org.openmrs.Patient;
+import org.openmrs.PatientProgram;
 import org.openmrs.Person;
 import org.openmrs.PersonAddress;
 import org.openmrs.PersonAttribute;
 import org.openmrs.PersonAttributeType;
+import org.openmrs.PersonName;
 import org.openmrs.Provider;
 import org.openmrs.ProviderAttributeType;
 import org.openmrs.Relationship;
@@ -30,6 +34,17 @@ import org.openmrs.api.APIException;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.providermanagement.ProviderManagementUtils;
 import org.openmrs.module.providermanagement.ProviderRole;
+import org.openmrs.module.providermanagement.RelationshipSortOrder;
+import org.openmrs.module.providermanagement.SupervisionTreeNode;
+import org.openmrs.module.providermanagement.api.db.hibernate.HibernateProviderManagementDAO;
+import org.openmrs.module.providermanagement.api.impl.ProviderManagementServiceImpl;
+import org.openmrs.module.providermanagement.cache.PersonProviderCache;
+import org.openmrs.module.providermanagement.cache.ProviderNameIndex;
+import org.openmrs.module.providermanagement.cache.ProviderRoleCatalogCache;
+import org.openmrs.module.providermanagement.cache.ProviderSearchCache;
+import org.openmrs.module.providermanagement.caseload.CaseloadGranularity;
+import org.openmrs.module.providermanagement.caseload.CaseloadInterceptor;
+import org.openmrs.module.providermanagement.caseload.CaseloadTimeSeries;
 import org.openmrs.module.providermanagement.exception.DateCannotBeInFutureException;
 import org.openmrs.module.providermanagement.exception.InvalidRelationshipTypeException;
 import org.openmrs.module.providermanagement.exception.InvalidSupervisorException;
@@ -41,13 +56,25 @@ import org.openmrs.module.providermanagement.exception.ProviderDoesNotSupportRel
 import org.openmrs.module.providermanagement.exception.ProviderNotAssignedToSupervisorException;
 import org.openmrs.module.providermanagement.exception.ProviderRoleInUseException;
 import org.openmrs.module.providermanagement.exception.SourceProviderSameAsDestinationProviderException;
+import org.openmrs.module.providermanagement.search.AddressMatchMode;
+import org.openmrs.module.providermanagement.search.PersonSearchKeyInterceptor;
+import org.openmrs.module.providermanagement.search.ProviderSearchCriteria;
+import org.openmrs.module.providermanagement.search.ProviderSearchCursor;
+import org.openmrs.module.providermanagement.search.ProviderSearchResult;
+import org.openmrs.module.providermanagement.search.ProviderSearchRow;
+import org.openmrs.module.providermanagement.search.SimilarPeople;
 import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import static org.junit.Assert.assertNotNull;
@@ -215,6 +242,67 @@ public class  ProviderManagementServiceTest extends BaseModuleContextSensitiveTe
         providerManagementService.getProviderRolesBySuperviseeProviderRole(null);
     }
 
+    @Test
+    public void getProviderRolesBySuperviseeProviderRole_shouldReflectSuperviseeRolesAddedToSavedProviderRole() {
+        ProviderRole role = providerManagementService.getProviderRole(1004);
+        Assert.assertEquals(0, providerManagementService.getProviderRolesBySuperviseeProviderRole(role).size());
+
+        ProviderRole supervisorRole = providerManagementService.getProviderRole(1012);
+        supervisorRole.getSuperviseeProviderRoles().add(role);
+        providerManagementService.saveProviderRole(supervisorRole);
+
+        List<ProviderRole> providerRoles = providerManagementService.getProviderRolesBySuperviseeProviderRole(role);
+        Assert.assertEquals(1, providerRoles.size());
+        Assert.assertEquals(new Integer(1012), providerRoles.get(0).getId());
+    }
+
+    @Test
+    public void getProviderRolesBySuperviseeProviderRole_shouldExcludeProviderRolesRetiredAfterCatalogBuilt() {
+        ProviderRole role = providerManagementService.getProviderRole(1001);
+        Assert.assertEquals(5, providerManagementService.getProviderRolesBySuperviseeProviderRole(role).size());
+
+        providerManagementService.retireProviderRole(providerManagementService.getProviderRole(1003), "test");
+
+        List<ProviderRole> providerRoles = providerManagementService.getProviderRolesBySuperviseeProviderRole(role);
+        Assert.assertEquals(4, providerRoles.size());
+        Assert.assertFalse(providerRoles.contains(providerManagementService.getProviderRole(1003)));
+    }
+
+    @Test
+    public void refreshProviderRoleCatalog_shouldRebuildProviderRoleCatalog() {
+        providerManagementService.refreshProviderRoleCatalog();
+        Assert.assertEquals(5, providerManagementService.getProviderRolesByRelationshipType(Context.getPersonService().getRelationshipType(1002)).size());
+    }
+
+    @Test
+    public void refreshProviderRoleCatalog_shouldNotInstallCatalogIfProviderRolesChangeWhileItIsBeingBuilt() {
+
+        final ProviderRoleCatalogCache cache = new ProviderRoleCatalogCache();
+
+        // a dao that simulates a provider role being changed by another thread while the roles are being loaded
+        HibernateProviderManagementDAO dao = new HibernateProviderManagementDAO() {
+            @Override
+            public List<ProviderRole> getAllProviderRoles(boolean includeRetired) {
+                List<ProviderRole> providerRoles = super.getAllProviderRoles(includeRetired);
+                cache.invalidate();
+                return providerRoles;
+            }
+        };
+        dao.setSessionFactory(Context.getRegisteredComponents(SessionFactory.class).get(0));
+
+        ProviderManagementServiceImpl service = new ProviderManagementServiceImpl();
+        service.setDao(dao);
+        service.setProviderRoleCatalogCache(cache);
+
+        service.refreshProviderRoleCatalog();
+
+        // the catalog was built from roles loaded before the change, so it must not have been installed
+        Assert.assertNull(cache.getCatalog());
+
+        // but the next lookup still answers from the provider roles in the database
+        Assert.assertEquals(5, service.getProviderRolesByRelationshipType(Context.getPersonService().getRelationshipType(1002)).size());
+    }
+
     @Test
         public void saveProviderRole_shouldSaveBasicProviderRole() {
         ProviderRole role = new ProviderRole();
@@ -322,6 +410,67 @@ public class  ProviderManagementServiceTest extends BaseModuleContextSensitiveTe
         Assert.assertEquals(0, relationshipTypes.size());
     }
 
+    @Test
+    public void isProviderRelationshipType_shouldReturnTrueIfRelationshipTypeIsAssociatedWithAProviderRole() {
+        Assert.assertTrue(providerManagementService.isProviderRelationshipType(Context.getPersonService().getRelationshipType(1001), false));
+        Assert.assertTrue(providerManagementService.isProviderRelationshipType(Context.getPersonService().getRelationshipType(1003), true));
+    }
+
+    @Test
+    public void isProviderRelationshipType_shouldReturnFalseIfRelationshipTypeIsNotAssociatedWithAProviderRole() {
+        Assert.assertFalse(providerManagementService.isProviderRelationshipType(Context.getPersonService().getRelationshipType(1), true));
+    }
+
+    @Test
+    public void isProviderRelationshipType_shouldReturnFalseForRetiredRelationshipTypeIfIncludeRetiredIsFalse() {
+        RelationshipType relationshipType = Context.getPersonService().getRelationshipType(1003);
+        Context.getPersonService().retireRelationshipType(relationshipType, "test");
+
+        Assert.assertFalse(providerManagementService.isProviderRelationshipType(relationshipType, false));
+        Assert.assertTrue(providerManagementService.isProviderRelationshipType(relationshipType, true));
+    }
+
+    @Test
+    public void isProviderRelationshipType_shouldReturnFalseIfOnlyProviderRoleSupportingRelationshipTypeIsRetired() {
+        RelationshipType relationshipType = Context.getPersonService().getRelationshipType(1003);
+        providerManagementService.retireProviderRole(providerManagementService.getProviderRole(1012), "test");
+
+        Assert.assertFalse(providerManagementService.isProviderRelationshipType(relationshipType, false));
+        Assert.assertTrue(providerManagementService.isProviderRelationshipType(relationshipType, true));
+    }
+
+    @Test
+    public void getProviderRolesByPersonIds_shouldGetProviderRolesForAllPersons() {
+        Map<Integer, Set<ProviderRole>> roles = providerManagementService.getProviderRolesByPersonIds(Arrays.asList(2, 8, 502));
+
+        Assert.assertEquals(3, roles.size());
+        Assert.assertEquals(2, roles.get(2).size());
+        Assert.assertTrue(roles.get(2).contains(providerManagementService.getProviderRole(1001)));
+        Assert.assertTrue(roles.get(2).contains(providerManagementService.getProviderRole(1005)));
+        Assert.assertEquals(1, roles.get(8).size());
+        Assert.assertTrue(roles.get(8).contains(providerManagementService.getProviderRole(1002)));
+    }
+
+    @Test
+    public void getProviderRolesByPersonIds_shouldReturnEmptySetForPersonThatIsNotAProvider() {
+        Map<Integer, Set<ProviderRole>> roles = providerManagementService.getProviderRolesByPersonIds(Arrays.asList(502));
+        Assert.assertEquals(0, roles.get(502).size());
+    }
+
+    @Test
+    public void filterProviders_shouldReturnIdsOfPersonsThatAreProviders() {
+        List<Person> persons = new ArrayList<Person>();
+        persons.add(Context.getPersonService().getPerson(2));
+        persons.add(Context.getPersonService().getPerson(8));
+        persons.add(Context.getPersonService().getPerson(502));
+
+        Set<Integer> providerIds = providerManagementService.filterProviders(persons);
+
+        Assert.assertEquals(2, providerIds.size());
+        Assert.assertTrue(providerIds.contains(2));
+        Assert.assertTrue(providerIds.contains(8));
+    }
+
     @Test
     public void getProviderRoles_shouldGetProviderRoles() {
         Person provider = Context.getPersonService().getPerson(2);
@@ -363,6 +512,19 @@ public class  ProviderManagementServiceTest extends BaseModuleContextSensitiveTe
         Assert.assertEquals(new Integer(1005), roles.get(0).getId());
     }
 
+    @Test
+    public void getProviderRoles_shouldIgnoreProviderRetiredAfterRolesCached() {
+        Person provider = Context.getPersonService().getPerson(2);
+        Assert.assertEquals(2, providerManagementService.getProviderRoles(provider).size());
+
+        // retire one provider object associated with this person, without flushing the session
+        Context.getProviderService().retireProvider(Context.getProviderService().getProvider(1003), "test");
+
+        List<ProviderRole> roles = providerManagementService.getProviderRoles(provider);
+        Assert.assertEquals(1, roles.size());
+        Assert.assertEquals(new Integer(1005), roles.get(0).getId());
+    }
+
     @Test
     public void assignProviderRoleToPerson_shouldAssignProviderRole() {
         // add a new role to the existing provider
@@ -762,6 +924,28 @@ public class  ProviderManagementServiceTest extends BaseModuleContextSensitiveTe
         Assert.assertTrue(providerManagementService.isProvider(Context.getPersonService().getPerson(2)));
     }
 
+    @Test
+    public void isProvider_shouldReturnTrueForProviderWithNoRole() {
+        Person provider = Context.getProviderService().getProvider(1002).getPerson();
+        Assert.assertTrue(providerManagementService.isProvider(provider));
+        Assert.assertTrue(providerManagementService.isProvider(provider));
+    }
+
+    @Test
+    public void isProvider_shouldServeRepeatedLookupsFromCache() {
+        PersonProviderCache cache = Context.getRegisteredComponents(PersonProviderCache.class).get(0);
+        cache.invalidateAll();
+        long hits = cache.getHits();
+
+        Person person = Context.getPersonService().getPerson(2);
+        Assert.assertTrue(providerManagementService.isProvider(person));
+        Assert.assertTrue(providerManagementService.isProvider(person));
+        Assert.assertFalse(providerManagementService.isProvider(Context.getPersonService().getPerson(502)));
+        Assert.assertFalse(providerManagementService.isProvider(Context.getPersonService().getPerson(502)));
+
+        Assert.assertEquals(hits + 2, cache.getHits());
+    }
+
     @Test(expected = APIException.class)
     public void isProvider_shouldFailIfPersonNull() {
         providerManagementService.isProvider(null);
@@ -1421,198 +1605,790 @@ public class  ProviderManagementServiceTest extends BaseModuleContextSensitiveTe
         Assert.assertEquals(1, providerManagementService.getPatientsOfProviderCount(provider, relationshipType, DATE));
     }
 
-
     @Test
-    public void getProviderRelationships_shouldReturnAllRelationshipsForPatient() throws Exception {
-        
-        Patient patient = Context.getPatientService().getPatient(2);
-        Person provider1 = Context.getPersonService().getPerson(6);
-        Person provider2 = Context.getPersonService().getPerson(8);
-        
-        RelationshipType binome = Context.getPersonService().getRelationshipType(1001);
-        RelationshipType acc = Context.getPersonService().getRelationshipType(1002);
-        
-        // assign these two providers to this patient
-        providerManagementService.assignPatientToProvider(patient, provider1, binome);
-        providerManagementService.assignPatientToProvider(patient, provider2, acc);
-        
-        // now confirm that these two relationships are returned when we call getProviderRelationshipsForPatient
-        List<Relationship> relationships = providerManagementService.getProviderRelationshipsForPatient(patient, null, null, new Date());
-
-        // there should be two relationships
-        Assert.assertEquals(2, relationships.size());
+    public void getPatientsOfProviderCount_shouldIgnoreVoidedPatients() throws Exception {
 
-        // double-check to make sure the are the correct relationships
-        // be iterating through and removing the two that SHOULD be there
-        Iterator<Relationship> i = relationships.iterator();
+        Person provider = Context.getProviderService().getProvider(1004).getPerson();
+        RelationshipType relationshipType = Context.getPersonService().getRelationshipType(1001);
 
-        while (i.hasNext()) {
-            Relationship r = i.next();
-            int provider = r.getPersonA().getId();
-            int relationshipType = r.getRelationshipType().getId();
+        providerManagementService.assignPatientToProvider(Context.getPatientService().getPatient(2), provider, relationshipType, DATE);
+        providerManagementService.assignPatientToProvider(Context.getPatientService().getPatient(8), provider, relationshipType, DATE);
 
-            if ( (provider == 6 && relationshipType == 1001) || (provider == 8 && relationshipType == 1002)) {
-                i.remove();
-            }
-        }
+        // now void one of the patients
+        Context.getPatientService().voidPatient(Context.getPatientService().getPatient(2), "test");
 
-        // list should now be empty
-        Assert.assertEquals(0, relationships.size());
-        
+        Assert.assertEquals(1, providerManagementService.getPatientsOfProviderCount(provider, relationshipType, DATE));
     }
 
     @Test
-    public void getProviderRelationships_shouldReturnRelationshipWithSpecifiedProvider() throws Exception {
-
-        Patient patient = Context.getPatientService().getPatient(2);
-        Person provider1 = Context.getPersonService().getPerson(6);
-        Person provider2 = Context.getPersonService().getPerson(8);
+    public void getPatientsOfProviderCount_shouldCountPatientsOfAllProviderRelationshipTypesIfTypeNull() throws Exception {
 
-        RelationshipType binome = Context.getPersonService().getRelationshipType(1001);
-        RelationshipType acc = Context.getPersonService().getRelationshipType(1002);
+        Person provider = Context.getProviderService().getProvider(1004).getPerson();
 
-        // assign these two providers to this patient
-        providerManagementService.assignPatientToProvider(patient, provider1, binome);
-        providerManagementService.assignPatientToProvider(patient, provider2, acc);
+        providerManagementService.assignPatientToProvider(Context.getPatientService().getPatient(2), provider, Context.getPersonService().getRelationshipType(1001), DATE);
+        providerManagementService.assignPatientToProvider(Context.getPatientService().getPatient(8), provider, Context.getPersonService().getRelationshipType(1002), DATE);
 
-        // now fetch only relationships with a specific provider
-        List<Relationship> relationships = providerManagementService.getProviderRelationshipsForPatient(patient, provider1, null, new Date());
+        // the same patient via a second relationship type is only counted once
+        providerManagementService.assignPatientToProvider(Context.getPatientService().getPatient(8), provider, Context.getPersonService().getRelationshipType(1001), DATE);
 
-        // there should be one relationship
-        Assert.assertEquals(1, relationships.size());
-        Assert.assertEquals(new Integer(6), relationships.get(0).getPersonA().getId());
-        Assert.assertEquals(new Integer(1001), relationships.get(0).getRelationshipType().getId());
+        Assert.assertEquals(2, providerManagementService.getPatientsOfProviderCount(provider, null, DATE));
     }
 
     @Test
-    public void getProviderRelationships_shouldReturnRelationshipWithSpecifiedRelationshipType() throws Exception {
-
-        Patient patient = Context.getPatientService().getPatient(2);
-        Person provider1 = Context.getPersonService().getPerson(6);
-        Person provider2 = Context.getPersonService().getPerson(8);
+    public void getCaseloadCounts_shouldGetCaseloadCountsOfAllProviders() throws Exception {
 
+        Person provider = Context.getProviderService().getProvider(1004).getPerson();
+        Person otherProvider = Context.getProviderService().getProvider(1005).getPerson();
         RelationshipType binome = Context.getPersonService().getRelationshipType(1001);
-        RelationshipType acc = Context.getPersonService().getRelationshipType(1002);
+        RelationshipType accompagnateur = Context.getPersonService().getRelationshipType(1002);
 
-        // assign these two providers to this patient
-        providerManagementService.assignPatientToProvider(patient, provider1, binome);
-        providerManagementService.assignPatientToProvider(patient, provider2, acc);
+        providerManagementService.assignPatientToProvider(Context.getPatientService().getPatient(2), provider, binome, PAST_DATE);
+        providerManagementService.assignPatientToProvider(Context.getPatientService().getPatient(8), provider, binome, DATE);
+        providerManagementService.assignPatientToProvider(Context.getPatientService().getPatient(8), provider, accompagnateur, DATE);
 
-        // now fetch only relationships with a specific relationship type
-        List<Relationship> relationships = providerManagementService.getProviderRelationshipsForPatient(patient, null, acc, new Date());
+        Map<Integer, Map<RelationshipType, Integer>> counts = providerManagementService.getCaseloadCounts(Arrays.asList(provider, otherProvider), DATE);
+        Assert.assertEquals(2, counts.size());
+        Assert.assertEquals(new Integer(2), counts.get(provider.getPersonId()).get(binome));
+        Assert.assertEquals(new Integer(1), counts.get(provider.getPersonId()).get(accompagnateur));
 
-        // there should be one relationship
-        Assert.assertEquals(1, relationships.size());
-        Assert.assertEquals(new Integer(8), relationships.get(0).getPersonA().getId());
-        Assert.assertEquals(new Integer(1002), relationships.get(0).getRelationshipType().getId());
+        // each count should match the count for the provider and relationship type on its own
+        for (Map.Entry<RelationshipType, Integer> count : counts.get(otherProvider.getPersonId()).entrySet()) {
+            Assert.assertEquals(providerManagementService.getPatientsOfProviderCount(otherProvider, count.getKey(), DATE), count.getValue().intValue());
+        }
+
+        counts = providerManagementService.getCaseloadCounts(Arrays.asList(provider), PAST_DATE);
+        Assert.assertEquals(new Integer(1), counts.get(provider.getPersonId()).get(binome));
+        Assert.assertNull(counts.get(provider.getPersonId()).get(accompagnateur));
     }
 
     @Test
-     public void getProviderRelationships_shouldReturnRelationshipWithSpecifiedProviderAndRelationshipType() throws Exception {
+    public void getCaseloadCounts_shouldIgnoreVoidedPatients() throws Exception {
 
-        Patient patient = Context.getPatientService().getPatient(2);
-        Person provider1 = Context.getPersonService().getPerson(6);
-        Person provider2 = Context.getPersonService().getPerson(8);
+        Person provider = Context.getProviderService().getProvider(1004).getPerson();
+        RelationshipType relationshipType = Context.getPersonService().getRelationshipType(1001);
+
+        providerManagementService.assignPatientToProvider(Context.getPatientService().getPatient(2), provider, relationshipType, DATE);
+        providerManagementService.assignPatientToProvider(Context.getPatientService().getPatient(8), provider, relationshipType, DATE);
+        Context.getPatientService().voidPatient(Context.getPatientService().getPatient(2), "test");
+
+        Assert.assertEquals(new Integer(1), providerManagementService.getCaseloadCounts(Arrays.asList(provider), DATE).get(provider.getPersonId()).get(relationshipType));
+    }
+
+    @Test
+    public void getCaseloadCounts_shouldReturnEmptyMapIfNoProviders() throws Exception {
+        Assert.assertTrue(providerManagementService.getCaseloadCounts(new ArrayList<Person>(), DATE).isEmpty());
+    }
+
+    @Test
+    public void getCaseloadSizes_shouldCountEachPatientOnceHoweverManyRelationshipTypesLinkThemToTheProvider() throws Exception {
 
+        Person provider = Context.getProviderService().getProvider(1004).getPerson();
+        Person otherProvider = Context.getProviderService().getProvider(1005).getPerson();
         RelationshipType binome = Context.getPersonService().getRelationshipType(1001);
-        RelationshipType acc = Context.getPersonService().getRelationshipType(1002);
+        RelationshipType accompagnateur = Context.getPersonService().getRelationshipType(1002);
 
-        // assign these two providers to this patient
-        providerManagementService.assignPatientToProvider(patient, provider1, binome);
-        providerManagementService.assignPatientToProvider(patient, provider2, acc);
+        providerManagementService.assignPatientToProvider(Context.getPatientService().getPatient(2), provider, binome, DATE);
+        providerManagementService.assignPatientToProvider(Context.getPatientService().getPatient(8), provider, binome, DATE);
+        providerManagementService.assignPatientToProvider(Context.getPatientService().getPatient(8), provider, accompagnateur, DATE);
 
-        // now fetch only relationships with a specific provider type
-        List<Relationship> relationships = providerManagementService.getProviderRelationshipsForPatient(patient, provider2, acc, new Date());
+        Map<Integer, Integer> sizes = providerManagementService.getCaseloadSizes(Arrays.asList(provider, otherProvider), DATE);
+        Assert.assertEquals(2, sizes.size());
+        Assert.assertEquals(new Integer(2), sizes.get(provider.getPersonId()));
+        Assert.assertEquals(new Integer(providerManagementService.getPatientsOfProvider(otherProvider, null, DATE).size()), sizes.get(otherProvider.getPersonId()));
 
-        // there should be one relationship
-        Assert.assertEquals(1, relationships.size());
-        Assert.assertEquals(new Integer(8), relationships.get(0).getPersonA().getId());
-        Assert.assertEquals(new Integer(1002), relationships.get(0).getRelationshipType().getId());
+        // the active assignment table should give the same answer
+        Context.getAdministrationService().saveGlobalProperty(new GlobalProperty("providermanagement.activeAssignmentTableEnabled", "true"));
+        providerManagementService.rebuildActiveAssignments();
+        Assert.assertEquals(new Integer(2), providerManagementService.getCaseloadSizes(Arrays.asList(provider), DATE).get(provider.getPersonId()));
     }
 
     @Test
-    public void getProviderRelationships_shouldReturnEmptyListIfPatientHasNoProviderRelationships() throws Exception {
-        Patient patient = Context.getPatientService().getPatient(2);
-        List<Relationship> relationships = providerManagementService.getProviderRelationshipsForPatient(patient, null, null, new Date());
-        Assert.assertEquals(0, relationships.size());
+    public void getCaseloadSizes_shouldReturnEmptyMapIfNoProviders() throws Exception {
+        Assert.assertTrue(providerManagementService.getCaseloadSizes(new ArrayList<Person>(), DATE).isEmpty());
     }
 
-    @Test(expected = APIException.class)
-    public void getProviderRelationships_shouldFailIfPatientNull() throws Exception {
-        List<Relationship> relationships = providerManagementService.getProviderRelationshipsForPatient(null, null, null);
-    }
+    @Test
+    public void getPatientsOfProviderCount_shouldReadCountFromCaseloadSummaryIfEnabled() throws Exception {
 
-    @Test(expected = PersonIsNotProviderException.class)
-    public void getProviderRelationships_shouldFailIfPersonIsNotProvider() throws Exception {
-        Patient patient = Context.getPatientService().getPatient(2);
-        Person person = Context.getPersonService().getPerson(502);
-        List<Relationship> relationships = providerManagementService.getProviderRelationshipsForPatient(patient, person, null);
-    }
+        Person provider = Context.getProviderService().getProvider(1004).getPerson();
+        RelationshipType relationshipType = Context.getPersonService().getRelationshipType(1001);
+        Context.getAdministrationService().saveGlobalProperty(new GlobalProperty("providermanagement.caseloadSummaryEnabled", "true"));
+        providerManagementService.rebuildCaseloadSummaries();
 
-    @Test(expected = InvalidRelationshipTypeException.class)
-    public void getProviderRelationships_shouldFailIfRelationshipIsNotProviderRelationship() throws Exception {
-        Patient patient = Context.getPatientService().getPatient(2);
-        RelationshipType relationshipType = Context.getPersonService().getRelationshipType(1);
-        List<Relationship> relationships = providerManagementService.getProviderRelationshipsForPatient(patient, null, relationshipType);
+        // the summary is only updated when the transaction commits, which it never does in a test
+        providerManagementService.assignPatientToProvider(Context.getPatientService().getPatient(2), provider, relationshipType, DATE);
+        Assert.assertEquals(0, providerManagementService.getPatientsOfProviderCount(provider, relationshipType, DATE));
+
+        providerManagementService.updateCaseloadSummaries(Collections.singleton(provider.getPersonId()));
+        Assert.assertEquals(1, providerManagementService.getPatientsOfProviderCount(provider, relationshipType, DATE));
+        Assert.assertEquals(new Integer(1), providerManagementService.getCaseloadCounts(Arrays.asList(provider), DATE).get(provider.getPersonId()).get(relationshipType));
+
+        // counts at any other time are not held in the summary
+        Assert.assertEquals(0, providerManagementService.getPatientsOfProviderCount(provider, relationshipType, PAST_DATE));
     }
 
     @Test
-    public void getProviderRelationships_shouldIgnoreNonProviderRelationships() throws Exception {
+    public void getPatientsOfProviderCount_shouldNotReadCountFromCaseloadSummaryExceptAtStartOfCurrentDay() throws Exception {
 
-        Patient patient = Context.getPatientService().getPatient(2);
-        Person provider1 = Context.getPersonService().getPerson(6);
-        Person provider2 = Context.getPersonService().getPerson(8);
+        Person provider = Context.getProviderService().getProvider(1004).getPerson();
+        RelationshipType relationshipType = Context.getPersonService().getRelationshipType(1001);
+        Context.getAdministrationService().saveGlobalProperty(new GlobalProperty("providermanagement.caseloadSummaryEnabled", "true"));
 
-        RelationshipType binome = Context.getPersonService().getRelationshipType(1001);
-        RelationshipType acc = Context.getPersonService().getRelationshipType(1002);
+        // a relationship that ends today is still counted as of the start of today, but not later in the day
+        providerManagementService.assignPatientToProvider(Context.getPatientService().getPatient(2), provider, relationshipType, PAST_DATE);
+        providerManagementService.unassignPatientFromProvider(Context.getPatientService().getPatient(2), provider, relationshipType, DATE);
+        providerManagementService.rebuildCaseloadSummaries();
 
-        // assign these two providers to this patient
-        providerManagementService.assignPatientToProvider(patient, provider1, binome);
-        providerManagementService.assignPatientToProvider(patient, provider2, acc);
+        Assert.assertEquals(1, providerManagementService.getPatientsOfProviderCount(provider, relationshipType, DATE));
+        Assert.assertEquals(0, providerManagementService.getPatientsOfProviderCount(provider, relationshipType, new Date(DATE.getTime() + 1000)));
+    }
 
-        // set up a non-provider relationship (so we can test that getProviderRelationshipsForPatient ignore it)
-        Relationship relationship = new Relationship();
-        relationship.setPersonA(provider1);
-        relationship.setPersonB(patient);
-        relationship.setRelationshipType(Context.getPersonService().getRelationshipType(1));
-        
-        // now confirm that these two relationships are returned when we call getProviderRelationshipsForPatient
-        List<Relationship> relationships = providerManagementService.getProviderRelationshipsForPatient(patient, null, null, new Date());
+    @Test
+    public void getPatientsOfProviderCount_shouldNotReadCountFromCaseloadSummaryUntilItHasBeenRebuilt() throws Exception {
 
-        // there should be two relationships
-        Assert.assertEquals(2, relationships.size());
+        Person provider = Context.getProviderService().getProvider(1004).getPerson();
+        RelationshipType relationshipType = Context.getPersonService().getRelationshipType(1001);
+        Context.getAdministrationService().saveGlobalProperty(new GlobalProperty("providermanagement.caseloadSummaryEnabled", "true"));
 
-        // double-check to make sure the are the correct relationships
-        // be iterating through and removing the two that SHOULD be there
-        Iterator<Relationship> i = relationships.iterator();
+        providerManagementService.assignPatientToProvider(Context.getPatientService().getPatient(2), provider, relationshipType, DATE);
+        Assert.assertEquals(1, providerManagementService.getPatientsOfProviderCount(provider, relationshipType, DATE));
+    }
 
-        while (i.hasNext()) {
-            Relationship r = i.next();
-            int provider = r.getPersonA().getId();
-            int relationshipType = r.getRelationshipType().getId();
+    @Test
+    public void caseloadInterceptor_shouldUpdateCaseloadSummariesWhenTransactionCompletes() throws Exception {
 
-            if ( (provider == 6 && relationshipType == 1001) || (provider == 8 && relationshipType == 1002)) {
-                i.remove();
-            }
-        }
+        Person provider = Context.getProviderService().getProvider(1004).getPerson();
+        RelationshipType relationshipType = Context.getPersonService().getRelationshipType(1001);
+        Context.getAdministrationService().saveGlobalProperty(new GlobalProperty("providermanagement.caseloadSummaryEnabled", "true"));
+        providerManagementService.rebuildCaseloadSummaries();
+
+        providerManagementService.assignPatientToProvider(Context.getPatientService().getPatient(2), provider, relationshipType, PAST_DATE);
+        providerManagementService.assignPatientToProvider(Context.getPatientService().getPatient(8), provider, relationshipType, PAST_DATE);
+
+        // as on commit: hibernate flushes the session, and then tells the interceptors the transaction is completing
+        CaseloadInterceptor interceptor = Context.getRegisteredComponents(CaseloadInterceptor.class).get(0);
+        Context.flushSession();
+        Assert.assertEquals(0, providerManagementService.getPatientsOfProviderCount(provider, relationshipType, DATE));
+        interceptor.beforeTransactionCompletion(null);
+        Assert.assertEquals(2, providerManagementService.getPatientsOfProviderCount(provider, relationshipType, DATE));
+
+        // ending a relationship, and voiding a patient, are only flushed by the commit itself
+        Date yesterday = ProviderManagementUtils.clearTimeComponent(new Date(DATE.getTime() - 86400000L));
+        providerManagementService.unassignPatientFromProvider(Context.getPatientService().getPatient(2), provider, relationshipType, yesterday);
+        Context.flushSession();
+        interceptor.beforeTransactionCompletion(null);
+        Assert.assertEquals(1, providerManagementService.getPatientsOfProviderCount(provider, relationshipType, DATE));
 
-        // list should now be empty
-        Assert.assertEquals(0, relationships.size());
+        Context.getPatientService().voidPatient(Context.getPatientService().getPatient(8), "test");
+        Context.flushSession();
+        interceptor.beforeTransactionCompletion(null);
+        Assert.assertEquals(0, providerManagementService.getPatientsOfProviderCount(provider, relationshipType, DATE));
     }
 
     @Test
-    public void getProviderRelationships_shouldReturnRelationshipsOnSpecifiedDate() throws Exception {
+    public void updateCaseloadSummaries_shouldUpdateCaseloadSummariesOfProvidersAndOfTheProvidersOfPatients() throws Exception {
 
-        Patient patient = Context.getPatientService().getPatient(2);
-        Person provider1 = Context.getPersonService().getPerson(6);
-        Person provider2 = Context.getPersonService().getPerson(8);
+        Person provider = Context.getProviderService().getProvider(1004).getPerson();
+        RelationshipType relationshipType = Context.getPersonService().getRelationshipType(1001);
+        Context.getAdministrationService().saveGlobalProperty(new GlobalProperty("providermanagement.caseloadSummaryEnabled", "true"));
+        providerManagementService.rebuildCaseloadSummaries();
 
-        RelationshipType binome = Context.getPersonService().getRelationshipType(1001);
-        RelationshipType acc = Context.getPersonService().getRelationshipType(1002);
+        providerManagementService.assignPatientToProvider(Context.getPatientService().getPatient(2), provider, relationshipType, DATE);
+        providerManagementService.assignPatientToProvider(Context.getPatientService().getPatient(8), provider, relationshipType, DATE);
+        providerManagementService.updateCaseloadSummaries(Collections.singleton(provider.getPersonId()));
+        Assert.assertEquals(2, providerManagementService.getPatientsOfProviderCount(provider, relationshipType, DATE));
 
-        // assign these two providers to this patient--but one in the past, and one in the present
-        providerManagementService.assignPatientToProvider(patient, provider1, binome, PAST_DATE);
-        providerManagementService.assignPatientToProvider(patient, provider2, acc, DATE);
+        // voiding a patient changes the count of their providers
+        Context.getPatientService().voidPatient(Context.getPatientService().getPatient(8), "test");
+        providerManagementService.updateCaseloadSummaries(Collections.singleton(8));
+        Assert.assertEquals(1, providerManagementService.getPatientsOfProviderCount(provider, relationshipType, DATE));
+    }
+
+    @Test
+    public void rebuildCaseloadSummaries_shouldCorrectCaseloadSummariesThatDoNotMatchRelationships() throws Exception {
+
+        Person provider = Context.getProviderService().getProvider(1004).getPerson();
+        RelationshipType relationshipType = Context.getPersonService().getRelationshipType(1001);
+        Context.getAdministrationService().saveGlobalProperty(new GlobalProperty("providermanagement.caseloadSummaryEnabled", "true"));
+
+        providerManagementService.assignPatientToProvider(Context.getPatientService().getPatient(2), provider, relationshipType, PAST_DATE);
+        providerManagementService.assignPatientToProvider(Context.getPatientService().getPatient(8), provider, relationshipType, PAST_DATE);
+
+        Assert.assertTrue(providerManagementService.rebuildCaseloadSummaries() > 0);
+        Assert.assertTrue(providerManagementService.hasCaseloadSummaries());
+        Assert.assertEquals(2, providerManagementService.getPatientsOfProviderCount(provider, relationshipType, DATE));
+
+        // once rebuilt, there is nothing left to correct
+        Assert.assertEquals(0, providerManagementService.rebuildCaseloadSummaries());
+
+        // (a relationship is still active on the date it ends, so end it yesterday)
+        Date yesterday = ProviderManagementUtils.clearTimeComponent(new Date(DATE.getTime() - 86400000L));
+        providerManagementService.unassignPatientFromProvider(Context.getPatientService().getPatient(8), provider, relationshipType, yesterday);
+        Assert.assertEquals(1, providerManagementService.rebuildCaseloadSummaries());
+        Assert.assertEquals(1, providerManagementService.getPatientsOfProviderCount(provider, relationshipType, DATE));
+    }
+
+    @Test
+    public void getCaseloadTimeSeries_shouldGetDailyCaseloadCountsOfProviders() throws Exception {
+
+        Person provider = Context.getProviderService().getProvider(1004).getPerson();
+        Person otherProvider = Context.getProviderService().getProvider(1005).getPerson();
+        RelationshipType relationshipType = Context.getPersonService().getRelationshipType(1001);
+        Date threeDaysAgo = ProviderManagementUtils.clearTimeComponent(new Date(DATE.getTime() - 3 * 86400000L));
+
+        providerManagementService.assignPatientToProvider(Context.getPatientService().getPatient(2), provider, relationshipType, threeDaysAgo);
+        providerManagementService.assignPatientToProvider(Context.getPatientService().getPatient(8), provider, relationshipType, DATE);
+
+        CaseloadTimeSeries series = providerManagementService.getCaseloadTimeSeries(Arrays.asList(provider, otherProvider), relationshipType,
+                threeDaysAgo, new Date(), CaseloadGranularity.DAY);
+
+        Assert.assertEquals(4, series.getDates().size());
+        Assert.assertEquals(DATE, series.getDates().get(3));
+        Assert.assertTrue(Arrays.equals(new int[] { 1, 1, 1, 2 }, series.getCounts(provider.getPersonId())));
+        Assert.assertTrue(Arrays.equals(new int[] { 0, 0, 0, 0 }, series.getCounts(otherProvider.getPersonId())));
+    }
+
+    @Test
+    public void getCaseloadTimeSeries_shouldCountPatientsLinkedByMoreThanOneRelationshipOnce() throws Exception {
+
+        Person provider = Context.getProviderService().getProvider(1004).getPerson();
+        Patient patient = Context.getPatientService().getPatient(2);
+
+        providerManagementService.assignPatientToProvider(patient, provider, Context.getPersonService().getRelationshipType(1001), PAST_DATE);
+        providerManagementService.assignPatientToProvider(patient, provider, Context.getPersonService().getRelationshipType(1002), DATE);
+
+        CaseloadTimeSeries series = providerManagementService.getCaseloadTimeSeries(Collections.singleton(provider), null,
+                FURTHER_PAST_DATE, DATE, CaseloadGranularity.MONTH);
+
+        int[] counts = series.getCounts(provider.getPersonId());
+        Assert.assertEquals(series.getDates().size(), counts.length);
+        Assert.assertEquals(0, counts[0]);
+        Assert.assertEquals(1, counts[counts.length - 1]);
+    }
+
+    @Test(expected = APIException.class)
+    public void getCaseloadTimeSeries_shouldFailIfFromDateAfterToDate() throws Exception {
+        Person provider = Context.getProviderService().getProvider(1004).getPerson();
+        providerManagementService.getCaseloadTimeSeries(Collections.singleton(provider), null, DATE, PAST_DATE, CaseloadGranularity.DAY);
+    }
+
+    @Test
+    public void getPatientsOfProviderOnDates_shouldGetPatientsOfProviderOnEachDate() throws Exception {
+
+        Person provider = Context.getProviderService().getProvider(1004).getPerson();
+        RelationshipType relationshipType = Context.getPersonService().getRelationshipType(1001);
+        Patient patient = Context.getPatientService().getPatient(2);
+        Patient otherPatient = Context.getPatientService().getPatient(8);
+
+        providerManagementService.assignPatientToProvider(patient, provider, relationshipType, PAST_DATE);
+        providerManagementService.unassignPatientFromProvider(patient, provider, relationshipType, DATE);
+        providerManagementService.assignPatientToProvider(otherPatient, provider, relationshipType, DATE);
+
+        Map<Date, List<Patient>> patientsByDate = providerManagementService.getPatientsOfProviderOnDates(provider, relationshipType,
+                Arrays.asList(DATE, FURTHER_PAST_DATE, PAST_DATE));
+
+        Assert.assertEquals(Arrays.asList(FURTHER_PAST_DATE, PAST_DATE, DATE), new ArrayList<Date>(patientsByDate.keySet()));
+        Assert.assertEquals(0, patientsByDate.get(FURTHER_PAST_DATE).size());
+        Assert.assertEquals(Collections.singletonList(patient), patientsByDate.get(PAST_DATE));
+
+        // the patient is still a patient of the provider on the date they are unassigned
+        Assert.assertEquals(2, patientsByDate.get(DATE).size());
+        Assert.assertTrue(patientsByDate.get(DATE).contains(patient));
+        Assert.assertTrue(patientsByDate.get(DATE).contains(otherPatient));
+        Assert.assertEquals(Collections.singletonList(otherPatient),
+                providerManagementService.getPatientsOfProviderOnDates(provider, relationshipType, Collections.singleton(FUTURE_DATE)).get(FUTURE_DATE));
+    }
+
+    @Test(expected = APIException.class)
+    public void getPatientsOfProviderOnDates_shouldFailIfDatesNull() throws Exception {
+        Person provider = Context.getProviderService().getProvider(1004).getPerson();
+        providerManagementService.getPatientsOfProviderOnDates(provider, null, null);
+    }
+
+    @Test
+    public void getPatientsByIds_shouldGetPatientsByIds() throws Exception {
+
+        // one patient per batch
+        Context.getAdministrationService().saveGlobalProperty(new GlobalProperty("providermanagement.patientBatchSize", "1"));
+
+        Map<Integer, Patient> patientsById = providerManagementService.getPatientsByIds(Arrays.asList(2, 8, 99999));
+
+        Assert.assertEquals(2, patientsById.size());
+        Assert.assertEquals(Context.getPatientService().getPatient(2), patientsById.get(2));
+        Assert.assertEquals(Context.getPatientService().getPatient(8), patientsById.get(8));
+    }
+
+    @Test
+    public void getPatientProgramsByPatientIds_shouldGetPatientProgramsByPatientIds() throws Exception {
+
+        Context.getAdministrationService().saveGlobalProperty(new GlobalProperty("providermanagement.patientBatchSize", "1"));
+
+        Map<Integer, List<PatientProgram>> patientPrograms = providerManagementService.getPatientProgramsByPatientIds(Arrays.asList(2, 8));
+
+        Assert.assertEquals(2, patientPrograms.size());
+        for (Integer patientId : Arrays.asList(2, 8)) {
+            List<PatientProgram> expected = Context.getProgramWorkflowService().getPatientPrograms(Context.getPatientService().getPatient(patientId),
+                    null, null, null, null, null, false);
+            Assert.assertEquals(new HashSet<PatientProgram>(expected), new HashSet<PatientProgram>(patientPrograms.get(patientId)));
+        }
+    }
+
+    @Test
+    public void getPatientsOfProvider_shouldGetPatientsOfProviderInBatches() throws Exception {
+
+        Context.getAdministrationService().saveGlobalProperty(new GlobalProperty("providermanagement.patientBatchSize", "1"));
+
+        Person provider = Context.getProviderService().getProvider(1004).getPerson();
+        RelationshipType relationshipType = Context.getPersonService().getRelationshipType(1001);
+        Patient patient = Context.getPatientService().getPatient(2);
+        Patient otherPatient = Context.getPatientService().getPatient(8);
+
+        providerManagementService.assignPatientToProvider(patient, provider, relationshipType, PAST_DATE);
+        providerManagementService.assignPatientToProvider(otherPatient, provider, relationshipType, PAST_DATE);
+
+        List<Patient> patients = providerManagementService.getPatientsOfProvider(provider, relationshipType, DATE);
+
+        Assert.assertEquals(2, patients.size());
+        Assert.assertTrue(patients.contains(patient));
+        Assert.assertTrue(patients.contains(otherPatient));
+    }
+
+    @Test
+    public void getProvidersAsPersonsForPatientOnDates_shouldGetProvidersForPatientOnEachDate() throws Exception {
+
+        Patient patient = Context.getPatientService().getPatient(2);
+        Person provider1 = Context.getPersonService().getPerson(6);
+        Person provider2 = Context.getPersonService().getPerson(8);
+
+        providerManagementService.assignPatientToProvider(patient, provider1, Context.getPersonService().getRelationshipType(1001), PAST_DATE);
+        providerManagementService.assignPatientToProvider(patient, provider2, Context.getPersonService().getRelationshipType(1002), DATE);
+
+        Map<Date, List<Person>> providersByDate = providerManagementService.getProvidersAsPersonsForPatientOnDates(patient, null,
+                Arrays.asList(PAST_DATE, DATE));
+
+        Assert.assertEquals(Collections.singletonList(provider1), providersByDate.get(PAST_DATE));
+        Assert.assertEquals(2, providersByDate.get(DATE).size());
+        Assert.assertTrue(providersByDate.get(DATE).contains(provider2));
+    }
+
+    @Test
+    public void getSupervisorsForProviderOnDates_shouldGetSupervisorsForProviderOnEachDate() throws Exception {
+
+        Person supervisor = Context.getPersonService().getPerson(8);  // binome supervisor
+        Person provider = Context.getPersonService().getPerson(6);    // binome
+
+        providerManagementService.assignProviderToSupervisor(provider, supervisor, DATE);
+
+        Map<Date, List<Person>> supervisorsByDate = providerManagementService.getSupervisorsForProviderOnDates(provider, Arrays.asList(PAST_DATE, DATE));
+
+        Assert.assertEquals(0, supervisorsByDate.get(PAST_DATE).size());
+        Assert.assertEquals(Collections.singletonList(supervisor), supervisorsByDate.get(DATE));
+    }
+
+    @Test
+    public void getSuperviseesForSupervisorOnDates_shouldGetSuperviseesForSupervisorOnEachDate() throws Exception {
+
+        Person supervisor = Context.getPersonService().getPerson(8);  // binome supervisor
+        Person provider1 = Context.getPersonService().getPerson(6);    // binome
+        Person provider2 = Context.getPersonService().getPerson(7);    // binome
+
+        providerManagementService.assignProviderToSupervisor(provider1, supervisor, PAST_DATE);
+        providerManagementService.assignProviderToSupervisor(provider2, supervisor, DATE);
+
+        Map<Date, List<Person>> superviseesByDate = providerManagementService.getSuperviseesForSupervisorOnDates(supervisor,
+                Arrays.asList(PAST_DATE, DATE, FUTURE_DATE));
+
+        Assert.assertEquals(Collections.singletonList(provider1), superviseesByDate.get(PAST_DATE));
+        Assert.assertEquals(2, superviseesByDate.get(DATE).size());
+        Assert.assertEquals(2, superviseesByDate.get(FUTURE_DATE).size());
+    }
+
+    @Test
+    public void getPatientRelationshipsForProvider_shouldReturnAPageOfCurrentOrHistoricalPatientRelationshipsInTheSpecifiedOrder() throws Exception {
+
+        Person provider = Context.getProviderService().getProvider(1004).getPerson();
+        RelationshipType relationshipType = Context.getPersonService().getRelationshipType(1001);
+        Patient patient = Context.getPatientService().getPatient(2);
+        Patient otherPatient = Context.getPatientService().getPatient(8);
+
+        providerManagementService.assignPatientToProvider(patient, provider, relationshipType, FURTHER_PAST_DATE);
+        providerManagementService.assignPatientToProvider(otherPatient, provider, relationshipType, PAST_DATE);
+
+        Assert.assertEquals(2, providerManagementService.getPatientRelationshipsForProviderCount(provider, relationshipType, true));
+
+        List<Relationship> page = providerManagementService.getPatientRelationshipsForProvider(provider, relationshipType, true,
+                RelationshipSortOrder.START_DATE, true, 0, 1);
+        Assert.assertEquals(1, page.size());
+        Assert.assertEquals(patient, page.get(0).getPersonB());
+
+        page = providerManagementService.getPatientRelationshipsForProvider(provider, relationshipType, true, RelationshipSortOrder.START_DATE, true, 1, 1);
+        Assert.assertEquals(1, page.size());
+        Assert.assertEquals(otherPatient, page.get(0).getPersonB());
+
+        page = providerManagementService.getPatientRelationshipsForProvider(provider, relationshipType, true, RelationshipSortOrder.START_DATE, false, 0, 1);
+        Assert.assertEquals(otherPatient, page.get(0).getPersonB());
+
+        // once unassigned, the patient moves to the historical relationships
+        int historicalCount = providerManagementService.getPatientRelationshipsForProviderCount(provider, relationshipType, false);
+        providerManagementService.unassignPatientFromProvider(patient, provider, relationshipType, PAST_DATE);
+
+        Assert.assertEquals(1, providerManagementService.getPatientRelationshipsForProviderCount(provider, relationshipType, true));
+        Assert.assertEquals(historicalCount + 1, providerManagementService.getPatientRelationshipsForProviderCount(provider, relationshipType, false));
+
+        page = providerManagementService.getPatientRelationshipsForProvider(provider, relationshipType, false, RelationshipSortOrder.END_DATE, false, 0, 1);
+        Assert.assertEquals(patient, page.get(0).getPersonB());
+    }
+
+    @Test(expected = APIException.class)
+    public void getPatientRelationshipsForProvider_shouldFailIfPageSizeLessThanOne() throws Exception {
+        Person provider = Context.getProviderService().getProvider(1004).getPerson();
+        providerManagementService.getPatientRelationshipsForProvider(provider, null, true, RelationshipSortOrder.NAME, true, 0, 0);
+    }
+
+    @Test
+    public void getSuperviseeRelationshipsForSupervisor_shouldReturnAPageOfCurrentOrHistoricalSuperviseeRelationshipsInTheSpecifiedOrder() throws Exception {
+
+        Person supervisor = Context.getPersonService().getPerson(8);  // binome supervisor
+        Person provider1 = Context.getPersonService().getPerson(6);    // binome
+        Person provider2 = Context.getPersonService().getPerson(7);    // binome
+
+        providerManagementService.assignProviderToSupervisor(provider1, supervisor, PAST_DATE);
+        providerManagementService.assignProviderToSupervisor(provider2, supervisor, DATE);
+
+        Assert.assertEquals(2, providerManagementService.getSuperviseeRelationshipsForSupervisorCount(supervisor, true));
+        Assert.assertEquals(1, providerManagementService.getSupervisorRelationshipsForProviderCount(provider1, true));
+
+        List<Relationship> ascending = providerManagementService.getSuperviseeRelationshipsForSupervisor(supervisor, true, RelationshipSortOrder.NAME, true, 0, 2);
+        List<Relationship> descending = providerManagementService.getSuperviseeRelationshipsForSupervisor(supervisor, true, RelationshipSortOrder.NAME, false, 0, 2);
+        Assert.assertEquals(2, ascending.size());
+        Assert.assertEquals(ascending.get(0), descending.get(1));
+        Assert.assertEquals(ascending.get(1), descending.get(0));
+
+        List<Relationship> page = providerManagementService.getSuperviseeRelationshipsForSupervisor(supervisor, true, RelationshipSortOrder.NAME, true, 1, 1);
+        Assert.assertEquals(Collections.singletonList(ascending.get(1)), page);
+
+        List<Relationship> supervisors = providerManagementService.getSupervisorRelationshipsForProvider(provider1, true, RelationshipSortOrder.START_DATE, true, 0, 10);
+        Assert.assertEquals(1, supervisors.size());
+        Assert.assertEquals(supervisor, supervisors.get(0).getPersonA());
+    }
+
+    @Test
+    public void rebuildActiveAssignments_shouldCorrectActiveAssignmentsThatDoNotMatchRelationships() throws Exception {
+
+        Person provider = Context.getProviderService().getProvider(1004).getPerson();
+        RelationshipType relationshipType = Context.getPersonService().getRelationshipType(1001);
+        Context.getAdministrationService().saveGlobalProperty(new GlobalProperty("providermanagement.activeAssignmentTableEnabled", "true"));
+
+        providerManagementService.assignPatientToProvider(Context.getPatientService().getPatient(2), provider, relationshipType, DATE);
+        providerManagementService.assignPatientToProvider(Context.getPatientService().getPatient(8), provider, relationshipType, DATE);
+
+        Assert.assertTrue(providerManagementService.rebuildActiveAssignments() > 0);
+        Assert.assertTrue(providerManagementService.hasActiveAssignments());
+        Assert.assertEquals(2, providerManagementService.getPatientsOfProviderCount(provider, relationshipType, DATE));
+
+        // once rebuilt, there is nothing left to correct
+        Assert.assertEquals(0, providerManagementService.rebuildActiveAssignments());
+
+        // a relationship that ends today is still active today, so its row is kept, but with the new end date
+        providerManagementService.unassignPatientFromProvider(Context.getPatientService().getPatient(8), provider, relationshipType, DATE);
+        Assert.assertEquals(1, providerManagementService.rebuildActiveAssignments());
+        Assert.assertEquals(2, providerManagementService.getPatientsOfProviderCount(provider, relationshipType, DATE));
+        Assert.assertEquals(1, providerManagementService.getPatientsOfProviderCount(provider, relationshipType, FUTURE_DATE));
+        Assert.assertEquals(1, providerManagementService.getCaseloadCounts(Collections.singleton(provider), FUTURE_DATE).get(provider.getPersonId()).get(relationshipType).intValue());
+    }
+
+    @Test
+    public void updateActiveAssignments_shouldAddAndRemoveActiveAssignmentsAsRelationshipsAreAssignedAndEnded() throws Exception {
+
+        Patient patient = Context.getPatientService().getPatient(2);
+        Person provider = Context.getProviderService().getProvider(1004).getPerson();
+        RelationshipType relationshipType = Context.getPersonService().getRelationshipType(1001);
+        Context.getAdministrationService().saveGlobalProperty(new GlobalProperty("providermanagement.activeAssignmentTableEnabled", "true"));
+
+        providerManagementService.assignPatientToProvider(patient, provider, relationshipType, DATE);
+        Integer relationshipId = Context.getPersonService().getRelationships(provider, patient, relationshipType).get(0).getRelationshipId();
+
+        // (the interceptor that calls this only runs when a transaction commits, which tests never do)
+        providerManagementService.updateActiveAssignments(Collections.singleton(relationshipId));
+        Assert.assertEquals(1, providerManagementService.getPatientsOfProvider(provider, relationshipType, DATE).size());
+
+        providerManagementService.unassignPatientFromProvider(patient, provider, relationshipType, DATE);
+        providerManagementService.updateActiveAssignments(Collections.singleton(relationshipId));
+        Assert.assertEquals(0, providerManagementService.getPatientsOfProvider(provider, relationshipType, FUTURE_DATE).size());
+        Assert.assertEquals(0, providerManagementService.rebuildActiveAssignments());
+    }
+
+    @Test
+    public void caseloadInterceptor_shouldUpdateActiveAssignmentsWhenTransactionCompletes() throws Exception {
+
+        Patient patient = Context.getPatientService().getPatient(2);
+        Person provider = Context.getProviderService().getProvider(1004).getPerson();
+        RelationshipType relationshipType = Context.getPersonService().getRelationshipType(1001);
+        Context.getAdministrationService().saveGlobalProperty(new GlobalProperty("providermanagement.activeAssignmentTableEnabled", "true"));
+
+        // as on commit: hibernate flushes the session, and then tells the interceptors the transaction is completing
+        CaseloadInterceptor interceptor = Context.getRegisteredComponents(CaseloadInterceptor.class).get(0);
+        providerManagementService.assignPatientToProvider(patient, provider, relationshipType, DATE);
+        Context.flushSession();
+        interceptor.beforeTransactionCompletion(null);
+        Assert.assertEquals(1, providerManagementService.getPatientsOfProvider(provider, relationshipType, FUTURE_DATE).size());
+        Assert.assertEquals(0, providerManagementService.rebuildActiveAssignments());
+
+        // voiding the relationship is only flushed by the commit itself
+        Relationship relationship = Context.getPersonService().getRelationships(provider, patient, relationshipType).get(0);
+        Context.getPersonService().voidRelationship(relationship, "test");
+        Context.flushSession();
+
+        // until its row is removed, the row of the voided relationship is ignored
+        Assert.assertEquals(0, providerManagementService.getPatientsOfProvider(provider, relationshipType, FUTURE_DATE).size());
+        Assert.assertEquals(0, providerManagementService.getPatientsOfProviderCount(provider, relationshipType, FUTURE_DATE));
+        Assert.assertNull(providerManagementService.getCaseloadCounts(Collections.singleton(provider), FUTURE_DATE).get(provider.getPersonId()).get(relationshipType));
+        Assert.assertEquals(0, providerManagementService.getCaseloadSizes(Collections.singleton(provider), FUTURE_DATE).get(provider.getPersonId()).intValue());
+
+        interceptor.beforeTransactionCompletion(null);
+        Assert.assertEquals(0, providerManagementService.rebuildActiveAssignments());
+    }
+
+    @Test
+    public void getPatientRelationshipsForProvider_shouldIncludeRelationshipEndingOnDateWithOrWithoutActiveAssignmentTable() throws Exception {
+
+        Patient patient = Context.getPatientService().getPatient(2);
+        Person provider = Context.getProviderService().getProvider(1004).getPerson();
+        RelationshipType relationshipType = Context.getPersonService().getRelationshipType(1001);
+
+        providerManagementService.assignPatientToProvider(patient, provider, relationshipType, DATE);
+        providerManagementService.unassignPatientFromProvider(patient, provider, relationshipType, DATE);
+        providerManagementService.rebuildActiveAssignments();
+
+        // as with PersonService.getRelationships, a relationship is still active on the date it ends
+        Assert.assertEquals(1, Context.getPersonService().getRelationships(provider, patient, relationshipType, DATE).size());
+
+        for (String enabled : Arrays.asList("false", "true")) {
+            Context.getAdministrationService().saveGlobalProperty(new GlobalProperty("providermanagement.activeAssignmentTableEnabled", enabled));
+            Assert.assertEquals(1, providerManagementService.getPatientRelationshipsForProvider(provider, relationshipType, DATE).size());
+            Assert.assertEquals(Collections.singletonList(patient), providerManagementService.getPatientsOfProvider(provider, relationshipType, DATE));
+            Assert.assertEquals(1, providerManagementService.getPatientsOfProviderCount(provider, relationshipType, DATE));
+            Assert.assertEquals(1, providerManagementService.getCaseloadSizes(Collections.singleton(provider), DATE).get(provider.getPersonId()).intValue());
+            Assert.assertEquals(0, providerManagementService.getPatientsOfProvider(provider, relationshipType, FUTURE_DATE).size());
+            Assert.assertEquals(0, providerManagementService.getPatientRelationshipsForProvider(provider, relationshipType, FUTURE_DATE).size());
+        }
+    }
+
+    @Test
+    public void getPatientRelationshipsForProvider_shouldReadRelationshipsFromActiveAssignmentTableIfEnabled() throws Exception {
+
+        Person provider = Context.getProviderService().getProvider(1004).getPerson();
+        RelationshipType binome = Context.getPersonService().getRelationshipType(1001);
+        RelationshipType accompagnateur = Context.getPersonService().getRelationshipType(1002);
+
+        providerManagementService.assignPatientToProvider(Context.getPatientService().getPatient(2), provider, binome, DATE);
+        providerManagementService.assignPatientToProvider(Context.getPatientService().getPatient(8), provider, accompagnateur, DATE);
+        providerManagementService.rebuildActiveAssignments();
+
+        Context.getAdministrationService().saveGlobalProperty(new GlobalProperty("providermanagement.activeAssignmentTableEnabled", "true"));
+
+        List<Relationship> relationships = providerManagementService.getPatientRelationshipsForProvider(provider, binome, DATE);
+        Assert.assertEquals(1, relationships.size());
+        Assert.assertEquals(new Integer(2), relationships.get(0).getPersonB().getId());
+
+        Assert.assertEquals(2, providerManagementService.getPatientRelationshipsForProvider(provider, null, FUTURE_DATE).size());
+
+        // dates before today are answered from the relationship table
+        Assert.assertEquals(0, providerManagementService.getPatientRelationshipsForProvider(provider, null, PAST_DATE).size());
+    }
+
+
+    @Test
+    public void getProviderRelationships_shouldReturnAllRelationshipsForPatient() throws Exception {
+        
+        Patient patient = Context.getPatientService().getPatient(2);
+        Person provider1 = Context.getPersonService().getPerson(6);
+        Person provider2 = Context.getPersonService().getPerson(8);
+        
+        RelationshipType binome = Context.getPersonService().getRelationshipType(1001);
+        RelationshipType acc = Context.getPersonService().getRelationshipType(1002);
+        
+        // assign these two providers to this patient
+        providerManagementService.assignPatientToProvider(patient, provider1, binome);
+        providerManagementService.assignPatientToProvider(patient, provider2, acc);
+        
+        // now confirm that these two relationships are returned when we call getProviderRelationshipsForPatient
+        List<Relationship> relationships = providerManagementService.getProviderRelationshipsForPatient(patient, null, null, new Date());
+
+        // there should be two relationships
+        Assert.assertEquals(2, relationships.size());
+
+        // double-check to make sure the are the correct relationships
+        // be iterating through and removing the two that SHOULD be there
+        Iterator<Relationship> i = relationships.iterator();
+
+        while (i.hasNext()) {
+            Relationship r = i.next();
+            int provider = r.getPersonA().getId();
+            int relationshipType = r.getRelationshipType().getId();
+
+            if ( (provider == 6 && relationshipType == 1001) || (provider == 8 && relationshipType == 1002)) {
+                i.remove();
+            }
+        }
+
+        // list should now be empty
+        Assert.assertEquals(0, relationships.size());
+        
+    }
+
+    @Test
+    public void getProviderRelationships_shouldReturnRelationshipWithSpecifiedProvider() throws Exception {
+
+        Patient patient = Context.getPatientService().getPatient(2);
+        Person provider1 = Context.getPersonService().getPerson(6);
+        Person provider2 = Context.getPersonService().getPerson(8);
+
+        RelationshipType binome = Context.getPersonService().getRelationshipType(1001);
+        RelationshipType acc = Context.getPersonService().getRelationshipType(1002);
+
+        // assign these two providers to this patient
+        providerManagementService.assignPatientToProvider(patient, provider1, binome);
+        providerManagementService.assignPatientToProvider(patient, provider2, acc);
+
+        // now fetch only relationships with a specific provider
+        List<Relationship> relationships = providerManagementService.getProviderRelationshipsForPatient(patient, provider1, null, new Date());
+
+        // there should be one relationship
+        Assert.assertEquals(1, relationships.size());
+        Assert.assertEquals(new Integer(6), relationships.get(0).getPersonA().getId());
+        Assert.assertEquals(new Integer(1001), relationships.get(0).getRelationshipType().getId());
+    }
+
+    @Test
+    public void getProviderRelationships_shouldReturnRelationshipWithSpecifiedRelationshipType() throws Exception {
+
+        Patient patient = Context.getPatientService().getPatient(2);
+        Person provider1 = Context.getPersonService().getPerson(6);
+        Person provider2 = Context.getPersonService().getPerson(8);
+
+        RelationshipType binome = Context.getPersonService().getRelationshipType(1001);
+        RelationshipType acc = Context.getPersonService().getRelationshipType(1002);
+
+        // assign these two providers to this patient
+        providerManagementService.assignPatientToProvider(patient, provider1, binome);
+        providerManagementService.assignPatientToProvider(patient, provider2, acc);
+
+        // now fetch only relationships with a specific relationship type
+        List<Relationship> relationships = providerManagementService.getProviderRelationshipsForPatient(patient, null, acc, new Date());
+
+        // there should be one relationship
+        Assert.assertEquals(1, relationships.size());
+        Assert.assertEquals(new Integer(8), relationships.get(0).getPersonA().getId());
+        Assert.assertEquals(new Integer(1002), relationships.get(0).getRelationshipType().getId());
+    }
+
+    @Test
+     public void getProviderRelationships_shouldReturnRelationshipWithSpecifiedProviderAndRelationshipType() throws Exception {
+
+        Patient patient = Context.getPatientService().getPatient(2);
+        Person provider1 = Context.getPersonService().getPerson(6);
+        Person provider2 = Context.getPersonService().getPerson(8);
+
+        RelationshipType binome = Context.getPersonService().getRelationshipType(1001);
+        RelationshipType acc = Context.getPersonService().getRelationshipType(1002);
+
+        // assign these two providers to this patient
+        providerManagementService.assignPatientToProvider(patient, provider1, binome);
+        providerManagementService.assignPatientToProvider(patient, provider2, acc);
+
+        // now fetch only relationships with a specific provider type
+        List<Relationship> relationships = providerManagementService.getProviderRelationshipsForPatient(patient, provider2, acc, new Date());
+
+        // there should be one relationship
+        Assert.assertEquals(1, relationships.size());
+        Assert.assertEquals(new Integer(8), relationships.get(0).getPersonA().getId());
+        Assert.assertEquals(new Integer(1002), relationships.get(0).getRelationshipType().getId());
+    }
+
+    @Test
+    public void getProviderRelationships_shouldReturnEmptyListIfPatientHasNoProviderRelationships() throws Exception {
+        Patient patient = Context.getPatientService().getPatient(2);
+        List<Relationship> relationships = providerManagementService.getProviderRelationshipsForPatient(patient, null, null, new Date());
+        Assert.assertEquals(0, relationships.size());
+    }
+
+    @Test(expected = APIException.class)
+    public void getProviderRelationships_shouldFailIfPatientNull() throws Exception {
+        List<Relationship> relationships = providerManagementService.getProviderRelationshipsForPatient(null, null, null);
+    }
+
+    @Test(expected = PersonIsNotProviderException.class)
+    public void getProviderRelationships_shouldFailIfPersonIsNotProvider() throws Exception {
+        Patient patient = Context.getPatientService().getPatient(2);
+        Person person = Context.getPersonService().getPerson(502);
+        List<Relationship> relationships = providerManagementService.getProviderRelationshipsForPatient(patient, person, null);
+    }
+
+    @Test(expected = InvalidRelationshipTypeException.class)
+    public void getProviderRelationships_shouldFailIfRelationshipIsNotProviderRelationship() throws Exception {
+        Patient patient = Context.getPatientService().getPatient(2);
+        RelationshipType relationshipType = Context.getPersonService().getRelationshipType(1);
+        List<Relationship> relationships = providerManagementService.getProviderRelationshipsForPatient(patient, null, relationshipType);
+    }
+
+    @Test
+    public void getProviderRelationships_shouldIgnoreNonProviderRelationships() throws Exception {
+
+        Patient patient = Context.getPatientService().getPatient(2);
+        Person provider1 = Context.getPersonService().getPerson(6);
+        Person provider2 = Context.getPersonService().getPerson(8);
+
+        RelationshipType binome = Context.getPersonService().getRelationshipType(1001);
+        RelationshipType acc = Context.getPersonService().getRelationshipType(1002);
+
+        // assign these two providers to this patient
+        providerManagementService.assignPatientToProvider(patient, provider1, binome);
+        providerManagementService.assignPatientToProvider(patient, provider2, acc);
+
+        // set up a non-provider relationship (so we can test that getProviderRelationshipsForPatient ignore it)
+        Relationship relationship = new Relationship();
+        relationship.setPersonA(provider1);
+        relationship.setPersonB(patient);
+        relationship.setRelationshipType(Context.getPersonService().getRelationshipType(1));
+        
+        // now confirm that these two relationships are returned when we call getProviderRelationshipsForPatient
+        List<Relationship> relationships = providerManagementService.getProviderRelationshipsForPatient(patient, null, null, new Date());
+
+        // there should be two relationships
+        Assert.assertEquals(2, relationships.size());
+
+        // double-check to make sure the are the correct relationships
+        // be iterating through and removing the two that SHOULD be there
+        Iterator<Relationship> i = relationships.iterator();
+
+        while (i.hasNext()) {
+            Relationship r = i.next();
+            int provider = r.getPersonA().getId();
+            int relationshipType = r.getRelationshipType().getId();
+
+            if ( (provider == 6 && relationshipType == 1001) || (provider == 8 && relationshipType == 1002)) {
+                i.remove();
+            }
+        }
+
+        // list should now be empty
+        Assert.assertEquals(0, relationships.size());
+    }
+
+    @Test
+    public void getProviderRelationships_shouldReturnRelationshipsOnSpecifiedDate() throws Exception {
+
+        Patient patient = Context.getPatientService().getPatient(2);
+        Person provider1 = Context.getPersonService().getPerson(6);
+        Person provider2 = Context.getPersonService().getPerson(8);
+
+        RelationshipType binome = Context.getPersonService().getRelationshipType(1001);
+        RelationshipType acc = Context.getPersonService().getRelationshipType(1002);
+
+        // assign these two providers to this patient--but one in the past, and one in the present
+        providerManagementService.assignPatientToProvider(patient, provider1, binome, PAST_DATE);
+        providerManagementService.assignPatientToProvider(patient, provider2, acc, DATE);
 
         // now get relationships in the past
         List<Relationship> relationships = providerManagementService.getProviderRelationshipsForPatient(patient, null, null, PAST_DATE);
@@ -2576,41 +3352,121 @@ public class  ProviderManagementServiceTest extends BaseModuleContextSensitiveTe
         // verify that the getSupervisorRelationship method returns these relationships
         List<Person> providers = providerManagementService.getSuperviseesForSupervisor(supervisor, DATE);  // only query for relationships on past date
 
-        Assert.assertEquals(1, providers.size());
-        Assert.assertEquals(new Integer(6), providers.get(0).getId());
+        Assert.assertEquals(1, providers.size());
+        Assert.assertEquals(new Integer(6), providers.get(0).getId());
+    }
+
+    @Test
+    public void getSupervisees_shouldGetAllHistoricalSuperviseesForSupervisor() throws Exception {
+        // first, assign a couple providers to a supervisor
+        Person provider1 = Context.getPersonService().getPerson(6);    // binome
+        Person provider2 = Context.getPersonService().getPerson(7);    // binome
+        Person supervisor = Context.getPersonService().getPerson(8);  // binome supervisor
+
+        // do the assignments
+        providerManagementService.assignProviderToSupervisor(provider1, supervisor, DATE);
+        providerManagementService.assignProviderToSupervisor(provider2, supervisor, FURTHER_PAST_DATE);  // assign this relationship the past and end it
+        providerManagementService.unassignProviderFromSupervisor(provider2, supervisor, PAST_DATE);
+
+        // verify that the getSupervisorRelationship method returns these relationships
+        List<Person> supervisees = providerManagementService.getSuperviseesForSupervisor(supervisor); // query across all dates
+
+        Assert.assertEquals(2, supervisees.size());
+
+        // double-check to make sure the are the correct relationships
+        // be iterating through and removing the two that SHOULD be there
+        Iterator<Person> i = supervisees.iterator();
+
+        while (i.hasNext()) {
+            Person p = i.next();
+
+            if (p.getId() == 6 || p.getId() == 7) {
+                i.remove();
+            }
+        }
+
+        // list should now be empty
+        Assert.assertEquals(0, supervisees.size());
+    }
+
+    @Test
+    public void getSuperviseeTree_shouldGetAllSuperviseesAtAnyDepth() throws Exception {
+        Person provider1 = Context.getPersonService().getPerson(6);    // binome
+        Person provider2 = Context.getPersonService().getPerson(7);    // binome
+        Person supervisor = Context.getPersonService().getPerson(8);  // binome supervisor
+        Person nurse = Context.getPersonService().getPerson(501);  // community health nurse
+
+        providerManagementService.assignProviderToSupervisor(provider1, supervisor);
+        providerManagementService.assignProviderToSupervisor(provider2, supervisor);
+        providerManagementService.assignProviderToSupervisor(supervisor, nurse);
+
+        SupervisionTreeNode root = providerManagementService.getSuperviseeTree(nurse, new Date(), 10);
+
+        Assert.assertEquals(nurse, root.getProvider());
+        Assert.assertEquals(1, root.getSupervisees().size());
+
+        SupervisionTreeNode supervisorNode = root.getSupervisees().get(0);
+        Assert.assertEquals(supervisor, supervisorNode.getProvider());
+        Assert.assertEquals(1, supervisorNode.getDepth());
+        Assert.assertEquals(2, supervisorNode.getSupervisees().size());
+        Assert.assertEquals(2, supervisorNode.getSupervisees().get(0).getDepth());
+
+        List<Person> supervisees = root.getAllSupervisees();
+        Assert.assertEquals(3, supervisees.size());
+        Assert.assertEquals(supervisor, supervisees.get(0));
+        Assert.assertTrue(supervisees.contains(provider1));
+        Assert.assertTrue(supervisees.contains(provider2));
+    }
+
+    @Test
+    public void getSuperviseeTree_shouldNotDescendBelowTheMaximumDepth() throws Exception {
+        Person provider1 = Context.getPersonService().getPerson(6);    // binome
+        Person supervisor = Context.getPersonService().getPerson(8);  // binome supervisor
+        Person nurse = Context.getPersonService().getPerson(501);  // community health nurse
+
+        providerManagementService.assignProviderToSupervisor(provider1, supervisor);
+        providerManagementService.assignProviderToSupervisor(supervisor, nurse);
+
+        SupervisionTreeNode root = providerManagementService.getSuperviseeTree(nurse, new Date(), 1);
+
+        Assert.assertEquals(1, root.getAllSupervisees().size());
+        Assert.assertEquals(supervisor, root.getAllSupervisees().get(0));
+    }
+
+    @Test(expected = APIException.class)
+    public void getSuperviseeTree_shouldFailIfSupervisorIsNull() throws Exception {
+        providerManagementService.getSuperviseeTree(null, new Date(), 10);
+    }
+
+    @Test(expected = PersonIsNotProviderException.class)
+    public void getSuperviseeTree_shouldFailIfSupervisorIsNotAProvider() throws Exception {
+        providerManagementService.getSuperviseeTree(Context.getPersonService().getPerson(502), new Date(), 10);
     }
 
     @Test
-    public void getSupervisees_shouldGetAllHistoricalSuperviseesForSupervisor() throws Exception {
-        // first, assign a couple providers to a supervisor
+    public void getSupervisionChain_shouldGetAllDirectAndIndirectSupervisorsOfProvider() throws Exception {
         Person provider1 = Context.getPersonService().getPerson(6);    // binome
-        Person provider2 = Context.getPersonService().getPerson(7);    // binome
         Person supervisor = Context.getPersonService().getPerson(8);  // binome supervisor
+        Person nurse = Context.getPersonService().getPerson(501);  // community health nurse
 
-        // do the assignments
-        providerManagementService.assignProviderToSupervisor(provider1, supervisor, DATE);
-        providerManagementService.assignProviderToSupervisor(provider2, supervisor, FURTHER_PAST_DATE);  // assign this relationship the past and end it
-        providerManagementService.unassignProviderFromSupervisor(provider2, supervisor, PAST_DATE);
-
-        // verify that the getSupervisorRelationship method returns these relationships
-        List<Person> supervisees = providerManagementService.getSuperviseesForSupervisor(supervisor); // query across all dates
-
-        Assert.assertEquals(2, supervisees.size());
+        providerManagementService.assignProviderToSupervisor(provider1, supervisor);
+        providerManagementService.assignProviderToSupervisor(supervisor, nurse);
 
-        // double-check to make sure the are the correct relationships
-        // be iterating through and removing the two that SHOULD be there
-        Iterator<Person> i = supervisees.iterator();
+        List<Person> supervisors = providerManagementService.getSupervisionChain(provider1, new Date());
 
-        while (i.hasNext()) {
-            Person p = i.next();
+        Assert.assertEquals(2, supervisors.size());
+        Assert.assertEquals(supervisor, supervisors.get(0));
+        Assert.assertEquals(nurse, supervisors.get(1));
+    }
 
-            if (p.getId() == 6 || p.getId() == 7) {
-                i.remove();
-            }
-        }
+    @Test(expected = APIException.class)
+    public void getSupervisionChain_shouldFailIfProviderIsNull() throws Exception {
+        providerManagementService.getSupervisionChain(null, new Date());
+    }
 
-        // list should now be empty
-        Assert.assertEquals(0, supervisees.size());
+    @Test(expected = PersonIsNotProviderException.class)
+    public void getSupervisionChain_shouldFailIfProviderIsNotAProvider() throws Exception {
+        providerManagementService.getSupervisionChain(Context.getPersonService().getPerson(502), new Date());
     }
 
     @Test
@@ -3104,6 +3960,31 @@ public class  ProviderManagementServiceTest extends BaseModuleContextSensitiveTe
     }
 
 
+    @Test
+    public void getProviders_shouldReturnPersonWithSeveralNamesOnceSortedByPreferredName() throws Exception {
+
+        // give person 6 (John Doe) two more names, both matching "horatio"
+        Person person = Context.getPersonService().getPerson(6);
+        person.getPersonName().setPreferred(true);
+        person.addName(new PersonName("Horatio", null, "Doe"));
+        person.addName(new PersonName("Horatio", null, "Smith"));
+        Context.getPersonService().savePerson(person);
+
+        List<ProviderRole> roles = new ArrayList<ProviderRole>();
+        roles.add(providerManagementService.getProviderRole(1001));
+
+        List<Person> providers = providerManagementService.getProvidersAsPersons(null, null, roles, false);
+        Assert.assertEquals(3, providers.size());
+        Assert.assertEquals(new Integer(7), providers.get(0).getId());
+        Assert.assertEquals(new Integer(2), providers.get(1).getId());
+        Assert.assertEquals(new Integer(6), providers.get(2).getId());
+
+        providers = providerManagementService.getProvidersAsPersons("horatio", null, roles, false);
+        Assert.assertEquals(2, providers.size());
+        Assert.assertEquals(new Integer(2), providers.get(0).getId());
+        Assert.assertEquals(new Integer(6), providers.get(1).getId());
+    }
+
     @Test
     public void getProviders_shouldReturnNullOrEmptyListIfNoMatches() throws Exception {
 
@@ -3127,6 +4008,8 @@ public class  ProviderManagementServiceTest extends BaseModuleContextSensitiveTe
 
     @Test
     public void getProviders_shouldGetPersonsByAddress() throws Exception {
+        providerManagementService.rebuildPersonAddressTokens();
+
         PersonAddress personAddress = new PersonAddress();
         personAddress.setAddress1("wishard");
 
@@ -3143,6 +4026,8 @@ public class  ProviderManagementServiceTest extends BaseModuleContextSensitiveTe
 
     @Test
     public void getProviders_shouldGetPersonsByAddressWithTwoFields() throws Exception {
+        providerManagementService.rebuildPersonAddressTokens();
+
         PersonAddress personAddress = new PersonAddress();
         personAddress.setAddress1("wishard");
         personAddress.setCityVillage("ind");
@@ -3154,6 +4039,8 @@ public class  ProviderManagementServiceTest extends BaseModuleContextSensitiveTe
 
     @Test
     public void getProviders_shouldGetPersonsByAddressBothFieldsMustMatch() throws Exception {
+        providerManagementService.rebuildPersonAddressTokens();
+
         PersonAddress personAddress = new PersonAddress();
         personAddress.setAddress1("wishard");
         personAddress.setCityVillage("boston");
@@ -3164,6 +4051,8 @@ public class  ProviderManagementServiceTest extends BaseModuleContextSensitiveTe
 
     @Test
     public void getProviders_shouldGetPersonsByAddressAndName() throws Exception {
+        providerManagementService.rebuildPersonAddressTokens();
+
         PersonAddress personAddress = new PersonAddress();
         personAddress.setAddress1("wishard");
         personAddress.setCityVillage("ind");
@@ -3175,6 +4064,8 @@ public class  ProviderManagementServiceTest extends BaseModuleContextSensitiveTe
 
     @Test
     public void getProviders_shouldIntersectAddressAndNameSearch() throws Exception {
+        providerManagementService.rebuildPersonAddressTokens();
+
         PersonAddress personAddress = new PersonAddress();
         personAddress.setAddress1("wishard");
         personAddress.setCityVillage("ind");
@@ -3245,5 +4136,563 @@ public class  ProviderManagementServiceTest extends BaseModuleContextSensitiveTe
         Assert.assertEquals(new Integer(9), providers.get(2).getId());
     }
 
-}
+    @Test
+    public void getProvidersQuery_shouldReturnEachMatchingPersonOnce()  throws Exception {
+        List<Person> providers = providerManagementService.getProvidersAsPersons("2a", null, false);
+        Assert.assertEquals(4, providers.size());
+        Assert.assertEquals(4, new HashSet<Person>(providers).size());
+
+        providers = providerManagementService.getProvidersAsPersons("jimmy", null, false);
+        Assert.assertEquals(1, providers.size());
+        Assert.assertEquals(new Integer(9), providers.get(0).getId());
+    }
+
+    @Test
+    public void getProvidersQuery_shouldRestrictIdentifierMatchesByRole()  throws Exception {
+        List<ProviderRole> roles = new ArrayList<ProviderRole>();
+        roles.add(providerManagementService.getProviderRole(1005));
+
+        List<Person> providers = providerManagementService.getProvidersAsPersons("b", roles, false);
+        Assert.assertEquals(2, providers.size());
+        Assert.assertEquals(new Integer(501), providers.get(0).getId());
+        Assert.assertEquals(new Integer(2), providers.get(1).getId());
+    }
+
+    @Test
+    public void getProvidersQuery_shouldIgnoreRetiredProviders()  throws Exception {
+        Context.getProviderService().retireProvider(Context.getProviderService().getProvider(1003), "test");
+        Context.getProviderService().retireProvider(Context.getProviderService().getProvider(1009), "test");
+
+        List<Person> providers = providerManagementService.getProvidersAsPersons("b", null, false);
+        Assert.assertEquals(2, providers.size());
+        Assert.assertEquals(new Integer(501), providers.get(0).getId());
+        Assert.assertEquals(new Integer(9), providers.get(1).getId());
+
+        providers = providerManagementService.getProvidersAsPersons("b", null, true);
+        Assert.assertEquals(3, providers.size());
+    }
+
+    @Test
+    public void getProvidersQuery_shouldServeRepeatedSearchesFromCacheUntilProviderChanges()  throws Exception {
+        ProviderSearchCache cache = Context.getRegisteredComponents(ProviderSearchCache.class).get(0);
+
+        try {
+            cache.setTimeToLive(60000);
+            cache.invalidateAll();
+            long hits = cache.getHits();
+
+            Assert.assertEquals(3, providerManagementService.getProvidersAsPersons("b", null, false).size());
+            List<Person> providers = providerManagementService.getProvidersAsPersons("B", null, false);
+            Assert.assertEquals(3, providers.size());
+            Assert.assertEquals(new Integer(501), providers.get(0).getId());
+            Assert.assertEquals(hits + 1, cache.getHits());
+
+            Context.getProviderService().retireProvider(Context.getProviderService().getProvider(1003), "test");
+            Context.getProviderService().retireProvider(Context.getProviderService().getProvider(1009), "test");
+
+            providers = providerManagementService.getProvidersAsPersons("b", null, false);
+            Assert.assertEquals(2, providers.size());
+            Assert.assertEquals(new Integer(501), providers.get(0).getId());
+            Assert.assertEquals(new Integer(9), providers.get(1).getId());
+        }
+        finally {
+            cache.setTimeToLive(0);
+        }
+    }
+
+    @Test
+    public void search_shouldReturnFirstPageAndCursor() throws Exception {
+        ProviderSearchResult result = providerManagementService.search(new ProviderSearchCriteria("b", null, false), 2, null);
+        Assert.assertEquals(2, result.getProviders().size());
+        Assert.assertEquals(new Integer(501), result.getProviders().get(0).getId());
+        Assert.assertEquals(new Integer(2), result.getProviders().get(1).getId());
+        Assert.assertTrue(result.hasMore());
+        Assert.assertEquals(new Integer(2), result.getNextCursor().getPersonId());
+        Assert.assertNull(result.getTotalCount());
+    }
+
+    @Test
+    public void search_shouldReturnNextPageAfterCursor() throws Exception {
+        ProviderSearchCriteria criteria = new ProviderSearchCriteria("b", null, false);
+        ProviderSearchCursor cursor = providerManagementService.search(criteria, 2, null).getNextCursor();
+
+        // the cursor should survive a round trip through its serialized form
+        ProviderSearchResult result = providerManagementService.search(criteria, 2, ProviderSearchCursor.deserialize(cursor.serialize()));
+        Assert.assertEquals(1, result.getProviders().size());
+        Assert.assertEquals(new Integer(9), result.getProviders().get(0).getId());
+        Assert.assertFalse(result.hasMore());
+        Assert.assertNull(result.getNextCursor());
+    }
+
+    @Test
+    public void search_shouldReturnTotalCountIfRequested() throws Exception {
+        ProviderSearchCriteria criteria = new ProviderSearchCriteria("b", null, false);
+        criteria.setIncludeTotalCount(true);
+
+        Assert.assertEquals(new Integer(3), providerManagementService.search(criteria, 2, null).getTotalCount());
+        Assert.assertEquals(new Integer(3), providerManagementService.search(criteria, 10, null).getTotalCount());
+    }
+
+    @Test
+    public void search_shouldExcludeSpecifiedPersons() throws Exception {
+        ProviderSearchCriteria criteria = new ProviderSearchCriteria("b", null, false);
+        criteria.getExcludedPersonIds().add(2);
+
+        ProviderSearchResult result = providerManagementService.search(criteria, 10, null);
+        Assert.assertEquals(2, result.getProviders().size());
+        Assert.assertEquals(new Integer(501), result.getProviders().get(0).getId());
+        Assert.assertEquals(new Integer(9), result.getProviders().get(1).getId());
+    }
+
+    @Test
+    public void searchRows_shouldReturnRowsInSameOrderAsSearch() throws Exception {
+        ProviderSearchCriteria criteria = new ProviderSearchCriteria("b", null, false);
+        criteria.setIncludeTotalCount(true);
+
+        ProviderSearchResult result = providerManagementService.searchRows(criteria, 2, null);
+        Assert.assertEquals(2, result.getRows().size());
+        Assert.assertEquals(new Integer(501), result.getRows().get(0).getPersonId());
+        Assert.assertEquals(new Integer(2), result.getRows().get(1).getPersonId());
+        Assert.assertEquals(new Integer(3), result.getTotalCount());
+
+        result = providerManagementService.searchRows(criteria, 2, result.getNextCursor());
+        Assert.assertEquals(1, result.getRows().size());
+        Assert.assertEquals(new Integer(9), result.getRows().get(0).getPersonId());
+        Assert.assertFalse(result.hasMore());
+    }
+
+    @Test
+    public void searchRows_shouldReturnIdentifierAndRoleOfProvider() throws Exception {
+        ProviderSearchResult result = providerManagementService.searchRows(new ProviderSearchCriteria("2a7", null, false), null, null);
+        Assert.assertEquals(1, result.getRows().size());
+
+        ProviderSearchRow row = result.getRows().get(0);
+        Assert.assertEquals(new Integer(7), row.getPersonId());
+        Assert.assertEquals("Collet", row.getGivenName());
+        Assert.assertEquals("F", row.getGender());
+        Assert.assertEquals(new Integer(1005), row.getProviderId());
+        Assert.assertEquals("2a7", row.getIdentifier());
+        Assert.assertEquals("Binome", row.getProviderRoleName());
+        Assert.assertFalse(row.isRetired());
+    }
+
+    @Test
+    public void searchRows_shouldReturnAllMatchesIfPageSizeNull() throws Exception {
+        ProviderSearchResult result = providerManagementService.searchRows(new ProviderSearchCriteria("b", null, false), null, null);
+        Assert.assertEquals(3, result.getRows().size());
+        Assert.assertFalse(result.hasMore());
+
+        // person 2 has two providers, and the row should hold the one whose identifier matched the query
+        Assert.assertEquals(new Integer(1009), result.getRows().get(1).getProviderId());
+    }
+
+    @Test
+    public void searchRows_shouldReturnProviderWhoseIdentifierMatched() throws Exception {
+        // person 2 has providers with identifiers 2a5 (provider 1003) and b8 (provider 1009)
+        ProviderSearchResult result = providerManagementService.searchRows(new ProviderSearchCriteria("2a5", null, false), null, null);
+        Assert.assertEquals(1, result.getRows().size());
+        Assert.assertEquals(new Integer(1003), result.getRows().get(0).getProviderId());
+
+        result = providerManagementService.searchRows(new ProviderSearchCriteria("b8", null, false), null, null);
+        Assert.assertEquals(1, result.getRows().size());
+        Assert.assertEquals(new Integer(1009), result.getRows().get(0).getProviderId());
+
+        ProviderSearchCriteria criteria = new ProviderSearchCriteria(null, null, false);
+        criteria.setIdentifier("b8");
+        result = providerManagementService.searchRows(criteria, null, null);
+        Assert.assertEquals(1, result.getRows().size());
+        Assert.assertEquals(new Integer(1009), result.getRows().get(0).getProviderId());
+    }
+
+    @Test
+    public void searchRows_shouldReturnSameRowsFromProviderNameIndexAsFromDatabase() throws Exception {
+        ProviderNameIndex index = Context.getRegisteredComponents(ProviderNameIndex.class).get(0);
+        ProviderSearchCriteria criteria = new ProviderSearchCriteria("b", null, false);
+        criteria.setIncludeTotalCount(true);
 
+        try {
+            index.setEnabled(true);
+
+            ProviderSearchResult result = providerManagementService.searchRows(criteria, 2, null);
+            Assert.assertTrue(index.isBuilt());
+            Assert.assertEquals(2, result.getRows().size());
+            Assert.assertEquals(new Integer(501), result.getRows().get(0).getPersonId());
+            Assert.assertEquals(new Integer(2), result.getRows().get(1).getPersonId());
+            Assert.assertEquals(new Integer(1009), result.getRows().get(1).getProviderId());
+            Assert.assertEquals(new Integer(3), result.getTotalCount());
+
+            result = providerManagementService.searchRows(criteria, 2, result.getNextCursor());
+            Assert.assertEquals(1, result.getRows().size());
+            Assert.assertEquals(new Integer(9), result.getRows().get(0).getPersonId());
+            Assert.assertFalse(result.hasMore());
+
+            result = providerManagementService.searchRows(new ProviderSearchCriteria("2a7", null, false), null, null);
+            Assert.assertEquals(1, result.getRows().size());
+            Assert.assertEquals(new Integer(7), result.getRows().get(0).getPersonId());
+        }
+        finally {
+            index.setEnabled(false);
+        }
+    }
+
+    @Test
+    public void getProvidersAsPersons_shouldReturnSameProvidersFromProviderSearchTable() throws Exception {
+        PersonAttributeType personAttributeType = Context.getPersonService().getPersonAttributeType(1001);
+        Context.getAdministrationService().saveGlobalProperty(new GlobalProperty("providermanagement.advancedSearchPersonAttributeType", personAttributeType.getUuid()));
+        Context.getAdministrationService().saveGlobalProperty(new GlobalProperty("providermanagement.providerSearchTableEnabled", "true"));
+        providerManagementService.rebuildProviderSearchEntries();
+        Assert.assertTrue(providerManagementService.hasProviderSearchEntries());
+
+        ProviderSearchCriteria criteria = new ProviderSearchCriteria("b", null, false);
+        criteria.setIncludeTotalCount(true);
+
+        ProviderSearchResult result = providerManagementService.search(criteria, 2, null);
+        Assert.assertTrue(criteria.isUseProviderSearchTable());
+        Assert.assertEquals(2, result.getProviders().size());
+        Assert.assertEquals(new Integer(501), result.getProviders().get(0).getId());
+        Assert.assertEquals(new Integer(2), result.getProviders().get(1).getId());
+        Assert.assertEquals(new Integer(3), result.getTotalCount());
+
+        result = providerManagementService.search(criteria, 2, result.getNextCursor());
+        Assert.assertEquals(1, result.getProviders().size());
+        Assert.assertEquals(new Integer(9), result.getProviders().get(0).getId());
+
+        List<Person> providers = providerManagementService.getProvidersAsPersons(null, "2a7", null, null, null, false);
+        Assert.assertEquals(1, providers.size());
+        Assert.assertEquals(new Integer(7), providers.get(0).getId());
+
+        providers = providerManagementService.getProvidersAsPersons(null, null, null, new PersonAttribute(personAttributeType, "TEST"), null, false);
+        Assert.assertEquals(2, providers.size());
+        Assert.assertEquals(new Integer(8), providers.get(0).getId());
+        Assert.assertEquals(new Integer(6), providers.get(1).getId());
+
+        // address restrictions can't be answered from the table
+        PersonAddress personAddress = new PersonAddress();
+        personAddress.setCityVillage("kapi");
+        criteria = new ProviderSearchCriteria();
+        criteria.addPersonAddress(personAddress);
+        providerManagementService.getProvidersAsPersons(criteria);
+        Assert.assertFalse(criteria.isUseProviderSearchTable());
+    }
+
+    @Test
+    public void getProvidersAsPersons_shouldMatchEveryNonVoidedAttributeValueWithOrWithoutProviderSearchTable() throws Exception {
+        PersonAttributeType personAttributeType = Context.getPersonService().getPersonAttributeType(1001);
+        Context.getAdministrationService().saveGlobalProperty(new GlobalProperty("providermanagement.advancedSearchPersonAttributeType", personAttributeType.getUuid()));
+
+        // added directly, as Person.addAttribute would void the existing value of the same type
+        Person person = Context.getPersonService().getPerson(7);
+        person.getAttributes().add(createAttribute(person, personAttributeType, "first", false));
+        person.getAttributes().add(createAttribute(person, personAttributeType, "second", false));
+        person.getAttributes().add(createAttribute(person, personAttributeType, "test", true));
+        Context.getPersonService().savePerson(person);
+
+        for (String enabled : Arrays.asList("false", "true")) {
+            Context.getAdministrationService().saveGlobalProperty(new GlobalProperty("providermanagement.providerSearchTableEnabled", enabled));
+            providerManagementService.rebuildProviderSearchEntries();
+
+            List<Person> providers = providerManagementService.getProvidersAsPersons(null, null, null, new PersonAttribute(personAttributeType, "SECOND"), null, false);
+            Assert.assertEquals(1, providers.size());
+            Assert.assertEquals(new Integer(7), providers.get(0).getId());
+
+            // person 7's "test" value is voided
+            providers = providerManagementService.getProvidersAsPersons(null, null, null, new PersonAttribute(personAttributeType, "test"), null, false);
+            Assert.assertEquals(2, providers.size());
+            Assert.assertEquals(new Integer(8), providers.get(0).getId());
+            Assert.assertEquals(new Integer(6), providers.get(1).getId());
+
+            // names are matched by the start of any part, but not by the middle of a part
+            Assert.assertEquals(1, providerManagementService.getProvidersAsPersons("coll", null, null, null, null, false).size());
+            Assert.assertEquals(0, providerManagementService.getProvidersAsPersons("ollet", null, null, null, null, false).size());
+        }
+    }
+
+    private PersonAttribute createAttribute(Person person, PersonAttributeType personAttributeType, String value, boolean voided) {
+        PersonAttribute attribute = new PersonAttribute(personAttributeType, value);
+        attribute.setPerson(person);
+        attribute.setVoided(voided);
+        if (voided) {
+            attribute.setVoidReason("test");
+        }
+        return attribute;
+    }
+
+    @Test
+    public void getSimilarPeople_shouldReturnProvidersAndNonProvidersWithSimilarNamesSeparately() throws Exception {
+        Person provider = createPerson("Zebulon", "Quixley");
+        providerManagementService.assignProviderRoleToPerson(provider, providerManagementService.getProviderRole(1001), "zq1");
+        Person person = createPerson("Zebulun", "Quicksley");
+        providerManagementService.rebuildPersonNameKeys();
+
+        SimilarPeople similar = providerManagementService.getSimilarPeople("quixley");
+        Assert.assertEquals(1, similar.getProviders().size());
+        Assert.assertEquals(provider.getId(), similar.getProviders().get(0).getId());
+        Assert.assertEquals(1, similar.getPeople().size());
+        Assert.assertEquals(person.getId(), similar.getPeople().get(0).getId());
+    }
+
+    @Test
+    public void getSimilarPeople_shouldMatchNamesThatSoundAlike() throws Exception {
+        Person person = createPerson("Zebulon", "Quixley");
+        createPerson("Zebulun", "Quicksley");
+        providerManagementService.rebuildPersonNameKeys();
+
+        // "Quicksley" sounds like "Quixley", while "Quix" is only a prefix of it
+        Assert.assertEquals(2, providerManagementService.getSimilarPeople("Zebulon Quicksley").getPeople().size());
+
+        List<Person> people = providerManagementService.getSimilarPeople("Quix").getPeople();
+        Assert.assertEquals(1, people.size());
+        Assert.assertEquals(person.getId(), people.get(0).getId());
+    }
+
+    @Test
+    public void getSimilarPeople_shouldRequireEveryWordToMatchTheSamePerson() throws Exception {
+        Person person = createPerson("Zebulon", "Quixley");
+        createPerson("Marta", "Quixley");
+        providerManagementService.rebuildPersonNameKeys();
+
+        List<Person> people = providerManagementService.getSimilarPeople("Zebulon Quixley").getPeople();
+        Assert.assertEquals(1, people.size());
+        Assert.assertEquals(person.getId(), people.get(0).getId());
+    }
+
+    @Test
+    public void getSimilarPeople_shouldReturnEmptyResultIfNameBlank() throws Exception {
+        Assert.assertTrue(providerManagementService.getSimilarPeople(" ").isEmpty());
+        Assert.assertTrue(providerManagementService.getSimilarPeople("!!").isEmpty());
+    }
+
+    @Test
+    public void updatePersonNameKeys_shouldRemoveKeysOfVoidedPerson() throws Exception {
+        Person person = createPerson("Zebulon", "Quixley");
+        Person voided = createPerson("Zebulun", "Quicksley");
+        providerManagementService.rebuildPersonNameKeys();
+
+        voided = Context.getPersonService().getPerson(voided.getId());
+        Context.getPersonService().voidPerson(voided, "test");
+        providerManagementService.updatePersonNameKeys(Arrays.asList(voided.getId()));
+
+        List<Person> people = providerManagementService.getSimilarPeople("Quixley").getPeople();
+        Assert.assertEquals(1, people.size());
+        Assert.assertEquals(person.getId(), people.get(0).getId());
+    }
+
+    @Test
+    public void personSearchKeyInterceptor_shouldUpdateNameKeysOfEditedAndVoidedPersonsWhenTransactionCompletes() throws Exception {
+        Person renamed = createPerson("Zebulon", "Quixley");
+        Person voided = createPerson("Zebulun", "Quicksley");
+        providerManagementService.rebuildPersonNameKeys();
+
+        // change a name and void a person, without updating the keys by hand
+        renamed = Context.getPersonService().getPerson(renamed.getId());
+        renamed.getPersonName().setFamilyName("Marchbanks");
+        voided = Context.getPersonService().getPerson(voided.getId());
+        Context.getPersonService().voidPerson(voided, "test");
+
+        // as on commit: hibernate flushes the session, and then tells the interceptors the transaction is completing
+        Context.flushSession();
+        Context.getRegisteredComponents(PersonSearchKeyInterceptor.class).get(0).beforeTransactionCompletion(null);
+
+        Assert.assertTrue(providerManagementService.getSimilarPeople("Quixley").isEmpty());
+
+        List<Person> people = providerManagementService.getSimilarPeople("Marchbanks").getPeople();
+        Assert.assertEquals(1, people.size());
+        Assert.assertEquals(renamed.getId(), people.get(0).getId());
+    }
+
+    @Test
+    public void updatePersonNameKeys_shouldNotMarkTransactionRollbackOnlyIfItFails() throws Exception {
+        Person person = createPerson("Zebulon", "Quixley");
+
+        // this is called just before the transaction that saved the person commits; a failure must not stop that commit
+        try {
+            providerManagementService.updatePersonNameKeys(null);
+            Assert.fail("Expected an exception");
+        }
+        catch (APIException e) {
+            // expected
+        }
+
+        Assert.assertFalse(isTransactionRollbackOnly());
+        Context.flushSession();
+        Assert.assertNotNull(Context.getPersonService().getPerson(person.getId()));
+        Assert.assertFalse(isTransactionRollbackOnly());
+    }
+
+    @Test
+    public void updateActiveAssignments_shouldNotMarkTransactionRollbackOnlyIfItFails() throws Exception {
+
+        Patient patient = Context.getPatientService().getPatient(2);
+        Person provider = Context.getProviderService().getProvider(1004).getPerson();
+        RelationshipType relationshipType = Context.getPersonService().getRelationshipType(1001);
+        providerManagementService.assignPatientToProvider(patient, provider, relationshipType, DATE);
+
+        // these are called just before the transaction that assigned the patient commits; a failure must not stop that commit
+        try {
+            providerManagementService.updateActiveAssignments(null);
+            Assert.fail("Expected an exception");
+        }
+        catch (APIException e) {
+            // expected
+        }
+
+        try {
+            providerManagementService.updateCaseloadSummaries(null);
+            Assert.fail("Expected an exception");
+        }
+        catch (APIException e) {
+            // expected
+        }
+
+        Assert.assertFalse(isTransactionRollbackOnly());
+        Context.flushSession();
+        Assert.assertEquals(1, Context.getPersonService().getRelationships(provider, patient, relationshipType).size());
+        Assert.assertFalse(isTransactionRollbackOnly());
+    }
+
+    /**
+     * @return true if the current transaction has been marked rollback-only, so that committing it would fail
+     */
+    private boolean isTransactionRollbackOnly() {
+        PlatformTransactionManager transactionManager = Context.getRegisteredComponents(PlatformTransactionManager.class).get(0);
+        return transactionManager.getTransaction(new DefaultTransactionDefinition()).isRollbackOnly();
+    }
+
+    private Person createPerson(String givenName, String familyName) {
+        Person person = new Person();
+        person.setGender("M");
+        person.addName(new PersonName(givenName, null, familyName));
+        return Context.getPersonService().savePerson(person);
+    }
+
+    @Test
+    public void getProvidersAsPersons_shouldMatchAllAddressAndAttributeRestrictions() throws Exception {
+        PersonAttributeType testType = Context.getPersonService().getPersonAttributeType(1001);
+        PersonAttributeType colorType = new PersonAttributeType();
+        colorType.setName("Favorite color");
+        colorType.setFormat("java.lang.String");
+        Context.getPersonService().savePersonAttributeType(colorType);
+
+        // persons 6 and 8 both have the "test" attribute, but only person 8 is blue
+        Person person = Context.getPersonService().getPerson(8);
+        person.addAttribute(new PersonAttribute(colorType, "blue"));
+        Context.getPersonService().savePerson(person);
+
+        ProviderSearchCriteria criteria = new ProviderSearchCriteria();
+        criteria.addPersonAttribute(new PersonAttribute(testType, "test"));
+        criteria.addPersonAttribute(new PersonAttribute(colorType, "BLUE"));
+
+        List<Person> providers = providerManagementService.getProvidersAsPersons(criteria);
+        Assert.assertEquals(1, providers.size());
+        Assert.assertEquals(new Integer(8), providers.get(0).getId());
+
+        // person 2 lives at Wishard; give them a second address in Kapina, where person 7 also lives
+        person = Context.getPersonService().getPerson(2);
+        PersonAddress secondAddress = new PersonAddress();
+        secondAddress.setCityVillage("Kapina");
+        person.addAddress(secondAddress);
+        Context.getPersonService().savePerson(person);
+        providerManagementService.rebuildPersonAddressTokens();
+
+        PersonAddress wishard = new PersonAddress();
+        wishard.setAddress1("wishard");
+        PersonAddress kapina = new PersonAddress();
+        kapina.setCityVillage("kapi");
+
+        criteria = new ProviderSearchCriteria();
+        criteria.addPersonAddress(wishard);
+        criteria.addPersonAddress(kapina);
+
+        providers = providerManagementService.getProvidersAsPersons(criteria);
+        Assert.assertEquals(1, providers.size());
+        Assert.assertEquals(new Integer(2), providers.get(0).getId());
+    }
+
+    @Test
+    public void getProvidersAsPersons_shouldReturnEachMatchingPersonOnce() throws Exception {
+        PersonAttributeType testType = Context.getPersonService().getPersonAttributeType(1001);
+
+        // give person 6 (who has the "test" attribute) two matching addresses, which would give two rows if joined
+        Person person = Context.getPersonService().getPerson(6);
+        for (int i = 0; i < 2; i++) {
+            PersonAddress address = new PersonAddress();
+            address.setCityVillage("Kapina");
+            person.addAddress(address);
+        }
+        Context.getPersonService().savePerson(person);
+        providerManagementService.rebuildPersonAddressTokens();
+
+        PersonAddress kapina = new PersonAddress();
+        kapina.setCityVillage("kapi");
+
+        ProviderSearchCriteria criteria = new ProviderSearchCriteria();
+        criteria.addPersonAttribute(new PersonAttribute(testType, "test"));
+        criteria.addPersonAddress(kapina);
+
+        List<Person> providers = providerManagementService.getProvidersAsPersons(criteria);
+        Assert.assertEquals(1, providers.size());
+        Assert.assertEquals(new Integer(6), providers.get(0).getId());
+    }
+
+    @Test
+    public void getProvidersAsPersons_shouldMatchAddressWordsByPrefix() throws Exception {
+        addAddress(6, "12 Rue Capois", "Port-au-Prince");
+
+        Assert.assertEquals(1, getProvidersByAddress("rue cap", null, null).size());
+        Assert.assertEquals(new Integer(6), getProvidersByAddress("capois 12", null, null).get(0).getId());
+        Assert.assertEquals(1, getProvidersByAddress(null, "port", null).size());
+        Assert.assertEquals(1, getProvidersByAddress("rue", "PORT-AU", null).size());
+
+        // each word must start a word of the field
+        Assert.assertEquals(0, getProvidersByAddress("apois", null, null).size());
+        Assert.assertEquals(0, getProvidersByAddress(null, "rue", null).size());
+    }
+
+    @Test
+    public void getProvidersAsPersons_shouldMatchAddressWordsExactly() throws Exception {
+        addAddress(6, "12 Rue Capois", "Port-au-Prince");
+
+        Assert.assertEquals(1, getProvidersByAddress("Capois", null, AddressMatchMode.EXACT).size());
+        Assert.assertEquals(1, getProvidersByAddress(null, "port-au-prince", AddressMatchMode.EXACT).size());
+        Assert.assertEquals(0, getProvidersByAddress("capo", null, AddressMatchMode.EXACT).size());
+    }
+
+    @Test
+    public void getProvidersAsPersons_shouldMatchAddressAnywhereIfRequested() throws Exception {
+        addAddress(6, "12 Rue Capois", "Port-au-Prince");
+
+        PersonAddress address = new PersonAddress();
+        address.setAddress1("apois");
+        ProviderSearchCriteria criteria = new ProviderSearchCriteria();
+        criteria.addPersonAddress(address);
+        criteria.setAddressMatchMode(AddressMatchMode.ANYWHERE);
+
+        List<Person> providers = providerManagementService.getProvidersAsPersons(criteria);
+        Assert.assertEquals(1, providers.size());
+        Assert.assertEquals(new Integer(6), providers.get(0).getId());
+
+        // the default timeout is applied, as none was set
+        Assert.assertEquals(new Integer(30), criteria.getQueryTimeout());
+    }
+
+    private void addAddress(Integer personId, String address1, String cityVillage) {
+        Person person = Context.getPersonService().getPerson(personId);
+        PersonAddress address = new PersonAddress();
+        address.setAddress1(address1);
+        address.setCityVillage(cityVillage);
+        person.addAddress(address);
+        Context.getPersonService().savePerson(person);
+        providerManagementService.updatePersonAddressTokens(Collections.singleton(personId));
+    }
+
+    private List<Person> getProvidersByAddress(String address1, String cityVillage, AddressMatchMode addressMatchMode) {
+        PersonAddress address = new PersonAddress();
+        address.setAddress1(address1);
+        address.setCityVillage(cityVillage);
+        ProviderSearchCriteria criteria = new ProviderSearchCriteria();
+        criteria.addPersonAddress(address);
+        criteria.setAddressMatchMode(addressMatchMode);
+        return providerManagementService.getProvidersAsPersons(criteria);
+    }
+
+}
@@ -0,0 +1,415 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.providermanagement.benchmark;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.hibernate.Query;
+import org.hibernate.SessionFactory;
+import org.junit.Test;
+import org.openmrs.Person;
+import org.openmrs.PersonAddress;
+import org.openmrs.PersonAttribute;
+import org.openmrs.PersonAttributeType;
+import org.openmrs.PersonName;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.providermanagement.Provider;
+import org.openmrs.module.providermanagement.ProviderRole;
+import org.openmrs.module.providermanagement.api.ProviderManagementService;
+import org.openmrs.module.providermanagement.comparator.PersonByFirstNameComparator;
+import org.openmrs.module.providermanagement.search.AddressMatchMode;
+import org.openmrs.module.providermanagement.search.ProviderSearchCriteria;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Benchmarks for provider search against a generated dataset of tens of thousands of providers
+ *
+ * These are too slow to run as part of the normal build, so they only run when the providermanagement.runBenchmarks
+ * system property is set: mvn test -Dtest=ProviderSearchBenchmarkTest -Dprovidermanagement.runBenchmarks=true
+ * (the number of providers can be set via providermanagement.benchmarkProviders)
+ */
+public class ProviderSearchBenchmarkTest extends BaseModuleContextSensitiveTest {
+
+    protected final Log log = LogFactory.getLog(getClass());
+
+    protected static final String XML_DATASET_PATH = "org/openmrs/module/providermanagement/include/";
+
+    protected static final String XML_DATASET = "providerManagement-dataset.xml";
+
+    private static final String[] GIVEN_NAMES = { "Aaron", "Abigail", "Alice", "Amos", "Anet", "Barack", "Benjamin", "Betty",
+            "Brenda", "Carlos", "Catherine", "Daniel", "David", "Edith", "Emmanuel", "Faith", "Francis", "Grace", "Hannah",
+            "Isaac", "Jacob", "James", "Jean", "John", "Joseph", "Josephine", "Judith", "Kevin", "Lucy", "Marie", "Mark",
+            "Mary", "Michael", "Moses", "Nancy", "Paul", "Peter", "Rachel", "Ruth", "Samuel", "Sarah", "Stephen", "Susan",
+            "Thomas", "Victor", "Violet", "William", "Zachary" };
+
+    private static final String[] FAMILY_NAMES = { "Achieng", "Akinyi", "Baptiste", "Bizimana", "Charles", "Dupont", "Esperance",
+            "Fils-Aime", "Gakuru", "Habimana", "Jean-Louis", "Kamau", "Kariuki", "Louis", "Mugisha", "Mutua", "Njoroge",
+            "Nyirahabimana", "Ochieng", "Odhiambo", "Oloo", "Otieno", "Pierre", "Rwigema", "Smith", "Uwimana", "Wanjiru" };
+
+    private static final String[] QUERIES = { "a", "jo", "jean", "mar", "smith", "otieno", "b", "id1", "id12", "mary ach" };
+
+    private static final String[] AREAS = { "Butaro", "Kirehe", "Rwinkwavu", "Neno", "Lisungwi", "Cange", "Mirebalais" };
+
+    private static final String[] LANGUAGES = { "Kinyarwanda", "English", "French", "Chichewa", "Kreyol" };
+
+    private static final String[] CITIES = { "Kigali", "Musanze", "Blantyre", "Lilongwe", "Port-au-Prince", "Hinche" };
+
+    // as typed into the city field of the advanced search; none of these appear in the middle of another city
+    private static final String[] CITY_PREFIXES = { "kig", "mus", "bla", "lil", "port", "hin" };
+
+    private static final int ITERATIONS = 20;
+
+    private ProviderManagementService providerManagementService;
+
+    private PersonAttributeType areaType;
+
+    private PersonAttributeType languageType;
+
+    /**
+     * A provider search strategy to benchmark
+     */
+    private interface Search {
+        List<Person> search(String query);
+    }
+
+    @Before
+    public void init() throws Exception {
+
+        Assume.assumeTrue(Boolean.getBoolean("providermanagement.runBenchmarks"));
+
+        executeDataSet(XML_DATASET_PATH + XML_DATASET);
+        providerManagementService = Context.getService(ProviderManagementService.class);
+
+        areaType = createPersonAttributeType("Catchment area");
+        languageType = createPersonAttributeType("Language");
+
+        int providerCount = Integer.getInteger("providermanagement.benchmarkProviders", 20000);
+        createProviders(providerCount);
+        log.info("Created " + providerCount + " providers");
+
+        providerManagementService.rebuildPersonAddressTokens();
+    }
+
+    @Test
+    public void benchmarkNameOrIdentifierSearch() {
+
+        // the approach used before the single query: two searches, then a union and re-sort in memory
+        Search twoQueries = new Search() {
+            public List<Person> search(String query) {
+                List<Person> nameMatches = providerManagementService.getProvidersAsPersons(query, null, null, false);
+                List<Person> identifierMatches = providerManagementService.getProvidersAsPersons(null, query, null, false);
+                nameMatches.removeAll(identifierMatches);
+                identifierMatches.addAll(nameMatches);
+                Collections.sort(identifierMatches, new PersonByFirstNameComparator());
+                return identifierMatches;
+            }
+        };
+
+        Search singleQuery = new Search() {
+            public List<Person> search(String query) {
+                return providerManagementService.getProvidersAsPersons(query, null, false);
+            }
+        };
+
+        // both approaches should find the same people
+        for (String query : QUERIES) {
+            Assert.assertEquals(query, new HashSet<Person>(twoQueries.search(query)), new HashSet<Person>(singleQuery.search(query)));
+        }
+
+        long twoQueriesTime = time(twoQueries);
+        long singleQueryTime = time(singleQuery);
+
+        log.info("Name or identifier search, two queries and in-memory union: " + twoQueriesTime + " ms");
+        log.info("Name or identifier search, single query: " + singleQueryTime + " ms");
+    }
+
+    @Test
+    public void benchmarkRowsFetchedForMultiNamePersons() {
+
+        List<ProviderRole> roles = new ArrayList<ProviderRole>();
+        roles.add(providerManagementService.getProviderRole(1001));
+
+        // all the providers with a role: before the two-phase search, this fetched one row per provider per name
+        long joinedRows = countJoinedRows(null);
+        int persons = providerManagementService.getProvidersAsPersons(null, null, roles, false).size();
+        log.info("Search by role: " + joinedRows + " joined rows fetched before, " + persons + " rows fetched now");
+        Assert.assertTrue(persons <= joinedRows);
+
+        for (String query : QUERIES) {
+            joinedRows = countJoinedRows(query);
+            persons = providerManagementService.getProvidersAsPersons(query, null, null, false).size();
+            log.info("Search by name \"" + query + "\": " + joinedRows + " joined rows fetched before, " + persons + " rows fetched now");
+            Assert.assertTrue(persons <= joinedRows);
+        }
+
+        Search twoPhase = new Search() {
+            public List<Person> search(String query) {
+                return providerManagementService.getProvidersAsPersons(query, null, null, false);
+            }
+        };
+
+        log.info("Name search, two-phase: " + time(twoPhase) + " ms");
+    }
+
+    @Test
+    public void benchmarkMultipleAttributeAndAddressSearch() {
+
+        // the queries here are catchment areas; every search also restricts by language and by (part of) city
+        final String language = "english";
+        final String city = "l";
+
+        // one join per restriction, with the duplicate rows removed by the database
+        Search joins = new Search() {
+            public List<Person> search(String area) {
+                Query query = createMultipleRestrictionJoinQuery("select distinct person", area, language, city);
+                @SuppressWarnings("unchecked")
+                List<Person> persons = query.list();
+                return persons;
+            }
+        };
+
+        // one correlated exists subquery per restriction
+        Search existsSubqueries = new Search() {
+            public List<Person> search(String area) {
+                ProviderSearchCriteria criteria = new ProviderSearchCriteria();
+                criteria.addPersonAttribute(new PersonAttribute(areaType, area));
+                criteria.addPersonAttribute(new PersonAttribute(languageType, language));
+                PersonAddress address = new PersonAddress();
+                address.setCityVillage(city);
+                criteria.addPersonAddress(address);
+                criteria.setAddressMatchMode(AddressMatchMode.ANYWHERE);
+                return providerManagementService.getProvidersAsPersons(criteria);
+            }
+        };
+
+        for (String area : AREAS) {
+            long joinedRows = ((Number) createMultipleRestrictionJoinQuery("select count(*)", area, language, city).uniqueResult()).longValue();
+            List<Person> persons = existsSubqueries.search(area);
+            log.info("Search by area \"" + area + "\", language and city: " + joinedRows + " joined rows, " + persons.size() + " persons");
+            Assert.assertEquals(area, new HashSet<Person>(joins.search(area)), new HashSet<Person>(persons));
+        }
+
+        log.info("Multiple attribute and address search, joins: " + time(joins, AREAS) + " ms");
+        log.info("Multiple attribute and address search, exists subqueries: " + time(existsSubqueries, AREAS) + " ms");
+    }
+
+    @Test
+    public void benchmarkAddressPrefixSearch() {
+
+        // matching anywhere in the field, which has to scan the address table
+        Search anywhere = new Search() {
+            public List<Person> search(String city) {
+                return providerManagementService.getProvidersAsPersons(createCityCriteria(city, AddressMatchMode.ANYWHERE));
+            }
+        };
+
+        // matching the start of a word, using the (field, token) index of the address token table
+        Search tokenPrefix = new Search() {
+            public List<Person> search(String city) {
+                return providerManagementService.getProvidersAsPersons(createCityCriteria(city, AddressMatchMode.PREFIX));
+            }
+        };
+
+        for (String city : CITY_PREFIXES) {
+            Assert.assertEquals(city, new HashSet<Person>(anywhere.search(city)), new HashSet<Person>(tokenPrefix.search(city)));
+        }
+
+        log.info("Address search, anywhere: " + time(anywhere, CITY_PREFIXES) + " ms");
+        log.info("Address search, token prefix: " + time(tokenPrefix, CITY_PREFIXES) + " ms");
+    }
+
+    @Test
+    public void benchmarkProviderSearchTable() {
+
+        providerManagementService.rebuildProviderSearchEntries();
+
+        // joining the provider, person and person name tables
+        Search personTables = new Search() {
+            public List<Person> search(String name) {
+                return providerManagementService.getProvidersAsPersons(createNameCriteria(name, false));
+            }
+        };
+
+        // the single provider search table
+        Search searchTable = new Search() {
+            public List<Person> search(String name) {
+                return providerManagementService.getProvidersAsPersons(createNameCriteria(name, true));
+            }
+        };
+
+        // the table can match the words of a multi-word query against different names of the same person, so it
+        // may find more persons, but never fewer
+        for (String query : QUERIES) {
+            Assert.assertTrue(query, searchTable.search(query).containsAll(personTables.search(query)));
+        }
+
+        log.info("Name search, person tables: " + time(personTables) + " ms");
+        log.info("Name search, provider search table: " + time(searchTable) + " ms");
+    }
+
+    private ProviderSearchCriteria createNameCriteria(String name, boolean useProviderSearchTable) {
+        ProviderSearchCriteria criteria = new ProviderSearchCriteria();
+        criteria.setName(name);
+        criteria.setUseProviderSearchTable(useProviderSearchTable);
+        return criteria;
+    }
+
+    private ProviderSearchCriteria createCityCriteria(String city, AddressMatchMode addressMatchMode) {
+        ProviderSearchCriteria criteria = new ProviderSearchCriteria();
+        PersonAddress address = new PersonAddress();
+        address.setCityVillage(city);
+        criteria.addPersonAddress(address);
+        criteria.setAddressMatchMode(addressMatchMode);
+        return criteria;
+    }
+
+    /**
+     * Creates a query that restricts providers by area attribute, language attribute and city by joining the
+     * attribute and address tables, which gives a row for every combination of matching attributes and addresses
+     */
+    private Query createMultipleRestrictionJoinQuery(String select, String area, String language, String city) {
+
+        StringBuilder hql = new StringBuilder(select);
+        hql.append(" from ").append(Provider.class.getName()).append(" provider join provider.person person");
+        hql.append(" join person.attributes area join person.attributes language join person.addresses address");
+        hql.append(" where provider.retired = false and person.personVoided = false");
+        hql.append(" and area.attributeType.personAttributeTypeId = :areaTypeId and lower(area.value) = :area");
+        hql.append(" and language.attributeType.personAttributeTypeId = :languageTypeId and lower(language.value) = :language");
+        hql.append(" and lower(address.cityVillage) like :city");
+
+        Query query = Context.getRegisteredComponents(SessionFactory.class).get(0).getCurrentSession().createQuery(hql.toString());
+        query.setParameter("areaTypeId", areaType.getPersonAttributeTypeId());
+        query.setParameter("area", area.toLowerCase());
+        query.setParameter("languageTypeId", languageType.getPersonAttributeTypeId());
+        query.setParameter("language", language.toLowerCase());
+        query.setParameter("city", "%" + city.toLowerCase() + "%");
+
+        return query;
+    }
+
+    /**
+     * Counts the rows returned by the provider/person/name join that the search used before it was split into an
+     * id projection and a batched fetch, ie, the number of rows Hibernate had to read (and then de-duplicate in memory)
+     */
+    private long countJoinedRows(String name) {
+
+        StringBuilder hql = new StringBuilder();
+        hql.append("select count(*) from ").append(Provider.class.getName()).append(" provider join provider.person person join person.names name");
+        hql.append(" where provider.retired = false and person.personVoided = false");
+        if (name == null) {
+            hql.append(" and provider.providerRole.providerRoleId = 1001");
+        }
+        else {
+            hql.append(" and (lower(name.givenName) like :name or lower(name.middleName) like :name or lower(name.familyName) like :name)");
+        }
+
+        Query query = Context.getRegisteredComponents(SessionFactory.class).get(0).getCurrentSession().createQuery(hql.toString());
+        if (name != null) {
+            query.setParameter("name", name.toLowerCase() + "%");
+        }
+
+        return ((Number) query.uniqueResult()).longValue();
+    }
+
+    /**
+     * @return the average time, in milliseconds, to run all the benchmark queries with the specified search
+     */
+    protected long time(Search search) {
+        return time(search, QUERIES);
+    }
+
+    /**
+     * @return the average time, in milliseconds, to run all the specified queries with the specified search
+     */
+    protected long time(Search search, String[] queries) {
+
+        // warm up
+        for (String query : queries) {
+            search.search(query);
+        }
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            for (String query : queries) {
+                search.search(query);
+            }
+            // make sure we are measuring the queries, not the first-level cache
+            Context.clearSession();
+        }
+
+        return (System.nanoTime() - start) / ITERATIONS / 1000000;
+    }
+
+    private void createProviders(int count) {
+
+        for (int i = 0; i < count; i++) {
+
+            Person person = new Person();
+            person.setGender(i % 2 == 0 ? "F" : "M");
+            PersonName preferredName = new PersonName(GIVEN_NAMES[i % GIVEN_NAMES.length], null, FAMILY_NAMES[(i / GIVEN_NAMES.length) % FAMILY_NAMES.length]);
+            preferredName.setPreferred(true);
+            person.addName(preferredName);
+
+            // give most of the people a few other names as well, as these are what multiplied the rows of the old search
+            for (int n = 1; n <= i % 4; n++) {
+                person.addName(new PersonName(GIVEN_NAMES[(i + n) % GIVEN_NAMES.length], null, FAMILY_NAMES[(i + n) % FAMILY_NAMES.length]));
+            }
+
+            // and an area, a language, and one to three addresses, for the attribute and address searches
+            person.addAttribute(new PersonAttribute(Context.getPersonService().getPersonAttributeType(areaType.getId()), AREAS[i % AREAS.length]));
+            person.addAttribute(new PersonAttribute(Context.getPersonService().getPersonAttributeType(languageType.getId()), LANGUAGES[(i / AREAS.length) % LANGUAGES.length]));
+            for (int n = 0; n <= i % 3; n++) {
+                PersonAddress address = new PersonAddress();
+                address.setCityVillage(CITIES[(i + n) % CITIES.length]);
+                person.addAddress(address);
+            }
+            Context.getPersonService().savePerson(person);
+
+            // re-fetched each time, because the session is periodically cleared below
+            ProviderRole role = providerManagementService.getProviderRole(1001 + (i % 3));
+
+            Provider provider = new Provider();
+            provider.setPerson(person);
+            provider.setIdentifier("ID" + i);
+            provider.setProviderRole(role);
+            Context.getProviderService().saveProvider(provider);
+
+            if (i % 500 == 0) {
+                Context.flushSession();
+                Context.clearSession();
+            }
+        }
+
+        Context.flushSession();
+        Context.clearSession();
+    }
+
+    private PersonAttributeType createPersonAttributeType(String name) {
+        PersonAttributeType type = new PersonAttributeType();
+        type.setName(name);
+        type.setFormat("java.lang.String");
+        return Context.getPersonService().savePersonAttributeType(type);
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+
+package org.openmrs.module.providermanagement.cache;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class PersonProviderCacheTest {
+
+    @Test
+    public void shouldCountHitsAndMisses() {
+
+        PersonProviderCache cache = new PersonProviderCache();
+        List<CachedProvider> providers = Arrays.asList(new CachedProvider(1, 10, false));
+
+        Assert.assertNull(cache.get(1));
+        Assert.assertTrue(cache.put(1, providers, cache.getVersion()));
+        Assert.assertEquals(1, cache.get(1).size());
+        Assert.assertEquals(new Integer(10), cache.get(1).get(0).getProviderRoleId());
+
+        Assert.assertEquals(2, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(2.0 / 3, cache.getHitRatio(), 0.0001);
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedEntries() {
+
+        PersonProviderCache cache = new PersonProviderCache();
+        cache.setMaxSize(2);
+        List<CachedProvider> providers = Arrays.asList(new CachedProvider(1, 10, false));
+
+        cache.put(1, providers, cache.getVersion());
+        cache.put(2, providers, cache.getVersion());
+        cache.get(1);
+        cache.put(3, providers, cache.getVersion());
+
+        Assert.assertEquals(2, cache.getSize());
+        Assert.assertNotNull(cache.get(1));
+        Assert.assertNull(cache.get(2));
+        Assert.assertNotNull(cache.get(3));
+
+        cache.setMaxSize(1);
+        Assert.assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    public void shouldNotStoreEntryLoadedBeforeInvalidation() {
+
+        PersonProviderCache cache = new PersonProviderCache();
+        List<CachedProvider> providers = Arrays.asList(new CachedProvider(1, 10, false));
+
+        long version = cache.getVersion();
+        cache.invalidate(2);
+
+        Assert.assertFalse(cache.put(1, providers, version));
+        Assert.assertNull(cache.get(1));
+
+        Assert.assertTrue(cache.put(1, providers, cache.getVersion()));
+        cache.invalidateOnTransactionCompletion(1);
+        Assert.assertNull(cache.get(1));
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.providermanagement.cache;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class ProviderNameIndexTest {
+
+    @Test
+    public void shouldMatchEveryWordAgainstTheSameName() {
+
+        ProviderNameIndex index = createIndex();
+
+        // Joan sorts before John
+        Assert.assertEquals(Arrays.asList(3, 1), getPersonIds(index.search("jo", null, true, null)));
+        Assert.assertEquals(Arrays.asList(1), getPersonIds(index.search("john sm", null, true, null)));
+        Assert.assertEquals(Arrays.asList(1), getPersonIds(index.search("smith, john", null, true, null)));
+
+        // person 3 is "Joan" in one name and "Doe" in another, so the words don't match a single name
+        Assert.assertTrue(index.search("joan doe", null, true, null).isEmpty());
+        Assert.assertTrue(index.search("", null, true, null).isEmpty());
+    }
+
+    @Test
+    public void shouldMatchIdentifierPrefix() {
+
+        ProviderNameIndex index = createIndex();
+
+        Assert.assertEquals(Arrays.asList(2, 3), getPersonIds(index.search("ab", null, true, null)));
+        Assert.assertEquals(Arrays.asList(2), getPersonIds(index.search("AB1", null, true, null)));
+    }
+
+    @Test
+    public void shouldFilterByRoleRetiredAndExcludedPersons() {
+
+        ProviderNameIndex index = createIndex();
+
+        Assert.assertEquals(Arrays.asList(3, 1), getPersonIds(index.search("jo", Arrays.asList(10, 20), true, null)));
+        Assert.assertEquals(Arrays.asList(1), getPersonIds(index.search("jo", Arrays.asList(10), true, null)));
+
+        // person 3's only provider is retired
+        Assert.assertEquals(Arrays.asList(1), getPersonIds(index.search("jo", null, false, null)));
+        Assert.assertEquals(Arrays.asList(3), getPersonIds(index.search("jo", null, true, Arrays.asList(1))));
+
+        // the identifier must belong to a provider that passes the filters
+        Assert.assertEquals(Arrays.asList(2), getPersonIds(index.search("ab", null, false, null)));
+    }
+
+    @Test
+    public void shouldSortByDisplayNameThenPersonId() {
+
+        ProviderNameIndex index = new ProviderNameIndex();
+        index.install(Arrays.asList(createEntry(5, "bob", null, "Adams", 10, "x1"),
+                createEntry(4, "Bob", null, "adams", 10, "x2"),
+                createEntry(6, "Anne", null, "Zed", 10, "x3")), Arrays.asList(4, 5, 6));
+
+        List<ProviderNameIndexEntry> matches = index.search("x", null, true, null);
+        Assert.assertEquals(Arrays.asList(6, 4, 5), getPersonIds(matches));
+
+        // the cursor taken from an entry sorts at that entry
+        Assert.assertEquals(0, ProviderNameIndex.compare(matches.get(1), ProviderNameIndex.toCursor(matches.get(1))));
+        Assert.assertTrue(ProviderNameIndex.compare(matches.get(2), ProviderNameIndex.toCursor(matches.get(1))) > 0);
+    }
+
+    @Test
+    public void shouldUpdateAndRemoveEntries() {
+
+        ProviderNameIndex index = createIndex();
+
+        index.update(Arrays.asList(1, 2), Arrays.asList(createEntry(1, "Jack", null, "Smith", 10, "cd1")), Arrays.asList(1));
+
+        Assert.assertTrue(index.contains(1));
+        Assert.assertFalse(index.contains(2));
+        Assert.assertEquals(2, index.getSize());
+        Assert.assertEquals(Arrays.asList(3), getPersonIds(index.search("jo", null, true, null)));
+        Assert.assertEquals(Arrays.asList(1), getPersonIds(index.search("ja", null, true, null)));
+        Assert.assertEquals(Arrays.asList(3), getPersonIds(index.search("ab", null, true, null)));
+
+        Assert.assertTrue(index.isProviderPerson(1));
+        Assert.assertFalse(index.isProviderPerson(2));
+    }
+
+    @Test
+    public void shouldNotHandOutStalePersonsWhileRebuilding() {
+
+        ProviderNameIndex index = createIndex();
+
+        index.startRebuild();
+        index.markStale(Arrays.asList(1));
+        Assert.assertTrue(index.drainStalePersonIds().isEmpty());
+
+        index.install(Collections.<ProviderNameIndexEntry>emptyList(), Collections.<Integer>emptyList());
+        Assert.assertEquals(Collections.singleton(1), index.drainStalePersonIds());
+        Assert.assertTrue(index.drainStalePersonIds().isEmpty());
+
+        index.setEnabled(false);
+        Assert.assertFalse(index.isBuilt());
+    }
+
+    @Test
+    public void shouldNotLoseChangesToPersonsMadeWhileRebuilding() {
+
+        ProviderNameIndex index = new ProviderNameIndex();
+        index.setEnabled(true);
+
+        // while the first build is running, nothing is in the index yet, but any change may affect the entries being loaded
+        index.startRebuild();
+        Assert.assertTrue(index.isProviderPerson(1));
+        index.markStaleIfProviderOnTransactionCompletion(1);
+
+        index.install(Arrays.asList(createEntry(1, "John", null, "Smith", 10, null)), Arrays.asList(1));
+        Assert.assertEquals(Collections.singleton(1), index.drainStalePersonIds());
+
+        // once built, changes to persons that aren't providers are ignored
+        index.markStaleIfProviderOnTransactionCompletion(2);
+        Assert.assertTrue(index.drainStalePersonIds().isEmpty());
+    }
+
+    @Test
+    public void shouldNotLoseNameAddedToProviderWithoutNames() {
+
+        ProviderNameIndex index = new ProviderNameIndex();
+        index.setEnabled(true);
+
+        // person 7 is a provider, but has no names, so has no entry
+        index.install(Arrays.asList(createEntry(1, "John", null, "Smith", 10, null)), Arrays.asList(1, 7));
+        Assert.assertFalse(index.contains(7));
+
+        index.markStaleIfProviderOnTransactionCompletion(7);
+        Assert.assertEquals(Collections.singleton(7), index.drainStalePersonIds());
+
+        index.update(Arrays.asList(7), Arrays.asList(createEntry(7, "Jane", null, "Doe", 10, null)), Arrays.asList(7));
+        Assert.assertEquals(Arrays.asList(7), getPersonIds(index.search("jane", null, true, null)));
+    }
+
+    private ProviderNameIndex createIndex() {
+
+        ProviderNameIndexEntry joan = createEntry(3, "Joan", null, "Jones", 20, "ab2");
+        joan.addName("Mary", null, "Doe", null);
+
+        ProviderNameIndex index = new ProviderNameIndex();
+        index.setEnabled(true);
+        index.install(Arrays.asList(createEntry(1, "John", "Q", "Smith", 10, null),
+                createEntry(2, "Alice", null, "Brown", null, "AB1"),
+                retire(joan)), Arrays.asList(1, 2, 3));
+        return index;
+    }
+
+    private ProviderNameIndexEntry createEntry(Integer personId, String givenName, String middleName, String familyName, Integer providerRoleId, String identifier) {
+        ProviderNameIndexEntry entry = new ProviderNameIndexEntry(personId, givenName, middleName, familyName);
+        entry.addName(givenName, middleName, familyName, null);
+        entry.addProvider(personId * 100, providerRoleId, false, identifier);
+        return entry;
+    }
+
+    // replaces the providers of the entry with a single retired provider with the same role and identifier
+    private ProviderNameIndexEntry retire(ProviderNameIndexEntry entry) {
+        ProviderNameIndexEntry retired = new ProviderNameIndexEntry(entry.getPersonId(), entry.getGivenName(), entry.getMiddleName(), entry.getFamilyName());
+        for (String[] nameParts : entry.getNames()) {
+            retired.addName(nameParts[0], nameParts[1], nameParts[2], nameParts[3]);
+        }
+        ProviderNameIndexEntry.IndexedProvider provider = entry.getProviders().get(0);
+        retired.addProvider(provider.getProviderId(), provider.getProviderRoleId(), true, provider.getIdentifier());
+        return retired;
+    }
+
+    private List<Integer> getPersonIds(List<ProviderNameIndexEntry> entries) {
+        List<Integer> personIds = new ArrayList<Integer>();
+        for (ProviderNameIndexEntry entry : entries) {
+            personIds.add(entry.getPersonId());
+        }
+        return personIds;
+    }
+}
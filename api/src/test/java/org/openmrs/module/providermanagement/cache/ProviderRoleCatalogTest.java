@@ -0,0 +1,112 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.providermanagement.cache;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.openmrs.RelationshipType;
+import org.openmrs.module.providermanagement.ProviderRole;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+public class ProviderRoleCatalogTest {
+
+    @Test
+    public void shouldIndexRelationshipTypesAndSuperviseeRoles() {
+
+        ProviderRole supervisee = createProviderRole(1, false, createRelationshipType(10));
+        ProviderRole supervisor = createProviderRole(2, false, createRelationshipType(11), supervisee);
+        ProviderRole retiredSupervisor = createProviderRole(3, true, createRelationshipType(12), supervisee);
+
+        ProviderRoleCatalog catalog = ProviderRoleCatalog.build(Arrays.asList(supervisee, supervisor, retiredSupervisor), 5);
+
+        Assert.assertEquals(5, catalog.getVersion());
+        Assert.assertEquals(new HashSet<Integer>(Arrays.asList(1, 2, 3)), catalog.getProviderRoleIds(true));
+        Assert.assertEquals(new HashSet<Integer>(Arrays.asList(1, 2)), catalog.getProviderRoleIds(false));
+        Assert.assertTrue(catalog.isRetired(3));
+
+        Assert.assertEquals(new HashSet<Integer>(Arrays.asList(10, 11, 12)), catalog.getRelationshipTypeIds(true));
+        Assert.assertEquals(new HashSet<Integer>(Arrays.asList(10, 11)), catalog.getRelationshipTypeIds(false));
+        Assert.assertTrue(catalog.getProviderRoleIdsByRelationshipType(12).isEmpty());
+
+        Assert.assertEquals(new HashSet<Integer>(Arrays.asList(1)), catalog.getSuperviseeProviderRoleIds(3));
+
+        // retired roles are excluded from the inverse index
+        Assert.assertEquals(new HashSet<Integer>(Arrays.asList(2)), catalog.getSupervisorProviderRoleIds(1));
+        Assert.assertTrue(catalog.getSupervisorProviderRoleIds(2).isEmpty());
+    }
+
+    @Test
+    public void shouldTestSupervisionUsingRoleMasks() {
+
+        ProviderRole supervisee = createProviderRole(1, false, createRelationshipType(10));
+        ProviderRole otherSupervisee = createProviderRole(4, false, createRelationshipType(10));
+        ProviderRole supervisor = createProviderRole(2, false, createRelationshipType(11), supervisee);
+        ProviderRole retiredSupervisor = createProviderRole(3, true, createRelationshipType(12), supervisee, otherSupervisee);
+
+        ProviderRoleCatalog catalog = ProviderRoleCatalog.build(Arrays.asList(supervisee, otherSupervisee, supervisor, retiredSupervisor), 0);
+
+        Assert.assertEquals(0, catalog.getOrdinal(1));
+        Assert.assertEquals(3, catalog.getOrdinal(4));
+        Assert.assertEquals(-1, catalog.getOrdinal(5));
+
+        Assert.assertTrue(catalog.canSupervise(Arrays.asList(2), Arrays.asList(1)));
+        Assert.assertTrue(catalog.canSupervise(Arrays.asList(1, 2), Arrays.asList(4, 1)));
+        Assert.assertFalse(catalog.canSupervise(Arrays.asList(2), Arrays.asList(4)));
+        Assert.assertFalse(catalog.canSupervise(Arrays.asList(1), Arrays.asList(2)));
+        Assert.assertFalse(catalog.canSupervise(Arrays.asList(5), Arrays.asList(1)));
+
+        Assert.assertTrue(catalog.canSupervise(2, 1));
+        Assert.assertTrue(catalog.canSupervise(3, 4));
+        Assert.assertFalse(catalog.canSupervise(2, 4));
+        Assert.assertFalse(catalog.canSupervise(5, 1));
+        Assert.assertFalse(catalog.canSupervise(2, (Integer) null));
+
+        Assert.assertEquals(new HashSet<Integer>(Arrays.asList(1, 4)), catalog.getSuperviseeProviderRoleIds(Arrays.asList(2, 3)));
+        Assert.assertEquals(new HashSet<Integer>(Arrays.asList(2)), catalog.getSupervisorProviderRoleIds(Arrays.asList(1, 4)));
+    }
+
+    @Test
+    public void shouldNotInstallCatalogBuiltBeforeInvalidation() {
+
+        ProviderRoleCatalogCache cache = new ProviderRoleCatalogCache();
+        ProviderRoleCatalog catalog = ProviderRoleCatalog.build(null, cache.getVersion());
+
+        cache.invalidate();
+
+        Assert.assertFalse(cache.install(catalog));
+        Assert.assertNull(cache.getCatalog());
+
+        catalog = ProviderRoleCatalog.build(null, cache.getVersion());
+        Assert.assertTrue(cache.install(catalog));
+        Assert.assertSame(catalog, cache.getCatalog());
+    }
+
+    private ProviderRole createProviderRole(Integer id, boolean retired, RelationshipType relationshipType, ProviderRole... superviseeProviderRoles) {
+        ProviderRole providerRole = new ProviderRole();
+        providerRole.setId(id);
+        providerRole.setRetired(retired);
+        providerRole.setRelationshipTypes(new HashSet<RelationshipType>(Arrays.asList(relationshipType)));
+        providerRole.setSuperviseeProviderRoles(new HashSet<ProviderRole>(Arrays.asList(superviseeProviderRoles)));
+        return providerRole;
+    }
+
+    private RelationshipType createRelationshipType(Integer id) {
+        RelationshipType relationshipType = new RelationshipType();
+        relationshipType.setId(id);
+        return relationshipType;
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.providermanagement.cache;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.openmrs.module.providermanagement.ProviderRole;
+
+import java.util.Arrays;
+
+public class ProviderSearchCacheTest {
+
+    @Test
+    public void shouldCountHitsAndMisses() {
+
+        ProviderSearchCache cache = new ProviderSearchCache();
+        cache.setTimeToLive(60000);
+
+        Assert.assertNull(cache.get("key"));
+        Assert.assertTrue(cache.put("key", Arrays.asList(3, 1), cache.getVersion()));
+        Assert.assertEquals(Arrays.asList(3, 1), cache.get("key"));
+        Assert.assertEquals(Arrays.asList(3, 1), cache.get("key"));
+
+        Assert.assertEquals(2, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(2.0 / 3, cache.getHitRatio(), 0.0001);
+    }
+
+    @Test
+    public void shouldExpireEntriesAfterTimeToLive() {
+
+        final long[] now = { 1000 };
+        ProviderSearchCache cache = new ProviderSearchCache() {
+            @Override
+            long now() {
+                return now[0];
+            }
+        };
+        cache.setTimeToLive(100);
+
+        cache.put("key", Arrays.asList(1), cache.getVersion());
+        now[0] += 99;
+        Assert.assertNotNull(cache.get("key"));
+
+        now[0] += 1;
+        Assert.assertNull(cache.get("key"));
+        Assert.assertEquals(1, cache.getExpirations());
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedEntries() {
+
+        ProviderSearchCache cache = new ProviderSearchCache();
+        cache.setTimeToLive(60000);
+        cache.setMaxSize(2);
+
+        cache.put("a", Arrays.asList(1), cache.getVersion());
+        cache.put("b", Arrays.asList(2), cache.getVersion());
+        cache.get("a");
+        cache.put("c", Arrays.asList(3), cache.getVersion());
+
+        Assert.assertEquals(2, cache.getSize());
+        Assert.assertNotNull(cache.get("a"));
+        Assert.assertNull(cache.get("b"));
+        Assert.assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    public void shouldNotStoreEntryLoadedBeforeInvalidation() {
+
+        ProviderSearchCache cache = new ProviderSearchCache();
+        cache.setTimeToLive(60000);
+
+        long version = cache.getVersion();
+        cache.invalidateAll();
+
+        Assert.assertFalse(cache.put("key", Arrays.asList(1), version));
+        Assert.assertNull(cache.get("key"));
+
+        Assert.assertTrue(cache.put("key", Arrays.asList(1), cache.getVersion()));
+        cache.invalidateOnTransactionCompletion();
+        Assert.assertNull(cache.get("key"));
+    }
+
+    @Test
+    public void shouldCreateSameKeyForSameSearch() {
+
+        Assert.assertEquals(ProviderSearchCache.createKey("Smith", Arrays.asList(createRole(2), createRole(1)), false),
+                ProviderSearchCache.createKey("sMITH", Arrays.asList(createRole(1), createRole(2)), false));
+        Assert.assertEquals(ProviderSearchCache.createKey("smith", null, false),
+                ProviderSearchCache.createKey("smith", Arrays.<ProviderRole>asList(), false));
+
+        Assert.assertFalse(ProviderSearchCache.createKey("smith", null, false).equals(ProviderSearchCache.createKey("smith", null, true)));
+        Assert.assertFalse(ProviderSearchCache.createKey("smith", null, false).equals(ProviderSearchCache.createKey("smith", Arrays.asList(createRole(1)), false)));
+    }
+
+    private ProviderRole createRole(Integer id) {
+        ProviderRole role = new ProviderRole();
+        role.setId(id);
+        return role;
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.providermanagement.caseload;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+public class CaseloadSweepTest {
+
+    @Test
+    public void shouldCountPatientsActiveOnEachDate() {
+
+        CaseloadSweep sweep = new CaseloadSweep(createDates(5), Arrays.asList(1, 2));
+
+        // patient 10 from day 1 until day 3, patient 11 from before the series with no end, patient 12 from day 4
+        sweep.addRelationship(1, 10, day(1), day(3));
+        sweep.addRelationship(1, 11, null, null);
+        sweep.addRelationship(1, 12, day(4), null);
+
+        // a relationship is active on the day it ends, even if it starts on the same day
+        sweep.addRelationship(2, 10, day(2), day(2));
+
+        CaseloadTimeSeries series = sweep.getTimeSeries();
+
+        Assert.assertEquals(5, series.getDates().size());
+        Assert.assertTrue(Arrays.equals(new int[] { 1, 2, 2, 2, 2 }, series.getCounts(1)));
+        Assert.assertTrue(Arrays.equals(new int[] { 0, 0, 1, 0, 0 }, series.getCounts(2)));
+    }
+
+    @Test
+    public void shouldCountPatientsLinkedByOverlappingRelationshipsOnce() {
+
+        CaseloadSweep sweep = new CaseloadSweep(createDates(6), Arrays.asList(1));
+
+        // overlapping and back-to-back relationships with the same patient merge, but a gap is not counted
+        sweep.addRelationship(1, 10, day(2), day(4));
+        sweep.addRelationship(1, 10, day(0), day(3));
+        sweep.addRelationship(1, 10, day(4), day(5));
+        sweep.addRelationship(1, 11, day(1), day(1));
+        sweep.addRelationship(1, 11, day(3), null);
+
+        Assert.assertTrue(Arrays.equals(new int[] { 1, 2, 1, 2, 2, 2 }, sweep.getTimeSeries().getCounts(1)));
+    }
+
+    private List<Date> createDates(int days) {
+        List<Date> dates = new ArrayList<Date>();
+        for (int i = 0; i < days; i++) {
+            dates.add(day(i));
+        }
+        return dates;
+    }
+
+    private Date day(int i) {
+        return new Date(1000000000000L + i * 86400000L);
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.providermanagement.search;
+
+import junit.framework.Assert;
+import org.junit.Test;
+import org.openmrs.PersonAddress;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+public class PersonAddressTokensTest {
+
+    @Test
+    public void shouldTokenizeEachWordOfAField() {
+        Assert.assertEquals(new LinkedHashSet<String>(Arrays.asList("1050", "wishard", "blvd")),
+                PersonAddressTokens.getTokens("1050 Wishard  Blvd."));
+        Assert.assertEquals(new LinkedHashSet<String>(Arrays.asList("portauprince")), PersonAddressTokens.getTokens("Port-au-Prince, port-au-prince"));
+        Assert.assertTrue(PersonAddressTokens.getTokens(null).isEmpty());
+    }
+
+    @Test
+    public void shouldGetValuesOfAllTokenizedFields() {
+        PersonAddress address = new PersonAddress();
+        address.setCityVillage("Kapina");
+
+        Assert.assertEquals(PersonAddressTokens.FIELDS, Arrays.asList(PersonAddressTokens.getFieldValues(address).keySet().toArray()));
+        Assert.assertEquals("Kapina", PersonAddressTokens.getFieldValues(address).get("cityVillage"));
+    }
+}
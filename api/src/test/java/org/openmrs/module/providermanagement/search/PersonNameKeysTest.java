@@ -0,0 +1,49 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.providermanagement.search;
+
+import junit.framework.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+public class PersonNameKeysTest {
+
+    @Test
+    public void shouldComputeSoundexCodes() {
+        Assert.assertEquals("R163", PersonNameKeys.soundex("robert"));
+        Assert.assertEquals("R163", PersonNameKeys.soundex("rupert"));
+        Assert.assertEquals("A261", PersonNameKeys.soundex("ashcraft"));
+        Assert.assertEquals("T522", PersonNameKeys.soundex("tymczak"));
+        Assert.assertEquals("P236", PersonNameKeys.soundex("pfister"));
+        Assert.assertEquals("L000", PersonNameKeys.soundex("lee"));
+        Assert.assertNull(PersonNameKeys.soundex("123"));
+    }
+
+    @Test
+    public void shouldNormalizeWords() {
+        Assert.assertEquals(Arrays.asList("jose", "oneil", "smith"), PersonNameKeys.getWords(" Jos\u00e9  O'Neil,Smith "));
+        Assert.assertTrue(PersonNameKeys.getWords("!!").isEmpty());
+        Assert.assertTrue(PersonNameKeys.getWords(null).isEmpty());
+    }
+
+    @Test
+    public void shouldGenerateNormalizedAndPhoneticKeysForEachWord() {
+        Assert.assertEquals(new LinkedHashSet<String>(Arrays.asList("n:mary", "s:M600", "n:smyth", "s:S530")),
+                PersonNameKeys.getKeys("Mary", null, "Smyth"));
+        Assert.assertEquals(PersonNameKeys.getPhoneticKey("smith"), PersonNameKeys.getPhoneticKey("smyth"));
+    }
+}
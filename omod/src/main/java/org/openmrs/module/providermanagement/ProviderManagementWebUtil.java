@@ -17,17 +17,27 @@ import org.openmrs.Relationship;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.providermanagement.api.ProviderManagementService;
 import org.openmrs.module.providermanagement.exception.PersonIsNotProviderException;
+import org.openmrs.module.providermanagement.search.ProviderSearchRow;
 import org.openmrs.ui.framework.Model;
 import org.openmrs.ui.framework.SimpleObject;
 import org.openmrs.ui.framework.UiUtils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class ProviderManagementWebUtil {
 
     // TODO: unit test web utility methods (see PROV-52)
 
+    // the result fields that can be filled in from a ProviderSearchRow
+    private static final Set<String> PROVIDER_SEARCH_ROW_FIELDS = new HashSet<String>(Arrays.asList("id", "gender",
+            "personName.givenName", "personName.middleName", "personName.familyName", "provider.identifier",
+            "provider.providerRole", "provider.providerRole.name", "provider.providerRole.uuid", "provider.retired"));
+
     /**
      * Utility method that, given a model, a person param, and a person id, fetches a
      * person; this method is used by fragment controllers that need to resolve a person
@@ -72,8 +82,19 @@ public class ProviderManagementWebUtil {
      */
     public static Provider getProvider(Person person)
             throws PersonIsNotProviderException {
+        return getProvider(Context.getService(ProviderManagementService.class).getProvidersByPerson(person, true));
+    }
 
-        List<Provider> providers = Context.getService(ProviderManagementService.class).getProvidersByPerson(person, true);
+    /**
+     * Gets the single provider from a list of the providers associated with a person (as returned, for instance,
+     * for each person by ProviderManagementService.getProvidersByPersonIds)
+     * Throws an exception if there are no providers, or more than 1
+     *
+     * @param providers
+     * @return
+     */
+    public static Provider getProvider(List<Provider> providers)
+            throws PersonIsNotProviderException {
 
         // check to make sure this person is really a provider
         if (providers == null || providers.size() == 0) {
@@ -126,9 +147,17 @@ public class ProviderManagementWebUtil {
         // if any provider fields have been requested, we must manually add them to the simpleObject we are returning
         if (providerResultFields.size() > 0) {
             simpleProviders = new ArrayList<SimpleObject>();
+
+            // fetch the providers for all the persons in one go
+            List<Integer> personIds = new ArrayList<Integer>();
+            for (Person person : persons) {
+                personIds.add(person.getId());
+            }
+            Map<Integer, List<Provider>> providers = Context.getService(ProviderManagementService.class).getProvidersByPersonIds(personIds, true);
+
             for (Person person : persons) {
                 SimpleObject simpleProvider = SimpleObject.fromObject(person, ui,  personResultFields.toArray(new String[0]));
-                simpleProvider.put("provider", SimpleObject.fromObject(getProvider(person), ui, providerResultFields.toArray(new String[0])));
+                simpleProvider.put("provider", SimpleObject.fromObject(getProvider(providers.get(person.getId())), ui, providerResultFields.toArray(new String[0])));
                 simpleProviders.add(simpleProvider);
             }
         }
@@ -139,4 +168,90 @@ public class ProviderManagementWebUtil {
 
         return simpleProviders;
     }
+
+    /**
+     * @param resultFields
+     * @return true if all of the specified result fields can be filled in from provider search rows, ie, if
+     *          convertProviderSearchRowListToSimpleObjectList can be used instead of convertPersonListToSimpleObjectList
+     */
+    public static boolean canConvertProviderSearchRows(String [] resultFields) {
+        return resultFields != null && PROVIDER_SEARCH_ROW_FIELDS.containsAll(Arrays.asList(resultFields));
+    }
+
+    /**
+     * Converts a list of provider search rows to a list of SimpleObjects with the specified result fields, in the
+     * same format as convertPersonListToSimpleObjectList, but without needing to load any persons or providers
+     *
+     * @param rows
+     * @param resultFields
+     * @return
+     */
+    public static List<SimpleObject> convertProviderSearchRowListToSimpleObjectList(List<ProviderSearchRow> rows, String [] resultFields) {
+
+        List<SimpleObject> simpleProviders = new ArrayList<SimpleObject>();
+
+        for (ProviderSearchRow row : rows) {
+            SimpleObject simpleProvider = new SimpleObject();
+            for (String resultField : resultFields) {
+                put(simpleProvider, resultField, getProviderSearchRowField(row, resultField));
+            }
+            // always want to return the id of the result objects
+            simpleProvider.put("id", row.getPersonId());
+            simpleProviders.add(simpleProvider);
+        }
+
+        return simpleProviders;
+    }
+
+    private static Object getProviderSearchRowField(ProviderSearchRow row, String resultField) {
+
+        if (resultField.equals("id")) {
+            return row.getPersonId();
+        }
+        else if (resultField.equals("gender")) {
+            return row.getGender();
+        }
+        else if (resultField.equals("personName.givenName")) {
+            return row.getGivenName();
+        }
+        else if (resultField.equals("personName.middleName")) {
+            return row.getMiddleName();
+        }
+        else if (resultField.equals("personName.familyName")) {
+            return row.getFamilyName();
+        }
+        else if (resultField.equals("provider.identifier")) {
+            return row.getIdentifier();
+        }
+        else if (resultField.equals("provider.providerRole") || resultField.equals("provider.providerRole.name")) {
+            return row.getProviderRoleName();
+        }
+        else if (resultField.equals("provider.providerRole.uuid")) {
+            return row.getProviderRoleUuid();
+        }
+        else if (resultField.equals("provider.retired")) {
+            return row.isRetired();
+        }
+        else {
+            throw new IllegalArgumentException("Result field " + resultField + " is not available from a provider search row");
+        }
+    }
+
+    /**
+     * Puts the value in the simple object at the specified (dot-separated) path, creating nested simple objects as needed
+     */
+    private static void put(SimpleObject simpleObject, String path, Object value) {
+
+        String [] fields = path.split("\\.");
+        SimpleObject target = simpleObject;
+
+        for (int i = 0; i < fields.length - 1; i++) {
+            if (!(target.get(fields[i]) instanceof SimpleObject)) {
+                target.put(fields[i], new SimpleObject());
+            }
+            target = (SimpleObject) target.get(fields[i]);
+        }
+
+        target.put(fields[fields.length - 1], value);
+    }
 }
@@ -27,6 +27,9 @@ public class ProviderAndRelationship {
 
     private Relationship relationship;
 
+    // the number of patients currently assigned to the provider, across all provider relationship types
+    private Integer caseload;
+
     public ProviderAndRelationship() {
     }
 
@@ -51,4 +54,12 @@ public class ProviderAndRelationship {
     public void setRelationship(Relationship relationship) {
         this.relationship = relationship;
     }
+
+    public Integer getCaseload() {
+        return caseload;
+    }
+
+    public void setCaseload(Integer caseload) {
+        this.caseload = caseload;
+    }
 }
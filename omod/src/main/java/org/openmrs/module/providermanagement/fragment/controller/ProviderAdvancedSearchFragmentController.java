@@ -24,6 +24,9 @@ import org.openmrs.module.providermanagement.ProviderManagementWebUtil;
 import org.openmrs.module.providermanagement.ProviderRole;
 import org.openmrs.module.providermanagement.api.ProviderManagementService;
 import org.openmrs.module.providermanagement.exception.PersonIsNotProviderException;
+import org.openmrs.module.providermanagement.search.AddressMatchMode;
+import org.openmrs.module.providermanagement.search.ProviderSearchCriteria;
+import org.openmrs.module.providermanagement.search.ProviderSearchResult;
 import org.openmrs.ui.framework.SimpleObject;
 import org.openmrs.ui.framework.UiUtils;
 import org.openmrs.ui.framework.annotation.BindParams;
@@ -47,6 +50,15 @@ public class ProviderAdvancedSearchFragmentController {
 
         private PersonAttribute attribute = new PersonAttribute();
 
+        // any further address and attribute restrictions (bound as personAddresses[0].cityVillage, attributes[0].attributeType,
+        // attributes[0].value, etc); a provider must match all of them, as well as the address and attribute above
+        private List<PersonAddress> personAddresses = new ArrayList<PersonAddress>();
+
+        private List<PersonAttribute> attributes = new ArrayList<PersonAttribute>();
+
+        // address fields are matched by word prefix unless ANYWHERE is explicitly requested
+        private AddressMatchMode addressMatchMode = AddressMatchMode.PREFIX;
+
         private String [] resultFields;
 
         public String getName() {
@@ -81,6 +93,30 @@ public class ProviderAdvancedSearchFragmentController {
             this.attribute = attribute;
         }
 
+        public List<PersonAddress> getPersonAddresses() {
+            return personAddresses;
+        }
+
+        public void setPersonAddresses(List<PersonAddress> personAddresses) {
+            this.personAddresses = personAddresses;
+        }
+
+        public List<PersonAttribute> getAttributes() {
+            return attributes;
+        }
+
+        public void setAttributes(List<PersonAttribute> attributes) {
+            this.attributes = attributes;
+        }
+
+        public AddressMatchMode getAddressMatchMode() {
+            return addressMatchMode;
+        }
+
+        public void setAddressMatchMode(AddressMatchMode addressMatchMode) {
+            this.addressMatchMode = addressMatchMode;
+        }
+
         public ProviderRole getProviderRole() {
             return providerRole;
         }
@@ -127,7 +163,30 @@ public class ProviderAdvancedSearchFragmentController {
             roles.addAll(Context.getService(ProviderManagementService.class).getAllProviderRoles(true));
         }
 
-        List<Person> persons = Context.getService(ProviderManagementService.class).getProvidersAsPersons(command.getName(), command.getIdentifier(), command.getPersonAddress(), command.getAttribute(), roles, false);
+        ProviderSearchCriteria criteria = new ProviderSearchCriteria(null, roles, false);
+        criteria.setName(command.getName());
+        criteria.setIdentifier(command.getIdentifier());
+        criteria.setPersonAddress(command.getPersonAddress());
+        criteria.setPersonAttribute(command.getAttribute());
+        criteria.setAddressMatchMode(command.getAddressMatchMode());
+        if (command.getPersonAddresses() != null) {
+            for (PersonAddress personAddress : command.getPersonAddresses()) {
+                criteria.addPersonAddress(personAddress);
+            }
+        }
+        if (command.getAttributes() != null) {
+            for (PersonAttribute attribute : command.getAttributes()) {
+                criteria.addPersonAttribute(attribute);
+            }
+        }
+
+        // if all the result fields are available as search rows, we can avoid loading the persons altogether
+        if (ProviderManagementWebUtil.canConvertProviderSearchRows(command.getResultFields())) {
+            ProviderSearchResult result = Context.getService(ProviderManagementService.class).searchRows(criteria, null, null);
+            return ProviderManagementWebUtil.convertProviderSearchRowListToSimpleObjectList(result.getRows(), command.getResultFields());
+        }
+
+        List<Person> persons = Context.getService(ProviderManagementService.class).getProvidersAsPersons(criteria);
 
          // convert to a simple object list
         return ProviderManagementWebUtil.convertPersonListToSimpleObjectList(persons, ui, command.getResultFields());
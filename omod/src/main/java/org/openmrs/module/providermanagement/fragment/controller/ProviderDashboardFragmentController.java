@@ -0,0 +1,267 @@
+/**
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+
+package org.openmrs.module.providermanagement.fragment.controller;
+
+import org.apache.commons.lang3.ArrayUtils;
+import org.openmrs.Patient;
+import org.openmrs.PatientProgram;
+import org.openmrs.Person;
+import org.openmrs.Relationship;
+import org.openmrs.RelationshipType;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.providermanagement.Provider;
+import org.openmrs.module.providermanagement.ProviderManagementConstants;
+import org.openmrs.module.providermanagement.ProviderManagementGlobalProperties;
+import org.openmrs.module.providermanagement.ProviderManagementWebUtil;
+import org.openmrs.module.providermanagement.RelationshipSortOrder;
+import org.openmrs.module.providermanagement.api.ProviderManagementService;
+import org.openmrs.module.providermanagement.api.ProviderSuggestionService;
+import org.openmrs.module.providermanagement.command.PatientAndRelationshipAndPatientPrograms;
+import org.openmrs.module.providermanagement.command.ProviderAndRelationship;
+import org.openmrs.module.providermanagement.exception.InvalidRelationshipTypeException;
+import org.openmrs.module.providermanagement.exception.PersonIsNotProviderException;
+import org.openmrs.module.providermanagement.exception.SuggestionEvaluationException;
+import org.openmrs.ui.framework.SimpleObject;
+import org.openmrs.ui.framework.UiUtils;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Fragment actions that return the rows of the patient, supervisee and supervisor panes of the provider dashboard
+ * one page at a time, so that the dashboard only loads the pane and page being viewed
+ *
+ * Each page is returned as the results, plus a flag saying whether there are any more pages (the format expected
+ * by the pagedCheckboxTable widget); the total counts are loaded up front by the dashboard itself
+ */
+public class ProviderDashboardFragmentController {
+
+    private static final int DEFAULT_PAGE_SIZE = 25;
+
+    // the largest page that can be requested, so that a request can't load a whole caseload at once
+    private static final int MAX_PAGE_SIZE = 100;
+
+    public SimpleObject getPatients(@RequestParam(value="provider", required=true) Person provider,
+                                    @RequestParam(value="relationshipType", required=true) RelationshipType relationshipType,
+                                    @RequestParam(value="historical", required=false) Boolean historical,
+                                    @RequestParam(value="sortBy", required=false) String sortBy,
+                                    @RequestParam(value="ascending", required=false) Boolean ascending,
+                                    @RequestParam(value="page", required=false) Integer page,
+                                    @RequestParam(value="pageSize", required=false) Integer pageSize,
+                                    @RequestParam(value="resultFields[]", required=true) String[] resultFields,
+                                    UiUtils ui)
+            throws PersonIsNotProviderException, InvalidRelationshipTypeException {
+
+        Context.requirePrivilege(ProviderManagementConstants.PROVIDER_MANAGEMENT_DASHBOARD_VIEW_PATIENTS_PRIVILEGE);
+        historical = requireHistoricalPrivilege(historical);
+        pageSize = getPageSize(pageSize);
+
+        ProviderManagementService pmService = Context.getService(ProviderManagementService.class);
+
+        // fetch one more relationship than needed, to find out if there is another page
+        List<Relationship> relationships = pmService.getPatientRelationshipsForProvider(provider, relationshipType, !historical,
+                getSortOrder(sortBy), ascending != null ? ascending : true, getFirstResult(page, pageSize), pageSize + 1);
+        boolean hasMore = trimPage(relationships, pageSize);
+
+        // load the patients on this page, and their programs, in batches
+        Set<Integer> patientIds = new HashSet<Integer>();
+        for (Relationship relationship : relationships) {
+            patientIds.add(relationship.getPersonB().getId());
+        }
+
+        Map<Integer, Patient> patients = pmService.getPatientsByIds(patientIds);
+        Map<Integer, List<PatientProgram>> patientPrograms = pmService.getPatientProgramsByPatientIds(patientIds);
+
+        List<PatientAndRelationshipAndPatientPrograms> rows = new ArrayList<PatientAndRelationshipAndPatientPrograms>();
+        for (Relationship relationship : relationships) {
+            Integer patientId = relationship.getPersonB().getId();
+            rows.add(new PatientAndRelationshipAndPatientPrograms(patients.get(patientId), relationship, patientPrograms.get(patientId)));
+        }
+
+        return createPage(rows, hasMore, resultFields, ui);
+    }
+
+    public SimpleObject getSupervisees(@RequestParam(value="supervisor", required=true) Person supervisor,
+                                       @RequestParam(value="historical", required=false) Boolean historical,
+                                       @RequestParam(value="sortBy", required=false) String sortBy,
+                                       @RequestParam(value="ascending", required=false) Boolean ascending,
+                                       @RequestParam(value="page", required=false) Integer page,
+                                       @RequestParam(value="pageSize", required=false) Integer pageSize,
+                                       @RequestParam(value="resultFields[]", required=true) String[] resultFields,
+                                       UiUtils ui)
+            throws PersonIsNotProviderException {
+
+        Context.requirePrivilege(ProviderManagementConstants.PROVIDER_MANAGEMENT_DASHBOARD_VIEW_PROVIDERS_PRIVILEGE);
+        historical = requireHistoricalPrivilege(historical);
+        pageSize = getPageSize(pageSize);
+
+        ProviderManagementService pmService = Context.getService(ProviderManagementService.class);
+
+        List<Relationship> relationships = pmService.getSuperviseeRelationshipsForSupervisor(supervisor, !historical,
+                getSortOrder(sortBy), ascending != null ? ascending : true, getFirstResult(page, pageSize), pageSize + 1);
+        boolean hasMore = trimPage(relationships, pageSize);
+
+        List<ProviderAndRelationship> rows = getProviderAndRelationships(relationships, false);
+
+        // add the caseload of each current supervisee (each patient counted once, however many relationship types link
+        // them to the supervisee), all counted with a single query
+        if (!historical) {
+            List<Person> supervisees = new ArrayList<Person>();
+            for (Relationship relationship : relationships) {
+                supervisees.add(relationship.getPersonB());
+            }
+
+            Map<Integer, Integer> caseloads = pmService.getCaseloadSizes(supervisees, new Date());
+            for (ProviderAndRelationship row : rows) {
+                row.setCaseload(caseloads.get(row.getRelationship().getPersonB().getPersonId()));
+            }
+        }
+
+        return createPage(rows, hasMore, resultFields, ui);
+    }
+
+    public SimpleObject getSupervisors(@RequestParam(value="provider", required=true) Person provider,
+                                       @RequestParam(value="historical", required=false) Boolean historical,
+                                       @RequestParam(value="sortBy", required=false) String sortBy,
+                                       @RequestParam(value="ascending", required=false) Boolean ascending,
+                                       @RequestParam(value="page", required=false) Integer page,
+                                       @RequestParam(value="pageSize", required=false) Integer pageSize,
+                                       @RequestParam(value="resultFields[]", required=true) String[] resultFields,
+                                       UiUtils ui)
+            throws PersonIsNotProviderException {
+
+        Context.requirePrivilege(ProviderManagementConstants.PROVIDER_MANAGEMENT_DASHBOARD_VIEW_PROVIDERS_PRIVILEGE);
+        historical = requireHistoricalPrivilege(historical);
+        pageSize = getPageSize(pageSize);
+
+        List<Relationship> relationships = Context.getService(ProviderManagementService.class).getSupervisorRelationshipsForProvider(provider,
+                !historical, getSortOrder(sortBy), ascending != null ? ascending : true, getFirstResult(page, pageSize), pageSize + 1);
+        boolean hasMore = trimPage(relationships, pageSize);
+
+        return createPage(getProviderAndRelationships(relationships, true), hasMore, resultFields, ui);
+    }
+
+    /**
+     * Suggestions aren't paged (they are returned as a single page), but are only evaluated when the user asks for them,
+     * rather than on every dashboard load
+     */
+    public SimpleObject getSuggestedSupervisees(@RequestParam(value="supervisor", required=true) Person supervisor,
+                                                      @RequestParam(value="resultFields[]", required=false) String[] resultFields,
+                                                      UiUtils ui)
+            throws PersonIsNotProviderException, SuggestionEvaluationException {
+
+        Context.requirePrivilege(ProviderManagementConstants.PROVIDER_MANAGEMENT_DASHBOARD_EDIT_PROVIDERS_PRIVILEGE);
+
+        if (resultFields == null || resultFields.length == 0) {
+            resultFields = ProviderManagementGlobalProperties.GLOBAL_PROPERTY_PROVIDER_SEARCH_DISPLAY_FIELDS().values().toArray(new String[0]);
+        }
+
+        List<Person> suggestedSupervisees = Context.getService(ProviderSuggestionService.class).suggestSuperviseesForProvider(supervisor);
+
+        SimpleObject page = new SimpleObject();
+        page.put("results", ProviderManagementWebUtil.convertPersonListToSimpleObjectList(suggestedSupervisees != null ? suggestedSupervisees : new ArrayList<Person>(),
+                ui, resultFields));
+        page.put("hasMore", false);
+        return page;
+    }
+
+    /**
+     * Builds the rows of a supervisee or supervisor page, fetching the providers of all the persons in one go
+     */
+    private List<ProviderAndRelationship> getProviderAndRelationships(List<Relationship> relationships, boolean providerIsPersonA)
+            throws PersonIsNotProviderException {
+
+        List<Integer> personIds = new ArrayList<Integer>();
+        for (Relationship relationship : relationships) {
+            personIds.add(providerIsPersonA ? relationship.getPersonA().getId() : relationship.getPersonB().getId());
+        }
+
+        Map<Integer, List<Provider>> providers = Context.getService(ProviderManagementService.class).getProvidersByPersonIds(personIds, true);
+
+        List<ProviderAndRelationship> rows = new ArrayList<ProviderAndRelationship>();
+        for (int i = 0; i < relationships.size(); i++) {
+            rows.add(new ProviderAndRelationship(ProviderManagementWebUtil.getProvider(providers.get(personIds.get(i))), relationships.get(i)));
+        }
+
+        return rows;
+    }
+
+    private SimpleObject createPage(List<?> rows, boolean hasMore, String[] resultFields, UiUtils ui) {
+
+        // always want to return the id of the result objects (ie, the id of the relationship)
+        resultFields = ArrayUtils.add(resultFields, "id");
+
+        SimpleObject page = new SimpleObject();
+        page.put("results", SimpleObject.fromCollection(rows, ui, resultFields));
+        page.put("hasMore", hasMore);
+        return page;
+    }
+
+    /**
+     * Historical relationships are only shown to users with the view historical privilege
+     *
+     * @return whether the historical relationships have been requested
+     */
+    private boolean requireHistoricalPrivilege(Boolean historical) {
+        if (historical != null && historical) {
+            Context.requirePrivilege(ProviderManagementConstants.PROVIDER_MANAGEMENT_DASHBOARD_VIEW_HISTORICAL_PRIVILEGE);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the requested sort order, or NAME if none (or an unknown one) was requested
+     */
+    private RelationshipSortOrder getSortOrder(String sortBy) {
+        if (sortBy != null) {
+            try {
+                return RelationshipSortOrder.valueOf(sortBy);
+            }
+            catch (IllegalArgumentException e) {
+                // fall through to the default
+            }
+        }
+        return RelationshipSortOrder.NAME;
+    }
+
+    private int getPageSize(Integer pageSize) {
+        return pageSize != null && pageSize > 0 ? Math.min(pageSize, MAX_PAGE_SIZE) : DEFAULT_PAGE_SIZE;
+    }
+
+    private int getFirstResult(Integer page, int pageSize) {
+        // calculated as a long, so that a huge page number can't overflow into a negative first result
+        return page != null && page > 0 ? (int) Math.min((long) page * pageSize, Integer.MAX_VALUE) : 0;
+    }
+
+    /**
+     * Removes the extra relationship fetched to find out if there is another page
+     *
+     * @return true if there is another page
+     */
+    private boolean trimPage(List<Relationship> relationships, int pageSize) {
+        if (relationships.size() > pageSize) {
+            relationships.subList(pageSize, relationships.size()).clear();
+            return true;
+        }
+        return false;
+    }
+
+}
@@ -534,8 +534,7 @@ public class ProviderEditFragmentController {
 
         // try to unassign all the patients from the provider
         try {
-            for (Relationship patientRelationship : patientRelationships) {
-                Patient patient = Context.getPatientService().getPatient(patientRelationship.getPersonB().getId());
+            for (Patient patient : getPatients(patientRelationships)) {
                 Context.getService(ProviderManagementService.class).unassignPatientFromProvider(patient, provider, relationshipType, date);
             }
             return new SuccessResult();
@@ -567,13 +566,7 @@ public class ProviderEditFragmentController {
 
         // attempt to transfer all the patients
         try {
-            List<Patient> patients = new ArrayList<Patient>();
-
-            for (Relationship patientRelationship : patientRelationships) {
-                patients.add(Context.getPatientService().getPatient(patientRelationship.getPersonB().getId()));
-            }
-
-            Context.getService(ProviderManagementService.class).transferPatients(patients,oldProvider, newProvider, relationshipType, date);
+            Context.getService(ProviderManagementService.class).transferPatients(getPatients(patientRelationships), oldProvider, newProvider, relationshipType, date);
             return new SuccessResult();
         }
         catch (Exception e) {
@@ -604,5 +597,25 @@ public class ProviderEditFragmentController {
             return new FailureResult(e.getLocalizedMessage());
         }
     }
+
+    /**
+     * @return the patients (person B) of the specified relationships, in the same order, loaded in batches rather than
+     *         one at a time
+     */
+    private List<Patient> getPatients(List<Relationship> patientRelationships) {
+
+        List<Integer> patientIds = new ArrayList<Integer>();
+        for (Relationship patientRelationship : patientRelationships) {
+            patientIds.add(patientRelationship.getPersonB().getId());
+        }
+
+        Map<Integer, Patient> patientsById = Context.getService(ProviderManagementService.class).getPatientsByIds(patientIds);
+
+        List<Patient> patients = new ArrayList<Patient>();
+        for (Integer patientId : patientIds) {
+            patients.add(patientsById.get(patientId));
+        }
+        return patients;
+    }
 }
 
@@ -14,6 +14,7 @@
 
 package org.openmrs.module.providermanagement.fragment.controller;
 
+import org.apache.commons.lang.StringUtils;
 import org.openmrs.Person;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.providermanagement.ProviderManagementGlobalProperties;
@@ -21,16 +22,25 @@ import org.openmrs.module.providermanagement.ProviderManagementWebUtil;
 import org.openmrs.module.providermanagement.ProviderRole;
 import org.openmrs.module.providermanagement.api.ProviderManagementService;
 import org.openmrs.module.providermanagement.exception.PersonIsNotProviderException;
+import org.openmrs.module.providermanagement.search.ProviderSearchCriteria;
+import org.openmrs.module.providermanagement.search.ProviderSearchCursor;
+import org.openmrs.module.providermanagement.search.ProviderSearchResult;
 import org.openmrs.ui.framework.SimpleObject;
 import org.openmrs.ui.framework.UiUtils;
 import org.springframework.web.bind.annotation.RequestParam;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
 public class ProviderSearchFragmentController {
 
+    private static final int DEFAULT_PAGE_SIZE = 25;
+
+    // the largest page that can be requested, so that a request can't load every matching provider at once
+    private static final int MAX_PAGE_SIZE = 100;
+
     public List<SimpleObject> getProviders(@RequestParam(value="searchValue", required=true) String searchValue,
                                            @RequestParam(value="includeRetired", required=false) Boolean includeRetired,
                                           @RequestParam(value="excludeSuperviseesOf", required=false) Person excludeSuperviseesOf,
@@ -47,15 +57,18 @@ public class ProviderSearchFragmentController {
         // default is to not include retired providers
         includeRetired = includeRetired != null ? includeRetired : false;
 
-        List<ProviderRole> providerRoleList = null;
-        if (providerRoles != null && providerRoles.length > 0) {
-            providerRoleList = Arrays.asList(providerRoles);
-        }
-        else if (ProviderManagementGlobalProperties.GLOBAL_PROPERTY_RESTRICT_SEARCH_TO_PROVIDERS_WITH_PROVIDER_ROLES() != null
-                && ProviderManagementGlobalProperties.GLOBAL_PROPERTY_RESTRICT_SEARCH_TO_PROVIDERS_WITH_PROVIDER_ROLES()) {
-            providerRoleList = Context.getService(ProviderManagementService.class).getAllProviderRoles(true);
+        // if all the result fields are available as search rows, we can avoid loading the persons altogether
+        if (ProviderManagementWebUtil.canConvertProviderSearchRows(resultFields)) {
+            if (StringUtils.isBlank(searchValue)) {
+                return new ArrayList<SimpleObject>();
+            }
+            ProviderSearchCriteria criteria = buildCriteria(searchValue, includeRetired, excludeSuperviseesOf, excludeProvider, providerRoles);
+            ProviderSearchResult result = Context.getService(ProviderManagementService.class).searchRows(criteria, null, null);
+            return ProviderManagementWebUtil.convertProviderSearchRowListToSimpleObjectList(result.getRows(), resultFields);
         }
 
+        List<ProviderRole> providerRoleList = getProviderRoleList(providerRoles);
+
         // now fetch the results
         List<Person> persons = Context.getService(ProviderManagementService.class).getProvidersAsPersons(searchValue, providerRoleList, includeRetired);
 
@@ -74,4 +87,89 @@ public class ProviderSearchFragmentController {
         return ProviderManagementWebUtil.convertPersonListToSimpleObjectList(persons, ui, resultFields);
     }
 
+    /**
+     * Paged version of getProviders: returns one page of results, plus the cursor to fetch the next page with
+     * (null if this is the last page) and the total number of matches
+     */
+    public SimpleObject searchProviders(@RequestParam(value="searchValue", required=true) String searchValue,
+                                        @RequestParam(value="includeRetired", required=false) Boolean includeRetired,
+                                        @RequestParam(value="excludeSuperviseesOf", required=false) Person excludeSuperviseesOf,
+                                        @RequestParam(value="excludeProvider", required=false) Person excludeProvider,
+                                        @RequestParam(value="providerRoles[]", required=false) ProviderRole[] providerRoles,
+                                        @RequestParam(value="resultFields[]", required=false) String[] resultFields,
+                                        @RequestParam(value="pageSize", required=false) Integer pageSize,
+                                        @RequestParam(value="cursor", required=false) String cursor,
+                                        UiUtils ui)
+            throws PersonIsNotProviderException {
+
+        if (resultFields == null || resultFields.length == 0) {
+            resultFields = new String[] {"personName"};
+        }
+
+        if (pageSize == null || pageSize < 1) {
+            pageSize = DEFAULT_PAGE_SIZE;
+        }
+        else {
+            pageSize = Math.min(pageSize, MAX_PAGE_SIZE);
+        }
+
+        ProviderSearchCriteria criteria = buildCriteria(searchValue, includeRetired != null ? includeRetired : false,
+                excludeSuperviseesOf, excludeProvider, providerRoles);
+
+        // only count the matches when fetching the first page
+        ProviderSearchCursor searchCursor = ProviderSearchCursor.deserialize(cursor);
+        criteria.setIncludeTotalCount(searchCursor == null);
+
+        SimpleObject page = new SimpleObject();
+        ProviderSearchResult result;
+
+        // if all the result fields are available as search rows, we can avoid loading the persons altogether
+        if (ProviderManagementWebUtil.canConvertProviderSearchRows(resultFields)) {
+            result = Context.getService(ProviderManagementService.class).searchRows(criteria, pageSize, searchCursor);
+            page.put("results", ProviderManagementWebUtil.convertProviderSearchRowListToSimpleObjectList(result.getRows(), resultFields));
+        }
+        else {
+            result = Context.getService(ProviderManagementService.class).search(criteria, pageSize, searchCursor);
+            page.put("results", ProviderManagementWebUtil.convertPersonListToSimpleObjectList(result.getProviders(), ui, resultFields));
+        }
+
+        page.put("nextCursor", result.hasMore() ? result.getNextCursor().serialize() : null);
+        page.put("totalCount", result.getTotalCount());
+        return page;
+    }
+
+    private ProviderSearchCriteria buildCriteria(String searchValue, boolean includeRetired, Person excludeSuperviseesOf,
+                                                 Person excludeProvider, ProviderRole[] providerRoles) {
+
+        ProviderSearchCriteria criteria = new ProviderSearchCriteria(searchValue, getProviderRoleList(providerRoles), includeRetired);
+
+        // exclude supervisees of a provider if needed
+        if (excludeSuperviseesOf != null) {
+            for (Person supervisee : Context.getService(ProviderManagementService.class).getSuperviseesForSupervisor(excludeSuperviseesOf, new Date())) {
+                criteria.getExcludedPersonIds().add(supervisee.getId());
+            }
+        }
+
+        // exclude any specified provider
+        if (excludeProvider != null) {
+            criteria.getExcludedPersonIds().add(excludeProvider.getId());
+        }
+
+        return criteria;
+    }
+
+    private List<ProviderRole> getProviderRoleList(ProviderRole[] providerRoles) {
+
+        if (providerRoles != null && providerRoles.length > 0) {
+            return Arrays.asList(providerRoles);
+        }
+        else if (ProviderManagementGlobalProperties.GLOBAL_PROPERTY_RESTRICT_SEARCH_TO_PROVIDERS_WITH_PROVIDER_ROLES() != null
+                && ProviderManagementGlobalProperties.GLOBAL_PROPERTY_RESTRICT_SEARCH_TO_PROVIDERS_WITH_PROVIDER_ROLES()) {
+            return Context.getService(ProviderManagementService.class).getAllProviderRoles(true);
+        }
+        else {
+            return null;
+        }
+    }
+
 }
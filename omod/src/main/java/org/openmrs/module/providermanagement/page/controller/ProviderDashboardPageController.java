@@ -14,32 +14,28 @@
 
 package org.openmrs.module.providermanagement.page.controller;
 
-import org.openmrs.Patient;
-import org.openmrs.PatientProgram;
 import org.openmrs.Person;
-import org.openmrs.Relationship;
 import org.openmrs.RelationshipType;
 import org.openmrs.api.context.Context;
 import org.openmrs.module.providermanagement.Provider;
 import org.openmrs.module.providermanagement.ProviderManagementConstants;
 import org.openmrs.module.providermanagement.ProviderManagementGlobalProperties;
-import org.openmrs.module.providermanagement.ProviderManagementUtils;
 import org.openmrs.module.providermanagement.ProviderManagementWebUtil;
 import org.openmrs.module.providermanagement.api.ProviderManagementService;
 import org.openmrs.module.providermanagement.api.ProviderSuggestionService;
-import org.openmrs.module.providermanagement.command.PatientAndRelationshipAndPatientPrograms;
-import org.openmrs.module.providermanagement.command.ProviderAndRelationship;
 import org.openmrs.module.providermanagement.exception.InvalidRelationshipTypeException;
 import org.openmrs.module.providermanagement.exception.PersonIsNotProviderException;
 import org.openmrs.module.providermanagement.exception.SuggestionEvaluationException;
+import org.openmrs.module.providermanagement.suggestion.SupervisionSuggestion;
+import org.openmrs.module.providermanagement.suggestion.SupervisionSuggestionType;
 import org.openmrs.ui.framework.UiUtils;
 import org.openmrs.ui.framework.page.PageModel;
 import org.springframework.web.bind.annotation.RequestParam;
 
 import javax.servlet.http.HttpServletRequest;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -62,43 +58,26 @@ public class ProviderDashboardPageController {
         Provider provider = ProviderManagementWebUtil.getProvider(person);
         pageModel.addAttribute("provider", provider);
 
-        // if the provider has the appropriate privilege, add the patients of the provider
-        if (Context.hasPrivilege(ProviderManagementConstants.PROVIDER_MANAGEMENT_DASHBOARD_VIEW_PATIENTS_PRIVILEGE)) {
-            // add the patients of this provider, grouped by relationship type
-            Map<RelationshipType, Map<String,List<PatientAndRelationshipAndPatientPrograms>>> patientMap = new HashMap<RelationshipType,Map<String, List<PatientAndRelationshipAndPatientPrograms>>>();
+        // the rows of the patient, supervisee and supervisor panes are loaded a page at a time by the
+        // providerDashboard fragment actions, so only the counts are loaded here
 
+        boolean viewHistorical = Context.hasPrivilege(ProviderManagementConstants.PROVIDER_MANAGEMENT_DASHBOARD_VIEW_HISTORICAL_PRIVILEGE);
 
+        // if the provider has the appropriate privilege, add the counts of current and historical patients of the provider, by relationship type
+        if (Context.hasPrivilege(ProviderManagementConstants.PROVIDER_MANAGEMENT_DASHBOARD_VIEW_PATIENTS_PRIVILEGE)) {
+            Map<RelationshipType, Map<String, Integer>> patientCounts = new LinkedHashMap<RelationshipType, Map<String, Integer>>();
 
             if (provider.getProviderRole() != null && provider.getProviderRole().getRelationshipTypes() != null) {
                 for (RelationshipType relationshipType : provider.getProviderRole().getRelationshipTypes() ) {
-
                     if (!relationshipType.isRetired()) {
-                        patientMap.put(relationshipType, new HashMap<String,List<PatientAndRelationshipAndPatientPrograms>>());
-                        patientMap.get(relationshipType).put("currentPatients", new ArrayList<PatientAndRelationshipAndPatientPrograms>());
-                        patientMap.get(relationshipType).put("historicalPatients", new ArrayList<PatientAndRelationshipAndPatientPrograms>());
-
-
-                        for (Relationship relationship : pmService.getPatientRelationshipsForProvider(person, relationshipType, null)) {
-
-                            Patient patient = Context.getPatientService().getPatient(relationship.getPersonB().getId());
-
-                            // gets all programs for the patient
-                            List<PatientProgram> programs = Context.getProgramWorkflowService().getPatientPrograms(patient, null, null, null, null, null, false);
-
-                            if (ProviderManagementUtils.isRelationshipActive(relationship)) {
-                                patientMap.get(relationshipType).get("currentPatients").add(new PatientAndRelationshipAndPatientPrograms(patient, relationship, programs));
-                            }
-                            else {
-                                patientMap.get(relationshipType).get("historicalPatients").add(new PatientAndRelationshipAndPatientPrograms(patient, relationship, programs));
-                            }
-
-                        }
-
+                        Map<String, Integer> counts = new HashMap<String, Integer>();
+                        counts.put("currentPatients", pmService.getPatientRelationshipsForProviderCount(person, relationshipType, true));
+                        counts.put("historicalPatients", viewHistorical ? pmService.getPatientRelationshipsForProviderCount(person, relationshipType, false) : 0);
+                        patientCounts.put(relationshipType, counts);
                     }
-
                 }
             }
-            pageModel.addAttribute("patientMap", patientMap);
+            pageModel.addAttribute("patientCounts", patientCounts);
         }
         // otherwise, if the patient does not have view patient privileges, calculate an aggregate patient count
         else {
@@ -113,64 +92,24 @@ public class ProviderDashboardPageController {
             pageModel.addAttribute("patientCount", patientCount);
         }
 
-        // add the supervisors of the provider
-
-        List<ProviderAndRelationship> currentSupervisors = new ArrayList<ProviderAndRelationship>();
-        List<ProviderAndRelationship> historicalSupervisors = new ArrayList<ProviderAndRelationship>();
-
-        for (Relationship relationship : pmService.getSupervisorRelationshipsForProvider(person, null)) {
-
-            Provider p = ProviderManagementWebUtil.getProvider(relationship.getPersonA());
-
-            if (ProviderManagementUtils.isRelationshipActive(relationship)) {
-                currentSupervisors.add(new ProviderAndRelationship(p, relationship));
-            }
-            else {
-                historicalSupervisors.add(new ProviderAndRelationship(p, relationship));
-            }
-        }
-
-        pageModel.addAttribute("currentSupervisors", currentSupervisors);
-        pageModel.addAttribute("historicalSupervisors", historicalSupervisors);
-
-        // add the supervisees of the provider
+        // add the count of the current supervisors of the provider
+        pageModel.addAttribute("currentSupervisorCount", pmService.getSupervisorRelationshipsForProviderCount(person, true));
 
+        // add the counts of the supervisees of the provider
         if (provider.getProviderRole() != null && provider.getProviderRole().isSupervisorRole()) {
-            List<ProviderAndRelationship> currentSupervisees = new ArrayList<ProviderAndRelationship>();
-            List<ProviderAndRelationship> historicalSupervisees = new ArrayList<ProviderAndRelationship>();
-
-            for (Relationship relationship : pmService.getSuperviseeRelationshipsForSupervisor(person, null)) {
-
-                Provider p = ProviderManagementWebUtil.getProvider(relationship.getPersonB());
-
-                if (ProviderManagementUtils.isRelationshipActive(relationship)) {
-                    currentSupervisees.add(new ProviderAndRelationship(p, relationship));
-                }
-                else {
-                    historicalSupervisees.add(new ProviderAndRelationship(p, relationship));
-                }
-            }
-
-            pageModel.addAttribute("currentSupervisees", currentSupervisees);
-            pageModel.addAttribute("historicalSupervisees", historicalSupervisees);
+            pageModel.addAttribute("currentSuperviseeCount", pmService.getSuperviseeRelationshipsForSupervisorCount(person, true));
+            pageModel.addAttribute("historicalSuperviseeCount", viewHistorical ? pmService.getSuperviseeRelationshipsForSupervisorCount(person, false) : 0);
         }
 
-
-        if (Context.hasPrivilege(ProviderManagementConstants.PROVIDER_MANAGEMENT_DASHBOARD_EDIT_PROVIDERS_PRIVILEGE)) {
-            // calculate suggested supervisees
-            if (provider.getProviderRole() != null && provider.getProviderRole().isSupervisorRole()) {
-                List<Person> suggestedSupervisees = Context.getService(ProviderSuggestionService.class).suggestSuperviseesForProvider(person);
-                if (suggestedSupervisees != null && suggestedSupervisees.size() > 0) {
-                    pageModel.addAttribute("suggestedSupervisees", ProviderManagementWebUtil.convertPersonListToSimpleObjectList(suggestedSupervisees, ui, ProviderManagementGlobalProperties.GLOBAL_PROPERTY_PROVIDER_SEARCH_DISPLAY_FIELDS().values().toArray(new String[0])));
-                }
-                else {
-                    pageModel.addAttribute("suggestedSupervisees", null);
-                }
-            }
-            else {
-                pageModel.addAttribute("suggestedSupervisees", null);
-            }
+        // suggested supervisees are only evaluated when asked for, so just check whether the role has any supervisee suggestions
+        boolean suggestSupervisees = false;
+        if (Context.hasPrivilege(ProviderManagementConstants.PROVIDER_MANAGEMENT_DASHBOARD_EDIT_PROVIDERS_PRIVILEGE)
+                && provider.getProviderRole() != null && provider.getProviderRole().isSupervisorRole()) {
+            List<SupervisionSuggestion> suggestions = Context.getService(ProviderSuggestionService.class)
+                    .getSupervisionSuggestionsByProviderRoleAndSuggestionType(provider.getProviderRole(), SupervisionSuggestionType.SUPERVISEE_SUGGESTION);
+            suggestSupervisees = suggestions != null && suggestions.size() > 0;
         }
+        pageModel.addAttribute("suggestSupervisees", suggestSupervisees);
 
         // add the pane id (so that we know which pane to display
         pageModel.addAttribute("paneId", paneId);
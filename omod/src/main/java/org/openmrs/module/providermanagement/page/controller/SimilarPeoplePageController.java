@@ -19,16 +19,13 @@ import org.openmrs.api.context.Context;
 import org.openmrs.module.providermanagement.ProviderManagementGlobalProperties;
 import org.openmrs.module.providermanagement.ProviderManagementWebUtil;
 import org.openmrs.module.providermanagement.api.ProviderManagementService;
-import org.openmrs.module.providermanagement.comparator.PersonByFirstNameComparator;
 import org.openmrs.module.providermanagement.exception.PersonIsNotProviderException;
+import org.openmrs.module.providermanagement.search.SimilarPeople;
 import org.openmrs.ui.framework.UiUtils;
 import org.openmrs.ui.framework.page.PageModel;
 import org.openmrs.ui.framework.page.Redirect;
 import org.springframework.web.bind.annotation.RequestParam;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 
 public class SimilarPeoplePageController {
@@ -37,32 +34,20 @@ public class SimilarPeoplePageController {
                             UiUtils ui)
             throws PersonIsNotProviderException {
 
-        // first find any similar providers and persons
-        List<Person> similarProviders = new ArrayList<Person>();
-        List<Person> similarPeople;
-
         // don't bother searching if the name is less than 3 characters
         if (name != null && name.length() > 2) {
-            similarPeople =  Context.getPersonService().getPeople(name, false);
+
+            // find any similar providers and persons; this is a lookup on the phonetic and normalized name keys, which
+            // also catches spelling variants, and returns the providers and other persons already split and sorted
+            SimilarPeople similar = Context.getService(ProviderManagementService.class).getSimilarPeople(name);
 
             // if there are no similar persons, go directly to the create provider page
-            if (similarPeople == null || similarPeople.size() == 0) {
+            if (similar.isEmpty()) {
                 return "redirect:" + new Redirect("providermanagement", "providerCreate","name=" + name).getUrl();
             }
 
-            // otherwise, split into two lists, one of providers and the other of persons
-            Iterator<Person> i = similarPeople.iterator();
-            while (i.hasNext()) {
-                Person p = i.next();
-                if (Context.getService(ProviderManagementService.class).isProvider(p)) {
-                    similarProviders.add(p);
-                    i.remove();
-                }
-            }
-
-            // the get people search doesn't appear to sort by name, so we do that here
-            Collections.sort(similarPeople, new PersonByFirstNameComparator());
-            Collections.sort(similarProviders, new PersonByFirstNameComparator());
+            List<Person> similarPeople = similar.getPeople();
+            List<Person> similarProviders = similar.getProviders();
 
             // add the lists, as well as the original name, to the page model
             // (note that we have to convert similarProviders to a simple object so that we can pick up the associated provider attributes; similarPersons is fine as-is)
@@ -0,0 +1,77 @@
+/*
+ * The contents of this file are subject to the OpenMRS Public License
+ * Version 1.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ * http://license.openmrs.org
+ *
+ * Software distributed under the License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or implied. See the
+ * License for the specific language governing rights and limitations
+ * under the License.
+ *
+ * Copyright (C) OpenMRS, LLC.  All Rights Reserved.
+ */
+package org.openmrs.module.providermanagement;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmrs.Person;
+import org.openmrs.RelationshipType;
+import org.openmrs.api.context.Context;
+import org.openmrs.module.providermanagement.api.ProviderManagementService;
+import org.openmrs.module.providermanagement.fragment.controller.ProviderDashboardFragmentController;
+import org.openmrs.test.BaseModuleContextSensitiveTest;
+import org.openmrs.ui.framework.SimpleObject;
+import org.openmrs.ui.framework.UiUtils;
+import org.openmrs.ui.framework.fragment.FragmentActionUiUtils;
+
+import java.util.Date;
+import java.util.List;
+
+public class ProviderDashboardFragmentControllerTest extends BaseModuleContextSensitiveTest {
+
+    protected static final String XML_DATASET_PATH = "org/openmrs/module/providermanagement/include/";
+
+    protected static final String XML_DATASET = "providerManagement-dataset.xml";
+
+    private UiUtils ui;
+
+    private Person provider;
+
+    private RelationshipType relationshipType;
+
+    @Before
+    public void init() throws Exception {
+        this.ui = new FragmentActionUiUtils(null, null, null);
+        // execute the provider management test dataset
+        executeDataSet(XML_DATASET_PATH + XML_DATASET);
+
+        provider = Context.getProviderService().getProvider(1004).getPerson();
+        relationshipType = Context.getPersonService().getRelationshipType(1001);
+
+        Date date = ProviderManagementUtils.clearTimeComponent(new Date());
+        ProviderManagementService service = Context.getService(ProviderManagementService.class);
+        service.assignPatientToProvider(Context.getPatientService().getPatient(2), provider, relationshipType, date);
+        service.assignPatientToProvider(Context.getPatientService().getPatient(8), provider, relationshipType, date);
+    }
+
+    @Test
+    public void getPatients_shouldSortByNameIfSortOrderUnknown() throws Exception {
+        ProviderDashboardFragmentController controller = new ProviderDashboardFragmentController();
+
+        SimpleObject page = controller.getPatients(provider, relationshipType, false, "NOT_A_SORT_ORDER", true, 0, null, new String[] { "patient.patientId" }, ui);
+        Assert.assertEquals(2, ((List<?>) page.get("results")).size());
+        Assert.assertEquals(false, page.get("hasMore"));
+    }
+
+    @Test
+    public void getPatients_shouldLimitPageSize() throws Exception {
+        ProviderDashboardFragmentController controller = new ProviderDashboardFragmentController();
+
+        // a page number so large that the first result would overflow an int returns an empty page, rather than failing
+        SimpleObject page = controller.getPatients(provider, relationshipType, false, null, true, Integer.MAX_VALUE, Integer.MAX_VALUE, new String[] { "patient.patientId" }, ui);
+        Assert.assertEquals(0, ((List<?>) page.get("results")).size());
+        Assert.assertEquals(false, page.get("hasMore"));
+    }
+}
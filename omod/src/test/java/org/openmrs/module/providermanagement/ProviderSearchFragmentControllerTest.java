@@ -131,4 +131,19 @@ public class ProviderSearchFragmentControllerTest extends BaseModuleContextSensi
         Assert.assertEquals("Kapina", ((Map<String,Object>) results.get(0).get("personAddress")).get("cityVillage"));
     }
 
+    @Test
+    public void searchProviders_shouldReturnPageOfResultsWithCursorAndTotalCount() throws Exception {
+        ProviderSearchFragmentController controller = new ProviderSearchFragmentController();
+        String [] resultFields = new String[] {"personName.givenName"};
+
+        SimpleObject page = controller.searchProviders("2a", null, null, null, null, resultFields, 3, null, ui);
+        Assert.assertEquals(3, ((List<SimpleObject>) page.get("results")).size());
+        Assert.assertEquals(4, page.get("totalCount"));
+        Assert.assertNotNull(page.get("nextCursor"));
+
+        page = controller.searchProviders("2a", null, null, null, null, resultFields, 3, (String) page.get("nextCursor"), ui);
+        Assert.assertEquals(1, ((List<SimpleObject>) page.get("results")).size());
+        Assert.assertNull(page.get("nextCursor"));
+    }
+
 }